@@ -0,0 +1,24 @@
+package nablarch.common.exclusivecontrol.benchmark;
+
+import nablarch.common.exclusivecontrol.ExclusiveControlContext;
+
+/**
+ * ベンチマークで使用する排他制御コンテキスト。
+ */
+public class BenchmarkContext extends ExclusiveControlContext {
+
+    /**
+     * コンストラクタ。
+     * @param table 排他制御用テーブル
+     * @param rowIndex 行番号
+     */
+    public BenchmarkContext(BenchmarkTable table, int rowIndex) {
+        setTableName(table.getTableName());
+        setVersionColumnName("VERSION");
+        Enum<?>[] primaryKeys = table.getPrimaryKeys();
+        setPrimaryKeyColumnNames(primaryKeys);
+        for (int i = 0; i < primaryKeys.length; i++) {
+            appendCondition(primaryKeys[i], BenchmarkTable.keyValue(rowIndex, i));
+        }
+    }
+}
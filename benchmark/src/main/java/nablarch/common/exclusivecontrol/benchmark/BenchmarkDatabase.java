@@ -0,0 +1,130 @@
+package nablarch.common.exclusivecontrol.benchmark;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import nablarch.core.db.connection.BasicDbConnectionFactoryForDataSource;
+import nablarch.core.db.dialect.H2Dialect;
+import nablarch.core.db.statement.BasicSqlParameterParserFactory;
+import nablarch.core.db.statement.BasicStatementFactory;
+import nablarch.core.db.transaction.JdbcTransactionFactory;
+import nablarch.core.db.transaction.SimpleDbTransactionManager;
+
+import org.h2.jdbcx.JdbcDataSource;
+
+/**
+ * ベンチマークで使用するインメモリのH2データベース。
+ * <p/>
+ * 排他制御用テーブルを作成し、指定された行数のバージョン番号を登録する。
+ * トランザクションの制御はNablarchの{@link SimpleDbTransactionManager}で行う。
+ */
+public class BenchmarkDatabase {
+
+    /** 接続URL */
+    private static final String URL = "jdbc:h2:mem:exclusivecontrol;DB_CLOSE_DELAY=-1";
+
+    /** 1回のバッチ実行で登録する行数 */
+    private static final int INSERT_BATCH_SIZE = 1000;
+
+    /** データソース */
+    private final JdbcDataSource dataSource;
+
+    /** データベース接続ファクトリ */
+    private final BasicDbConnectionFactoryForDataSource connectionFactory;
+
+    /**
+     * コンストラクタ。
+     * @param table 排他制御用テーブル
+     * @param rowCount 登録する行数
+     */
+    public BenchmarkDatabase(BenchmarkTable table, int rowCount) {
+        dataSource = new JdbcDataSource();
+        dataSource.setURL(URL);
+        connectionFactory = new BasicDbConnectionFactoryForDataSource();
+        connectionFactory.setDataSource(dataSource);
+        connectionFactory.setDialect(new H2Dialect());
+        BasicStatementFactory statementFactory = new BasicStatementFactory();
+        statementFactory.setSqlParameterParserFactory(new BasicSqlParameterParserFactory());
+        connectionFactory.setStatementFactory(statementFactory);
+        try {
+            createTable(table, rowCount);
+        } catch (SQLException e) {
+            throw new IllegalStateException("failed to create benchmark table. table = [" + table.getTableName() + "]", e);
+        }
+    }
+
+    /**
+     * 排他制御用テーブルを作成し、バージョン番号を登録する。
+     * @param table 排他制御用テーブル
+     * @param rowCount 登録する行数
+     * @throws SQLException データベースアクセスに失敗した場合
+     */
+    private void createTable(BenchmarkTable table, int rowCount) throws SQLException {
+
+        Enum<?>[] primaryKeys = table.getPrimaryKeys();
+        StringBuilder columns = new StringBuilder();
+        StringBuilder keys = new StringBuilder();
+        StringBuilder values = new StringBuilder();
+        for (Enum<?> primaryKey : primaryKeys) {
+            columns.append(primaryKey.name()).append(" VARCHAR(6) NOT NULL, ");
+            keys.append(keys.length() == 0 ? "" : ", ").append(primaryKey.name());
+            values.append("?, ");
+        }
+
+        Connection connection = dataSource.getConnection();
+        try {
+            Statement statement = connection.createStatement();
+            statement.execute("DROP TABLE IF EXISTS " + table.getTableName());
+            statement.execute("CREATE TABLE " + table.getTableName() + " (" + columns
+                                      + "VERSION DECIMAL(10) NOT NULL, PRIMARY KEY (" + keys + "))");
+            statement.close();
+
+            PreparedStatement insert = connection.prepareStatement(
+                    "INSERT INTO " + table.getTableName() + " (" + keys + ", VERSION) VALUES (" + values + "1)");
+            for (int row = 0; row < rowCount; row++) {
+                for (int i = 0; i < primaryKeys.length; i++) {
+                    insert.setString(i + 1, BenchmarkTable.keyValue(row, i));
+                }
+                insert.addBatch();
+                if ((row + 1) % INSERT_BATCH_SIZE == 0) {
+                    insert.executeBatch();
+                }
+            }
+            insert.executeBatch();
+            insert.close();
+        } finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * トランザクションマネージャを作成する。
+     * <p/>
+     * トランザクションはスレッドごとに開始すること。
+     * @return トランザクションマネージャ
+     */
+    public SimpleDbTransactionManager createTransactionManager() {
+        SimpleDbTransactionManager transactionManager = new SimpleDbTransactionManager();
+        transactionManager.setConnectionFactory(connectionFactory);
+        transactionManager.setTransactionFactory(new JdbcTransactionFactory());
+        return transactionManager;
+    }
+
+    /**
+     * データベースを破棄する。
+     */
+    public void shutdown() {
+        try {
+            Connection connection = dataSource.getConnection();
+            try {
+                connection.createStatement().execute("SHUTDOWN");
+            } finally {
+                connection.close();
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException("failed to shutdown benchmark database.", e);
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package nablarch.common.exclusivecontrol.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * ベンチマークを実行するクラス。
+ * <p/>
+ * JMHのコマンドラインオプションに加えて、アロケーションレートを計測するために{@link GCProfiler}を常に有効にする。
+ * 例えば、4スレッドでバージョン番号のチェックのみを計測する場合は、下記のように実行する。
+ * <pre>
+ * java -jar target/benchmarks.jar ExclusiveControlManagerBenchmark.checkVersions -t 4
+ * </pre>
+ */
+public final class BenchmarkRunner {
+
+    /** 隠蔽コンストラクタ。 */
+    private BenchmarkRunner() {
+    }
+
+    /**
+     * ベンチマークを実行する。
+     * @param args JMHのコマンドラインオプション
+     * @throws CommandLineOptionException コマンドラインオプションが不正な場合
+     * @throws RunnerException ベンチマークの実行に失敗した場合
+     */
+    public static void main(String[] args) throws CommandLineOptionException, RunnerException {
+        new Runner(new OptionsBuilder()
+                           .parent(new CommandLineOptions(args))
+                           .addProfiler(GCProfiler.class)
+                           .build()).run();
+    }
+}
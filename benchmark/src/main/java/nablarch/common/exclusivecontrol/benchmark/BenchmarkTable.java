@@ -0,0 +1,87 @@
+package nablarch.common.exclusivecontrol.benchmark;
+
+/**
+ * ベンチマークで使用する排他制御用テーブル。
+ * <p/>
+ * 主キーのカラム数ごとにテーブルを用意する。
+ * 主キーが1つと3つのテーブルは、単体テストで使用しているテーブルと同じ構成とする。
+ */
+public enum BenchmarkTable {
+
+    /** 主キーが1つのテーブル */
+    COMP(CompPk.values(), "EXCLUSIVE_COMP_MST"),
+
+    /** 主キーが3つのテーブル */
+    USER(UserPk.values(), "EXCLUSIVE_USER_MST"),
+
+    /** 主キーが5つのテーブル */
+    BENCH(BenchPk.values(), "EXCLUSIVE_BENCH_MST");
+
+    /** 主キーが1つのテーブルの主キー */
+    public enum CompPk { COMP_ID }
+
+    /** 主キーが3つのテーブルの主キー */
+    public enum UserPk { USER_ID, PK2, PK3 }
+
+    /** 主キーが5つのテーブルの主キー */
+    public enum BenchPk { PK1, PK2, PK3, PK4, PK5 }
+
+    /** 主キー */
+    private final Enum<?>[] primaryKeys;
+
+    /** テーブル名 */
+    private final String tableName;
+
+    /**
+     * コンストラクタ。
+     * @param primaryKeys 主キー
+     * @param tableName テーブル名
+     */
+    BenchmarkTable(Enum<?>[] primaryKeys, String tableName) {
+        this.primaryKeys = primaryKeys;
+        this.tableName = tableName;
+    }
+
+    /**
+     * 主キーのカラム数に対応するテーブルを取得する。
+     * @param primaryKeyCount 主キーのカラム数
+     * @return テーブル
+     */
+    public static BenchmarkTable valueOf(int primaryKeyCount) {
+        for (BenchmarkTable table : values()) {
+            if (table.primaryKeys.length == primaryKeyCount) {
+                return table;
+            }
+        }
+        throw new IllegalArgumentException("unsupported primary key count. primaryKeyCount = [" + primaryKeyCount + "]");
+    }
+
+    /**
+     * 主キーを取得する。
+     * @return 主キー
+     */
+    public Enum<?>[] getPrimaryKeys() {
+        return primaryKeys.clone();
+    }
+
+    /**
+     * テーブル名を取得する。
+     * @return テーブル名
+     */
+    public String getTableName() {
+        return tableName;
+    }
+
+    /**
+     * 行番号に対応する主キーの値を取得する。
+     * <p/>
+     * 先頭の主キーは行番号、以降の主キーは主キーの位置から作成する。
+     * いずれも単体テストのテーブルに合わせて6文字とする。
+     * @param rowIndex 行番号
+     * @param keyIndex 主キーの位置
+     * @return 主キーの値
+     */
+    public static String keyValue(int rowIndex, int keyIndex) {
+        return keyIndex == 0 ? String.format("%06d", rowIndex) : String.format("pk%04d", keyIndex);
+    }
+}
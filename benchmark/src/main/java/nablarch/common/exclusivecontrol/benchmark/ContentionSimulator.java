@@ -0,0 +1,358 @@
+package nablarch.common.exclusivecontrol.benchmark;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import nablarch.common.exclusivecontrol.ExclusiveControlManager;
+import nablarch.common.exclusivecontrol.ExclusiveControlOperation;
+import nablarch.common.exclusivecontrol.InMemoryExclusiveControlMetrics;
+import nablarch.common.exclusivecontrol.OptimisticLockException;
+import nablarch.common.exclusivecontrol.Version;
+import nablarch.core.db.DbAccessException;
+import nablarch.core.db.transaction.SimpleDbTransactionManager;
+
+/**
+ * 楽観ロックの競合を再現し、スループットと楽観ロックエラーの発生率を計測するシミュレータ。
+ * <p/>
+ * インメモリのH2データベースに対して、複数のスレッドが下記の処理を繰り返す。
+ * <ol>
+ * <li>指定された分布に従って更新する行を選び、バージョン番号を取得してコミットする(画面の表示)</li>
+ * <li>思考時間だけ待機する(利用者の入力)</li>
+ * <li>取得したバージョン番号で{@link ExclusiveControlManager#updateVersionsWithCheck(List)}を実行してコミットする(登録)</li>
+ * </ol>
+ * 計測終了後に、コミットしたトランザクション数、楽観ロックエラーの発生率、デッドロックの件数、
+ * 登録処理のレイテンシを出力する。
+ * <p/>
+ * 引数は{@code --名前=値}の形式で指定する。
+ * <ul>
+ * <li>threads: スレッド数(デフォルトは4)</li>
+ * <li>keys: 行数(デフォルトは1000)</li>
+ * <li>listSize: 1回の登録で更新する行数(デフォルトは1)</li>
+ * <li>primaryKeyCount: 主キーのカラム数。1、3、5のいずれか(デフォルトは1)</li>
+ * <li>distribution: 行の選び方。uniformまたはzipf(デフォルトはzipf)</li>
+ * <li>zipfExponent: Zipf分布の指数(デフォルトは1.0)</li>
+ * <li>thinkMillis: 思考時間(ミリ秒)(デフォルトは0)</li>
+ * <li>warmUpSeconds: 計測前に実行する時間(秒)(デフォルトは5)</li>
+ * <li>durationSeconds: 計測する時間(秒)(デフォルトは30)</li>
+ * <li>manager: 計測対象。default、batch、multiRow、sortedのいずれか、
+ * または引数なしのコンストラクタを持つ{@link ExclusiveControlManager}の実装クラスの完全修飾名(デフォルトはdefault)</li>
+ * <li>seed: 乱数の種(デフォルトは0)</li>
+ * <li>virtualThreads: 仮想スレッドで実行するか否か。JDK 21以降が必要(デフォルトはfalse)</li>
+ * </ul>
+ * 仮想スレッドで実行する場合に{@code -Djdk.tracePinnedThreads=full}を指定すると、
+ * 仮想スレッドのピン留めを検出し、原因となったフレームごとの件数を出力する。
+ * 下記に実行例を示す。
+ * <pre>
+ * java -cp target/benchmarks.jar nablarch.common.exclusivecontrol.benchmark.ContentionSimulator --threads=8 --listSize=5 --manager=sorted
+ * </pre>
+ */
+public final class ContentionSimulator {
+
+    /** デッドロックを表すSQLState */
+    private static final String DEADLOCK_SQL_STATE = "40001";
+
+    /** 引数 */
+    private final Map<String, String> options;
+
+    /** スレッド数 */
+    private final int threads;
+
+    /** 1回の登録で更新する行数 */
+    private final int listSize;
+
+    /** 思考時間(ミリ秒) */
+    private final long thinkMillis;
+
+    /** 排他制御用テーブル */
+    private final BenchmarkTable table;
+
+    /** 行の番号の分布 */
+    private final KeyDistribution distribution;
+
+    /** 計測対象 */
+    private final ExclusiveControlManager manager;
+
+    /** 計測中か否か */
+    private volatile boolean measuring;
+
+    /** 実行中か否か */
+    private volatile boolean running = true;
+
+    /** コミットした登録処理の件数 */
+    private final AtomicLong commitCount = new AtomicLong();
+
+    /** 楽観ロックエラーの件数 */
+    private final AtomicLong conflictCount = new AtomicLong();
+
+    /** デッドロックの件数 */
+    private final AtomicLong deadlockCount = new AtomicLong();
+
+    /** デッドロック以外のデータベースアクセスエラーの件数 */
+    private final AtomicLong errorCount = new AtomicLong();
+
+    /** 仮想スレッドで実行するか否か */
+    private final boolean virtualThreads;
+
+    /** 登録処理のレイテンシ */
+    private final InMemoryExclusiveControlMetrics latency = new InMemoryExclusiveControlMetrics();
+
+    /**
+     * コンストラクタ。
+     * @param options 引数
+     */
+    ContentionSimulator(Map<String, String> options) {
+        this.options = options;
+        threads = getInt("threads", 4);
+        listSize = getInt("listSize", 1);
+        thinkMillis = getInt("thinkMillis", 0);
+        table = BenchmarkTable.valueOf(getInt("primaryKeyCount", 1));
+        distribution = KeyDistribution.create(get("distribution", "zipf"), getInt("keys", 1000),
+                                              Double.parseDouble(get("zipfExponent", "1.0")));
+        manager = createManager(get("manager", "default"));
+        virtualThreads = Boolean.parseBoolean(get("virtualThreads", "false"));
+    }
+
+    /**
+     * シミュレーションを実行する。
+     * @param args 引数({@code --名前=値}形式)
+     * @throws InterruptedException 割り込まれた場合
+     */
+    public static void main(String[] args) throws InterruptedException {
+        Map<String, String> options = new HashMap<String, String>();
+        for (String arg : args) {
+            int index = arg.indexOf('=');
+            if (!arg.startsWith("--") || index < 0) {
+                throw new IllegalArgumentException("argument must be --name=value format. argument = [" + arg + "]");
+            }
+            options.put(arg.substring(2, index), arg.substring(index + 1));
+        }
+        new ContentionSimulator(options).run();
+    }
+
+    /**
+     * シミュレーションを実行し、結果を出力する。
+     * @throws InterruptedException 割り込まれた場合
+     */
+    void run() throws InterruptedException {
+
+        int keyCount = getInt("keys", 1000);
+        BenchmarkDatabase database = new BenchmarkDatabase(table, keyCount);
+        long seed = Long.parseLong(get("seed", "0"));
+        CountDownLatch finished = new CountDownLatch(threads);
+        List<Thread> workers = new ArrayList<Thread>(threads);
+        for (int i = 0; i < threads; i++) {
+            workers.add(newThread(new Worker(database.createTransactionManager(), new Random(seed + i), finished)));
+        }
+
+        System.out.printf("manager = %s, threads = %d (%s), keys = %d, listSize = %d, primaryKeyCount = %d, distribution = %s, thinkMillis = %d%n",
+                          get("manager", "default"), threads, virtualThreads ? "virtual" : "platform", keyCount, listSize,
+                          table.getPrimaryKeys().length, distribution, thinkMillis);
+        PinnedThreadDetector detector = virtualThreads && PinnedThreadDetector.isTracing() ? PinnedThreadDetector.install() : null;
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        TimeUnit.SECONDS.sleep(getInt("warmUpSeconds", 5));
+        measuring = true;
+        long start = System.nanoTime();
+        TimeUnit.SECONDS.sleep(getInt("durationSeconds", 30));
+        measuring = false;
+        double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+        running = false;
+        finished.await();
+        database.shutdown();
+        if (detector != null) {
+            detector.uninstall();
+        }
+
+        report(elapsedSeconds);
+        if (detector != null) {
+            reportPinning(detector);
+        }
+    }
+
+    /**
+     * スレッドを作成する。
+     * <p/>
+     * 仮想スレッドはJDK 21以降でのみ作成できるため、リフレクションで作成する。
+     * @param task スレッドで実行する処理
+     * @return スレッド
+     */
+    private Thread newThread(Runnable task) {
+        if (!virtualThreads) {
+            return new Thread(task);
+        }
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Method unstarted = Class.forName("java.lang.Thread$Builder").getMethod("unstarted", Runnable.class);
+            return (Thread) unstarted.invoke(builder, task);
+        } catch (Exception e) {
+            throw new IllegalStateException("virtual threads require JDK 21 or later.", e);
+        }
+    }
+
+    /**
+     * 結果を出力する。
+     * @param elapsedSeconds 計測した時間(秒)
+     */
+    private void report(double elapsedSeconds) {
+        long commits = commitCount.get();
+        long conflicts = conflictCount.get();
+        long deadlocks = deadlockCount.get();
+        long errors = errorCount.get();
+        long attempts = commits + conflicts + deadlocks + errors;
+        InMemoryExclusiveControlMetrics.Statistics statistics
+                = latency.getStatistics(table.getTableName(), ExclusiveControlOperation.UPDATE_VERSIONS_WITH_CHECK);
+
+        System.out.printf("elapsed          : %.1f s%n", elapsedSeconds);
+        System.out.printf("committed        : %d (%.1f tx/s)%n", commits, commits / elapsedSeconds);
+        System.out.printf("conflicts        : %d (%.2f %% of attempts)%n", conflicts, attempts == 0 ? 0.0 : conflicts * 100.0 / attempts);
+        System.out.printf("deadlocks        : %d%n", deadlocks);
+        System.out.printf("other db errors  : %d%n", errors);
+        // パーセンタイル値は2のべき乗のバケットの上限値
+        System.out.printf("latency p50      : <= %.3f ms%n", statistics.getElapsedNanosPercentile(50) / 1e6);
+        System.out.printf("latency p99      : <= %.3f ms%n", statistics.getElapsedNanosPercentile(99) / 1e6);
+        System.out.printf("latency p99.9    : <= %.3f ms%n", statistics.getElapsedNanosPercentile(99.9) / 1e6);
+        System.out.printf("latency max      : %.3f ms%n", statistics.getMaxElapsedNanos() / 1e6);
+    }
+
+    /**
+     * 仮想スレッドのピン留めの検出結果を出力する。
+     * @param detector 検出器
+     */
+    private static void reportPinning(PinnedThreadDetector detector) {
+        System.out.printf("pinned frames    : %d%n", detector.getPinnedCount());
+        for (Map.Entry<String, Long> entry : detector.getPinnedFrames().entrySet()) {
+            System.out.printf("  %6d  %s%n", entry.getValue(), entry.getKey());
+        }
+    }
+
+    /**
+     * 計測対象を作成する。
+     * @param name 設定の名前、または{@link ExclusiveControlManager}の実装クラスの完全修飾名
+     * @return 計測対象
+     */
+    private static ExclusiveControlManager createManager(String name) {
+        if (name.indexOf('.') < 0) {
+            return ExclusiveControlManagerBenchmark.createManager(name);
+        }
+        try {
+            return (ExclusiveControlManager) Class.forName(name).newInstance();
+        } catch (Exception e) {
+            throw new IllegalArgumentException("failed to instantiate ExclusiveControlManager. class name = [" + name + "]", e);
+        }
+    }
+
+    /**
+     * 引数を取得する。
+     * @param name 名前
+     * @param defaultValue 指定されていない場合の値
+     * @return 値
+     */
+    private String get(String name, String defaultValue) {
+        String value = options.get(name);
+        return value != null ? value : defaultValue;
+    }
+
+    /**
+     * 整数の引数を取得する。
+     * @param name 名前
+     * @param defaultValue 指定されていない場合の値
+     * @return 値
+     */
+    private int getInt(String name, int defaultValue) {
+        return Integer.parseInt(get(name, String.valueOf(defaultValue)));
+    }
+
+    /**
+     * 表示と登録を繰り返すスレッド。
+     */
+    private final class Worker implements Runnable {
+
+        /** トランザクションマネージャ */
+        private final SimpleDbTransactionManager transactionManager;
+
+        /** 乱数生成器 */
+        private final Random random;
+
+        /** 終了を通知するラッチ */
+        private final CountDownLatch finished;
+
+        /**
+         * コンストラクタ。
+         * @param transactionManager トランザクションマネージャ
+         * @param random 乱数生成器
+         * @param finished 終了を通知するラッチ
+         */
+        Worker(SimpleDbTransactionManager transactionManager, Random random, CountDownLatch finished) {
+            this.transactionManager = transactionManager;
+            this.random = random;
+            this.finished = finished;
+        }
+
+        /** {@inheritDoc} */
+        public void run() {
+            transactionManager.beginTransaction();
+            try {
+                while (running) {
+                    List<Version> versions = read();
+                    if (thinkMillis > 0) {
+                        Thread.sleep(thinkMillis);
+                    }
+                    update(versions);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                transactionManager.endTransaction();
+                finished.countDown();
+            }
+        }
+
+        /**
+         * 更新する行を選び、バージョン番号を取得する。
+         * @return バージョン番号
+         */
+        private List<Version> read() {
+            List<Version> versions = new ArrayList<Version>(listSize);
+            for (int key : distribution.nextDistinct(random, listSize)) {
+                versions.add(manager.getVersion(new BenchmarkContext(table, key)));
+            }
+            transactionManager.commitTransaction();
+            return versions;
+        }
+
+        /**
+         * 取得したバージョン番号で更新し、結果を記録する。
+         * @param versions バージョン番号
+         */
+        private void update(List<Version> versions) {
+            long start = System.nanoTime();
+            try {
+                manager.updateVersionsWithCheck(versions);
+                transactionManager.commitTransaction();
+                if (measuring) {
+                    commitCount.incrementAndGet();
+                    latency.record(table.getTableName(), ExclusiveControlOperation.UPDATE_VERSIONS_WITH_CHECK,
+                                   System.nanoTime() - start, versions.size(), 0);
+                }
+            } catch (OptimisticLockException e) {
+                transactionManager.rollbackTransaction();
+                if (measuring) {
+                    conflictCount.incrementAndGet();
+                }
+            } catch (DbAccessException e) {
+                transactionManager.rollbackTransaction();
+                if (measuring) {
+                    (DEADLOCK_SQL_STATE.equals(e.getSQLState()) ? deadlockCount : errorCount).incrementAndGet();
+                }
+            }
+        }
+    }
+}
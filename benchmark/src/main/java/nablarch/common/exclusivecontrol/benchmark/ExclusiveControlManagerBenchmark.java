@@ -0,0 +1,224 @@
+package nablarch.common.exclusivecontrol.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import nablarch.common.exclusivecontrol.BasicExclusiveControlManager;
+import nablarch.common.exclusivecontrol.ExclusiveControlContext;
+import nablarch.common.exclusivecontrol.Version;
+import nablarch.core.db.transaction.SimpleDbTransactionManager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * {@link BasicExclusiveControlManager}のベンチマーク。
+ * <p/>
+ * インメモリのH2データベースに対して、バージョン番号の取得、チェック、更新を計測する。
+ * 1回の操作で扱うバージョン番号の件数、主キーのカラム数、{@link BasicExclusiveControlManager}の設定を
+ * パラメータとして変えて計測する。
+ * <p/>
+ * 複数スレッドで実行した場合も行ロックの競合が発生しないよう、スレッドごとに異なる行を使用する。
+ * 同時に実行できるスレッド数は{@link #THREAD_SLOTS}まで。
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ExclusiveControlManagerBenchmark {
+
+    /** スレッドごとに行を割り当てる際の最大スレッド数 */
+    static final int THREAD_SLOTS = 16;
+
+    /** 1回の操作で扱うバージョン番号の件数 */
+    @Param({"1", "10", "100", "1000", "10000"})
+    public int listSize;
+
+    /** 主キーのカラム数 */
+    @Param({"1", "3", "5"})
+    public int primaryKeyCount;
+
+    /**
+     * {@link BasicExclusiveControlManager}の設定。
+     * <ul>
+     * <li>default: デフォルトの設定</li>
+     * <li>batch: バッチサイズを100とした設定</li>
+     * <li>multiRow: 複数行の一括チェックを有効とした設定</li>
+     * <li>namedParameter: 名前付きバインド変数で1件ずつ操作する変更前の方式({@link NamedParameterExclusiveControlManager})</li>
+     * </ul>
+     */
+    @Param({"default", "batch", "multiRow", "namedParameter"})
+    public String managerConfig;
+
+    /** データベース */
+    private BenchmarkDatabase database;
+
+    /** 計測対象 */
+    private BasicExclusiveControlManager manager;
+
+    /** 排他制御用テーブル */
+    private BenchmarkTable table;
+
+    /** スレッドに割り当てた行の番号 */
+    private final AtomicInteger slots = new AtomicInteger();
+
+    /**
+     * データベースと計測対象を準備する。
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        table = BenchmarkTable.valueOf(primaryKeyCount);
+        database = new BenchmarkDatabase(table, listSize * THREAD_SLOTS);
+        manager = createManager(managerConfig);
+    }
+
+    /**
+     * データベースを破棄する。
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        database.shutdown();
+    }
+
+    /**
+     * 設定に応じた{@link BasicExclusiveControlManager}を作成する。
+     * @param config 設定
+     * @return {@link BasicExclusiveControlManager}
+     */
+    static BasicExclusiveControlManager createManager(String config) {
+        if ("namedParameter".equals(config)) {
+            return new NamedParameterExclusiveControlManager();
+        }
+        BasicExclusiveControlManager manager = new BasicExclusiveControlManager();
+        if ("batch".equals(config)) {
+            manager.setBatchSize(100);
+        } else if ("multiRow".equals(config)) {
+            manager.setMultiRowCheckEnabled(true);
+        } else if ("sorted".equals(config)) {
+            manager.setSortedUpdateEnabled(true);
+        } else if (!"default".equals(config)) {
+            throw new IllegalArgumentException("unknown manager config. config = [" + config + "]");
+        }
+        return manager;
+    }
+
+    /**
+     * スレッドごとの状態。
+     * <p/>
+     * スレッドごとにトランザクションを開始し、割り当てた行の排他制御コンテキストとバージョン番号を保持する。
+     */
+    @State(Scope.Thread)
+    public static class ThreadState {
+
+        /** トランザクションマネージャ */
+        SimpleDbTransactionManager transactionManager;
+
+        /** 排他制御コンテキスト */
+        List<ExclusiveControlContext> contexts;
+
+        /** バージョン番号 */
+        List<Version> versions;
+
+        /**
+         * トランザクションを開始し、排他制御コンテキストとバージョン番号を準備する。
+         * @param benchmark ベンチマークの状態
+         */
+        @Setup(Level.Trial)
+        public void setUp(ExclusiveControlManagerBenchmark benchmark) {
+            int slot = benchmark.slots.getAndIncrement();
+            if (slot >= THREAD_SLOTS) {
+                throw new IllegalStateException("too many threads. max threads = [" + THREAD_SLOTS + "]");
+            }
+            contexts = new ArrayList<ExclusiveControlContext>(benchmark.listSize);
+            for (int i = 0; i < benchmark.listSize; i++) {
+                contexts.add(new BenchmarkContext(benchmark.table, slot * benchmark.listSize + i));
+            }
+            transactionManager = benchmark.database.createTransactionManager();
+            transactionManager.beginTransaction();
+            versions = benchmark.manager.getVersions(contexts);
+        }
+
+        /**
+         * トランザクションを終了する。
+         */
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            transactionManager.rollbackTransaction();
+            transactionManager.endTransaction();
+        }
+    }
+
+    /**
+     * バージョン番号を更新するスレッドの状態。
+     * <p/>
+     * 操作ごとにロールバックし、保持しているバージョン番号が常に最新となるようにする。
+     * ロールバックの時間は計測に含まれない。
+     */
+    @State(Scope.Thread)
+    public static class UpdateThreadState extends ThreadState {
+
+        /**
+         * 更新をロールバックする。
+         */
+        @TearDown(Level.Invocation)
+        public void rollback() {
+            transactionManager.rollbackTransaction();
+        }
+    }
+
+    /**
+     * バージョン番号を1件ずつ取得する。
+     * @param state スレッドごとの状態
+     * @param blackhole 結果の破棄先
+     */
+    @Benchmark
+    public void getVersion(ThreadState state, Blackhole blackhole) {
+        for (ExclusiveControlContext context : state.contexts) {
+            blackhole.consume(manager.getVersion(context));
+        }
+    }
+
+    /**
+     * バージョン番号をまとめて取得する。
+     * @param state スレッドごとの状態
+     * @return バージョン番号
+     */
+    @Benchmark
+    public List<Version> getVersions(ThreadState state) {
+        return manager.getVersions(state.contexts);
+    }
+
+    /**
+     * バージョン番号をチェックする。
+     * @param state スレッドごとの状態
+     */
+    @Benchmark
+    public void checkVersions(ThreadState state) {
+        manager.checkVersions(state.versions);
+    }
+
+    /**
+     * バージョン番号の更新チェックを伴う更新を行う。
+     * @param state スレッドごとの状態
+     */
+    @Benchmark
+    public void updateVersionsWithCheck(UpdateThreadState state) {
+        manager.updateVersionsWithCheck(state.versions);
+    }
+}
@@ -0,0 +1,145 @@
+package nablarch.common.exclusivecontrol.benchmark;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * シミュレーションで更新する行の番号の分布。
+ */
+public abstract class KeyDistribution {
+
+    /** 行数 */
+    protected final int keyCount;
+
+    /**
+     * コンストラクタ。
+     * @param keyCount 行数
+     */
+    protected KeyDistribution(int keyCount) {
+        if (keyCount <= 0) {
+            throw new IllegalArgumentException("key count must be greater than 0. keyCount = [" + keyCount + "]");
+        }
+        this.keyCount = keyCount;
+    }
+
+    /**
+     * 行の番号を1つ選ぶ。
+     * @param random 乱数生成器
+     * @return 行の番号(0以上、行数未満)
+     */
+    public abstract int next(Random random);
+
+    /**
+     * 重複しない行の番号を指定された件数選ぶ。
+     * @param random 乱数生成器
+     * @param count 件数
+     * @return 行の番号
+     */
+    public int[] nextDistinct(Random random, int count) {
+        if (count > keyCount) {
+            throw new IllegalArgumentException(
+                    "count must be less than or equal to key count. count = [" + count + "], keyCount = [" + keyCount + "]");
+        }
+        int[] keys = new int[count];
+        int size = 0;
+        while (size < count) {
+            int key = next(random);
+            boolean duplicated = false;
+            for (int i = 0; i < size; i++) {
+                if (keys[i] == key) {
+                    duplicated = true;
+                    break;
+                }
+            }
+            if (!duplicated) {
+                keys[size++] = key;
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * 分布を作成する。
+     * @param name 分布の名前(uniformまたはzipf)
+     * @param keyCount 行数
+     * @param zipfExponent Zipf分布の指数
+     * @return 分布
+     */
+    public static KeyDistribution create(String name, int keyCount, double zipfExponent) {
+        if ("uniform".equals(name)) {
+            return new Uniform(keyCount);
+        }
+        if ("zipf".equals(name)) {
+            return new Zipf(keyCount, zipfExponent);
+        }
+        throw new IllegalArgumentException("unknown distribution. distribution = [" + name + "]");
+    }
+
+    /**
+     * 一様分布。
+     */
+    static final class Uniform extends KeyDistribution {
+
+        /**
+         * コンストラクタ。
+         * @param keyCount 行数
+         */
+        Uniform(int keyCount) {
+            super(keyCount);
+        }
+
+        @Override
+        public int next(Random random) {
+            return random.nextInt(keyCount);
+        }
+
+        @Override
+        public String toString() {
+            return "uniform";
+        }
+    }
+
+    /**
+     * Zipf分布。
+     * <p/>
+     * 番号の小さい行ほど選ばれやすい。k番目(1始まり)の行が選ばれる確率は1/k<sup>s</sup>に比例する。
+     */
+    static final class Zipf extends KeyDistribution {
+
+        /** 指数 */
+        private final double exponent;
+
+        /** 累積分布 */
+        private final double[] cumulative;
+
+        /**
+         * コンストラクタ。
+         * @param keyCount 行数
+         * @param exponent 指数
+         */
+        Zipf(int keyCount, double exponent) {
+            super(keyCount);
+            this.exponent = exponent;
+            cumulative = new double[keyCount];
+            double sum = 0;
+            for (int i = 0; i < keyCount; i++) {
+                sum += 1 / Math.pow(i + 1, exponent);
+                cumulative[i] = sum;
+            }
+            for (int i = 0; i < keyCount; i++) {
+                cumulative[i] /= sum;
+            }
+        }
+
+        @Override
+        public int next(Random random) {
+            int index = Arrays.binarySearch(cumulative, random.nextDouble());
+            return Math.min(index >= 0 ? index : -index - 1, keyCount - 1);
+        }
+
+        @Override
+        public String toString() {
+            return "zipf(s=" + exponent + ")";
+        }
+    }
+}
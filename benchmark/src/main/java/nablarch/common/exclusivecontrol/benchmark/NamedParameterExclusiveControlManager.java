@@ -0,0 +1,101 @@
+package nablarch.common.exclusivecontrol.benchmark;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import nablarch.common.exclusivecontrol.BasicExclusiveControlManager;
+import nablarch.common.exclusivecontrol.ExclusiveControlContext;
+import nablarch.common.exclusivecontrol.ExclusiveControlTable;
+import nablarch.common.exclusivecontrol.ExclusiveControlUtil;
+import nablarch.common.exclusivecontrol.OptimisticLockException;
+import nablarch.common.exclusivecontrol.Version;
+import nablarch.core.db.connection.AppDbConnection;
+import nablarch.core.db.connection.DbConnectionContext;
+import nablarch.core.db.statement.ParameterizedSqlPStatement;
+import nablarch.core.db.statement.SqlResultSet;
+
+/**
+ * 位置指定のバインド変数に変換する前の方式でバージョン番号を操作する{@link BasicExclusiveControlManager}。
+ * <p/>
+ * 位置指定のバインド変数による方式と比較するための基準として、ベンチマークでのみ使用する。
+ * {@link #getVersion(ExclusiveControlContext)}、{@link #checkVersions(List)}、{@link #updateVersionsWithCheck(List)}では、
+ * 1件ごとに主キーの条件をコピーした{@link Map}にバージョン番号を追加し、
+ * {@link AppDbConnection#prepareParameterizedSqlStatement(String, Object)}で名前付きバインド変数を使用したSQL文を実行する。
+ * 上記以外の操作は{@link BasicExclusiveControlManager}と同じ。
+ */
+public class NamedParameterExclusiveControlManager extends BasicExclusiveControlManager {
+
+    @Override
+    public Version getVersion(ExclusiveControlContext context) {
+
+        ExclusiveControlTable exclusiveControlTableHolder = getExclusiveControlTableHolder(context);
+        String sql = exclusiveControlTableHolder.getSelectSql();
+        Map<String, Object> condition = context.getCondition();
+
+        AppDbConnection conn = DbConnectionContext.getConnection(exclusiveControlTableHolder.getConnectionName());
+        ParameterizedSqlPStatement stmt = conn.prepareParameterizedSqlStatement(sql, condition);
+        SqlResultSet resultSet = stmt.retrieve(condition);
+
+        if (resultSet.isEmpty()) {
+            return null;
+        }
+        return new Version(context, resultSet.get(0).getString(context.getVersionColumnName()));
+    }
+
+    @Override
+    public void checkVersions(List<Version> versions) {
+
+        List<Version> errorVersions = new ArrayList<Version>();
+        for (Version version : versions) {
+            ExclusiveControlTable exclusiveControlTableHolder = getExclusiveControlTableHolder(version);
+            String sql = exclusiveControlTableHolder.getSelectAndCheckSql();
+            Map<String, Object> condition = createCondition(exclusiveControlTableHolder, version);
+
+            AppDbConnection conn = DbConnectionContext.getConnection(exclusiveControlTableHolder.getConnectionName());
+            ParameterizedSqlPStatement stmt = conn.prepareParameterizedSqlStatement(sql, condition);
+            if (stmt.retrieve(condition).isEmpty()) {
+                errorVersions.add(version);
+            }
+        }
+
+        if (!errorVersions.isEmpty()) {
+            throw new OptimisticLockException(errorVersions, getOptimisticLockErrorMessage());
+        }
+    }
+
+    @Override
+    public void updateVersionsWithCheck(List<Version> versions) {
+
+        List<Version> errorVersions = new ArrayList<Version>();
+        for (Version version : versions) {
+            ExclusiveControlTable exclusiveControlTableHolder = getExclusiveControlTableHolder(version);
+            String sql = exclusiveControlTableHolder.getUpdateAndCheckSql();
+            Map<String, Object> data = createCondition(exclusiveControlTableHolder, version);
+
+            AppDbConnection conn = DbConnectionContext.getConnection(exclusiveControlTableHolder.getConnectionName());
+            ParameterizedSqlPStatement stmt = conn.prepareParameterizedSqlStatement(sql, data);
+            if (stmt.executeUpdateByMap(data) == 0) {
+                errorVersions.add(version);
+            }
+        }
+
+        if (!errorVersions.isEmpty()) {
+            throw new OptimisticLockException(errorVersions, getOptimisticLockErrorMessage());
+        }
+    }
+
+    /**
+     * 主キーの条件をコピーし、バージョン番号を追加した条件を作成する。
+     * @param exclusiveControlTableHolder 排他制御テーブルの情報
+     * @param version バージョン番号
+     * @return 主キーの条件とバージョン番号
+     */
+    private static Map<String, Object> createCondition(ExclusiveControlTable exclusiveControlTableHolder, Version version) {
+        Map<String, Object> condition = new HashMap<String, Object>(version.getPrimaryKeyCondition());
+        condition.put(ExclusiveControlUtil.convertToVariableName(exclusiveControlTableHolder.getVersionColumnName()),
+                      Long.valueOf(version.getVersion()));
+        return condition;
+    }
+}
@@ -0,0 +1,132 @@
+package nablarch.common.exclusivecontrol.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 仮想スレッドのピン留め(キャリアスレッドの固定)を検出するクラス。
+ * <p/>
+ * JDK 21から23では、{@code -Djdk.tracePinnedThreads=full}を指定して起動すると、
+ * 仮想スレッドがモニタを保持したままブロックした際に、スタックトレースが標準出力に出力される。
+ * スタックトレースのうちモニタを保持しているフレームには{@code <== monitors:}が付与されるため、
+ * 本クラスは標準出力を置き換えてその行を数え、ピン留めの原因となったフレームごとに集計する。
+ * 標準出力の内容はそのまま元の出力先に出力する。
+ */
+final class PinnedThreadDetector extends OutputStream {
+
+    /** モニタを保持しているフレームに付与される文字列 */
+    private static final String MONITOR_MARKER = "<== monitors:";
+
+    /** 元の出力先 */
+    private final PrintStream out;
+
+    /** 出力中の行 */
+    private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+    /** フレームごとの検出件数 */
+    private final ConcurrentMap<String, AtomicLong> frames = new ConcurrentHashMap<String, AtomicLong>();
+
+    /**
+     * コンストラクタ。
+     * @param out 元の出力先
+     */
+    private PinnedThreadDetector(PrintStream out) {
+        this.out = out;
+    }
+
+    /**
+     * 標準出力を置き換え、検出を開始する。
+     * @return 検出器
+     */
+    static PinnedThreadDetector install() {
+        PinnedThreadDetector detector = new PinnedThreadDetector(System.out);
+        System.setOut(new PrintStream(detector, true));
+        return detector;
+    }
+
+    /**
+     * 標準出力を元に戻し、検出を終了する。
+     */
+    void uninstall() {
+        System.out.flush();
+        System.setOut(out);
+    }
+
+    /**
+     * {@code jdk.tracePinnedThreads}が指定されているか否か。
+     * @return 指定されている場合は{@code true}
+     */
+    static boolean isTracing() {
+        return System.getProperty("jdk.tracePinnedThreads") != null;
+    }
+
+    /**
+     * ピン留めの原因となったフレームごとの検出件数を取得する。
+     * @return フレームごとの検出件数
+     */
+    Map<String, Long> getPinnedFrames() {
+        Map<String, Long> result = new TreeMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> entry : frames.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().get());
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * 検出件数の合計を取得する。
+     * @return 検出件数の合計
+     */
+    long getPinnedCount() {
+        long count = 0;
+        for (AtomicLong value : frames.values()) {
+            count += value.get();
+        }
+        return count;
+    }
+
+    // 書き込みはPrintStreamのロックを取得した状態で呼び出されるため、排他制御は不要
+    @Override
+    public void write(int b) throws IOException {
+        out.write(b);
+        if (b == '\n') {
+            inspect(line.toString());
+            line.reset();
+        } else {
+            line.write(b);
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * 行を検査し、モニタを保持しているフレームであれば記録する。
+     * @param text 行
+     */
+    private void inspect(String text) {
+        int index = text.indexOf(MONITOR_MARKER);
+        if (index < 0) {
+            return;
+        }
+        String frame = text.substring(0, index).trim();
+        AtomicLong count = frames.get(frame);
+        if (count == null) {
+            AtomicLong created = new AtomicLong();
+            count = frames.putIfAbsent(frame, created);
+            if (count == null) {
+                count = created;
+            }
+        }
+        count.incrementAndGet();
+    }
+}
@@ -0,0 +1,274 @@
+package nablarch.common.exclusivecontrol;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import nablarch.core.db.connection.AppDbConnection;
+import nablarch.core.db.transaction.SimpleDbTransactionExecutor;
+import nablarch.core.db.transaction.SimpleDbTransactionManager;
+import nablarch.core.transaction.TransactionContext;
+
+/**
+ * {@link ExclusiveControlManager}の参照系の操作を非同期に実行するクラス。
+ * <p/>
+ * 複数のテーブルのバージョン番号を、参照用のデータベース接続で同時に取得・チェックする場合に使用する。
+ * 各操作は{@link ExecutorService}のスレッドで実行し、結果を{@link Future}で返す。
+ * 実行スレッドでは、{@link #setTransactionManager(SimpleDbTransactionManager)}で設定された
+ * トランザクションマネージャを使用して操作ごとに個別のトランザクションを開始し、
+ * {@link nablarch.core.db.connection.DbConnectionContext}にデータベース接続を設定した上で操作を実行する。
+ * このため、複数の操作を同時に実行した場合も、それぞれ異なるデータベース接続で実行される。
+ * <p/>
+ * 操作は呼び出し元とは別のトランザクションで実行し、正常に終了した場合はコミット、例外が発生した場合はロールバックする。
+ * 呼び出し元のトランザクションで取得したバージョン番号のキャッシュや、遅延している更新は参照されない。
+ * 処理を委譲する{@link ExclusiveControlManager}が{@link BasicExclusiveControlManager}の場合、
+ * 操作ごとのトランザクションはコミットの通知を行わないため、トランザクションの終了後にバージョン番号のキャッシュを破棄する。
+ * <p/>
+ * バージョン番号の更新は、業務データの更新と同じトランザクションでコミットしなければ楽観ロックが保証されないため、
+ * 本クラスでは提供しない。呼び出し元のスレッドで{@link ExclusiveControlManager#updateVersionsWithCheck(List)}を使用すること。
+ * 操作中に発生した例外({@link OptimisticLockException}など)は、{@link Future#get()}が送出する
+ * {@link java.util.concurrent.ExecutionException}の原因として取得できる。
+ * <p/>
+ * 実行に使用する{@link ExecutorService}のデフォルトは、仮想スレッドが使用できる場合(JDK 21以降)は
+ * タスクごとに仮想スレッドを作成するもの、使用できない場合はデーモンスレッドを必要に応じて作成するものとなる。
+ * デフォルトの{@link ExecutorService}は最初の操作の実行時に作成し、{@link #shutdown()}で終了する。
+ * <p/>
+ * 下記に設定例を示す。
+ * <pre>
+ * &lt;component name="asyncExclusiveControlManager" class="nablarch.common.exclusivecontrol.AsyncExclusiveControlManager"&gt;
+ *   &lt;property name="exclusiveControlManager" ref="exclusiveControlManager" /&gt;
+ *   &lt;property name="transactionManager"&gt;
+ *     &lt;component class="nablarch.core.db.transaction.SimpleDbTransactionManager"&gt;
+ *       &lt;property name="connectionFactory" ref="readConnectionFactory" /&gt;
+ *       &lt;property name="transactionFactory" ref="jdbcTransactionFactory" /&gt;
+ *     &lt;/component&gt;
+ *   &lt;/property&gt;
+ * &lt;/component&gt;
+ * </pre>
+ */
+public class AsyncExclusiveControlManager {
+
+    /** 処理を委譲する{@link ExclusiveControlManager} */
+    private ExclusiveControlManager exclusiveControlManager;
+
+    /** 操作ごとのトランザクションを制御するトランザクションマネージャ */
+    private SimpleDbTransactionManager transactionManager;
+
+    /** 操作を実行する{@link ExecutorService}(設定されていない場合はデフォルトを使用する) */
+    private ExecutorService executorService;
+
+    /** デフォルトの{@link ExecutorService}(最初の操作の実行時に作成する) */
+    private final AtomicReference<ExecutorService> defaultExecutorService = new AtomicReference<ExecutorService>();
+
+    /**
+     * 処理を委譲する{@link ExclusiveControlManager}を設定する。
+     * @param exclusiveControlManager 処理を委譲する{@link ExclusiveControlManager}
+     */
+    public void setExclusiveControlManager(ExclusiveControlManager exclusiveControlManager) {
+        this.exclusiveControlManager = exclusiveControlManager;
+    }
+
+    /**
+     * 操作ごとのトランザクションを制御するトランザクションマネージャを設定する。
+     * <p/>
+     * {@link ExclusiveControlManager}はデフォルトのデータベース接続を使用するため、
+     * トランザクション名はデフォルト({@link TransactionContext#DEFAULT_TRANSACTION_CONTEXT_KEY})とすること。
+     * 実行スレッドは呼び出し元のスレッドとは異なるため、呼び出し元のデフォルトのデータベース接続とは競合しない。
+     * @param transactionManager トランザクションマネージャ
+     * @throws IllegalArgumentException トランザクション名がデフォルトでない場合
+     */
+    public void setTransactionManager(SimpleDbTransactionManager transactionManager) {
+        if (!TransactionContext.DEFAULT_TRANSACTION_CONTEXT_KEY.equals(transactionManager.getDbTransactionName())) {
+            throw new IllegalArgumentException(
+                    "dbTransactionName must be [" + TransactionContext.DEFAULT_TRANSACTION_CONTEXT_KEY
+                            + "]. dbTransactionName = [" + transactionManager.getDbTransactionName() + "]");
+        }
+        this.transactionManager = transactionManager;
+    }
+
+    /**
+     * 操作を実行する{@link ExecutorService}を設定する。
+     * <p/>
+     * 設定した{@link ExecutorService}の終了は、呼び出し側で行うこと。
+     * 設定した場合、デフォルトの{@link ExecutorService}は作成しない。
+     * @param executorService 操作を実行する{@link ExecutorService}
+     */
+    public void setExecutorService(ExecutorService executorService) {
+        this.executorService = executorService;
+    }
+
+    /**
+     * バージョン番号を非同期に取得する。
+     * @param context 排他制御コンテキスト
+     * @return バージョン番号
+     * @see ExclusiveControlManager#getVersion(ExclusiveControlContext)
+     */
+    public Future<Version> getVersion(final ExclusiveControlContext context) {
+        return submit(new Operation<Version>() {
+            public Version execute() {
+                return exclusiveControlManager.getVersion(context);
+            }
+        });
+    }
+
+    /**
+     * 複数のバージョン番号を非同期に取得する。
+     * <p/>
+     * 処理を委譲する{@link ExclusiveControlManager}が{@link BasicExclusiveControlManager}の場合は
+     * {@link BasicExclusiveControlManager#getVersions(List)}を使用し、それ以外の場合は
+     * {@link ExclusiveControlManager#getVersion(ExclusiveControlContext)}を順に呼び出す。
+     * 取得は1つのトランザクションで行う。
+     * @param contexts 排他制御コンテキスト
+     * @return バージョン番号(排他制御コンテキストと同じ順序)
+     */
+    public Future<List<Version>> getVersions(final List<? extends ExclusiveControlContext> contexts) {
+        return submit(new Operation<List<Version>>() {
+            public List<Version> execute() {
+                if (exclusiveControlManager instanceof BasicExclusiveControlManager) {
+                    return ((BasicExclusiveControlManager) exclusiveControlManager).getVersions(contexts);
+                }
+                List<Version> versions = new ArrayList<Version>(contexts.size());
+                for (ExclusiveControlContext context : contexts) {
+                    versions.add(exclusiveControlManager.getVersion(context));
+                }
+                return versions;
+            }
+        });
+    }
+
+    /**
+     * バージョン番号を非同期にチェックする。
+     * <p/>
+     * 楽観ロックエラーが発生した場合は、{@link Future#get()}が{@link OptimisticLockException}を原因とする
+     * {@link java.util.concurrent.ExecutionException}を送出する。
+     * @param versions バージョン番号
+     * @return チェックの完了を表す{@link Future}
+     * @see ExclusiveControlManager#checkVersions(List)
+     */
+    public Future<Void> checkVersions(final List<Version> versions) {
+        return submit(new Operation<Void>() {
+            public Void execute() {
+                exclusiveControlManager.checkVersions(versions);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * デフォルトの{@link ExecutorService}を終了する。
+     * <p/>
+     * 実行中の操作は終了を待たずに継続する。
+     * {@link #setExecutorService(ExecutorService)}で設定した{@link ExecutorService}は終了しない。
+     * 終了後に操作を実行した場合は、デフォルトの{@link ExecutorService}を新たに作成する。
+     */
+    public void shutdown() {
+        ExecutorService executor = defaultExecutorService.getAndSet(null);
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * 操作を個別のトランザクションで実行するタスクを登録する。
+     * @param operation 操作
+     * @param <T> 操作の結果の型
+     * @return 操作の結果
+     */
+    private <T> Future<T> submit(final Operation<T> operation) {
+        if (exclusiveControlManager == null || transactionManager == null) {
+            throw new IllegalStateException("exclusiveControlManager and transactionManager must be set.");
+        }
+        return getExecutorService().submit(new Callable<T>() {
+            public T call() {
+                boolean committed = false;
+                try {
+                    T result = new SimpleDbTransactionExecutor<T>(transactionManager) {
+                        @Override
+                        public T execute(AppDbConnection connection) {
+                            return operation.execute();
+                        }
+                    }.doTransaction();
+                    committed = true;
+                    return result;
+                } finally {
+                    if (exclusiveControlManager instanceof BasicExclusiveControlManager) {
+                        ((BasicExclusiveControlManager) exclusiveControlManager).afterCompletion(
+                                transactionManager.getDbTransactionName(), committed);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * 操作を実行する{@link ExecutorService}を取得する。
+     * <p/>
+     * 設定されていない場合は、デフォルトの{@link ExecutorService}を作成する。
+     * 複数のスレッドが同時に作成した場合は、登録できなかったものを終了する。
+     * @return 操作を実行する{@link ExecutorService}
+     */
+    private ExecutorService getExecutorService() {
+        if (executorService != null) {
+            return executorService;
+        }
+        ExecutorService executor = defaultExecutorService.get();
+        while (executor == null) {
+            ExecutorService created = createDefaultExecutorService();
+            if (defaultExecutorService.compareAndSet(null, created)) {
+                return created;
+            }
+            created.shutdown();
+            executor = defaultExecutorService.get();
+        }
+        return executor;
+    }
+
+    /**
+     * デフォルトの{@link ExecutorService}を作成する。
+     * <p/>
+     * 仮想スレッドはJDK 21以降でのみ使用できるため、リフレクションで作成する。
+     * @return デフォルトの{@link ExecutorService}
+     */
+    private static ExecutorService createDefaultExecutorService() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (Exception e) {
+            return Executors.newCachedThreadPool(new DaemonThreadFactory());
+        }
+    }
+
+    /**
+     * 実行スレッドで行う操作。
+     * @param <T> 操作の結果の型
+     */
+    private interface Operation<T> {
+
+        /**
+         * 操作を実行する。
+         * @return 操作の結果
+         */
+        T execute();
+    }
+
+    /**
+     * デーモンスレッドを作成する{@link ThreadFactory}。
+     */
+    private static final class DaemonThreadFactory implements ThreadFactory {
+
+        /** スレッドの番号 */
+        private final AtomicInteger threadNumber = new AtomicInteger();
+
+        /** {@inheritDoc} */
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "exclusive-control-async-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
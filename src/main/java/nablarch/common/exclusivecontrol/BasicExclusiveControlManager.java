@@ -1,140 +1,1483 @@
 package nablarch.common.exclusivecontrol;
 
+import java.lang.reflect.Constructor;
+import java.sql.DatabaseMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
+import nablarch.core.db.DbAccessException;
 import nablarch.core.db.connection.AppDbConnection;
 import nablarch.core.db.connection.DbConnectionContext;
-import nablarch.core.db.statement.ParameterizedSqlPStatement;
+import nablarch.core.db.connection.TransactionManagerConnection;
+import nablarch.core.db.dialect.DB2Dialect;
+import nablarch.core.db.dialect.Dialect;
+import nablarch.core.db.dialect.H2Dialect;
+import nablarch.core.db.dialect.PostgreSQLDialect;
+import nablarch.core.db.dialect.SqlServerDialect;
+import nablarch.core.db.statement.SqlPStatement;
 import nablarch.core.db.statement.SqlResultSet;
+import nablarch.core.db.statement.SqlRow;
+import nablarch.core.db.transaction.SimpleDbTransactionExecutor;
+import nablarch.core.db.transaction.SimpleDbTransactionManager;
 import nablarch.core.message.Message;
 import nablarch.core.message.MessageLevel;
 import nablarch.core.message.MessageUtil;
+import nablarch.core.repository.initialization.Initializable;
+import nablarch.core.transaction.TransactionContext;
 import nablarch.core.util.Builder;
 import nablarch.core.util.StringUtil;
 
 /**
  * {@link ExclusiveControlManager}の基本実装クラス。
+ * <p/>
+ * 本クラスはスレッドセーフである。
+ * スレッド間で共有する状態(SQL文のキャッシュ、件数、判定結果)は{@link ConcurrentMap}やアトミック変数で保持し、
+ * トランザクション内の状態はスレッドごとに保持するため、{@code synchronized}によるモニタロックを使用しない。
+ * このため、JDBCアクセス中にモニタを保持することはなく、仮想スレッドから呼び出した場合も本クラスが原因で
+ * キャリアスレッドが固定(pinning)されることはない。
+ * 本クラスに処理を追加する場合も、モニタロックを使用しないこと。
  * @author Kiyohito Itoh
  */
-public class BasicExclusiveControlManager implements ExclusiveControlManager {
+public class BasicExclusiveControlManager implements ExclusiveControlManager, Initializable, TransactionListener {
 
     /** バージョン番号の初期値 */
     private static final long INITIAL_VERSION = 1L;
 
-    /** SQL文のキャッシュ */
-    private static Map<String, ExclusiveControlTable> exclusiveControlTableSchemaAndSqlHolderCache
-            = new ConcurrentHashMap<String, ExclusiveControlTable>();
+    /** バージョン番号の一括追加および一括削除で、バッチ実行1回あたりに処理する件数のデフォルト値 */
+    private static final int DEFAULT_BULK_CHUNK_SIZE = 1000;
+
+    /** 件数によるチェックで件数を取得する列の別名 */
+    static final String COUNT_COLUMN_NAME = "ROW_COUNT";
+
+    /**
+     * SQL文のキャッシュ。
+     * <p/>
+     * SQL文はテンプレートを提供するメソッドのオーバライドによって変わるため、インスタンスごとに保持する。
+     */
+    private final ConcurrentMap<TableKey, ExclusiveControlTable> exclusiveControlTables
+            = new ConcurrentHashMap<TableKey, ExclusiveControlTable>();
+
+    /** SQL文のキャッシュのヒット件数 */
+    private final AtomicLong tableCacheHitCount = new AtomicLong();
+
+    /** SQL文のキャッシュのミス件数 */
+    private final AtomicLong tableCacheMissCount = new AtomicLong();
     
     /** 楽観ロックエラーメッセージID */
     private String optimisticLockErrorMessageId;
+
+    /** バージョン番号の更新チェックを伴う更新のバッチサイズ */
+    private int batchSize;
+
+    /** 処理件数を判定するバッチ実行 */
+    private final BatchUpdateExecutor batchUpdateExecutor = new BatchUpdateExecutor();
+
+    /** バージョン番号の一括追加および一括削除で、バッチ実行1回あたりに処理する件数 */
+    private int bulkChunkSize = DEFAULT_BULK_CHUNK_SIZE;
+
+    /** 配列または一時テーブルとの結合によるバージョン番号のチェック */
+    private final KeyTableVersionChecker keyTableVersionChecker = new KeyTableVersionChecker(this);
+
+    /** 複数行の一括チェックを行うか否か */
+    private boolean multiRowCheckEnabled;
+
+    /** 複数行の一括チェックで、件数によるチェックを先に行うか否か */
+    private boolean countCheckEnabled;
+
+    /** 複数行の一括チェックで、主キーとバージョン番号の組み合わせをデータベースに渡す方式 */
+    private MultiRowBindingMode multiRowBindingMode = MultiRowBindingMode.IN_LIST;
+
+    /** 複数行をまとめて扱うSQL文の行数 */
+    private final StatementRowCounts statementRowCounts = new StatementRowCounts();
+
+    /** トランザクション内のバージョン番号のキャッシュを使用するか否か */
+    private boolean versionCacheEnabled;
+
+    /** トランザクション内のバージョン番号のキャッシュ */
+    private final TransactionVersionCache versionCache = new TransactionVersionCache();
+
+    /** バージョン番号の更新をコミット直前まで遅延するか否か */
+    private boolean deferredUpdateEnabled;
+
+    /** コミット直前まで遅延しているバージョン番号の更新 */
+    private final DeferredVersionUpdates deferredUpdates = new DeferredVersionUpdates();
+
+    /** 排他制御の操作の記録 */
+    private final ExclusiveControlMetricsRecorder metricsRecorder = new ExclusiveControlMetricsRecorder();
+
+    /** 楽観ロックエラーの通知先 */
+    private OptimisticLockErrorListener optimisticLockErrorListener;
+
+    /** 楽観ロックエラーの最大件数 */
+    private int maxErrorCount;
+
+    /** 悲観ロックのSQL文のクエリタイムアウト(秒) */
+    private int lockQueryTimeout;
+
+    /** バージョン番号の更新前に、排他制御用テーブルと主キーの値の順に並べ替えるか否か */
+    private boolean sortedUpdateEnabled;
+
+    /** 初期化時にSQL文を作成する排他制御コンテキストのクラス名 */
+    private List<String> warmUpContextClassNames = new ArrayList<String>();
+
+    /** 初期化時にSQL文を作成する排他制御コンテキスト */
+    private List<ExclusiveControlContext> warmUpContexts = new ArrayList<ExclusiveControlContext>();
+
+    /** 初期化時にスキーマ情報の検証とSQL文の準備に使用するトランザクションマネージャ */
+    private SimpleDbTransactionManager warmUpTransactionManager;
+
+    /** 初期化時にSQL文を準備するか否か */
+    private boolean warmUpStatementPreparation;
+
+    /** 排他制御コンテキストのテーブル名ごとのシャーディングの定義 */
+    private Map<String, ExclusiveControlTableSharding> tableShardings = Collections.emptyMap();
+
+    /**
+     * 楽観ロックエラーメッセージIDを設定する。
+     * @param optimisticLockErrorMessageId 楽観ロックエラーメッセージID
+     */
+    public void setOptimisticLockErrorMessageId(String optimisticLockErrorMessageId) {
+        this.optimisticLockErrorMessageId = optimisticLockErrorMessageId;
+    }
+
+    /**
+     * バージョン番号の更新チェックを伴う更新のバッチサイズを設定する。
+     * <p/>
+     * 1以上を設定した場合は、{@link #updateVersionsWithCheck(List)}において、
+     * 排他制御用テーブルごとに指定件数ずつJDBCのバッチ実行でバージョン番号を更新する。
+     * 0以下を設定した場合は、バージョン番号を1件ずつ更新する。
+     * デフォルトは0。
+     * @param batchSize バッチサイズ
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * バージョン番号の一括追加および一括削除で、バッチ実行1回あたりに処理する件数を設定する。
+     * <p/>
+     * 配列または一時テーブルとの結合による一括チェック({@link #setMultiRowBindingMode(MultiRowBindingMode)})で、
+     * SQL文1つあたりにチェックする件数としても使用する。
+     * デフォルトは1000。
+     * @param bulkChunkSize バッチ実行1回あたりに処理する件数
+     * @see #addVersions(Iterator)
+     * @see #removeVersions(Iterator)
+     */
+    public void setBulkChunkSize(int bulkChunkSize) {
+        if (bulkChunkSize < 1) {
+            throw new IllegalArgumentException(
+                    "bulkChunkSize must be greater than 0. bulkChunkSize = [" + bulkChunkSize + "]");
+        }
+        this.bulkChunkSize = bulkChunkSize;
+    }
+
+    /**
+     * 複数行の一括チェックを行うか否かを設定する。
+     * <p/>
+     * {@code true}を設定した場合は、{@link #checkVersions(List)}において、
+     * 排他制御用テーブルごとに複数のバージョン番号を1つのSQL文でまとめてチェックする。
+     * デフォルトは{@code false}(バージョン番号を1件ずつチェックする)。
+     * @param multiRowCheckEnabled 複数行の一括チェックを行う場合は{@code true}
+     * @see #getMultiRowSelectSqlTemplate()
+     */
+    public void setMultiRowCheckEnabled(boolean multiRowCheckEnabled) {
+        this.multiRowCheckEnabled = multiRowCheckEnabled;
+    }
+
+    /**
+     * 複数行の一括チェックで、件数によるチェックを先に行うか否かを設定する。
+     * <p/>
+     * {@code true}を設定した場合は、一括チェックのSQL文ごとに、主キーとバージョン番号の組み合わせに一致する行の件数を
+     * 先に取得し、件数がバージョン番号の件数と一致した場合は行の取得を行わない。
+     * 件数が不足した場合のみ行を取得し、楽観ロックエラーとなったバージョン番号を特定する。
+     * ほとんどのチェックが成功する場合に、結果セットの転送を省略できる。
+     * 同一の主キーとバージョン番号の組み合わせが重複して指定された場合は、件数が一致しないため行を取得してチェックする。
+     * <p/>
+     * {@link #setMultiRowCheckEnabled(boolean)}に{@code true}を設定した場合のみ有効となる。
+     * デフォルトは{@code false}。
+     * @param countCheckEnabled 件数によるチェックを先に行う場合は{@code true}
+     * @see #getCountSqlTemplate()
+     * @see #getKeyTableCountSqlTemplate()
+     */
+    public void setCountCheckEnabled(boolean countCheckEnabled) {
+        this.countCheckEnabled = countCheckEnabled;
+    }
+
+    /**
+     * 複数行の一括チェックで、主キーとバージョン番号の組み合わせをデータベースに渡す方式を設定する。
+     * <p/>
+     * {@link MultiRowBindingMode#IN_LIST}以外を設定した場合は、排他制御用テーブルごとのバージョン番号の件数が
+     * SQL文1つあたりの行数({@link #setMaxRowsPerStatement(int)}、{@link #setRowCountBuckets(List)})を超える場合に、
+     * 指定された方式で{@link #setBulkChunkSize(int)}の件数ずつ1つのSQL文でチェックする。
+     * 件数によるチェック({@link #setCountCheckEnabled(boolean)})と楽観ロックエラーの最大件数({@link #setMaxErrorCount(int)})は、
+     * 行数分のバインド変数を持つ条件の場合と同様にSQL文ごとに適用する。
+     * 件数がSQL文1つあたりの行数以下の場合は、従来どおり行数分のバインド変数を持つ条件で行う。
+     * <ul>
+     * <li>{@link MultiRowBindingMode#ARRAY}: カラムごとの配列をバインド変数に設定し、
+     * {@link #getArrayKeyTable(TransactionManagerConnection, String[], String[])}で行に展開して結合する。
+     * 配列の要素の型は、排他制御用テーブルのカラムの型から{@link #getArrayTypeName(int, String)}で決定する。</li>
+     * <li>{@link MultiRowBindingMode#TEMPORARY_TABLE}: 一時テーブルにバッチ実行で登録し、結合する。
+     * 一時テーブルは事前に作成するか、{@link #getTemporaryTableCreateSqlTemplate()}をオーバライドして作成すること。</li>
+     * </ul>
+     * {@link #setMultiRowCheckEnabled(boolean)}に{@code true}を設定した場合のみ有効となる。
+     * デフォルトは{@link MultiRowBindingMode#IN_LIST}。
+     * @param multiRowBindingMode 主キーとバージョン番号の組み合わせをデータベースに渡す方式
+     * @see #getKeyTableJoinSqlTemplate()
+     */
+    public void setMultiRowBindingMode(MultiRowBindingMode multiRowBindingMode) {
+        this.multiRowBindingMode = multiRowBindingMode;
+    }
+
+    /**
+     * 複数行をまとめて扱うSQL文1つあたりの最大行数を設定する。
+     * <p/>
+     * 最大行数を超える場合は、最大行数ごとにSQL文を分割して実行する。
+     * デフォルトは100。
+     * @param maxRowsPerStatement 複数行をまとめて扱うSQL文1つあたりの最大行数
+     * @throws IllegalArgumentException 1未満の場合
+     */
+    public void setMaxRowsPerStatement(int maxRowsPerStatement) {
+        statementRowCounts.setMaxRowsPerStatement(maxRowsPerStatement);
+    }
+
+    /**
+     * 複数行をまとめて扱うSQL文の行数の区切りを設定する。
+     * <p/>
+     * 複数行をまとめて扱うSQL文は、行数ごとに異なるSQL文となるため、行数が様々な場合はデータベースの
+     * 実行計画のキャッシュを圧迫する。このため、行数を区切りのうち行数以上で最小の値に切り上げ、
+     * 不足する行は最後の行の条件を繰り返して補う。
+     * 同じ条件を繰り返しても取得結果は変わらない。
+     * また、SQL文1つあたりの行数は、最大の区切りと{@link #setMaxRowsPerStatement(int)}の小さい方までとする。
+     * これにより、排他制御用テーブルごとのSQL文の種類は、区切りの数に最大行数を加えた数までとなる。
+     * 作成したSQL文は{@link ExclusiveControlTable}にキャッシュする。
+     * <p/>
+     * デフォルトは1, 4, 16, 64, 256。空のリストを設定した場合は、行数の切り上げを行わない。
+     * @param rowCountBuckets 複数行をまとめて扱うSQL文の行数の区切り
+     * @throws IllegalArgumentException 1未満の区切りが含まれる場合
+     */
+    public void setRowCountBuckets(List<Integer> rowCountBuckets) {
+        statementRowCounts.setRowCountBuckets(rowCountBuckets);
+    }
+
+    /**
+     * トランザクション内のバージョン番号のキャッシュを使用するか否かを設定する。
+     * <p/>
+     * {@code true}を設定した場合は、トランザクション内で取得、追加、更新したバージョン番号をキャッシュし、
+     * {@link #getVersion(ExclusiveControlContext)}および{@link #getVersions(List)}ではキャッシュから返す。
+     * バージョン番号の更新チェック({@link #checkVersions(List)}など)は、キャッシュを使用せずにデータベースで行う。
+     * <p/>
+     * キャッシュはトランザクションの終了時に破棄する必要があるため、
+     * このクラスを{@link ListenableTransactionFactory}のリスナーとして設定すること。
+     * デフォルトは{@code false}。
+     * @param versionCacheEnabled キャッシュを使用する場合は{@code true}
+     * @see #afterCompletion(String, boolean)
+     */
+    public void setVersionCacheEnabled(boolean versionCacheEnabled) {
+        this.versionCacheEnabled = versionCacheEnabled;
+    }
+
+    /**
+     * バージョン番号の更新をコミット直前まで遅延するか否かを設定する。
+     * <p/>
+     * {@code true}を設定した場合は、{@link #updateVersion(ExclusiveControlContext)}および
+     * {@link #updateVersionsWithCheck(List)}ではSQL文を実行せずに更新内容をメモリ上に記録し、
+     * コミット直前に{@link #flushDeferredUpdates()}でまとめて更新する。
+     * 同一の行に対する複数回の更新は1回の更新にまとめ、排他制御用テーブルと主キーの値の順にバッチ実行するため、
+     * SQL文の実行回数が減り、行ロックを保持する時間が短くなる。
+     * <p/>
+     * 遅延した更新はトランザクション内の他の操作に次のように反映される。
+     * <ul>
+     * <li>{@link #getVersion(ExclusiveControlContext)}および{@link #getVersions(List)}は、更新後のバージョン番号を返す。</li>
+     * <li>{@link #checkVersions(List)}など、その他のデータベースにアクセスする操作の前には、遅延した更新を実行する。</li>
+     * <li>バージョン番号が存在しない場合の例外や楽観ロックエラーは、更新の実行時(通常はコミット時)に送出する。</li>
+     * </ul>
+     * 遅延した更新はコミット直前に実行する必要があるため、
+     * このクラスを{@link ListenableTransactionFactory}のリスナーとして設定すること。
+     * デフォルトは{@code false}。
+     * @param deferredUpdateEnabled バージョン番号の更新を遅延する場合は{@code true}
+     * @see #beforeCommit(String)
+     */
+    public void setDeferredUpdateEnabled(boolean deferredUpdateEnabled) {
+        this.deferredUpdateEnabled = deferredUpdateEnabled;
+    }
+
+    /**
+     * 排他制御の操作を記録するオブジェクトを設定する。
+     * <p/>
+     * 排他制御の操作ごとに、排他制御用テーブル単位で処理時間、処理件数、楽観ロックエラーの件数を記録する。
+     * デフォルトは{@link NopExclusiveControlMetrics}(何も記録しない)。
+     * {@link NopExclusiveControlMetrics}が設定されている場合は、処理時間の計測を行わない。
+     * @param metrics 排他制御の操作を記録するオブジェクト
+     * @see InMemoryExclusiveControlMetrics
+     */
+    public void setMetrics(ExclusiveControlMetrics metrics) {
+        metricsRecorder.setMetrics(metrics);
+    }
+
+    /**
+     * 楽観ロックエラーの通知先を設定する。
+     * <p/>
+     * {@link OptimisticLockException}を送出する直前に、楽観ロックエラーとなったバージョン番号を通知する。
+     * デフォルトはnull(通知しない)。
+     * @param optimisticLockErrorListener 楽観ロックエラーの通知先
+     * @see HotKeyTracker
+     */
+    public void setOptimisticLockErrorListener(OptimisticLockErrorListener optimisticLockErrorListener) {
+        this.optimisticLockErrorListener = optimisticLockErrorListener;
+    }
+
+    /**
+     * 楽観ロックエラーの最大件数を設定する。
+     * <p/>
+     * {@link #checkVersions(List)}、{@link #updateVersionsWithCheck(List)}および
+     * {@link #updateVersionsWithCheckAndReturn(List)}において、楽観ロックエラーとなったバージョン番号が
+     * 指定件数に達した時点でSQL文の実行を止め、それまでに検出したバージョン番号を設定した
+     * {@link OptimisticLockException}を送出する。
+     * <ul>
+     * <li>0以下: 全てのバージョン番号を処理し、楽観ロックエラーを全件収集する(デフォルト)</li>
+     * <li>1: 最初の楽観ロックエラーで処理を止める</li>
+     * <li>2以上: 指定件数の楽観ロックエラーで処理を止める</li>
+     * </ul>
+     * 複数行の一括チェックやバッチ実行では、SQL文またはバッチ実行の単位で件数を判定するため、
+     * 指定件数を超えるバージョン番号が設定される場合がある。
+     * @param maxErrorCount 楽観ロックエラーの最大件数
+     */
+    public void setMaxErrorCount(int maxErrorCount) {
+        this.maxErrorCount = maxErrorCount;
+    }
+
+    /**
+     * 悲観ロックのSQL文のクエリタイムアウト(秒)を設定する。
+     * <p/>
+     * {@link #lockVersions(List, PessimisticLockMode)}で実行するSQL文に{@link java.sql.Statement#setQueryTimeout(int)}として設定する。
+     * クエリタイムアウトはロック待ちに限らずSQL文の実行全体の時間が対象となり、
+     * タイムアウト時の動作(SQL文の取り消し方法や送出される例外)はJDBCドライバに依存する。
+     * データベースのロック待ちのタイムアウトを使用する場合は、
+     * {@link #getLockSqlTemplate(PessimisticLockMode)}をオーバーライドしてデータベースごとの構文
+     * (Oracleの"FOR UPDATE WAIT n"など)を指定するか、データベースの設定(PostgreSQLのlock_timeoutなど)を使用すること。
+     * 0以下を設定した場合は、タイムアウトを設定しない。
+     * デフォルトは0。
+     * @param lockQueryTimeout 悲観ロックのSQL文のクエリタイムアウト(秒)
+     */
+    public void setLockQueryTimeout(int lockQueryTimeout) {
+        this.lockQueryTimeout = lockQueryTimeout;
+    }
+
+    /**
+     * バージョン番号の更新前に、排他制御用テーブルと主キーの値の順に並べ替えるか否かを設定する。
+     * <p/>
+     * {@code true}を設定した場合は、{@link #updateVersionsWithCheck(List)}および
+     * {@link #updateVersionsWithCheckAndReturn(List)}において、テーブル名、主キーの値の順に並べ替えてから更新する。
+     * 並行するトランザクション間で行ロックの取得順序が揃うため、デッドロックを回避できる。
+     * 楽観ロックエラーとなったバージョン番号や更新後のバージョン番号は、並べ替えに関わらず引数で指定された順となる。
+     * デフォルトは{@code false}(引数で指定された順に更新する)。
+     * @param sortedUpdateEnabled 並べ替えてから更新する場合は{@code true}
+     */
+    public void setSortedUpdateEnabled(boolean sortedUpdateEnabled) {
+        this.sortedUpdateEnabled = sortedUpdateEnabled;
+    }
+
+    /**
+     * 初期化時にSQL文を作成する排他制御コンテキストのクラス名を設定する。
+     * <p/>
+     * 指定されたクラスは{@link #initialize()}で引数なしのコンストラクタによりインスタンス化し、
+     * 排他制御用テーブルのスキーマ情報を取得する。
+     * 指定するクラスには、引数なしのコンストラクタが必要となる。
+     * 主キーの値を引数に取るコンストラクタしか持たないクラスは、
+     * {@link #setWarmUpContexts(List)}でインスタンスを指定すること。
+     * @param warmUpContextClassNames 排他制御コンテキストのクラス名
+     */
+    public void setWarmUpContextClassNames(List<String> warmUpContextClassNames) {
+        this.warmUpContextClassNames = warmUpContextClassNames;
+    }
+
+    /**
+     * 初期化時にSQL文を作成する排他制御コンテキストを設定する。
+     * <p/>
+     * 指定された排他制御コンテキストから、{@link #initialize()}で排他制御用テーブルのスキーマ情報を取得する。
+     * 主キーの条件は使用しないため、任意の値を設定したインスタンスでよい。
+     * {@link #setWarmUpContextClassNames(List)}と併用できる。
+     * @param warmUpContexts 排他制御コンテキスト
+     */
+    public void setWarmUpContexts(List<? extends ExclusiveControlContext> warmUpContexts) {
+        this.warmUpContexts = new ArrayList<ExclusiveControlContext>(warmUpContexts);
+    }
+
+    /**
+     * 初期化時にスキーマ情報の検証とSQL文の準備に使用するトランザクションマネージャを設定する。
+     * <p/>
+     * 設定した場合は、{@link #initialize()}で{@link DatabaseMetaData}から
+     * 排他制御用テーブルとカラムの存在をチェックする。
+     * 設定しない場合は、SQL文の作成のみ行う。
+     * @param warmUpTransactionManager トランザクションマネージャ
+     */
+    public void setWarmUpTransactionManager(SimpleDbTransactionManager warmUpTransactionManager) {
+        this.warmUpTransactionManager = warmUpTransactionManager;
+    }
+
+    /**
+     * 初期化時にSQL文を準備するか否かを設定する。
+     * <p/>
+     * {@code true}を設定した場合は、{@link #initialize()}で作成した各SQL文を1度ずつ準備(prepare)し、
+     * データベースに実行計画をキャッシュさせる。
+     * {@link #setWarmUpTransactionManager(SimpleDbTransactionManager)}が設定されていない場合は無視する。
+     * デフォルトは{@code false}。
+     * @param warmUpStatementPreparation SQL文を準備する場合は{@code true}
+     */
+    public void setWarmUpStatementPreparation(boolean warmUpStatementPreparation) {
+        this.warmUpStatementPreparation = warmUpStatementPreparation;
+    }
+
+    /**
+     * 排他制御用テーブルのシャーディングの定義を設定する。
+     * <p/>
+     * 定義したテーブル名の排他制御コンテキストおよびバージョン番号は、主キーの値に応じたシャードで処理する。
+     * 複数のバージョン番号をまとめて処理する場合は、シャードごとにSQL文やバッチ実行を分けて処理する。
+     * バージョン番号({@link Version#getTableName()})のテーブル名は、シャードではなく排他制御コンテキストのテーブル名となる。
+     * <p/>
+     * トランザクション内のバージョン番号のキャッシュと遅延した更新は、シャードが使用するデータベース接続ごとに保持し、
+     * そのデータベース接続のトランザクションの終了時に破棄または実行する。
+     * このため、シャードがデフォルト以外のデータベース接続を使用する場合は、そのデータベース接続の
+     * {@link nablarch.core.transaction.TransactionFactory}にも{@link ListenableTransactionFactory}を使用すること。
+     * @param tableShardings シャーディングの定義
+     * @throws IllegalArgumentException 同じテーブル名の定義が複数存在する場合
+     */
+    public void setTableShardings(List<ExclusiveControlTableSharding> tableShardings) {
+        Map<String, ExclusiveControlTableSharding> map = new HashMap<String, ExclusiveControlTableSharding>();
+        for (ExclusiveControlTableSharding sharding : tableShardings) {
+            if (map.put(sharding.getTableName(), sharding) != null) {
+                throw new IllegalArgumentException(
+                        "duplicate table sharding. table name = [" + sharding.getTableName() + "]");
+            }
+        }
+        this.tableShardings = map;
+    }
+
+    /**
+     * 初期化処理を行う。
+     * <p/>
+     * {@link #setWarmUpContextClassNames(List)}および{@link #setWarmUpContexts(List)}で指定された
+     * 排他制御コンテキストに対応する{@link ExclusiveControlTable}を作成し、キャッシュに追加する。
+     * シャーディングを定義したテーブルの場合は、全てのシャードの{@link ExclusiveControlTable}を作成する。
+     * トランザクションマネージャが設定されている場合は、排他制御用テーブルとカラムの存在をチェックし、
+     * 必要に応じてSQL文を準備する。
+     * ただし、デフォルト以外のデータベース接続を使用するシャードは、チェックとSQL文の準備を行わない。
+     * @throws IllegalArgumentException 排他制御コンテキストをインスタンス化できない場合
+     * @throws IllegalStateException 排他制御用テーブルまたはカラムが存在しない場合
+     */
+    public void initialize() {
+
+        List<ExclusiveControlContext> contexts = new ArrayList<ExclusiveControlContext>(warmUpContexts);
+        for (String className : warmUpContextClassNames) {
+            contexts.add(createWarmUpContext(className));
+        }
+
+        final List<ExclusiveControlTable> tables = new ArrayList<ExclusiveControlTable>(contexts.size());
+        for (ExclusiveControlContext context : contexts) {
+            ExclusiveControlTableSharding sharding = tableShardings.get(context.getTableName());
+            if (sharding == null) {
+                tables.add(getExclusiveControlTableHolder(context));
+                continue;
+            }
+            for (int i = 0; i < sharding.getShardCount(); i++) {
+                ExclusiveControlTable table = getShardTableHolder(
+                        sharding, i, context.getVersionColumnName(), getPrimaryKeyColumnNames(context));
+                if (getConnectionName().equals(table.getConnectionName())) {
+                    tables.add(table);
+                }
+            }
+        }
+
+        if (warmUpTransactionManager == null || tables.isEmpty()) {
+            return;
+        }
+        new SimpleDbTransactionExecutor<Void>(warmUpTransactionManager) {
+            @Override
+            public Void execute(AppDbConnection connection) {
+                ExclusiveControlSchemaValidator validator
+                        = new ExclusiveControlSchemaValidator(warmUpTransactionManager.getDbTransactionName());
+                for (ExclusiveControlTable table : tables) {
+                    validator.validate(table);
+                    if (warmUpStatementPreparation) {
+                        prepareStatements(connection, table);
+                    }
+                }
+                return null;
+            }
+        }.doTransaction();
+    }
+
+    /**
+     * 初期化時にSQL文を作成するための排他制御コンテキストを、引数なしのコンストラクタで生成する。
+     * @param className 排他制御コンテキストのクラス名
+     * @return 排他制御コンテキスト
+     * @throws IllegalArgumentException 排他制御コンテキストでない場合、引数なしのコンストラクタが存在しない場合、
+     *                                  またはインスタンス化に失敗した場合
+     */
+    private static ExclusiveControlContext createWarmUpContext(String className) {
+        try {
+            Class<?> clazz = Class.forName(className, true, Thread.currentThread().getContextClassLoader());
+            if (!ExclusiveControlContext.class.isAssignableFrom(clazz)) {
+                throw new IllegalArgumentException(
+                        "class is not ExclusiveControlContext. class name = [" + className + "]");
+            }
+            Constructor<?> constructor;
+            try {
+                constructor = clazz.getDeclaredConstructor();
+            } catch (NoSuchMethodException e) {
+                throw new IllegalArgumentException(
+                        "ExclusiveControlContext must have a no-arg constructor."
+                                + " use setWarmUpContexts to specify an instance. class name = [" + className + "]", e);
+            }
+            constructor.setAccessible(true);
+            return (ExclusiveControlContext) constructor.newInstance();
+        } catch (IllegalArgumentException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IllegalArgumentException(
+                    "failed to instantiate ExclusiveControlContext. class name = [" + className + "]", e);
+        }
+    }
+
+    /**
+     * 排他制御用テーブルの各SQL文を準備する。
+     * <p/>
+     * SQL文は実行せずに準備のみ行う。
+     * @param connection データベース接続
+     * @param table 排他制御用テーブルのスキーマ情報とSQL文
+     */
+    private static void prepareStatements(AppDbConnection connection, ExclusiveControlTable table) {
+        PositionalSql[] sqls = {
+            table.getPositionalSelectSql(),
+            table.getPositionalSelectAndCheckSql(),
+            table.getPositionalInsertSql(),
+            table.getPositionalUpdateSql(),
+            table.getPositionalUpdateAndCheckSql(),
+            table.getPositionalDeleteSql()
+        };
+        for (PositionalSql sql : sqls) {
+            connection.prepareStatement(sql.getSql());
+        }
+    }
+
+    /** {@inheritDoc} */
+    public Version getVersion(ExclusiveControlContext context) {
+        long startTime = metricsRecorder.start();
+        Version version = applyDeferredUpdate(getStoredVersion(context));
+        metricsRecorder.record(ExclusiveControlOperation.GET_VERSION, startTime, context.getTableName(), 1, 0);
+        return version;
+    }
+
+    /**
+     * 遅延しているバージョン番号の更新を反映せずに、バージョン番号を取得する。
+     * <p/>
+     * キャッシュが有効な場合はキャッシュから取得し、キャッシュに存在しない場合はデータベースから取得する。
+     * @param context 排他制御コンテキスト
+     * @return バージョン番号。見つからない場合はnull
+     */
+    private Version getStoredVersion(ExclusiveControlContext context) {
+
+        if (versionCacheEnabled) {
+            Long cached = versionCache.get(getConnectionName(context.getTableName(), context.getCondition()),
+                                           context.getTableName(), context.getCondition());
+            if (cached != null) {
+                return new NumericVersion(context, cached);
+            }
+        }
+
+        ExclusiveControlTable exclusiveControlTableHolder = getExclusiveControlTableHolder(context);
+        PositionalSql sql = exclusiveControlTableHolder.getPositionalSelectSql();
+
+        AppDbConnection conn = getConnection(exclusiveControlTableHolder);
+        SqlPStatement stmt = conn.prepareStatement(sql.getSql());
+        sql.bind(stmt, context.getCondition(), null);
+        SqlResultSet resultSet = stmt.retrieve();
+        
+        if (resultSet.isEmpty()) {
+            return null;
+        }
+        
+        long versionNo = resultSet.get(0).getLong(context.getVersionColumnName());
+        cacheVersion(context.getTableName(), context.getCondition(), versionNo);
+        return new NumericVersion(context, versionNo);
+    }
+    
+    /**
+     * 複数の排他制御コンテキストに対応するバージョン番号をまとめて取得する。
+     * <p/>
+     * 排他制御用テーブルごとに、複数のバージョン番号を1つのSQL文でまとめて取得する。
+     * 1つのSQL文で取得する行数は{@link #setMaxRowsPerStatement(int)}で指定された最大行数までとし、
+     * 最大行数を超える場合はSQL文を分割して実行する。
+     * @param contexts 排他制御コンテキスト
+     * @return バージョン番号(引数で指定された順)。バージョン番号が見つからない場合、該当する要素はnull
+     * @see #getMultiRowSelectSqlTemplate()
+     */
+    public List<Version> getVersions(List<? extends ExclusiveControlContext> contexts) {
+
+        long startTime = metricsRecorder.start();
+        List<Version> versions = versionCacheEnabled
+                ? getVersionsFromCacheOrDatabase(contexts)
+                : getVersionsFromDatabase(contexts);
+        if (deferredUpdateEnabled) {
+            for (int i = 0; i < versions.size(); i++) {
+                versions.set(i, applyDeferredUpdate(versions.get(i)));
+            }
+        }
+        metricsRecorder.recordContexts(ExclusiveControlOperation.GET_VERSION, startTime, contexts);
+        return versions;
+    }
+
+    /**
+     * 複数の排他制御コンテキストに対応するバージョン番号を、キャッシュまたはデータベースから取得する。
+     * <p/>
+     * キャッシュに存在しないバージョン番号のみをデータベースから取得する。
+     * @param contexts 排他制御コンテキスト
+     * @return バージョン番号(引数で指定された順)。バージョン番号が見つからない場合、該当する要素はnull
+     */
+    private List<Version> getVersionsFromCacheOrDatabase(List<? extends ExclusiveControlContext> contexts) {
+
+        Version[] versions = new Version[contexts.size()];
+        List<ExclusiveControlContext> missContexts = new ArrayList<ExclusiveControlContext>();
+        List<Integer> missIndexes = new ArrayList<Integer>();
+        for (int i = 0; i < contexts.size(); i++) {
+            ExclusiveControlContext context = contexts.get(i);
+            Long cached = versionCache.get(getConnectionName(context.getTableName(), context.getCondition()),
+                                           context.getTableName(), context.getCondition());
+            if (cached != null) {
+                versions[i] = new NumericVersion(context, cached);
+            } else {
+                missContexts.add(context);
+                missIndexes.add(i);
+            }
+        }
+        if (!missContexts.isEmpty()) {
+            List<Version> found = getVersionsFromDatabase(missContexts);
+            for (int i = 0; i < found.size(); i++) {
+                Version version = found.get(i);
+                versions[missIndexes.get(i)] = version;
+                if (version != null) {
+                    cacheVersion(version.getTableName(), version.getPrimaryKeyCondition(), NumericVersion.toVersionNo(version));
+                }
+            }
+        }
+        return new ArrayList<Version>(Arrays.asList(versions));
+    }
+
+    /**
+     * 複数の排他制御コンテキストに対応するバージョン番号を、キャッシュを使用せずにデータベースから取得する。
+     * @param contexts 排他制御コンテキスト
+     * @return バージョン番号(引数で指定された順)。バージョン番号が見つからない場合、該当する要素はnull
+     */
+    private List<Version> getVersionsFromDatabase(List<? extends ExclusiveControlContext> contexts) {
+
+        Version[] versions = new Version[contexts.size()];
+        for (Map.Entry<ExclusiveControlTable, List<Integer>> entry : groupContextIndexesByTable(contexts).entrySet()) {
+            ExclusiveControlTable exclusiveControlTableHolder = entry.getKey();
+            List<Integer> indexes = entry.getValue();
+            if (exclusiveControlTableHolder.getPrimaryKeyColumnNames() == null) {
+                for (int index : indexes) {
+                    versions[index] = getStoredVersion(contexts.get(index));
+                }
+                continue;
+            }
+            int rowsPerStatement = statementRowCounts.getRowsPerStatement();
+            for (int from = 0; from < indexes.size(); from += rowsPerStatement) {
+                List<Integer> chunk = indexes.subList(from, Math.min(from + rowsPerStatement, indexes.size()));
+                int rowCount = statementRowCounts.getStatementRowCount(chunk.size());
+                String sql = createMultiRowSelectSql(exclusiveControlTableHolder, rowCount, false);
+                getVersionsByMultiRowSelect(exclusiveControlTableHolder, sql, rowCount, 0, contexts, chunk, versions);
+            }
+        }
+        return new ArrayList<Version>(Arrays.asList(versions));
+    }
+
+    /**
+     * 複数の排他制御コンテキストに対応する排他制御用テーブルの行を悲観ロックし、バージョン番号を取得する。
+     * <p/>
+     * 排他制御用テーブルごとに、{@link #getLockSqlTemplate(PessimisticLockMode)}から作成した1つのSQL文で
+     * 複数の行をまとめてロックする。
+     * 1つのSQL文でロックする行数は{@link #setMaxRowsPerStatement(int)}で指定された最大行数
+     * ({@link #setRowCountBuckets(List)}の最大の区切りの方が小さい場合はその値)までとし、
+     * 最大行数を超える場合はSQL文を分割して実行する。
+     * ロックはトランザクションの終了まで保持される。
+     * <p/>
+     * {@link PessimisticLockMode#NOWAIT}で他のトランザクションがロックしている行が存在する場合や、
+     * {@link #setLockQueryTimeout(int)}で指定したクエリタイムアウトを超えた場合は、データベースアクセス時の例外を送出する。
+     * {@link PessimisticLockMode#SKIP_LOCKED}の場合、他のトランザクションがロックしている行は読み飛ばされ、
+     * 該当する要素はnullとなる。
+     * @param contexts 排他制御コンテキスト
+     * @param mode ロック待ちの方式
+     * @return ロックした行のバージョン番号(引数で指定された順)。行が存在しない場合や読み飛ばされた場合、該当する要素はnull
+     * @throws IllegalStateException 主キーのカラム名を持たない{@link ExclusiveControlTable}が使用された場合
+     */
+    public List<Version> lockVersions(List<? extends ExclusiveControlContext> contexts, PessimisticLockMode mode) {
+
+        flushDeferredUpdates();
+        long startTime = metricsRecorder.start();
+        Version[] versions = new Version[contexts.size()];
+        for (Map.Entry<ExclusiveControlTable, List<Integer>> entry : groupContextIndexesByTable(contexts).entrySet()) {
+            ExclusiveControlTable exclusiveControlTableHolder = entry.getKey();
+            if (exclusiveControlTableHolder.getPrimaryKeyColumnNames() == null) {
+                throw new IllegalStateException(
+                        "primary key column names are required for pessimistic lock. table name = ["
+                                + contexts.get(entry.getValue().get(0)).getTableName() + "]");
+            }
+            List<Integer> indexes = entry.getValue();
+            int rowsPerStatement = statementRowCounts.getRowsPerStatement();
+            for (int from = 0; from < indexes.size(); from += rowsPerStatement) {
+                List<Integer> chunk = indexes.subList(from, Math.min(from + rowsPerStatement, indexes.size()));
+                int rowCount = statementRowCounts.getStatementRowCount(chunk.size());
+                String sql = createLockSql(exclusiveControlTableHolder, rowCount, mode);
+                getVersionsByMultiRowSelect(exclusiveControlTableHolder, sql, rowCount, lockQueryTimeout, contexts, chunk, versions);
+            }
+        }
+        for (Version version : versions) {
+            if (version != null) {
+                cacheVersion(version.getTableName(), version.getPrimaryKeyCondition(), NumericVersion.toVersionNo(version));
+            }
+        }
+        metricsRecorder.recordContexts(ExclusiveControlOperation.LOCK_VERSIONS, startTime, contexts);
+        return new ArrayList<Version>(Arrays.asList(versions));
+    }
+
+    /**
+     * 同一の排他制御用テーブルに対する複数のバージョン番号を1つのSQL文で取得する。
+     * @param exclusiveControlTableHolder 排他制御テーブルの情報
+     * @param sql 複数行のバージョン番号をまとめて取得するSQL文
+     * @param rowCount SQL文の行数
+     * @param queryTimeout クエリタイムアウト(秒)。0以下の場合は設定しない
+     * @param contexts 排他制御コンテキスト
+     * @param chunk 取得対象とする排他制御コンテキストのインデックス
+     * @param versions 取得したバージョン番号を設定する配列
+     */
+    private void getVersionsByMultiRowSelect(ExclusiveControlTable exclusiveControlTableHolder,
+                                             String sql, int rowCount, int queryTimeout,
+                                             List<? extends ExclusiveControlContext> contexts,
+                                             List<Integer> chunk, Version[] versions) {
+
+        String[] primaryKeyColumnNames = exclusiveControlTableHolder.getPrimaryKeyColumnNames();
+
+        AppDbConnection conn = getConnection(exclusiveControlTableHolder);
+        SqlPStatement stmt = conn.prepareStatement(sql);
+        if (queryTimeout > 0) {
+            stmt.setQueryTimeout(queryTimeout);
+        }
+        RowKey[] keys = new RowKey[chunk.size()];
+        int parameterIndex = 1;
+        for (int i = 0; i < rowCount; i++) {
+            // 行数の区切りに満たない分は、最後の行の条件を繰り返す
+            int index = chunk.get(Math.min(i, chunk.size() - 1));
+            Map<String, Object> condition = contexts.get(index).getCondition();
+            String[] keyValues = i < chunk.size() ? new String[primaryKeyColumnNames.length] : null;
+            for (int j = 0; j < primaryKeyColumnNames.length; j++) {
+                Object value = condition.get(ExclusiveControlUtil.convertToVariableName(primaryKeyColumnNames[j]));
+                stmt.setObject(parameterIndex++, value);
+                if (keyValues != null) {
+                    keyValues[j] = RowKey.normalize(value);
+                }
+            }
+            if (keyValues != null) {
+                keys[i] = new RowKey(keyValues);
+            }
+        }
+
+        Map<RowKey, Long> foundVersions = new HashMap<RowKey, Long>();
+        for (SqlRow row : stmt.retrieve()) {
+            String[] keyValues = new String[primaryKeyColumnNames.length];
+            for (int j = 0; j < primaryKeyColumnNames.length; j++) {
+                keyValues[j] = RowKey.normalize(row.getString(primaryKeyColumnNames[j]));
+            }
+            foundVersions.put(new RowKey(keyValues), row.getLong(exclusiveControlTableHolder.getVersionColumnName()));
+        }
+
+        for (int i = 0; i < chunk.size(); i++) {
+            Long version = foundVersions.get(keys[i]);
+            if (version != null) {
+                versions[chunk.get(i)] = new NumericVersion(contexts.get(chunk.get(i)), version);
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p/>
+     * 複数行の一括チェックが有効な場合は、排他制御用テーブルごとに
+     * 複数のバージョン番号を1つのSQL文でまとめて取得し、取得結果と比較してバージョン番号をチェックする。
+     * 楽観ロックエラーとなったバージョン番号は、引数で指定された順に{@link OptimisticLockException}に設定する。
+     * @see #setMultiRowCheckEnabled(boolean)
+     */
+    public void checkVersions(List<Version> versions) {
+
+        flushDeferredUpdates();
+        long startTime = metricsRecorder.start();
+        List<Version> errorVersions = multiRowCheckEnabled
+                ? checkVersionsByTable(versions)
+                : checkVersionsByRow(versions);
+        metricsRecorder.recordVersions(ExclusiveControlOperation.CHECK_VERSIONS, startTime, versions, errorVersions);
+
+        if (!errorVersions.isEmpty()) {
+            throw createOptimisticLockException(errorVersions);
+        }
+    }
+
+    /**
+     * バージョン番号を1件ずつチェックする。
+     * @param versions バージョン番号
+     * @return 楽観ロックエラーとなったバージョン番号
+     */
+    private List<Version> checkVersionsByRow(List<Version> versions) {
+
+        ErrorCollector errors = new ErrorCollector(versions.size(), maxErrorCount);
+        for (int i = 0; i < versions.size() && !errors.isLimitReached(); i++) {
+            Version version = versions.get(i);
+            errors.set(i, !checkVersion(getExclusiveControlTableHolder(version), version));
+        }
+        return errors.toErrorVersions(versions);
+    }
+
+    /**
+     * バージョン番号を1件チェックする。
+     * @param exclusiveControlTableHolder 排他制御テーブルの情報
+     * @param version バージョン番号
+     * @return バージョン番号が更新されていない場合は{@code true}
+     */
+    private boolean checkVersion(ExclusiveControlTable exclusiveControlTableHolder, Version version) {
+
+        PositionalSql sql = exclusiveControlTableHolder.getPositionalSelectAndCheckSql();
+
+        AppDbConnection conn = getConnection(exclusiveControlTableHolder);
+        SqlPStatement stmt = conn.prepareStatement(sql.getSql());
+        sql.bind(stmt, version.getPrimaryKeyCondition(), NumericVersion.toVersionNo(version));
+        SqlResultSet resultSet = stmt.retrieve();
+        return !resultSet.isEmpty();
+    }
+
+    /**
+     * 排他制御用テーブルごとに複数のバージョン番号をまとめてチェックする。
+     * @param versions バージョン番号
+     * @return 楽観ロックエラーとなったバージョン番号(引数で指定された順)
+     */
+    private List<Version> checkVersionsByTable(List<Version> versions) {
+
+        ErrorCollector errors = new ErrorCollector(versions.size(), maxErrorCount);
+        for (Map.Entry<ExclusiveControlTable, List<Integer>> entry : groupIndexesByTable(versions).entrySet()) {
+            ExclusiveControlTable exclusiveControlTableHolder = entry.getKey();
+            List<Integer> indexes = entry.getValue();
+            if (exclusiveControlTableHolder.getPrimaryKeyColumnNames() == null) {
+                for (int i = 0; i < indexes.size() && !errors.isLimitReached(); i++) {
+                    errors.set(indexes.get(i), !checkVersion(exclusiveControlTableHolder, versions.get(indexes.get(i))));
+                }
+            } else if (multiRowBindingMode != MultiRowBindingMode.IN_LIST
+                    && indexes.size() > statementRowCounts.getRowsPerStatement()) {
+                for (int from = 0; from < indexes.size() && !errors.isLimitReached(); from += bulkChunkSize) {
+                    List<Integer> chunk = indexes.subList(from, Math.min(from + bulkChunkSize, indexes.size()));
+                    checkVersionsByKeyTable(exclusiveControlTableHolder, versions, chunk, errors);
+                }
+            } else {
+                int rowsPerStatement = statementRowCounts.getRowsPerStatement();
+                for (int from = 0; from < indexes.size() && !errors.isLimitReached(); from += rowsPerStatement) {
+                    List<Integer> chunk = indexes.subList(from, Math.min(from + rowsPerStatement, indexes.size()));
+                    if (countCheckEnabled && countMatchedVersions(exclusiveControlTableHolder, versions, chunk) == chunk.size()) {
+                        continue;
+                    }
+                    checkVersionsByMultiRowSelect(exclusiveControlTableHolder, versions, chunk, errors);
+                }
+            }
+            if (errors.isLimitReached()) {
+                break;
+            }
+        }
+        return errors.toErrorVersions(versions);
+    }
+
+    /**
+     * 同一の排他制御用テーブルに対する複数のバージョン番号を1つのSQL文でチェックする。
+     * <p/>
+     * 主キーとバージョン番号の組み合わせに一致する行を取得し、
+     * 取得できなかった組み合わせを楽観ロックエラーとする。
+     * @param exclusiveControlTableHolder 排他制御テーブルの情報
+     * @param versions バージョン番号
+     * @param chunk チェック対象とするバージョン番号のインデックス
+     * @param errors 楽観ロックエラーとなったバージョン番号のインデックスを設定するオブジェクト
+     */
+    private void checkVersionsByMultiRowSelect(ExclusiveControlTable exclusiveControlTableHolder,
+                                               List<Version> versions, List<Integer> chunk, ErrorCollector errors) {
+
+        String[] primaryKeyColumnNames = exclusiveControlTableHolder.getPrimaryKeyColumnNames();
+        int rowCount = statementRowCounts.getStatementRowCount(chunk.size());
+        String sql = createMultiRowSelectSql(exclusiveControlTableHolder, rowCount, true);
+
+        AppDbConnection conn = getConnection(exclusiveControlTableHolder);
+        SqlPStatement stmt = conn.prepareStatement(sql);
+        RowKey[] keys = new RowKey[chunk.size()];
+        bindVersionConditions(stmt, primaryKeyColumnNames, rowCount, versions, chunk, keys);
+        setCheckResults(exclusiveControlTableHolder, stmt.retrieve(), chunk, keys, errors);
+    }
+
+    /**
+     * 同一の排他制御用テーブルに対する複数のバージョン番号を、配列または一時テーブルとの結合により1つのSQL文でチェックする。
+     * <p/>
+     * 件数によるチェックが有効な場合は、結合して一致する行の件数を先に取得し、
+     * 件数が一致しない場合のみ行を取得する。
+     * @param exclusiveControlTableHolder 排他制御テーブルの情報
+     * @param versions バージョン番号
+     * @param chunk チェック対象とするバージョン番号のインデックス
+     * @param errors 楽観ロックエラーとなったバージョン番号のインデックスを設定するオブジェクト
+     * @see #setMultiRowBindingMode(MultiRowBindingMode)
+     */
+    private void checkVersionsByKeyTable(ExclusiveControlTable exclusiveControlTableHolder,
+                                         List<Version> versions, List<Integer> chunk, ErrorCollector errors) {
+
+        String[] columnNames = appendColumnName(exclusiveControlTableHolder.getPrimaryKeyColumnNames(),
+                                                exclusiveControlTableHolder.getVersionColumnName());
+        RowKey[] keys = new RowKey[chunk.size()];
+        SqlResultSet rows = keyTableVersionChecker.retrieveMatchedRows(
+                exclusiveControlTableHolder, columnNames, versions, chunk, keys,
+                multiRowBindingMode, countCheckEnabled, bulkChunkSize);
+        if (rows != null) {
+            setCheckResults(exclusiveControlTableHolder, rows, chunk, keys, errors);
+        }
+    }
+
+    /**
+     * 一括チェックで取得した行と、チェック対象のバージョン番号の主キーとバージョン番号の組み合わせを比較し、
+     * 取得できなかった組み合わせを楽観ロックエラーとする。
+     * @param exclusiveControlTableHolder 排他制御テーブルの情報
+     * @param rows 取得した行
+     * @param indexes チェック対象とするバージョン番号のインデックス
+     * @param keys チェック対象とするバージョン番号の主キーとバージョン番号の組み合わせ(インデックスと同じ順)
+     * @param errors 楽観ロックエラーとなったバージョン番号のインデックスを設定するオブジェクト
+     */
+    private static void setCheckResults(ExclusiveControlTable exclusiveControlTableHolder, SqlResultSet rows,
+                                        List<Integer> indexes, RowKey[] keys, ErrorCollector errors) {
+
+        String[] primaryKeyColumnNames = exclusiveControlTableHolder.getPrimaryKeyColumnNames();
+        String versionColumnName = exclusiveControlTableHolder.getVersionColumnName();
+        Set<RowKey> foundKeys = new HashSet<RowKey>();
+        for (SqlRow row : rows) {
+            String[] keyValues = new String[primaryKeyColumnNames.length + 1];
+            for (int j = 0; j < primaryKeyColumnNames.length; j++) {
+                keyValues[j] = RowKey.normalize(row.getString(primaryKeyColumnNames[j]));
+            }
+            long versionNo = row.getLong(versionColumnName);
+            keyValues[primaryKeyColumnNames.length] = String.valueOf(versionNo);
+            foundKeys.add(new RowKey(keyValues));
+        }
+
+        for (int i = 0; i < indexes.size(); i++) {
+            errors.set(indexes.get(i), !foundKeys.contains(keys[i]));
+        }
+    }
+
+    /**
+     * 同一の排他制御用テーブルに対する複数のバージョン番号のうち、主キーとバージョン番号の組み合わせに
+     * 一致する行の件数を1つのSQL文で取得する。
+     * @param exclusiveControlTableHolder 排他制御テーブルの情報
+     * @param versions バージョン番号
+     * @param chunk チェック対象とするバージョン番号のインデックス
+     * @return 一致する行の件数
+     */
+    private int countMatchedVersions(ExclusiveControlTable exclusiveControlTableHolder,
+                                     List<Version> versions, List<Integer> chunk) {
+
+        String[] primaryKeyColumnNames = exclusiveControlTableHolder.getPrimaryKeyColumnNames();
+        int rowCount = statementRowCounts.getStatementRowCount(chunk.size());
+        String sql = createCountSql(exclusiveControlTableHolder, rowCount);
+
+        AppDbConnection conn = getConnection(exclusiveControlTableHolder);
+        SqlPStatement stmt = conn.prepareStatement(sql);
+        bindVersionConditions(stmt, primaryKeyColumnNames, rowCount, versions, chunk, null);
+        SqlResultSet resultSet = stmt.retrieve();
+        return ((Number) resultSet.get(0).get(COUNT_COLUMN_NAME)).intValue();
+    }
+
+    /**
+     * 主キーとバージョン番号の組み合わせを、行ごとにカラムの順で位置指定のバインド変数に設定する。
+     * <p/>
+     * SQL文の行数に満たない分は、最後のバージョン番号の値を繰り返して設定する。
+     * @param stmt ステートメント
+     * @param primaryKeyColumnNames 主キーのカラム名
+     * @param rowCount SQL文の行数
+     * @param versions バージョン番号
+     * @param chunk 設定対象とするバージョン番号のインデックス
+     * @param keys 設定した値から作成した行のキーを格納する配列。不要な場合はnull
+     */
+    private static void bindVersionConditions(SqlPStatement stmt, String[] primaryKeyColumnNames, int rowCount,
+                                              List<Version> versions, List<Integer> chunk, RowKey[] keys) {
+        int parameterIndex = 1;
+        for (int i = 0; i < rowCount; i++) {
+            Version version = versions.get(chunk.get(Math.min(i, chunk.size() - 1)));
+            Map<String, Object> condition = version.getPrimaryKeyCondition();
+            String[] keyValues = keys != null && i < chunk.size() ? new String[primaryKeyColumnNames.length + 1] : null;
+            for (int j = 0; j < primaryKeyColumnNames.length; j++) {
+                Object value = condition.get(ExclusiveControlUtil.convertToVariableName(primaryKeyColumnNames[j]));
+                stmt.setObject(parameterIndex++, value);
+                if (keyValues != null) {
+                    keyValues[j] = RowKey.normalize(value);
+                }
+            }
+            long versionNo = NumericVersion.toVersionNo(version);
+            stmt.setLong(parameterIndex++, versionNo);
+            if (keyValues != null) {
+                keyValues[primaryKeyColumnNames.length] = String.valueOf(versionNo);
+                keys[i] = new RowKey(keyValues);
+            }
+        }
+    }
+
+    /**
+     * 楽観ロックエラーの例外を作成する。
+     * <p/>
+     * 楽観ロックエラーの通知先が設定されている場合は、楽観ロックエラーとなったバージョン番号を通知する。
+     * @param errorVersions 楽観ロックエラーとなったバージョン番号
+     * @return 楽観ロックエラーの例外
+     */
+    private OptimisticLockException createOptimisticLockException(List<Version> errorVersions) {
+        if (optimisticLockErrorListener != null) {
+            optimisticLockErrorListener.onOptimisticLockError(errorVersions);
+        }
+        return new OptimisticLockException(errorVersions, getOptimisticLockErrorMessage());
+    }
+
+    /**
+     * 楽観的ロックエラー発生時のメッセージを取得する。
+     * @return 楽観的ロックエラー発生時のメッセージ。メッセージIDが設定されていない場合はnull
+     */
+    protected Message getOptimisticLockErrorMessage() {
+        return StringUtil.hasValue(optimisticLockErrorMessageId)
+                ? MessageUtil.createMessage(MessageLevel.ERROR, optimisticLockErrorMessageId) : null;
+    }
     
     /**
-     * 楽観ロックエラーメッセージIDを設定する。
-     * @param optimisticLockErrorMessageId 楽観ロックエラーメッセージID
+     * {@inheritDoc}
+     * <p/>
+     * バッチサイズが設定されている場合は、排他制御用テーブルごとにバージョン番号をまとめ、
+     * JDBCのバッチ実行によりバージョン番号を更新する。
+     * 楽観ロックエラーとなったバージョン番号は、バッチ実行の処理件数から判定し、
+     * 引数で指定された順に{@link OptimisticLockException}に設定する。
+     * @see #setBatchSize(int)
+     */
+    public void updateVersionsWithCheck(List<Version> versions) {
+
+        if (deferredUpdateEnabled) {
+            deferUpdatesWithCheck(versions);
+            return;
+        }
+
+        long startTime = metricsRecorder.start();
+        List<Version> errorVersions = batchSize > 0
+                ? updateVersionsWithCheckByBatch(versions)
+                : updateVersionsWithCheckByRow(versions);
+        metricsRecorder.recordVersions(ExclusiveControlOperation.UPDATE_VERSIONS_WITH_CHECK, startTime, versions, errorVersions);
+
+        if (versionCacheEnabled) {
+            for (Version version : versions) {
+                if (errorVersions.isEmpty()) {
+                    cacheVersion(version.getTableName(), version.getPrimaryKeyCondition(),
+                                 NumericVersion.toVersionNo(version) + 1);
+                } else {
+                    uncacheVersion(version.getTableName(), version.getPrimaryKeyCondition());
+                }
+            }
+        }
+        if (!errorVersions.isEmpty()) {
+            throw createOptimisticLockException(errorVersions);
+        }
+    }
+
+    /**
+     * バージョン番号を1件ずつ更新する。
+     * @param versions バージョン番号
+     * @return 楽観ロックエラーとなったバージョン番号
+     */
+    private List<Version> updateVersionsWithCheckByRow(List<Version> versions) {
+
+        ErrorCollector errors = new ErrorCollector(versions.size(), maxErrorCount);
+        for (int index : getUpdateOrder(versions)) {
+            Version version = versions.get(index);
+            errors.set(index, updateVersionWithCheck(getExclusiveControlTableHolder(version), version) == 0);
+            if (errors.isLimitReached()) {
+                break;
+            }
+        }
+        return errors.toErrorVersions(versions);
+    }
+
+    /**
+     * バージョン番号を更新する順序を取得する。
+     * <p/>
+     * {@link #setSortedUpdateEnabled(boolean)}で並べ替えが有効な場合は、
+     * テーブル名、主キーの値(主キーの変数名の順)の順に並べ替えたインデックスを返す。
+     * 主キーの値は末尾の空白を除去した文字列として比較する。
+     * 並べ替えが無効な場合は、引数で指定された順のインデックスを返す。
+     * @param versions バージョン番号
+     * @return 更新する順に並べたバージョン番号のインデックス
+     */
+    private List<Integer> getUpdateOrder(List<Version> versions) {
+
+        List<Integer> order = new ArrayList<Integer>(versions.size());
+        for (int i = 0; i < versions.size(); i++) {
+            order.add(i);
+        }
+        if (!sortedUpdateEnabled || versions.size() < 2) {
+            return order;
+        }
+
+        final RowKey[] sortKeys = new RowKey[versions.size()];
+        for (int i = 0; i < versions.size(); i++) {
+            Version version = versions.get(i);
+            sortKeys[i] = RowKey.create(version.getTableName(), version.getPrimaryKeyCondition());
+        }
+        Collections.sort(order, new Comparator<Integer>() {
+            public int compare(Integer o1, Integer o2) {
+                return sortKeys[o1].compareTo(sortKeys[o2]);
+            }
+        });
+        return order;
+    }
+
+    /**
+     * バージョン番号の更新チェックを伴う更新を1件実行する。
+     * @param exclusiveControlTableHolder 排他制御テーブルの情報
+     * @param version バージョン番号
+     * @return 更新件数
      */
-    public void setOptimisticLockErrorMessageId(String optimisticLockErrorMessageId) {
-        this.optimisticLockErrorMessageId = optimisticLockErrorMessageId;
+    private int updateVersionWithCheck(ExclusiveControlTable exclusiveControlTableHolder, Version version) {
+
+        PositionalSql sql = exclusiveControlTableHolder.getPositionalUpdateAndCheckSql();
+
+        AppDbConnection conn = getConnection(exclusiveControlTableHolder);
+        SqlPStatement stmt = conn.prepareStatement(sql.getSql());
+        sql.bind(stmt, version.getPrimaryKeyCondition(), NumericVersion.toVersionNo(version));
+        return stmt.executeUpdate();
     }
 
-    /** {@inheritDoc} */
-    public Version getVersion(ExclusiveControlContext context) {
-        
-        ExclusiveControlTable exclusiveControlTableHolder = getExclusiveControlTableHolder(context);
-        String sql = exclusiveControlTableHolder.getSelectSql();
-        Map<String, Object> condition = context.getCondition();
-        
-        AppDbConnection conn = DbConnectionContext.getConnection();
-        ParameterizedSqlPStatement stmt = conn.prepareParameterizedSqlStatement(sql, condition);
-        SqlResultSet resultSet = stmt.retrieve(condition);
-        
-        if (resultSet.isEmpty()) {
-            return null;
+    /**
+     * バージョン番号の更新チェックを伴う更新を行い、更新後のバージョン番号を返す。
+     * <p/>
+     * {@link #getUpdateReturningSyntax(TransactionManagerConnection)}で判定した構文を使用し、
+     * バージョン番号の更新と更新後のバージョン番号の取得を1つのSQL文で行う。
+     * 構文を使用できないデータベースでは、バージョン番号を更新した後に、同一トランザクション内で
+     * 更新後のバージョン番号を取得する。
+     * <p/>
+     * 楽観ロックエラーとなったバージョン番号が存在する場合は、
+     * 引数で指定された順に{@link OptimisticLockException}に設定して送出する。
+     * @param versions バージョン番号
+     * @return 更新後のバージョン番号(引数で指定された順)
+     * @throws OptimisticLockException 楽観ロックエラーとなったバージョン番号が存在する場合
+     * @see #getUpdateAndReturnSqlTemplate(UpdateReturningSyntax)
+     */
+    public List<Version> updateVersionsWithCheckAndReturn(List<Version> versions) {
+
+        flushDeferredUpdates();
+        long startTime = metricsRecorder.start();
+        Map<String, UpdateReturningSyntax> syntaxes = new HashMap<String, UpdateReturningSyntax>();
+
+        Version[] updatedVersions = new Version[versions.size()];
+        ErrorCollector errors = new ErrorCollector(versions.size(), maxErrorCount);
+        for (int index : getUpdateOrder(versions)) {
+            Version version = versions.get(index);
+            ExclusiveControlTable exclusiveControlTableHolder = getExclusiveControlTableHolder(version);
+            String connectionName = exclusiveControlTableHolder.getConnectionName();
+            UpdateReturningSyntax syntax = syntaxes.get(connectionName);
+            if (syntax == null) {
+                syntax = getUpdateReturningSyntax(DbConnectionContext.getTransactionManagerConnection(connectionName));
+                syntaxes.put(connectionName, syntax);
+            }
+            PositionalSql sql = getUpdateAndReturnSql(exclusiveControlTableHolder, syntax);
+            Long newVersion;
+            if (sql == null) {
+                newVersion = updateVersionWithCheck(exclusiveControlTableHolder, version) == 0
+                        ? null : selectVersion(exclusiveControlTableHolder, version.getPrimaryKeyCondition());
+            } else {
+                SqlPStatement stmt = getConnection(exclusiveControlTableHolder).prepareStatement(sql.getSql());
+                sql.bind(stmt, version.getPrimaryKeyCondition(), NumericVersion.toVersionNo(version));
+                SqlResultSet resultSet = stmt.retrieve();
+                newVersion = resultSet.isEmpty()
+                        ? null : resultSet.get(0).getLong(exclusiveControlTableHolder.getVersionColumnName());
+            }
+            errors.set(index, newVersion == null);
+            if (errors.isLimitReached()) {
+                break;
+            }
+            if (newVersion != null) {
+                updatedVersions[index] = new NumericVersion(version.getTableName(), version.getVersionColumnName(),
+                                                            newVersion, version.getPrimaryKeyCondition());
+            }
         }
-        
-        String version = resultSet.get(0).getString(context.getVersionColumnName());
-        return new Version(context, version);
+
+        List<Version> errorVersions = errors.toErrorVersions(versions);
+        metricsRecorder.recordVersions(ExclusiveControlOperation.UPDATE_VERSIONS_WITH_CHECK, startTime, versions, errorVersions);
+        if (!errorVersions.isEmpty()) {
+            for (Version version : versions) {
+                uncacheVersion(version.getTableName(), version.getPrimaryKeyCondition());
+            }
+            throw createOptimisticLockException(errorVersions);
+        }
+        for (Version version : updatedVersions) {
+            cacheVersion(version.getTableName(), version.getPrimaryKeyCondition(), NumericVersion.toVersionNo(version));
+        }
+        return Arrays.asList(updatedVersions);
+    }
+
+    /**
+     * 主キーの条件に対応するバージョン番号を取得する。
+     * @param exclusiveControlTableHolder 排他制御テーブルの情報
+     * @param condition 主キーの条件
+     * @return バージョン番号。存在しない場合はnull
+     */
+    private Long selectVersion(ExclusiveControlTable exclusiveControlTableHolder, Map<String, Object> condition) {
+        PositionalSql sql = exclusiveControlTableHolder.getPositionalSelectSql();
+        SqlPStatement stmt = getConnection(exclusiveControlTableHolder).prepareStatement(sql.getSql());
+        sql.bind(stmt, condition, null);
+        SqlResultSet resultSet = stmt.retrieve();
+        return resultSet.isEmpty()
+                ? null : resultSet.get(0).getLong(exclusiveControlTableHolder.getVersionColumnName());
+    }
+
+    /**
+     * バージョン番号の更新と更新後のバージョン番号の取得を1つのSQL文で行うための構文を判定する。
+     * <p/>
+     * デフォルト実装では、ダイアレクトから下記のとおり判定する。
+     * <ul>
+     * <li>{@link PostgreSQLDialect}: {@link UpdateReturningSyntax#RETURNING}</li>
+     * <li>{@link DB2Dialect}: {@link UpdateReturningSyntax#FINAL_TABLE}</li>
+     * <li>{@link H2Dialect}: FINAL TABLEをサポートするバージョン(1.4.198以降)の場合は{@link UpdateReturningSyntax#FINAL_TABLE}</li>
+     * <li>{@link SqlServerDialect}: {@link UpdateReturningSyntax#OUTPUT}</li>
+     * <li>上記以外: {@link UpdateReturningSyntax#NONE}</li>
+     * </ul>
+     * @param connection データベース接続
+     * @return 構文
+     */
+    protected UpdateReturningSyntax getUpdateReturningSyntax(TransactionManagerConnection connection) {
+        Dialect dialect = connection.getDialect();
+        if (dialect instanceof PostgreSQLDialect) {
+            return UpdateReturningSyntax.RETURNING;
+        }
+        if (dialect instanceof DB2Dialect) {
+            return UpdateReturningSyntax.FINAL_TABLE;
+        }
+        if (dialect instanceof SqlServerDialect) {
+            return UpdateReturningSyntax.OUTPUT;
+        }
+        if (dialect instanceof H2Dialect && supportsH2FinalTable(connection)) {
+            return UpdateReturningSyntax.FINAL_TABLE;
+        }
+        return UpdateReturningSyntax.NONE;
     }
-    
-    /** {@inheritDoc} */
-    public void checkVersions(List<Version> versions) {
-        
-        List<Version> errorVersions = new ArrayList<Version>();
-        
-        for (Version version : versions) {
-            
-            ExclusiveControlTable exclusiveControlTableHolder = getExclusiveControlTableHolder(version);
-            String sql = exclusiveControlTableHolder.getSelectAndCheckSql();
-            Map<String, Object> condition = version.getPrimaryKeyCondition();
-            putVersionNo(condition, exclusiveControlTableHolder, version);
 
-            AppDbConnection conn = DbConnectionContext.getConnection();
-            ParameterizedSqlPStatement stmt = conn.prepareParameterizedSqlStatement(sql, condition);
-            SqlResultSet resultSet = stmt.retrieve(condition);
-            
-            if (resultSet.isEmpty()) {
-                errorVersions.add(version);
+    /**
+     * H2がFINAL TABLEをサポートするバージョン(1.4.198以降)であるか否かを判定する。
+     * @param connection データベース接続
+     * @return FINAL TABLEをサポートする場合は{@code true}
+     */
+    private static boolean supportsH2FinalTable(TransactionManagerConnection connection) {
+        String productVersion;
+        try {
+            productVersion = connection.getConnection().getMetaData().getDatabaseProductVersion();
+        } catch (SQLException e) {
+            throw new DbAccessException("failed to get database product version.", e);
+        }
+        // 例: "1.4.191 (2015-10-11)"
+        String[] numbers = productVersion.split("[^0-9]+");
+        int[] required = {1, 4, 198};
+        for (int i = 0; i < required.length; i++) {
+            int number = i < numbers.length && numbers[i].length() > 0 ? Integer.parseInt(numbers[i]) : 0;
+            if (number != required[i]) {
+                return number > required[i];
             }
         }
-        
-        if (!errorVersions.isEmpty()) {
-            throw new OptimisticLockException(errorVersions, getOptimisticLockErrorMessage());
+        return true;
+    }
+
+    /**
+     * バージョン番号の更新と更新後のバージョン番号の取得を行うSQL文を取得する。
+     * <p/>
+     * 作成したSQL文は、{@link ExclusiveControlTable}に構文ごとにキャッシュする。
+     * @param exclusiveControlTableHolder 排他制御テーブルの情報
+     * @param syntax 構文
+     * @return SQL文。構文を使用できない場合はnull
+     */
+    private PositionalSql getUpdateAndReturnSql(ExclusiveControlTable exclusiveControlTableHolder, UpdateReturningSyntax syntax) {
+        String template = getUpdateAndReturnSqlTemplate(syntax);
+        if (template == null || exclusiveControlTableHolder.getPrimaryKeyColumnNames() == null) {
+            return null;
+        }
+        String key = "updateAndReturn:" + syntax.name();
+        PositionalSql sql = exclusiveControlTableHolder.getCachedSql(key);
+        if (sql != null) {
+            return sql;
         }
+        return exclusiveControlTableHolder.cacheSql(key, new PositionalSql(
+                createUpdateAndReturnSql(exclusiveControlTableHolder, template),
+                exclusiveControlTableHolder.getVersionColumnName()));
     }
-    
+
     /**
-     * 楽観的ロックエラー発生時のメッセージを取得する。
-     * @return 楽観的ロックエラー発生時のメッセージ。メッセージIDが設定されていない場合はnull
+     * テンプレートからバージョン番号の更新と更新後のバージョン番号の取得を行うSQL文を作成する。
+     * <p/>
+     * テンプレートのプレースホルダを排他制御用テーブルのテーブル名、カラム名、条件に置き換える。
+     * 作成したSQL文は、構文ごとに{@link ExclusiveControlTable}にキャッシュされる。
+     * @param exclusiveControlTableHolder 排他制御テーブルの情報
+     * @param template {@link #getUpdateAndReturnSqlTemplate(UpdateReturningSyntax)}が返すテンプレート
+     * @return SQL文
      */
-    protected Message getOptimisticLockErrorMessage() {
-        return StringUtil.hasValue(optimisticLockErrorMessageId)
-                ? MessageUtil.createMessage(MessageLevel.ERROR, optimisticLockErrorMessageId) : null;
+    protected String createUpdateAndReturnSql(ExclusiveControlTable exclusiveControlTableHolder, String template) {
+        String versionColumnName = exclusiveControlTableHolder.getVersionColumnName();
+        return template.replace("$VERSION$", versionColumnName)
+                       .replace("$TABLE_NAME$", exclusiveControlTableHolder.getTableName())
+                       .replace("$PRIMARY_KEYS_CONDITION$",
+                                getPrimaryKeysCondition(exclusiveControlTableHolder.getPrimaryKeyColumnNames()))
+                       .replace("$VERSION_CONDITION$",
+                                versionColumnName + " = :" + ExclusiveControlUtil.convertToVariableName(versionColumnName));
     }
-    
-    /** {@inheritDoc} */
-    public void updateVersionsWithCheck(List<Version> versions) {
-        
-        List<Version> errorVersions = new ArrayList<Version>();
-        
-        for (Version version : versions) {
-            
-            ExclusiveControlTable exclusiveControlTableHolder = getExclusiveControlTableHolder(version);
-            String sql = exclusiveControlTableHolder.getUpdateAndCheckSql();
-            Map<String, Object> data = version.getPrimaryKeyCondition();
-            putVersionNo(data, exclusiveControlTableHolder, version);
-            
-            AppDbConnection conn = DbConnectionContext.getConnection();
-            ParameterizedSqlPStatement stmt = conn.prepareParameterizedSqlStatement(sql, data);
-            int count = stmt.executeUpdateByMap(data);
-            
-            if (count == 0) {
-                errorVersions.add(version);
+
+    /**
+     * 排他制御用テーブルごとにJDBCのバッチ実行でバージョン番号を更新する。
+     * <p/>
+     * JDBCドライバがバッチ実行の処理件数を返さない({@link Statement#SUCCESS_NO_INFO}を返す)場合は、
+     * 更新対象のバージョン番号を判定できないため、該当のバッチ実行をセーブポイントまでロールバックし、
+     * 1件ずつの更新にフォールバックする。
+     * 以降の呼び出しでは、同じデータベース接続名の排他制御用テーブルはバッチ実行を行わずに1件ずつ更新する。
+     * @param versions バージョン番号
+     * @return 楽観ロックエラーとなったバージョン番号(引数で指定された順)
+     */
+    private List<Version> updateVersionsWithCheckByBatch(List<Version> versions) {
+
+        ErrorCollector errors = new ErrorCollector(versions.size(), maxErrorCount);
+        for (Map.Entry<ExclusiveControlTable, List<Integer>> entry
+                : groupIndexesByTable(versions, getUpdateOrder(versions)).entrySet()) {
+            List<Integer> indexes = entry.getValue();
+            for (int from = 0; from < indexes.size() && !errors.isLimitReached(); from += batchSize) {
+                List<Integer> chunk = indexes.subList(from, Math.min(from + batchSize, indexes.size()));
+                executeUpdateAndCheckBatch(entry.getKey(), versions, chunk, errors);
+            }
+            if (errors.isLimitReached()) {
+                break;
             }
         }
-        
-        if (!errorVersions.isEmpty()) {
-            throw new OptimisticLockException(errorVersions, getOptimisticLockErrorMessage());
+        return errors.toErrorVersions(versions);
+    }
+
+    /**
+     * バージョン番号のインデックスを排他制御用テーブルごとにまとめる。
+     * @param versions バージョン番号
+     * @return 排他制御テーブルの情報をキーとしたバージョン番号のインデックス(排他制御用テーブルの出現順)
+     */
+    private Map<ExclusiveControlTable, List<Integer>> groupIndexesByTable(List<Version> versions) {
+        Map<ExclusiveControlTable, List<Integer>> indexesByTable = new LinkedHashMap<ExclusiveControlTable, List<Integer>>();
+        for (int i = 0; i < versions.size(); i++) {
+            addIndex(indexesByTable, getExclusiveControlTableHolder(versions.get(i)), i);
+        }
+        return indexesByTable;
+    }
+
+    /**
+     * 指定された順序で、バージョン番号のインデックスを排他制御用テーブルごとにまとめる。
+     * @param versions バージョン番号
+     * @param order バージョン番号のインデックスを処理する順に並べたもの
+     * @return 排他制御テーブルの情報をキーとしたバージョン番号のインデックス(指定された順序での排他制御用テーブルの出現順)
+     */
+    private Map<ExclusiveControlTable, List<Integer>> groupIndexesByTable(List<Version> versions, List<Integer> order) {
+        Map<ExclusiveControlTable, List<Integer>> indexesByTable = new LinkedHashMap<ExclusiveControlTable, List<Integer>>();
+        for (int index : order) {
+            addIndex(indexesByTable, getExclusiveControlTableHolder(versions.get(index)), index);
+        }
+        return indexesByTable;
+    }
+
+    /**
+     * 排他制御コンテキストのインデックスを排他制御用テーブルごとにまとめる。
+     * @param contexts 排他制御コンテキスト
+     * @return 排他制御テーブルの情報をキーとした排他制御コンテキストのインデックス(排他制御用テーブルの出現順)
+     */
+    private Map<ExclusiveControlTable, List<Integer>> groupContextIndexesByTable(List<? extends ExclusiveControlContext> contexts) {
+        Map<ExclusiveControlTable, List<Integer>> indexesByTable = new LinkedHashMap<ExclusiveControlTable, List<Integer>>();
+        for (int i = 0; i < contexts.size(); i++) {
+            addIndex(indexesByTable, getExclusiveControlTableHolder(contexts.get(i)), i);
+        }
+        return indexesByTable;
+    }
+
+    /**
+     * 排他制御用テーブルごとのインデックスにインデックスを追加する。
+     * @param indexesByTable 排他制御テーブルの情報をキーとしたインデックス
+     * @param exclusiveControlTableHolder 排他制御テーブルの情報
+     * @param index 追加するインデックス
+     */
+    private static void addIndex(Map<ExclusiveControlTable, List<Integer>> indexesByTable,
+                                 ExclusiveControlTable exclusiveControlTableHolder, int index) {
+        List<Integer> indexes = indexesByTable.get(exclusiveControlTableHolder);
+        if (indexes == null) {
+            indexes = new ArrayList<Integer>();
+            indexesByTable.put(exclusiveControlTableHolder, indexes);
+        }
+        indexes.add(index);
+    }
+
+    /**
+     * 同一の排他制御用テーブルに対するバージョン番号の更新をバッチ実行する。
+     * @param exclusiveControlTableHolder 排他制御テーブルの情報
+     * @param versions バージョン番号
+     * @param chunk バッチ実行の対象とするバージョン番号のインデックス
+     * @param errors 楽観ロックエラーとなったバージョン番号のインデックスを設定するオブジェクト
+     */
+    private void executeUpdateAndCheckBatch(ExclusiveControlTable exclusiveControlTableHolder,
+                                            List<Version> versions, List<Integer> chunk, ErrorCollector errors) {
+
+        PositionalSql sql = exclusiveControlTableHolder.getPositionalUpdateAndCheckSql();
+        PositionalSql.BatchRows rows = sql.createBatchRows(chunk.size());
+        for (int index : chunk) {
+            Version version = versions.get(index);
+            rows.add(version.getPrimaryKeyCondition(), NumericVersion.toVersionNo(version));
+        }
+
+        int[] counts = batchUpdateExecutor.executeBatch(exclusiveControlTableHolder.getConnectionName(), sql, rows, true);
+        for (int i = 0; i < counts.length; i++) {
+            errors.set(chunk.get(i), counts[i] == 0);
         }
     }
 
     /** {@inheritDoc} */
     public void updateVersion(ExclusiveControlContext context) {
-        
+
+        if (deferredUpdateEnabled) {
+            deferUpdate(context);
+            return;
+        }
+
+        long startTime = metricsRecorder.start();
         ExclusiveControlTable exclusiveControlTableHolder = getExclusiveControlTableHolder(context);
-        String sql = exclusiveControlTableHolder.getUpdateSql();
+        PositionalSql sql = exclusiveControlTableHolder.getPositionalUpdateSql();
         
-        AppDbConnection conn = DbConnectionContext.getConnection();
+        AppDbConnection conn = getConnection(exclusiveControlTableHolder);
         Map<String, Object> data = context.getCondition();
-        ParameterizedSqlPStatement stmt = conn.prepareParameterizedSqlStatement(sql, data);
+        SqlPStatement stmt = conn.prepareStatement(sql.getSql());
+        sql.bind(stmt, data, null);
         
-        int count = stmt.executeUpdateByMap(data);
+        int count = stmt.executeUpdate();
         if (count != 1) {
             throw new IllegalArgumentException(
-                    String.format("version was not found. sql = [%s], data = [%s]", sql, data));
+                    String.format("version was not found. sql = [%s], data = [%s]",
+                                  exclusiveControlTableHolder.getUpdateSql(), data));
+        }
+        metricsRecorder.record(ExclusiveControlOperation.UPDATE_VERSION, startTime, context.getTableName(), 1, 0);
+        if (versionCacheEnabled) {
+            versionCache.increment(exclusiveControlTableHolder.getConnectionName(), context.getTableName(), data);
         }
     }
     
@@ -151,31 +1494,368 @@ public class BasicExclusiveControlManager implements ExclusiveControlManager {
     
     /** {@inheritDoc} */
     public void addVersion(ExclusiveControlContext context) {
-        
+
+        long startTime = metricsRecorder.start();
         ExclusiveControlTable exclusiveControlTableHolder = getExclusiveControlTableHolder(context);
-        String sql = exclusiveControlTableHolder.getInsertSql();
+        PositionalSql sql = exclusiveControlTableHolder.getPositionalInsertSql();
         
-        AppDbConnection conn = DbConnectionContext.getConnection();
-        Map<String, Object> data = new HashMap<String, Object>(context.getCondition());
-        data.put(ExclusiveControlUtil.convertToVariableName(exclusiveControlTableHolder.getVersionColumnName()), getInitialVersion());
-        ParameterizedSqlPStatement stmt = conn.prepareParameterizedSqlStatement(sql, data);
-        stmt.executeUpdateByMap(data);
+        AppDbConnection conn = getConnection(exclusiveControlTableHolder);
+        SqlPStatement stmt = conn.prepareStatement(sql.getSql());
+        sql.bind(stmt, context.getCondition(), getInitialVersion().longValue());
+        stmt.executeUpdate();
+        metricsRecorder.record(ExclusiveControlOperation.ADD_VERSION, startTime, context.getTableName(), 1, 0);
+        cacheVersion(context.getTableName(), context.getCondition(), getInitialVersion());
     }
     
     /** {@inheritDoc} */
     public void removeVersion(ExclusiveControlContext context) {
-        
+
+        flushDeferredUpdates();
+        long startTime = metricsRecorder.start();
         ExclusiveControlTable exclusiveControlTableHolder = getExclusiveControlTableHolder(context);
-        String sql = exclusiveControlTableHolder.getDeleteSql();
+        PositionalSql sql = exclusiveControlTableHolder.getPositionalDeleteSql();
         
-        AppDbConnection conn = DbConnectionContext.getConnection();
+        AppDbConnection conn = getConnection(exclusiveControlTableHolder);
         Map<String, Object> condition = context.getCondition();
-        ParameterizedSqlPStatement stmt = conn.prepareParameterizedSqlStatement(sql, condition);
-        int count = stmt.executeUpdateByMap(condition);
+        SqlPStatement stmt = conn.prepareStatement(sql.getSql());
+        sql.bind(stmt, condition, null);
+        int count = stmt.executeUpdate();
         if (count != 1) {
             throw new IllegalArgumentException(
-                    String.format("version was not found. sql = [%s], condition = [%s]", sql, condition));
+                    String.format("version was not found. sql = [%s], condition = [%s]",
+                                  exclusiveControlTableHolder.getDeleteSql(), condition));
+        }
+        metricsRecorder.record(ExclusiveControlOperation.REMOVE_VERSION, startTime, context.getTableName(), 1, 0);
+        uncacheVersion(context.getTableName(), condition);
+    }
+
+    /**
+     * 複数の排他制御コンテキストに対応するバージョン番号をまとめて追加する。
+     * <p/>
+     * {@link #addVersions(Iterator)}に処理を委譲する。
+     * @param contexts 排他制御コンテキスト
+     */
+    public void addVersions(List<? extends ExclusiveControlContext> contexts) {
+        addVersions(contexts.iterator());
+    }
+
+    /**
+     * 複数の排他制御コンテキストに対応するバージョン番号をまとめて追加する。
+     * <p/>
+     * {@link #setBulkChunkSize(int)}で指定された件数ずつ排他制御コンテキストを読み込み、
+     * 排他制御用テーブルごとにJDBCのバッチ実行でバージョン番号を追加する。
+     * 全件をメモリ上に保持しないため、大量の排他制御コンテキストを逐次生成するイテレータを指定できる。
+     * @param contexts 排他制御コンテキスト
+     */
+    public void addVersions(Iterator<? extends ExclusiveControlContext> contexts) {
+
+        while (contexts.hasNext()) {
+            List<ExclusiveControlContext> chunk = nextChunk(contexts);
+            for (Map.Entry<ExclusiveControlTable, List<Integer>> entry : groupContextIndexesByTable(chunk).entrySet()) {
+                long startTime = metricsRecorder.start();
+                PositionalSql sql = entry.getKey().getPositionalInsertSql();
+                PositionalSql.BatchRows rows = sql.createBatchRows(entry.getValue().size());
+                List<ExclusiveControlContext> tableContexts = new ArrayList<ExclusiveControlContext>(entry.getValue().size());
+                long initialVersion = getInitialVersion();
+                for (int index : entry.getValue()) {
+                    rows.add(chunk.get(index).getCondition(), initialVersion);
+                    tableContexts.add(chunk.get(index));
+                }
+                batchUpdateExecutor.executeBatch(entry.getKey().getConnectionName(), sql, rows, false);
+                metricsRecorder.recordContexts(ExclusiveControlOperation.ADD_VERSION, startTime, tableContexts);
+                for (ExclusiveControlContext context : tableContexts) {
+                    cacheVersion(context.getTableName(), context.getCondition(), getInitialVersion());
+                }
+            }
+        }
+    }
+
+    /**
+     * 複数の排他制御コンテキストに対応するバージョン番号をまとめて削除する。
+     * <p/>
+     * {@link #removeVersions(Iterator)}に処理を委譲する。
+     * @param contexts 排他制御コンテキスト
+     */
+    public void removeVersions(List<? extends ExclusiveControlContext> contexts) {
+        removeVersions(contexts.iterator());
+    }
+
+    /**
+     * 複数の排他制御コンテキストに対応するバージョン番号をまとめて削除する。
+     * <p/>
+     * {@link #setBulkChunkSize(int)}で指定された件数ずつ排他制御コンテキストを読み込み、
+     * 排他制御用テーブルごとにJDBCのバッチ実行でバージョン番号を削除する。
+     * {@link #removeVersion(ExclusiveControlContext)}と同様に、行ごとの削除件数が1件でない場合は例外を送出する。
+     * @param contexts 排他制御コンテキスト
+     * @throws IllegalArgumentException 削除件数が1件でない排他制御コンテキストが存在する場合
+     */
+    public void removeVersions(Iterator<? extends ExclusiveControlContext> contexts) {
+
+        flushDeferredUpdates();
+        while (contexts.hasNext()) {
+            List<ExclusiveControlContext> chunk = nextChunk(contexts);
+            for (Map.Entry<ExclusiveControlTable, List<Integer>> entry : groupContextIndexesByTable(chunk).entrySet()) {
+                long startTime = metricsRecorder.start();
+                PositionalSql sql = entry.getKey().getPositionalDeleteSql();
+                List<Integer> indexes = entry.getValue();
+                PositionalSql.BatchRows rows = sql.createBatchRows(indexes.size());
+                List<ExclusiveControlContext> tableContexts = new ArrayList<ExclusiveControlContext>(indexes.size());
+                for (int index : indexes) {
+                    rows.add(chunk.get(index).getCondition());
+                    tableContexts.add(chunk.get(index));
+                }
+                int[] counts = batchUpdateExecutor.executeBatch(entry.getKey().getConnectionName(), sql, rows, true);
+                for (int i = 0; i < counts.length; i++) {
+                    if (counts[i] != 1) {
+                        throw new IllegalArgumentException(
+                                String.format("version was not found. sql = [%s], condition = [%s]",
+                                              entry.getKey().getDeleteSql(), tableContexts.get(i).getCondition()));
+                    }
+                }
+                metricsRecorder.recordContexts(ExclusiveControlOperation.REMOVE_VERSION, startTime, tableContexts);
+                for (ExclusiveControlContext context : tableContexts) {
+                    uncacheVersion(context.getTableName(), context.getCondition());
+                }
+            }
+        }
+    }
+
+    /**
+     * コミット前の処理を行う。
+     * <p/>
+     * トランザクションのデータベース接続で遅延しているバージョン番号の更新を実行する。
+     * シャードがデフォルト以外のデータベース接続を使用する場合、そのシャードの更新は
+     * シャードのデータベース接続のトランザクションのコミット前に実行する。
+     * @param transactionName トランザクション名(データベース接続名)
+     * @throws OptimisticLockException 遅延していた更新で楽観ロックエラーとなったバージョン番号が存在する場合
+     * @see #flushDeferredUpdates()
+     */
+    public void beforeCommit(String transactionName) {
+        if (deferredUpdateEnabled) {
+            flushDeferredUpdates(deferredUpdates.removeAll(transactionName));
+        }
+    }
+
+    /**
+     * トランザクション終了後の処理を行う。
+     * <p/>
+     * トランザクションのデータベース接続に対応するバージョン番号のキャッシュと、
+     * 実行されなかったバージョン番号の更新を破棄する。
+     * @param transactionName トランザクション名(データベース接続名)
+     * @param committed コミットされた場合は{@code true}
+     */
+    public void afterCompletion(String transactionName, boolean committed) {
+        versionCache.clear(transactionName);
+        deferredUpdates.clear(transactionName);
+    }
+
+    /**
+     * 遅延しているバージョン番号の更新を実行する。
+     * <p/>
+     * 遅延している更新が存在する全てのデータベース接続について、データベース接続ごとに実行する。
+     * 同一の行に対する更新は1回にまとめられており、排他制御用テーブルと主キーの値の順に実行する。
+     * 同じSQL文で連続する更新はバッチ実行し、{@link #setBatchSize(int)}でバッチサイズが設定されている場合は、
+     * バッチサイズごとに分割して実行する。
+     * <p/>
+     * バージョン番号の更新遅延が無効な場合や、遅延している更新が存在しない場合は何もしない。
+     * @throws IllegalArgumentException 更新チェックを伴わない更新で、バージョン番号が見つからない場合
+     * @throws OptimisticLockException 楽観ロックエラーとなったバージョン番号が存在する場合
+     * @see #setDeferredUpdateEnabled(boolean)
+     */
+    public void flushDeferredUpdates() {
+
+        if (!deferredUpdateEnabled) {
+            return;
+        }
+        for (String connectionName : deferredUpdates.getConnectionNames()) {
+            flushDeferredUpdates(deferredUpdates.removeAll(connectionName));
+        }
+    }
+
+    /**
+     * 指定された遅延していた更新を実行する。
+     * @param updates 遅延していた更新(キーは行を識別するキー)
+     * @throws IllegalArgumentException 更新チェックを伴わない更新で、バージョン番号が見つからない場合
+     * @throws OptimisticLockException 楽観ロックエラーとなったバージョン番号が存在する場合
+     */
+    private void flushDeferredUpdates(Map<RowKey, DeferredVersionUpdates.DeferredUpdate> updates) {
+
+        if (updates.isEmpty()) {
+            return;
+        }
+        List<Version> errorVersions = new ArrayList<Version>();
+        for (List<DeferredVersionUpdates.DeferredUpdate> batch : DeferredVersionUpdates.toBatches(updates, batchSize)) {
+            if (maxErrorCount > 0 && errorVersions.size() >= maxErrorCount) {
+                break;
+            }
+            executeDeferredUpdates(batch, errorVersions);
+        }
+
+        if (!errorVersions.isEmpty()) {
+            for (DeferredVersionUpdates.DeferredUpdate update : updates.values()) {
+                uncacheVersion(update.getTableName(), update.getCondition());
+            }
+            throw createOptimisticLockException(errorVersions);
+        }
+    }
+
+    /**
+     * 同一のSQL文で実行する遅延していた更新をバッチ実行する。
+     * @param updates 遅延していた更新
+     * @param errorVersions 楽観ロックエラーとなったバージョン番号を追加するリスト
+     * @throws IllegalArgumentException 更新チェックを伴わない更新で、バージョン番号が見つからない場合
+     */
+    private void executeDeferredUpdates(List<DeferredVersionUpdates.DeferredUpdate> updates, List<Version> errorVersions) {
+
+        long startTime = metricsRecorder.start();
+        int errorCount = errorVersions.size();
+        DeferredVersionUpdates.DeferredUpdate first = updates.get(0);
+        PositionalSql sql = first.getVersion() == null
+                ? first.getExclusiveControlTableHolder().getPositionalUpdateSql()
+                : first.getExclusiveControlTableHolder().getPositionalUpdateAndCheckSql();
+        PositionalSql.BatchRows rows = sql.createBatchRows(updates.size());
+        for (DeferredVersionUpdates.DeferredUpdate update : updates) {
+            if (update.getVersion() == null) {
+                rows.add(update.getCondition());
+            } else {
+                rows.add(update.getCondition(), NumericVersion.toVersionNo(update.getVersion()));
+            }
+        }
+
+        int[] counts = batchUpdateExecutor.executeBatch(
+                first.getExclusiveControlTableHolder().getConnectionName(), sql, rows, true);
+        for (int i = 0; i < counts.length; i++) {
+            DeferredVersionUpdates.DeferredUpdate update = updates.get(i);
+            if (update.getVersion() == null) {
+                if (counts[i] != 1) {
+                    throw new IllegalArgumentException(
+                            String.format("version was not found. sql = [%s], data = [%s]",
+                                          update.getExclusiveControlTableHolder().getUpdateSql(), update.getCondition()));
+                }
+                if (versionCacheEnabled) {
+                    versionCache.increment(
+                            update.getExclusiveControlTableHolder().getConnectionName(), update.getTableName(), update.getCondition());
+                }
+            } else if (counts[i] == 0) {
+                errorVersions.add(update.getVersion());
+            } else {
+                cacheVersion(update.getTableName(), update.getCondition(),
+                             NumericVersion.toVersionNo(update.getVersion()) + 1);
+            }
+        }
+        metricsRecorder.record(first.getVersion() == null
+                                       ? ExclusiveControlOperation.UPDATE_VERSION
+                                       : ExclusiveControlOperation.UPDATE_VERSIONS_WITH_CHECK,
+                               startTime, first.getTableName(), updates.size(), errorVersions.size() - errorCount);
+    }
+
+    /**
+     * 更新チェックを伴わないバージョン番号の更新を遅延する。
+     * <p/>
+     * 同一の行に対する更新が既に遅延している場合は、既存の更新にまとめる。
+     * 遅延した更新は、排他制御用テーブルにアクセスするデータベース接続ごとに記録する。
+     * @param context 排他制御コンテキスト
+     */
+    private void deferUpdate(ExclusiveControlContext context) {
+        deferredUpdates.defer(getExclusiveControlTableHolder(context), context.getTableName(), context.getCondition());
+    }
+
+    /**
+     * 更新チェックを伴うバージョン番号の更新を遅延する。
+     * <p/>
+     * 同一の行に対する更新チェックを伴う更新が既に遅延しており、指定されたバージョン番号が
+     * 遅延している更新の実行後のバージョン番号と一致する場合は、既存の更新にまとめる。
+     * それ以外で同一の行に対する更新が既に遅延している場合は、その行の遅延している更新のみを実行してから記録する。
+     * @param versions バージョン番号
+     */
+    private void deferUpdatesWithCheck(List<Version> versions) {
+        for (Version version : versions) {
+            ExclusiveControlTable exclusiveControlTableHolder = getExclusiveControlTableHolder(version);
+            if (deferredUpdates.isMergeable(exclusiveControlTableHolder, version)) {
+                continue;
+            }
+            flushDeferredUpdates(deferredUpdates.remove(
+                    exclusiveControlTableHolder, version.getTableName(), version.getPrimaryKeyCondition()));
+            deferredUpdates.deferWithCheck(exclusiveControlTableHolder, version);
+        }
+    }
+
+    /**
+     * 遅延しているバージョン番号の更新を、取得したバージョン番号に反映する。
+     * @param version 取得したバージョン番号
+     * @return 遅延している更新の実行後のバージョン番号。遅延している更新が存在しない場合は引数のバージョン番号
+     */
+    private Version applyDeferredUpdate(Version version) {
+        if (!deferredUpdateEnabled || version == null) {
+            return version;
+        }
+        return deferredUpdates.apply(getConnectionName(version.getTableName(), version.getPrimaryKeyCondition()), version);
+    }
+
+    /**
+     * バージョン番号の操作に使用するデータベース接続名を取得する。
+     * @return データベース接続名
+     */
+    private static String getConnectionName() {
+        return TransactionContext.DEFAULT_TRANSACTION_CONTEXT_KEY;
+    }
+
+    /**
+     * 排他制御用テーブルの行にアクセスするデータベース接続名を取得する。
+     * <p/>
+     * シャーディングを定義したテーブルの場合は、主キーの値に応じたシャードのデータベース接続名を返す。
+     * @param tableName 排他制御コンテキストのテーブル名
+     * @param condition 主キーの条件
+     * @return データベース接続名
+     */
+    private String getConnectionName(String tableName, Map<String, ?> condition) {
+        ExclusiveControlTableSharding sharding = getTableSharding(tableName);
+        return sharding == null ? getConnectionName() : sharding.getConnectionName(sharding.getShardIndex(condition));
+    }
+
+    /**
+     * 排他制御用テーブルにアクセスするデータベース接続を取得する。
+     * @param exclusiveControlTableHolder 排他制御テーブルの情報
+     * @return データベース接続
+     */
+    private static AppDbConnection getConnection(ExclusiveControlTable exclusiveControlTableHolder) {
+        return DbConnectionContext.getConnection(exclusiveControlTableHolder.getConnectionName());
+    }
+
+    /**
+     * キャッシュが有効な場合に、バージョン番号をキャッシュに設定する。
+     * @param tableName 排他制御用テーブルのテーブル名
+     * @param condition 主キーの条件
+     * @param version バージョン番号
+     */
+    private void cacheVersion(String tableName, Map<String, ?> condition, long version) {
+        if (versionCacheEnabled) {
+            versionCache.put(getConnectionName(tableName, condition), tableName, condition, version);
+        }
+    }
+
+    /**
+     * キャッシュが有効な場合に、バージョン番号をキャッシュから削除する。
+     * @param tableName 排他制御用テーブルのテーブル名
+     * @param condition 主キーの条件
+     */
+    private void uncacheVersion(String tableName, Map<String, ?> condition) {
+        if (versionCacheEnabled) {
+            versionCache.remove(getConnectionName(tableName, condition), tableName, condition);
+        }
+    }
+
+    /**
+     * イテレータから一括処理の単位となる件数分の排他制御コンテキストを読み込む。
+     * @param contexts 排他制御コンテキスト
+     * @return 読み込んだ排他制御コンテキスト
+     */
+    private List<ExclusiveControlContext> nextChunk(Iterator<? extends ExclusiveControlContext> contexts) {
+        List<ExclusiveControlContext> chunk = new ArrayList<ExclusiveControlContext>(bulkChunkSize);
+        while (chunk.size() < bulkChunkSize && contexts.hasNext()) {
+            chunk.add(contexts.next());
         }
+        return chunk;
     }
     
     /**
@@ -186,26 +1866,80 @@ public class BasicExclusiveControlManager implements ExclusiveControlManager {
      * @return 排他制御用テーブルに対応した{@link ExclusiveControlTable}
      */
     protected ExclusiveControlTable getExclusiveControlTableHolder(ExclusiveControlContext context) {
+        String[] primaryKeyColumnNames = getPrimaryKeyColumnNames(context);
+        ExclusiveControlTableSharding sharding = getTableSharding(context.getTableName());
+        if (sharding != null) {
+            return getShardTableHolder(sharding, sharding.getShardIndex(context.getCondition()),
+                                       context.getVersionColumnName(), primaryKeyColumnNames);
+        }
+        return getExclusiveControlTableHolder(
+                context.getTableName(), context.getVersionColumnName(), primaryKeyColumnNames);
+    }
+
+    /**
+     * 排他制御コンテキストの主キーのカラム名を取得する。
+     * @param context 排他制御コンテキスト
+     * @return 主キーのカラム名
+     */
+    private static String[] getPrimaryKeyColumnNames(ExclusiveControlContext context) {
         Enum<?>[] pkEnums = context.getPrimaryKeyColumnNames();
         String[] primaryKeyColumnNames = new String[pkEnums.length];
         for (int i = 0; i < pkEnums.length; i++) {
             primaryKeyColumnNames[i] = pkEnums[i].name();
         }
-        return getExclusiveControlTableHolder(
-                context.getTableName(), context.getVersionColumnName(), primaryKeyColumnNames);
+        return primaryKeyColumnNames;
     }
     
     /**
      * 排他制御用テーブルに対応した{@link ExclusiveControlTable}を取得する。
      * <p/>
      * {@link #getExclusiveControlTableHolder(String, String, String...)}に処理を委譲する。
+     * 主キーのカラム名は、主キーの条件の変数名(カラム名を小文字に変換したもの)を大文字に変換して使用する。
      * @param version バージョン番号
      * @return 排他制御用テーブルに対応した{@link ExclusiveControlTable}
      */
     protected ExclusiveControlTable getExclusiveControlTableHolder(Version version) {
         Set<String> pkSet = version.getPrimaryKeyCondition().keySet();
+        String[] primaryKeyColumnNames = new String[pkSet.size()];
+        int i = 0;
+        for (String pk : pkSet) {
+            primaryKeyColumnNames[i++] = pk.toUpperCase();
+        }
+        ExclusiveControlTableSharding sharding = getTableSharding(version.getTableName());
+        if (sharding != null) {
+            return getShardTableHolder(sharding, sharding.getShardIndex(version.getPrimaryKeyCondition()),
+                                       version.getVersionColumnName(), primaryKeyColumnNames);
+        }
         return getExclusiveControlTableHolder(
-                version.getTableName(), version.getVersionColumnName(), pkSet.toArray(new String[pkSet.size()]));
+                version.getTableName(), version.getVersionColumnName(), primaryKeyColumnNames);
+    }
+
+    /**
+     * 排他制御コンテキストのテーブル名に対応するシャーディングの定義を取得する。
+     * @param tableName 排他制御コンテキストのテーブル名
+     * @return シャーディングの定義。定義されていない場合はnull
+     */
+    private ExclusiveControlTableSharding getTableSharding(String tableName) {
+        return tableShardings.isEmpty() ? null : tableShardings.get(tableName);
+    }
+
+    /**
+     * シャードに対応した{@link ExclusiveControlTable}を取得する。
+     * <p/>
+     * {@link #getExclusiveControlTableHolder(String, String, String...)}と同様にキャッシュし、
+     * 生成時はシャードのテーブル名で{@link #createExclusiveControlTableSchemaAndSqlHolder(String, String, String...)}を呼び出す。
+     * キャッシュのキーには、シャードが使用するデータベース接続名を含める。
+     * @param sharding シャーディングの定義
+     * @param shardIndex シャードの番号
+     * @param versionColumnName バージョン番号カラム名
+     * @param primaryKeyColumnNames 主キーのカラム名
+     * @return シャードに対応した{@link ExclusiveControlTable}
+     */
+    private ExclusiveControlTable getShardTableHolder(ExclusiveControlTableSharding sharding, int shardIndex,
+                                                      String versionColumnName, String[] primaryKeyColumnNames) {
+        return getExclusiveControlTableHolder(new TableKey(sharding.getShardTableName(shardIndex),
+                                                           sharding.getConnectionName(shardIndex),
+                                                           versionColumnName, primaryKeyColumnNames));
     }
     
     /**
@@ -215,6 +1949,12 @@ public class BasicExclusiveControlManager implements ExclusiveControlManager {
      * このため、キャッシュに存在する場合は、キャッシュしているものを返し、
      * キャッシュに存在しない場合は、{@link ExclusiveControlTable}を生成し、キャッシュに追加したものを返す。
      * {@link ExclusiveControlTable}の生成では、排他制御用テーブルのスキーマ情報からSQL文を作成する。
+     * <p/>
+     * キャッシュのキーは、テーブル名、データベース接続名、バージョン番号カラム名、主キーのカラム名の組み合わせとする。
+     * 主キーのカラム名は大文字と小文字、指定順を区別せずに比較し、キャッシュに存在しない場合は、指定されたカラム名で生成する。
+     * 本メソッドで取得した{@link ExclusiveControlTable}は、デフォルトのデータベース接続を使用する。
+     * キャッシュへの追加はロックを取得せずに行うため、複数スレッドが同時に同じキーの
+     * {@link ExclusiveControlTable}を生成する場合があるが、キャッシュに追加されるのは最初の1つのみとなる。
      * @param tableName 排他制御用テーブルのテーブル名
      * @param versionColumnName バージョン番号カラム名
      * @param primaryKeyColumnNames 主キーのカラム名
@@ -222,17 +1962,53 @@ public class BasicExclusiveControlManager implements ExclusiveControlManager {
      * @see #createExclusiveControlTableSchemaAndSqlHolder(String, String, String...)
      */
     protected ExclusiveControlTable getExclusiveControlTableHolder(String tableName, String versionColumnName, String... primaryKeyColumnNames) {
-        if (exclusiveControlTableSchemaAndSqlHolderCache.containsKey(tableName)) {
-            return exclusiveControlTableSchemaAndSqlHolderCache.get(tableName);
-        }
-        synchronized (exclusiveControlTableSchemaAndSqlHolderCache) {
-            if (exclusiveControlTableSchemaAndSqlHolderCache.containsKey(tableName)) {
-                return exclusiveControlTableSchemaAndSqlHolderCache.get(tableName);
-            }
-            exclusiveControlTableSchemaAndSqlHolderCache.put(
-                tableName, createExclusiveControlTableSchemaAndSqlHolder(tableName, versionColumnName, primaryKeyColumnNames));
-            return exclusiveControlTableSchemaAndSqlHolderCache.get(tableName);
+        return getExclusiveControlTableHolder(new TableKey(tableName, getConnectionName(), versionColumnName, primaryKeyColumnNames));
+    }
+
+    /**
+     * キャッシュのキーに対応した{@link ExclusiveControlTable}を取得する。
+     * キャッシュに存在しない場合は生成し、キャッシュに追加する。
+     * @param key キャッシュのキー
+     * @return キャッシュのキーに対応した{@link ExclusiveControlTable}
+     */
+    private ExclusiveControlTable getExclusiveControlTableHolder(TableKey key) {
+        ExclusiveControlTable exclusiveControlTable = exclusiveControlTables.get(key);
+        if (exclusiveControlTable != null) {
+            tableCacheHitCount.incrementAndGet();
+            return exclusiveControlTable;
         }
+        tableCacheMissCount.incrementAndGet();
+        ExclusiveControlTable created = createExclusiveControlTableSchemaAndSqlHolder(
+                key.tableName, key.versionColumnName, key.primaryKeyColumnNames);
+        created.setConnectionName(key.connectionName);
+        ExclusiveControlTable existing = exclusiveControlTables.putIfAbsent(key, created);
+        return existing != null ? existing : created;
+    }
+
+    /**
+     * キャッシュしている{@link ExclusiveControlTable}の件数を取得する。
+     * @return キャッシュしている{@link ExclusiveControlTable}の件数
+     */
+    public int getExclusiveControlTableCacheSize() {
+        return exclusiveControlTables.size();
+    }
+
+    /**
+     * {@link ExclusiveControlTable}のキャッシュのヒット件数を取得する。
+     * @return キャッシュのヒット件数
+     */
+    public long getExclusiveControlTableCacheHitCount() {
+        return tableCacheHitCount.get();
+    }
+
+    /**
+     * {@link ExclusiveControlTable}のキャッシュのミス件数を取得する。
+     * <p/>
+     * 複数スレッドが同時に同じキーを取得した場合は、それぞれミスとして数える。
+     * @return キャッシュのミス件数
+     */
+    public long getExclusiveControlTableCacheMissCount() {
+        return tableCacheMissCount.get();
     }
     
     /**
@@ -320,7 +2096,8 @@ public class BasicExclusiveControlManager implements ExclusiveControlManager {
         String deleteSql = getDeleteSqlTemplate().replace("$TABLE_NAME$", tableName)
                                                  .replace("$PRIMARY_KEYS_CONDITION$", primaryKeysCondition);
         
-        return new ExclusiveControlTable(versionColumnName, selectSql, selectAndCheckSql, insertSql, updateSql, updateAndCheckSql, deleteSql);
+        return new ExclusiveControlTable(tableName, primaryKeyColumnNames, versionColumnName,
+                                         selectSql, selectAndCheckSql, insertSql, updateSql, updateAndCheckSql, deleteSql);
     }
     
     /**
@@ -493,6 +2270,50 @@ public class BasicExclusiveControlManager implements ExclusiveControlManager {
     protected String getUpdateAndCheckSqlTemplate() {
         return "UPDATE $TABLE_NAME$ SET $VERSION$ = ($VERSION$ + 1) WHERE $PRIMARY_KEYS_CONDITION$ AND $VERSION_CONDITION$";
     }
+
+    /**
+     * バージョン番号の更新(バージョン番号の更新チェックあり)と更新後のバージョン番号の取得を
+     * 1つのSQL文で行うためのテンプレートを取得する。
+     * <pre>
+     * テンプレートに使用できるプレースホルダは{@link #getUpdateAndCheckSqlTemplate()}と同じ。
+     * 
+     * デフォルト実装では、構文ごとに下記のテンプレートを返す。
+     * 
+     * RETURNING
+     * 
+     *     "UPDATE $TABLE_NAME$ SET $VERSION$ = ($VERSION$ + 1) WHERE $PRIMARY_KEYS_CONDITION$ AND $VERSION_CONDITION$ RETURNING $VERSION$"
+     * 
+     * FINAL_TABLE
+     * 
+     *     "SELECT $VERSION$ FROM FINAL TABLE (UPDATE $TABLE_NAME$ SET $VERSION$ = ($VERSION$ + 1) WHERE $PRIMARY_KEYS_CONDITION$ AND $VERSION_CONDITION$)"
+     * 
+     * OUTPUT
+     * 
+     *     "UPDATE $TABLE_NAME$ SET $VERSION$ = ($VERSION$ + 1) OUTPUT INSERTED.$VERSION$ WHERE $PRIMARY_KEYS_CONDITION$ AND $VERSION_CONDITION$"
+     * 
+     * NONE
+     * 
+     *     null(バージョン番号を更新した後に、更新後のバージョン番号を取得する)
+     * 
+     * </pre>
+     * @param syntax 構文
+     * @return テンプレート。構文を使用しない場合はnull
+     */
+    protected String getUpdateAndReturnSqlTemplate(UpdateReturningSyntax syntax) {
+        switch (syntax) {
+            case RETURNING:
+                return "UPDATE $TABLE_NAME$ SET $VERSION$ = ($VERSION$ + 1) WHERE $PRIMARY_KEYS_CONDITION$ AND $VERSION_CONDITION$"
+                        + " RETURNING $VERSION$";
+            case FINAL_TABLE:
+                return "SELECT $VERSION$ FROM FINAL TABLE"
+                        + " (UPDATE $TABLE_NAME$ SET $VERSION$ = ($VERSION$ + 1) WHERE $PRIMARY_KEYS_CONDITION$ AND $VERSION_CONDITION$)";
+            case OUTPUT:
+                return "UPDATE $TABLE_NAME$ SET $VERSION$ = ($VERSION$ + 1) OUTPUT INSERTED.$VERSION$"
+                        + " WHERE $PRIMARY_KEYS_CONDITION$ AND $VERSION_CONDITION$";
+            default:
+                return null;
+        }
+    }
     
     /**
      * バージョン番号を削除するSQL文のテンプレートを取得する。
@@ -526,6 +2347,258 @@ public class BasicExclusiveControlManager implements ExclusiveControlManager {
     protected String getDeleteSqlTemplate() {
         return "DELETE FROM $TABLE_NAME$ WHERE $PRIMARY_KEYS_CONDITION$";
     }
+
+    /**
+     * 複数行のバージョン番号をまとめて取得するSQL文のテンプレートを取得する。
+     * <pre>
+     * 下記のプレースホルダを使用してテンプレートを作成する。
+     * 
+     * $PRIMARY_KEYS$: 主キーのカラム名(例: "PK1, PK2")
+     * $VERSION$: バージョン番号カラム名
+     * $TABLE_NAME$: 排他制御用テーブルのテーブル名
+     * $MULTI_ROW_CONDITION$: 複数行の条件({@link #getMultiRowCondition(String[], int)}の戻り値)
+     * 
+     * デフォルト実装では、下記のテンプレートを返す。
+     * 
+     * "SELECT $PRIMARY_KEYS$, $VERSION$ FROM $TABLE_NAME$ WHERE $MULTI_ROW_CONDITION$"
+     * 
+     * 変換例を下記に示す。(2行分のバージョン番号の更新チェックを行う場合)
+     * 
+     * テーブル定義
+     * 
+     *     CREATE TABLE EXCLUSIVE_USER (
+     *         USER_ID CHAR(6) NOT NULL,
+     *         VERSION NUMBER(10) NOT NULL,
+     *         PRIMARY KEY(USER_ID)
+     *     )
+     * 
+     * テンプレートから作成されるSQL文
+     * 
+     *     "SELECT USER_ID, VERSION FROM EXCLUSIVE_USER WHERE (USER_ID = ? AND VERSION = ?) OR (USER_ID = ? AND VERSION = ?)"
+     * 
+     * </pre>
+     * @return 複数行のバージョン番号をまとめて取得するSQL文のテンプレート
+     */
+    protected String getMultiRowSelectSqlTemplate() {
+        return "SELECT $PRIMARY_KEYS$, $VERSION$ FROM $TABLE_NAME$ WHERE $MULTI_ROW_CONDITION$";
+    }
+
+    /**
+     * 複数行の主キーとバージョン番号の組み合わせに一致する行の件数を取得するSQL文のテンプレートを取得する。
+     * <pre>
+     * テンプレートに使用できるプレースホルダは{@link #getMultiRowSelectSqlTemplate()}と同じ。
+     * 件数は"ROW_COUNT"という別名で取得すること。
+     * 
+     * デフォルト実装では、下記のテンプレートを返す。
+     * 
+     * "SELECT COUNT(*) AS ROW_COUNT FROM $TABLE_NAME$ WHERE $MULTI_ROW_CONDITION$"
+     * 
+     * </pre>
+     * @return 件数を取得するSQL文のテンプレート
+     * @see #setCountCheckEnabled(boolean)
+     */
+    protected String getCountSqlTemplate() {
+        return "SELECT COUNT(*) AS " + COUNT_COLUMN_NAME + " FROM $TABLE_NAME$ WHERE $MULTI_ROW_CONDITION$";
+    }
+
+    /**
+     * 主キーとバージョン番号の組み合わせを保持する表(配列を展開した表または一時テーブル)と結合して、
+     * 一致する行を取得するSQL文のテンプレートを取得する。
+     * <pre>
+     * テンプレートには、下記のプレースホルダを使用できる。
+     * 
+     * $PRIMARY_KEYS$: 排他制御用テーブルの別名(T)で修飾した主キーのカラム名(カンマ区切り)
+     * $VERSION$: 排他制御用テーブルの別名(T)で修飾したバージョン番号カラム名
+     * $TABLE_NAME$: 排他制御用テーブル名
+     * $KEY_TABLE$: 別名(K)を付けた主キーとバージョン番号の組み合わせを保持する表
+     * $JOIN_CONDITION$: 結合条件(例: "T.USER_ID = K.USER_ID AND T.VERSION = K.VERSION")
+     * 
+     * デフォルト実装では、下記のテンプレートを返す。
+     * 
+     * "SELECT $PRIMARY_KEYS$, $VERSION$ FROM $TABLE_NAME$ T INNER JOIN $KEY_TABLE$ ON $JOIN_CONDITION$"
+     * 
+     * </pre>
+     * @return 結合して一致する行を取得するSQL文のテンプレート
+     * @see #setMultiRowBindingMode(MultiRowBindingMode)
+     */
+    protected String getKeyTableJoinSqlTemplate() {
+        return "SELECT $PRIMARY_KEYS$, $VERSION$ FROM $TABLE_NAME$ T INNER JOIN $KEY_TABLE$ ON $JOIN_CONDITION$";
+    }
+
+    /**
+     * 主キーとバージョン番号の組み合わせを保持する表(配列を展開した表または一時テーブル)と結合して、
+     * 一致する行の件数を取得するSQL文のテンプレートを取得する。
+     * <p/>
+     * 件数は"ROW_COUNT"という別名で取得すること。
+     * <pre>
+     * テンプレートには、{@link #getKeyTableJoinSqlTemplate()}と同じプレースホルダを使用できる。
+     * 
+     * デフォルト実装では、下記のテンプレートを返す。
+     * 
+     * "SELECT COUNT(*) AS ROW_COUNT FROM $TABLE_NAME$ T INNER JOIN $KEY_TABLE$ ON $JOIN_CONDITION$"
+     * 
+     * </pre>
+     * @return 結合して一致する行の件数を取得するSQL文のテンプレート
+     * @see #setCountCheckEnabled(boolean)
+     * @see #setMultiRowBindingMode(MultiRowBindingMode)
+     */
+    protected String getKeyTableCountSqlTemplate() {
+        return "SELECT COUNT(*) AS " + COUNT_COLUMN_NAME + " FROM $TABLE_NAME$ T INNER JOIN $KEY_TABLE$ ON $JOIN_CONDITION$";
+    }
+
+    /**
+     * カラムごとの配列を行に展開した表を取得する。
+     * <p/>
+     * 配列はカラムの順に位置指定のバインド変数("?")で指定し、展開した表には別名Kと、カラム名と同じ列名を付けること。
+     * デフォルト実装では、ダイアレクトから下記のとおり作成する。
+     * <ul>
+     * <li>{@link H2Dialect}: "TABLE(USER_ID VARCHAR = ?, VERSION BIGINT = ?) K"</li>
+     * <li>上記以外: "UNNEST(?, ?) AS K(USER_ID, VERSION)"(PostgreSQLなど)</li>
+     * </ul>
+     * Oracleのようにコレクション型を使用するデータベースでは、本メソッドと
+     * {@link #createArray(TransactionManagerConnection, String, Object[])}をオーバライドすること。
+     * @param connection データベース接続
+     * @param columnNames 主キーとバージョン番号のカラム名
+     * @param typeNames カラムごとの配列の要素の型名({@link #getArrayTypeName(int, String)}の戻り値)
+     * @return 配列を行に展開した表
+     */
+    protected String getArrayKeyTable(TransactionManagerConnection connection, String[] columnNames, String[] typeNames) {
+        StringBuilder sb = new StringBuilder();
+        if (connection.getDialect() instanceof H2Dialect) {
+            sb.append("TABLE(");
+            for (int i = 0; i < columnNames.length; i++) {
+                sb.append(i == 0 ? "" : ", ").append(columnNames[i]).append(' ').append(typeNames[i]).append(" = ?");
+            }
+            return sb.append(") K").toString();
+        }
+        sb.append("UNNEST(");
+        for (int i = 0; i < columnNames.length; i++) {
+            sb.append(i == 0 ? "?" : ", ?");
+        }
+        return sb.append(") AS K(").append(Builder.join(columnNames, ", ")).append(')').toString();
+    }
+
+    /**
+     * 配列の要素の型名を取得する。
+     * <p/>
+     * 排他制御用テーブルのカラムの型から、配列の要素の型名を決定する。
+     * デフォルト実装では、JDBCドライバが返すカラムの型名をそのまま返す。
+     * データベースの配列で使用できる型名が異なる場合は、本メソッドをオーバライドすること。
+     * @param sqlType カラムの型({@link java.sql.Types}の値)
+     * @param columnTypeName JDBCドライバが返すカラムの型名
+     * @return 配列の要素の型名
+     */
+    protected String getArrayTypeName(int sqlType, String columnTypeName) {
+        return columnTypeName;
+    }
+
+    /**
+     * バインド変数に設定する配列を作成する。
+     * <p/>
+     * デフォルト実装では、{@link H2Dialect}の場合は要素の配列をそのまま返し、
+     * それ以外の場合は{@link java.sql.Connection#createArrayOf(String, Object[])}で作成する。
+     * @param connection データベース接続
+     * @param typeName 配列の要素の型名
+     * @param values 配列の要素
+     * @return バインド変数に設定する配列
+     */
+    protected Object createArray(TransactionManagerConnection connection, String typeName, Object[] values) {
+        if (connection.getDialect() instanceof H2Dialect) {
+            return values;
+        }
+        try {
+            return connection.getConnection().createArrayOf(typeName, values);
+        } catch (SQLException e) {
+            throw new DbAccessException("failed to create array. type name = [" + typeName + "]", e);
+        }
+    }
+
+    /**
+     * 主キーとバージョン番号の組み合わせを登録する一時テーブルを作成するSQL文のテンプレートを取得する。
+     * <p/>
+     * テンプレートを返す場合、SQL文は一括チェックのたびに呼び出し元のトランザクション内で実行される。
+     * このため、トランザクションをコミットせず、セッションごとに行が分離される一時テーブルを、
+     * 存在しない場合のみ作成するSQL文とすること。
+     * 複数のセッションで行を共有する表を使用すると、同時に実行された一括チェックが互いの行を削除・参照してしまう。
+     * <pre>
+     * テンプレートには、下記のプレースホルダを使用できる。
+     * 
+     * $TEMPORARY_TABLE_NAME$: 一時テーブル名({@link #getTemporaryTableName(String)}の戻り値)
+     * $PRIMARY_KEYS$: 主キーのカラム名(カンマ区切り)
+     * $VERSION$: バージョン番号カラム名
+     * $TABLE_NAME$: 排他制御用テーブル名
+     * 
+     * デフォルト実装では、nullを返す(一時テーブルを作成しない)。
+     * OracleやDB2のように一時テーブルを事前に定義するデータベースでは、
+     * セッションごとに行が分離される一時テーブルを事前に作成しておくこと。
+     * 
+     *     Oracle、DB2: "CREATE GLOBAL TEMPORARY TABLE EXCLUSIVE_USER_MST_KEYS (...) ON COMMIT DELETE ROWS"
+     * 
+     * セッションごとに一時テーブルを作成するデータベースでは、本メソッドをオーバライドして下記のようなテンプレートを返すこと。
+     * 
+     *     H2: "CREATE LOCAL TEMPORARY TABLE IF NOT EXISTS $TEMPORARY_TABLE_NAME$ ON COMMIT DELETE ROWS TRANSACTIONAL
+     *          AS SELECT $PRIMARY_KEYS$, $VERSION$ FROM $TABLE_NAME$ WHERE 1 = 0"
+     *     PostgreSQL: "CREATE TEMPORARY TABLE IF NOT EXISTS $TEMPORARY_TABLE_NAME$ ON COMMIT DELETE ROWS
+     *          AS SELECT $PRIMARY_KEYS$, $VERSION$ FROM $TABLE_NAME$ WHERE 1 = 0"
+     * 
+     * </pre>
+     * @return 一時テーブルを作成するSQL文のテンプレート。一時テーブルを作成しない場合はnull
+     * @see #setMultiRowBindingMode(MultiRowBindingMode)
+     */
+    protected String getTemporaryTableCreateSqlTemplate() {
+        return null;
+    }
+
+    /**
+     * 主キーとバージョン番号の組み合わせを登録する一時テーブルのテーブル名を取得する。
+     * <p/>
+     * 一時テーブルには、排他制御用テーブルの主キーとバージョン番号と同じ名前のカラムが必要となる。
+     * デフォルト実装では、排他制御用テーブル名の末尾に"_KEYS"を付けた名前を返す。
+     * @param tableName 排他制御用テーブル名
+     * @return 一時テーブルのテーブル名
+     */
+    protected String getTemporaryTableName(String tableName) {
+        return tableName + "_KEYS";
+    }
+
+    /**
+     * 複数行をまとめて悲観ロックするSQL文のテンプレートを取得する。
+     * <pre>
+     * テンプレートに使用できるプレースホルダは{@link #getMultiRowSelectSqlTemplate()}と同じ。
+     * 
+     * デフォルト実装では、ロック待ちの方式ごとに下記のテンプレートを返す。
+     * 
+     * WAIT
+     * 
+     *     "SELECT $PRIMARY_KEYS$, $VERSION$ FROM $TABLE_NAME$ WHERE $MULTI_ROW_CONDITION$ FOR UPDATE"
+     * 
+     * NOWAIT
+     * 
+     *     "SELECT $PRIMARY_KEYS$, $VERSION$ FROM $TABLE_NAME$ WHERE $MULTI_ROW_CONDITION$ FOR UPDATE NOWAIT"
+     * 
+     * SKIP_LOCKED
+     * 
+     *     "SELECT $PRIMARY_KEYS$, $VERSION$ FROM $TABLE_NAME$ WHERE $MULTI_ROW_CONDITION$ FOR UPDATE SKIP LOCKED"
+     * 
+     * SQL Serverのようにロックヒントで指定するデータベースを使用する場合は、このメソッドをオーバライドすること。
+     * WAITでロック待ちのタイムアウトを指定する場合も、このメソッドをオーバライドしてデータベースごとの構文
+     * (Oracleの"FOR UPDATE WAIT n"など)を指定すること。
+     * 
+     * </pre>
+     * @param mode ロック待ちの方式
+     * @return 複数行をまとめて悲観ロックするSQL文のテンプレート
+     */
+    protected String getLockSqlTemplate(PessimisticLockMode mode) {
+        String template = "SELECT $PRIMARY_KEYS$, $VERSION$ FROM $TABLE_NAME$ WHERE $MULTI_ROW_CONDITION$ FOR UPDATE";
+        switch (mode) {
+            case NOWAIT:
+                return template + " NOWAIT";
+            case SKIP_LOCKED:
+                return template + " SKIP LOCKED";
+            default:
+                return template;
+        }
+    }
     
     /**
      * INSERT文のカラムと値を取得する。
@@ -568,18 +2641,285 @@ public class BasicExclusiveControlManager implements ExclusiveControlManager {
     }
 
     /**
-     * バージョン番号をデータオブジェクトに追加する。
-     *
-     * @param data データオブジェクト
+     * 複数行の条件を取得する。
+     * <p/>
+     * 指定されたカラムの値を位置指定のバインド変数("?")で指定する条件を、行数分作成する。
+     * バインド変数は、行ごとにカラムの順に並べること。
+     * デフォルト実装では、カラムが1つの場合はIN句("COL1 IN (?, ?)")、
+     * 複数の場合は行ごとの条件をORで連結した条件("(COL1 = ? AND COL2 = ?) OR (COL1 = ? AND COL2 = ?)")を返す。
+     * 行値式をサポートするデータベースでは、本メソッドをオーバライドして
+     * "(COL1, COL2) IN ((?, ?), (?, ?))"のような条件に変更することもできる。
+     * @param columnNames カラム名
+     * @param rowCount 行数
+     * @return 複数行の条件
+     */
+    protected String getMultiRowCondition(String[] columnNames, int rowCount) {
+        StringBuilder sb = new StringBuilder();
+        if (columnNames.length == 1) {
+            sb.append(columnNames[0]).append(" IN (");
+            for (int i = 0; i < rowCount; i++) {
+                sb.append(i == 0 ? "?" : ", ?");
+            }
+            return sb.append(')').toString();
+        }
+        for (int i = 0; i < rowCount; i++) {
+            if (i != 0) {
+                sb.append(" OR ");
+            }
+            sb.append('(');
+            for (int j = 0; j < columnNames.length; j++) {
+                if (j != 0) {
+                    sb.append(" AND ");
+                }
+                sb.append(columnNames[j]).append(" = ?");
+            }
+            sb.append(')');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 複数行をまとめて扱うSQL文を{@link ExclusiveControlTable}にキャッシュする。
+     * @param exclusiveControlTableHolder 排他制御テーブルの情報
+     * @param key キャッシュのキー
+     * @param sql SQL文
+     * @return キャッシュに存在するSQL文
+     */
+    private static String cacheMultiRowSql(ExclusiveControlTable exclusiveControlTableHolder, String key, String sql) {
+        return exclusiveControlTableHolder.cacheSql(
+                key, new PositionalSql(sql, exclusiveControlTableHolder.getVersionColumnName())).getSql();
+    }
+
+    /**
+     * 複数行をまとめて悲観ロックするSQL文を取得する。
+     * <p/>
+     * 作成したSQL文は、{@link ExclusiveControlTable}にロック待ちの方式と行数ごとにキャッシュする。
+     * @param exclusiveControlTableHolder 排他制御テーブルの情報
+     * @param rowCount 行数
+     * @param mode ロック待ちの方式
+     * @return 複数行をまとめて悲観ロックするSQL文
+     */
+    private String createLockSql(ExclusiveControlTable exclusiveControlTableHolder, int rowCount, PessimisticLockMode mode) {
+        String key = "lock:" + mode.name() + ':' + rowCount;
+        PositionalSql cached = exclusiveControlTableHolder.getCachedSql(key);
+        if (cached != null) {
+            return cached.getSql();
+        }
+        String[] primaryKeyColumnNames = exclusiveControlTableHolder.getPrimaryKeyColumnNames();
+        return cacheMultiRowSql(exclusiveControlTableHolder, key,
+                getLockSqlTemplate(mode).replace("$PRIMARY_KEYS$", Builder.join(primaryKeyColumnNames, ", "))
+                                        .replace("$VERSION$", exclusiveControlTableHolder.getVersionColumnName())
+                                        .replace("$TABLE_NAME$", exclusiveControlTableHolder.getTableName())
+                                        .replace("$MULTI_ROW_CONDITION$", getMultiRowCondition(primaryKeyColumnNames, rowCount)));
+    }
+
+    /**
+     * 複数行のバージョン番号をまとめて取得するSQL文を取得する。
+     * <p/>
+     * 作成したSQL文は、{@link ExclusiveControlTable}に条件の種類と行数ごとにキャッシュする。
+     * @param exclusiveControlTableHolder 排他制御テーブルの情報
+     * @param rowCount 行数
+     * @param withVersion 条件にバージョン番号を含める場合は{@code true}
+     * @return 複数行のバージョン番号をまとめて取得するSQL文
+     */
+    private String createMultiRowSelectSql(ExclusiveControlTable exclusiveControlTableHolder, int rowCount, boolean withVersion) {
+        String key = (withVersion ? "multiRowCheck:" : "multiRowSelect:") + rowCount;
+        PositionalSql cached = exclusiveControlTableHolder.getCachedSql(key);
+        if (cached != null) {
+            return cached.getSql();
+        }
+        String[] primaryKeyColumnNames = exclusiveControlTableHolder.getPrimaryKeyColumnNames();
+        String versionColumnName = exclusiveControlTableHolder.getVersionColumnName();
+        String[] conditionColumnNames = withVersion ? appendColumnName(primaryKeyColumnNames, versionColumnName) : primaryKeyColumnNames;
+        return cacheMultiRowSql(exclusiveControlTableHolder, key,
+                getMultiRowSelectSqlTemplate().replace("$PRIMARY_KEYS$", Builder.join(primaryKeyColumnNames, ", "))
+                                              .replace("$VERSION$", versionColumnName)
+                                              .replace("$TABLE_NAME$", exclusiveControlTableHolder.getTableName())
+                                              .replace("$MULTI_ROW_CONDITION$", getMultiRowCondition(conditionColumnNames, rowCount)));
+    }
+
+    /**
+     * 複数行の主キーとバージョン番号の組み合わせに一致する行の件数を取得するSQL文を取得する。
+     * <p/>
+     * 作成したSQL文は、{@link ExclusiveControlTable}に行数ごとにキャッシュする。
      * @param exclusiveControlTableHolder 排他制御テーブルの情報
-     * @param version バージョン情報
+     * @param rowCount 行数
+     * @return 件数を取得するSQL文
+     */
+    private String createCountSql(ExclusiveControlTable exclusiveControlTableHolder, int rowCount) {
+        String key = "count:" + rowCount;
+        PositionalSql cached = exclusiveControlTableHolder.getCachedSql(key);
+        if (cached != null) {
+            return cached.getSql();
+        }
+        String[] primaryKeyColumnNames = exclusiveControlTableHolder.getPrimaryKeyColumnNames();
+        String versionColumnName = exclusiveControlTableHolder.getVersionColumnName();
+        String[] conditionColumnNames = appendColumnName(primaryKeyColumnNames, versionColumnName);
+        return cacheMultiRowSql(exclusiveControlTableHolder, key,
+                getCountSqlTemplate().replace("$PRIMARY_KEYS$", Builder.join(primaryKeyColumnNames, ", "))
+                                     .replace("$VERSION$", versionColumnName)
+                                     .replace("$TABLE_NAME$", exclusiveControlTableHolder.getTableName())
+                                     .replace("$MULTI_ROW_CONDITION$", getMultiRowCondition(conditionColumnNames, rowCount)));
+    }
+
+    /**
+     * カラム名の末尾にカラム名を追加する。
+     * @param columnNames カラム名
+     * @param columnName 追加するカラム名
+     * @return 追加したカラム名
+     */
+    private static String[] appendColumnName(String[] columnNames, String columnName) {
+        String[] appended = new String[columnNames.length + 1];
+        System.arraycopy(columnNames, 0, appended, 0, columnNames.length);
+        appended[columnNames.length] = columnName;
+        return appended;
+    }
+
+    /**
+     * 楽観ロックエラーとなったバージョン番号のインデックスを収集するクラス。
+     * <p/>
+     * 楽観ロックエラーの件数が最大件数に達したか否かを判定し、
+     * 楽観ロックエラーとなったバージョン番号を引数で指定された順に返す。
      */
-    private static void putVersionNo(
-            final Map<String, Object> data,
-            final ExclusiveControlTable exclusiveControlTableHolder,
-            final Version version) {
-        data.put(ExclusiveControlUtil.convertToVariableName(exclusiveControlTableHolder.getVersionColumnName()),
-                Long.valueOf(version.getVersion()));
+    private static final class ErrorCollector {
+
+        /** 楽観ロックエラーとなったか否か(バージョン番号のインデックス順) */
+        private final boolean[] errors;
+
+        /** 楽観ロックエラーの最大件数。0以下の場合は制限なし */
+        private final int maxErrorCount;
+
+        /** 楽観ロックエラーの件数 */
+        private int errorCount;
+
+        /**
+         * コンストラクタ。
+         * @param size バージョン番号の件数
+         * @param maxErrorCount 楽観ロックエラーの最大件数。0以下の場合は制限なし
+         */
+        ErrorCollector(int size, int maxErrorCount) {
+            this.errors = new boolean[size];
+            this.maxErrorCount = maxErrorCount;
+        }
+
+        /**
+         * バージョン番号の処理結果を設定する。
+         * @param index バージョン番号のインデックス
+         * @param error 楽観ロックエラーとなった場合は{@code true}
+         */
+        void set(int index, boolean error) {
+            if (error && !errors[index]) {
+                errorCount++;
+            } else if (!error && errors[index]) {
+                errorCount--;
+            }
+            errors[index] = error;
+        }
+
+        /**
+         * 楽観ロックエラーの件数が最大件数に達したか否かを判定する。
+         * @return 最大件数に達した場合は{@code true}
+         */
+        boolean isLimitReached() {
+            return maxErrorCount > 0 && errorCount >= maxErrorCount;
+        }
+
+        /**
+         * 楽観ロックエラーとなったバージョン番号を引数で指定された順に取得する。
+         * @param versions バージョン番号
+         * @return 楽観ロックエラーとなったバージョン番号
+         */
+        List<Version> toErrorVersions(List<Version> versions) {
+            List<Version> errorVersions = new ArrayList<Version>(errorCount);
+            for (int i = 0; i < errors.length; i++) {
+                if (errors[i]) {
+                    errorVersions.add(versions.get(i));
+                }
+            }
+            return errorVersions;
+        }
     }
 
+    /**
+     * {@link ExclusiveControlTable}のキャッシュのキー。
+     * <p/>
+     * テーブル名、データベース接続名、バージョン番号カラム名、主キーのカラム名で識別する。
+     * 主キーのカラム名は、大文字に変換して昇順に並べたもので比較する。
+     * このため、排他制御コンテキストの主キー(列挙型の定義順)と、バージョン番号の主キーの条件
+     * (小文字の変数名、{@link Map}の順)から取得した場合も、同じキーとなる。
+     */
+    private static final class TableKey {
+
+        /** テーブル名 */
+        private final String tableName;
+
+        /** データベース接続名 */
+        private final String connectionName;
+
+        /** バージョン番号カラム名 */
+        private final String versionColumnName;
+
+        /** 主キーのカラム名(指定順)。{@link ExclusiveControlTable}の生成に使用する */
+        private final String[] primaryKeyColumnNames;
+
+        /** 比較に使用する主キーのカラム名(大文字に変換して昇順に並べたもの) */
+        private final String[] normalizedPrimaryKeyColumnNames;
+
+        /** ハッシュコード */
+        private final int hashCode;
+
+        /**
+         * コンストラクタ。
+         * @param tableName テーブル名
+         * @param connectionName データベース接続名
+         * @param versionColumnName バージョン番号カラム名
+         * @param primaryKeyColumnNames 主キーのカラム名
+         */
+        TableKey(String tableName, String connectionName, String versionColumnName, String[] primaryKeyColumnNames) {
+            this.tableName = tableName;
+            this.connectionName = connectionName;
+            this.versionColumnName = versionColumnName;
+            this.primaryKeyColumnNames = primaryKeyColumnNames.clone();
+            this.normalizedPrimaryKeyColumnNames = new String[primaryKeyColumnNames.length];
+            for (int i = 0; i < primaryKeyColumnNames.length; i++) {
+                normalizedPrimaryKeyColumnNames[i] = primaryKeyColumnNames[i].toUpperCase();
+            }
+            Arrays.sort(normalizedPrimaryKeyColumnNames);
+            int h = tableName == null ? 0 : tableName.hashCode();
+            h = 31 * h + connectionName.hashCode();
+            h = 31 * h + (versionColumnName == null ? 0 : versionColumnName.hashCode());
+            this.hashCode = 31 * h + Arrays.hashCode(normalizedPrimaryKeyColumnNames);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof TableKey)) {
+                return false;
+            }
+            TableKey other = (TableKey) obj;
+            return hashCode == other.hashCode
+                    && equals(tableName, other.tableName)
+                    && connectionName.equals(other.connectionName)
+                    && equals(versionColumnName, other.versionColumnName)
+                    && Arrays.equals(normalizedPrimaryKeyColumnNames, other.normalizedPrimaryKeyColumnNames);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        /**
+         * 文字列が等しいか否かを判定する。
+         * @param a 文字列
+         * @param b 文字列
+         * @return 両方がnull、または等しい場合は{@code true}
+         */
+        private static boolean equals(String a, String b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
 }
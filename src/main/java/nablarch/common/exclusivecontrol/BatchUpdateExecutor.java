@@ -0,0 +1,166 @@
+package nablarch.common.exclusivecontrol;
+
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import nablarch.core.db.DbAccessException;
+import nablarch.core.db.connection.AppDbConnection;
+import nablarch.core.db.connection.DbConnectionContext;
+import nablarch.core.db.statement.SqlPStatement;
+
+/**
+ * JDBCのバッチ実行で、行ごとの処理件数を取得するクラス。
+ * <p/>
+ * JDBCドライバがバッチ実行の処理件数を返すか否かをデータベース接続名ごとに判定して保持し、
+ * 処理件数を返さないデータベース接続名では1行ずつ実行する。
+ * @see Statement#SUCCESS_NO_INFO
+ */
+final class BatchUpdateExecutor {
+
+    /**
+     * JDBCドライバがバッチ実行の処理件数を返すか否か(データベース接続名ごと)。
+     * <p/>
+     * データベース接続名ごとに初回のバッチ実行で判定し、判定前のデータベース接続名は含まない。
+     */
+    private final ConcurrentMap<String, Boolean> batchUpdateCountSupported = new ConcurrentHashMap<String, Boolean>();
+
+    /**
+     * SQL文をバッチ実行し、行ごとの処理件数を返す。
+     * <p/>
+     * JDBCドライバがバッチ実行の処理件数を返さない({@link Statement#SUCCESS_NO_INFO}を返す)場合は、
+     * 行ごとの処理件数を判定できないため、バッチ実行をセーブポイントまでロールバックし、1行ずつ実行する。
+     * JDBCドライバが処理件数を返すか否かはデータベース接続名ごとに初回のバッチ実行で判定し、
+     * 処理件数を返さない場合は、以降の呼び出しでも同じデータベース接続名ではバッチ実行を行わずに1行ずつ実行する。
+     * 判定に使用したセーブポイントは、バッチ実行の成否にかかわらず解放する。
+     * <p/>
+     * 処理件数を返すと判定した後に処理件数が返されなかった場合は、セーブポイントが存在せずロールバックできないため、
+     * 以降の呼び出しを1行ずつの実行に切り替えた上で例外を送出する。
+     * 処理件数を使用しない場合は、判定を行わずにバッチ実行する。
+     * @param connectionName データベース接続名
+     * @param sql SQL文
+     * @param rows 行ごとのバインド変数の値
+     * @param countRequired 行ごとの処理件数を使用する場合は{@code true}
+     * @return 行ごとの処理件数。処理件数を使用しない場合は、JDBCドライバが返した値
+     * @throws DbAccessException 処理件数を返すと判定した後に、処理件数が返されなかった場合
+     */
+    int[] executeBatch(String connectionName, PositionalSql sql, PositionalSql.BatchRows rows, boolean countRequired) {
+
+        AppDbConnection conn = DbConnectionContext.getConnection(connectionName);
+        Boolean supported = batchUpdateCountSupported.get(connectionName);
+        if (countRequired && Boolean.FALSE.equals(supported)) {
+            return executeUpdateByRow(conn, sql, rows);
+        }
+
+        SqlPStatement stmt = conn.prepareStatement(sql.getSql());
+        for (int i = 0; i < rows.size(); i++) {
+            rows.bind(stmt, i);
+            stmt.addBatch();
+        }
+        if (!countRequired) {
+            return stmt.executeBatch();
+        }
+
+        Savepoint savepoint = supported == null ? setSavepoint(connectionName) : null;
+        boolean completed = false;
+        try {
+            int[] counts = stmt.executeBatch();
+            if (containsSuccessNoInfo(counts)) {
+                batchUpdateCountSupported.put(connectionName, Boolean.FALSE);
+                if (savepoint == null) {
+                    String message = "JDBC driver returned SUCCESS_NO_INFO for batch update after returning update counts."
+                            + " batch update can not be rolled back to check update counts. connection name = ["
+                            + connectionName + "]";
+                    throw new DbAccessException(message, new SQLException(message));
+                }
+                rollbackToSavepoint(connectionName, savepoint);
+                counts = executeUpdateByRow(conn, sql, rows);
+            } else if (savepoint != null) {
+                batchUpdateCountSupported.put(connectionName, Boolean.TRUE);
+            }
+            completed = true;
+            return counts;
+        } finally {
+            if (savepoint != null) {
+                releaseSavepoint(connectionName, savepoint, completed);
+            }
+        }
+    }
+
+    /**
+     * SQL文を1行ずつ実行し、行ごとの処理件数を返す。
+     * @param conn データベース接続
+     * @param sql SQL文
+     * @param rows 行ごとのバインド変数の値
+     * @return 行ごとの処理件数
+     */
+    private static int[] executeUpdateByRow(AppDbConnection conn, PositionalSql sql, PositionalSql.BatchRows rows) {
+        int[] counts = new int[rows.size()];
+        for (int i = 0; i < rows.size(); i++) {
+            SqlPStatement stmt = conn.prepareStatement(sql.getSql());
+            rows.bind(stmt, i);
+            counts[i] = stmt.executeUpdate();
+        }
+        return counts;
+    }
+
+    /**
+     * バッチ実行の処理件数に{@link Statement#SUCCESS_NO_INFO}が含まれるか否かを判定する。
+     * @param counts バッチ実行の処理件数
+     * @return {@link Statement#SUCCESS_NO_INFO}が含まれる場合は{@code true}
+     */
+    private static boolean containsSuccessNoInfo(int[] counts) {
+        for (int count : counts) {
+            if (count == Statement.SUCCESS_NO_INFO) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 現在のトランザクションにセーブポイントを設定する。
+     * @param connectionName データベース接続名
+     * @return セーブポイント
+     */
+    private static Savepoint setSavepoint(String connectionName) {
+        try {
+            return DbConnectionContext.getTransactionManagerConnection(connectionName).getConnection().setSavepoint();
+        } catch (SQLException e) {
+            throw new DbAccessException("failed to set savepoint.", e);
+        }
+    }
+
+    /**
+     * セーブポイントまでロールバックする。
+     * @param connectionName データベース接続名
+     * @param savepoint セーブポイント
+     */
+    private static void rollbackToSavepoint(String connectionName, Savepoint savepoint) {
+        try {
+            DbConnectionContext.getTransactionManagerConnection(connectionName).getConnection().rollback(savepoint);
+        } catch (SQLException e) {
+            throw new DbAccessException("failed to rollback to savepoint.", e);
+        }
+    }
+
+    /**
+     * セーブポイントを解放する。
+     * <p/>
+     * 処理が失敗している場合は、発生した例外を優先するため、解放に失敗しても例外を送出しない。
+     * @param connectionName データベース接続名
+     * @param savepoint セーブポイント
+     * @param completed 処理が正常に完了した場合は{@code true}
+     */
+    private static void releaseSavepoint(String connectionName, Savepoint savepoint, boolean completed) {
+        try {
+            DbConnectionContext.getTransactionManagerConnection(connectionName).getConnection().releaseSavepoint(savepoint);
+        } catch (SQLException e) {
+            if (completed) {
+                throw new DbAccessException("failed to release savepoint.", e);
+            }
+        }
+    }
+}
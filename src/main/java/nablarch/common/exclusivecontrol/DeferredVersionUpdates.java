@@ -0,0 +1,233 @@
+package nablarch.common.exclusivecontrol;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * コミット直前まで遅延しているバージョン番号の更新を保持するクラス。
+ * <p/>
+ * 遅延した更新は、スレッドごと、排他制御用テーブルにアクセスするデータベース接続名ごとに保持し、
+ * 同一の行に対する更新は1回にまとめる。
+ * 更新の実行は{@link BasicExclusiveControlManager}が行い、本クラスは実行する順序とバッチ実行の単位を決定する。
+ * @see TransactionScopedMap
+ */
+final class DeferredVersionUpdates {
+
+    /** 遅延している更新(データベース接続名、行を識別するキーごと) */
+    private final TransactionScopedMap<DeferredUpdate> updates = new TransactionScopedMap<DeferredUpdate>();
+
+    /**
+     * 更新チェックを伴わない更新を遅延する。
+     * <p/>
+     * 同一の行に対する更新が既に遅延している場合は、既存の更新にまとめる。
+     * @param exclusiveControlTableHolder 排他制御テーブルの情報
+     * @param tableName 排他制御用テーブルのテーブル名
+     * @param condition 主キーの条件
+     */
+    void defer(ExclusiveControlTable exclusiveControlTableHolder, String tableName, Map<String, Object> condition) {
+        String connectionName = exclusiveControlTableHolder.getConnectionName();
+        RowKey key = RowKey.create(tableName, condition);
+        if (updates.get(connectionName, key) == null) {
+            updates.put(connectionName, key, new DeferredUpdate(exclusiveControlTableHolder, tableName, condition, null));
+        }
+    }
+
+    /**
+     * 更新チェックを伴う更新が、既に遅延している更新にまとめられるか否かを判定する。
+     * @param exclusiveControlTableHolder 排他制御テーブルの情報
+     * @param version バージョン番号
+     * @return 同一の行に対する更新チェックを伴う更新が遅延しており、バージョン番号が
+     *          遅延している更新の実行後のバージョン番号と一致する場合は{@code true}
+     */
+    boolean isMergeable(ExclusiveControlTable exclusiveControlTableHolder, Version version) {
+        DeferredUpdate deferred = updates.get(exclusiveControlTableHolder.getConnectionName(),
+                                              RowKey.create(version.getTableName(), version.getPrimaryKeyCondition()));
+        return deferred != null && deferred.version != null
+                && NumericVersion.toVersionNo(version) == NumericVersion.toVersionNo(deferred.version) + 1;
+    }
+
+    /**
+     * 行に対して遅延している更新を取り除く。
+     * @param exclusiveControlTableHolder 排他制御テーブルの情報
+     * @param tableName 排他制御用テーブルのテーブル名
+     * @param condition 主キーの条件
+     * @return 取り除いた更新(キーは行を識別するキー)。遅延している更新が存在しない場合は空のマップ
+     */
+    Map<RowKey, DeferredUpdate> remove(ExclusiveControlTable exclusiveControlTableHolder,
+                                       String tableName, Map<String, ?> condition) {
+        String connectionName = exclusiveControlTableHolder.getConnectionName();
+        RowKey key = RowKey.create(tableName, condition);
+        DeferredUpdate deferred = updates.get(connectionName, key);
+        if (deferred == null) {
+            return Collections.emptyMap();
+        }
+        updates.remove(connectionName, key);
+        return Collections.singletonMap(key, deferred);
+    }
+
+    /**
+     * 更新チェックを伴う更新を遅延する。
+     * <p/>
+     * 同一の行に対する更新が既に遅延している場合は、置き換える。
+     * @param exclusiveControlTableHolder 排他制御テーブルの情報
+     * @param version 更新チェックに使用するバージョン番号
+     */
+    void deferWithCheck(ExclusiveControlTable exclusiveControlTableHolder, Version version) {
+        updates.put(exclusiveControlTableHolder.getConnectionName(),
+                    RowKey.create(version.getTableName(), version.getPrimaryKeyCondition()),
+                    new DeferredUpdate(exclusiveControlTableHolder, version.getTableName(),
+                                       version.getPrimaryKeyCondition(), version));
+    }
+
+    /**
+     * 遅延している更新を、取得したバージョン番号に反映する。
+     * @param connectionName 排他制御用テーブルにアクセスするデータベース接続名
+     * @param version 取得したバージョン番号
+     * @return 遅延している更新の実行後のバージョン番号。遅延している更新が存在しない場合は引数のバージョン番号
+     */
+    Version apply(String connectionName, Version version) {
+        DeferredUpdate deferred = updates.get(
+                connectionName, RowKey.create(version.getTableName(), version.getPrimaryKeyCondition()));
+        if (deferred == null) {
+            return version;
+        }
+        long current = NumericVersion.toVersionNo(deferred.version == null ? version : deferred.version);
+        return new NumericVersion(version.getTableName(), version.getVersionColumnName(),
+                                  current + 1, version.getPrimaryKeyCondition());
+    }
+
+    /**
+     * データベース接続名に対応する遅延している更新を全て取り除く。
+     * @param connectionName データベース接続名
+     * @return 取り除いた更新(キーは行を識別するキー)
+     */
+    Map<RowKey, DeferredUpdate> removeAll(String connectionName) {
+        return updates.removeAll(connectionName);
+    }
+
+    /**
+     * 遅延している更新が存在するデータベース接続名を取得する。
+     * @return データベース接続名
+     */
+    List<String> getConnectionNames() {
+        return updates.getConnectionNames();
+    }
+
+    /**
+     * データベース接続名に対応する遅延している更新を破棄する。
+     * @param connectionName データベース接続名
+     */
+    void clear(String connectionName) {
+        updates.clear(connectionName);
+    }
+
+    /**
+     * 遅延していた更新を、実行する順に同一のSQL文でバッチ実行する単位に分割する。
+     * <p/>
+     * 排他制御用テーブルと主キーの値の順に並べ、同じSQL文で連続する更新を1つの単位とする。
+     * シャードに分割したテーブルの更新がシャードごとにまとめてバッチ実行されるよう、物理テーブル名を優先して並べる。
+     * @param updates 遅延していた更新(キーは行を識別するキー)
+     * @param batchSize 1つの単位の最大件数。0以下の場合は制限しない
+     * @return バッチ実行する単位ごとの更新(実行する順)
+     */
+    static List<List<DeferredUpdate>> toBatches(final Map<RowKey, DeferredUpdate> updates, int batchSize) {
+        List<RowKey> keys = new ArrayList<RowKey>(updates.keySet());
+        Collections.sort(keys, new Comparator<RowKey>() {
+            public int compare(RowKey o1, RowKey o2) {
+                int result = updates.get(o1).exclusiveControlTableHolder.getTableName().compareTo(
+                        updates.get(o2).exclusiveControlTableHolder.getTableName());
+                return result != 0 ? result : o1.compareTo(o2);
+            }
+        });
+
+        List<List<DeferredUpdate>> batches = new ArrayList<List<DeferredUpdate>>();
+        List<DeferredUpdate> run = null;
+        for (RowKey key : keys) {
+            DeferredUpdate update = updates.get(key);
+            if (run == null || !run.get(0).isSameStatement(update) || run.size() == batchSize) {
+                run = new ArrayList<DeferredUpdate>();
+                batches.add(run);
+            }
+            run.add(update);
+        }
+        return batches;
+    }
+
+    /**
+     * コミット直前まで遅延しているバージョン番号の更新。
+     */
+    static final class DeferredUpdate {
+
+        /** 排他制御テーブルの情報 */
+        private final ExclusiveControlTable exclusiveControlTableHolder;
+
+        /** 排他制御用テーブルのテーブル名 */
+        private final String tableName;
+
+        /** 主キーの条件 */
+        private final Map<String, Object> condition;
+
+        /** 更新チェックに使用するバージョン番号。更新チェックを伴わない場合はnull */
+        private final Version version;
+
+        /**
+         * コンストラクタ。
+         * @param exclusiveControlTableHolder 排他制御テーブルの情報
+         * @param tableName 排他制御用テーブルのテーブル名
+         * @param condition 主キーの条件
+         * @param version 更新チェックに使用するバージョン番号。更新チェックを伴わない場合はnull
+         */
+        DeferredUpdate(ExclusiveControlTable exclusiveControlTableHolder, String tableName,
+                       Map<String, Object> condition, Version version) {
+            this.exclusiveControlTableHolder = exclusiveControlTableHolder;
+            this.tableName = tableName;
+            this.condition = condition;
+            this.version = version;
+        }
+
+        /**
+         * 排他制御テーブルの情報を取得する。
+         * @return 排他制御テーブルの情報
+         */
+        ExclusiveControlTable getExclusiveControlTableHolder() {
+            return exclusiveControlTableHolder;
+        }
+
+        /**
+         * 排他制御用テーブルのテーブル名を取得する。
+         * @return 排他制御用テーブルのテーブル名
+         */
+        String getTableName() {
+            return tableName;
+        }
+
+        /**
+         * 主キーの条件を取得する。
+         * @return 主キーの条件
+         */
+        Map<String, Object> getCondition() {
+            return condition;
+        }
+
+        /**
+         * 更新チェックに使用するバージョン番号を取得する。
+         * @return 更新チェックに使用するバージョン番号。更新チェックを伴わない場合はnull
+         */
+        Version getVersion() {
+            return version;
+        }
+
+        /**
+         * 同一のSQL文で実行する更新か否かを判定する。
+         * @param other 比較対象の更新
+         * @return 同一のSQL文で実行する場合は{@code true}
+         */
+        boolean isSameStatement(DeferredUpdate other) {
+            return exclusiveControlTableHolder == other.exclusiveControlTableHolder
+                    && (version == null) == (other.version == null);
+        }
+    }
+}
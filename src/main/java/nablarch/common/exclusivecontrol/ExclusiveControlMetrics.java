@@ -0,0 +1,26 @@
+package nablarch.common.exclusivecontrol;
+
+/**
+ * 排他制御の操作ごとの処理時間や処理件数を記録するインタフェース。
+ * <p/>
+ * {@link BasicExclusiveControlManager#setMetrics(ExclusiveControlMetrics)}で設定すると、
+ * 排他制御の操作が正常終了した場合と楽観ロックエラーとなった場合に、排他制御用テーブルごとに呼び出される。
+ * 1回の操作で複数の排他制御用テーブルを処理した場合は、テーブルごとに呼び出され、処理時間には操作全体の時間が設定される。
+ * <p/>
+ * 複数のスレッドから同時に呼び出されるため、実装クラスはスレッドセーフにすること。
+ * また、排他制御の操作ごとに呼び出されるため、ロックの取得やI/Oなど処理時間の長い処理を行わないこと。
+ * @see NopExclusiveControlMetrics
+ * @see InMemoryExclusiveControlMetrics
+ */
+public interface ExclusiveControlMetrics {
+
+    /**
+     * 排他制御の操作を記録する。
+     * @param tableName 排他制御用テーブルのテーブル名
+     * @param operation 排他制御の操作
+     * @param elapsedNanos 処理時間(ナノ秒)
+     * @param rowCount 処理したバージョン番号の件数
+     * @param conflictCount 楽観ロックエラーとなったバージョン番号の件数
+     */
+    void record(String tableName, ExclusiveControlOperation operation, long elapsedNanos, int rowCount, int conflictCount);
+}
@@ -0,0 +1,120 @@
+package nablarch.common.exclusivecontrol;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 排他制御の操作を、排他制御用テーブルごとに{@link ExclusiveControlMetrics}に記録するクラス。
+ * <p/>
+ * {@link NopExclusiveControlMetrics}が設定されている場合は、処理時間の計測と件数の集計を行わない。
+ */
+final class ExclusiveControlMetricsRecorder {
+
+    /** 排他制御の操作を記録するオブジェクト */
+    private ExclusiveControlMetrics metrics = new NopExclusiveControlMetrics();
+
+    /** 排他制御の操作を記録するか否か */
+    private boolean metricsEnabled;
+
+    /**
+     * 排他制御の操作を記録するオブジェクトを設定する。
+     * @param metrics 排他制御の操作を記録するオブジェクト
+     */
+    void setMetrics(ExclusiveControlMetrics metrics) {
+        this.metrics = metrics;
+        this.metricsEnabled = !(metrics instanceof NopExclusiveControlMetrics);
+    }
+
+    /**
+     * 排他制御の操作を記録する場合に、処理時間の計測を開始する。
+     * @return 計測開始時刻(ナノ秒)。記録しない場合は0
+     */
+    long start() {
+        return metricsEnabled ? System.nanoTime() : 0L;
+    }
+
+    /**
+     * 排他制御の操作を記録する。
+     * @param operation 排他制御の操作
+     * @param startTime 計測開始時刻(ナノ秒)
+     * @param tableName 排他制御用テーブルのテーブル名
+     * @param rowCount 処理したバージョン番号の件数
+     * @param conflictCount 楽観ロックエラーとなったバージョン番号の件数
+     */
+    void record(ExclusiveControlOperation operation, long startTime,
+                String tableName, int rowCount, int conflictCount) {
+        if (metricsEnabled) {
+            metrics.record(tableName, operation, System.nanoTime() - startTime, rowCount, conflictCount);
+        }
+    }
+
+    /**
+     * 複数の排他制御コンテキストに対する操作を、排他制御用テーブルごとに記録する。
+     * @param operation 排他制御の操作
+     * @param startTime 計測開始時刻(ナノ秒)
+     * @param contexts 排他制御コンテキスト
+     */
+    void recordContexts(ExclusiveControlOperation operation, long startTime,
+                        List<? extends ExclusiveControlContext> contexts) {
+        if (!metricsEnabled) {
+            return;
+        }
+        long elapsedNanos = System.nanoTime() - startTime;
+        Map<String, int[]> counts = new LinkedHashMap<String, int[]>();
+        for (ExclusiveControlContext context : contexts) {
+            countRow(counts, context.getTableName(), false);
+        }
+        recordTableMetrics(operation, elapsedNanos, counts);
+    }
+
+    /**
+     * 複数のバージョン番号に対する操作を、排他制御用テーブルごとに記録する。
+     * @param operation 排他制御の操作
+     * @param startTime 計測開始時刻(ナノ秒)
+     * @param versions バージョン番号
+     * @param errorVersions 楽観ロックエラーとなったバージョン番号
+     */
+    void recordVersions(ExclusiveControlOperation operation, long startTime,
+                        List<Version> versions, List<Version> errorVersions) {
+        if (!metricsEnabled) {
+            return;
+        }
+        long elapsedNanos = System.nanoTime() - startTime;
+        Map<String, int[]> counts = new LinkedHashMap<String, int[]>();
+        for (Version version : versions) {
+            countRow(counts, version.getTableName(), false);
+        }
+        for (Version version : errorVersions) {
+            countRow(counts, version.getTableName(), true);
+        }
+        recordTableMetrics(operation, elapsedNanos, counts);
+    }
+
+    /**
+     * 排他制御用テーブルごとの件数を記録する。
+     * @param operation 排他制御の操作
+     * @param elapsedNanos 処理時間(ナノ秒)
+     * @param counts 排他制御用テーブルごとの処理件数と楽観ロックエラーの件数
+     */
+    private void recordTableMetrics(ExclusiveControlOperation operation, long elapsedNanos, Map<String, int[]> counts) {
+        for (Map.Entry<String, int[]> entry : counts.entrySet()) {
+            metrics.record(entry.getKey(), operation, elapsedNanos, entry.getValue()[0], entry.getValue()[1]);
+        }
+    }
+
+    /**
+     * 排他制御用テーブルごとの件数に1件加算する。
+     * @param counts 排他制御用テーブルごとの処理件数と楽観ロックエラーの件数
+     * @param tableName 排他制御用テーブルのテーブル名
+     * @param conflict 楽観ロックエラーの件数に加算する場合は{@code true}、処理件数に加算する場合は{@code false}
+     */
+    private static void countRow(Map<String, int[]> counts, String tableName, boolean conflict) {
+        int[] count = counts.get(tableName);
+        if (count == null) {
+            count = new int[2];
+            counts.put(tableName, count);
+        }
+        count[conflict ? 1 : 0]++;
+    }
+}
@@ -0,0 +1,36 @@
+package nablarch.common.exclusivecontrol;
+
+/**
+ * {@link ExclusiveControlMetrics}に記録する排他制御の操作。
+ * <p/>
+ * 複数件をまとめて処理するメソッドは、対応する1件ずつ処理するメソッドと同じ操作として記録する。
+ */
+public enum ExclusiveControlOperation {
+
+    /** バージョン番号の取得(getVersion、getVersions) */
+    GET_VERSION,
+
+    /** 悲観ロックを伴うバージョン番号の取得(lockVersions) */
+    LOCK_VERSIONS,
+
+    /** バージョン番号の更新チェック(checkVersions) */
+    CHECK_VERSIONS,
+
+    /** 更新チェックを伴わないバージョン番号の更新(updateVersion) */
+    UPDATE_VERSION,
+
+    /** 更新チェックを伴うバージョン番号の更新(updateVersionsWithCheck、updateVersionsWithCheckAndReturn) */
+    UPDATE_VERSIONS_WITH_CHECK,
+
+    /** バージョン番号の追加(addVersion、addVersions) */
+    ADD_VERSION,
+
+    /** バージョン番号の削除(removeVersion、removeVersions) */
+    REMOVE_VERSION,
+
+    /**
+     * 再試行を伴う処理の実行({@link ExclusiveControlRetryExecutor})。
+     * 処理件数には試行回数、楽観ロックエラーの件数には失敗した試行の回数を記録する。
+     */
+    RETRY
+}
@@ -0,0 +1,251 @@
+package nablarch.common.exclusivecontrol;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import nablarch.core.db.DbAccessException;
+import nablarch.core.db.connection.AppDbConnection;
+import nablarch.core.db.transaction.SimpleDbTransactionExecutor;
+import nablarch.core.db.transaction.SimpleDbTransactionManager;
+
+/**
+ * 楽観ロックエラーやデッドロックが発生した処理を、新しいトランザクションで再試行するクラス。
+ * <p/>
+ * 処理は{@link #setTransactionManager(SimpleDbTransactionManager)}で設定されたトランザクションマネージャを使用して
+ * 試行ごとに個別のトランザクションで実行し、正常に終了した場合はコミット、例外が発生した場合はロールバックする。
+ * 下記の例外が発生した場合は、{@link ExclusiveControlRetryPolicy}に従って待機した後に処理全体を再試行する。
+ * <ul>
+ *     <li>{@link OptimisticLockException}</li>
+ *     <li>{@link #setRetryableSqlStates(List)}に含まれるSQLStateの{@link DbAccessException}(デッドロックやシリアライズ失敗)</li>
+ * </ul>
+ * 再試行時は処理の最初からやり直すため、処理の中でバージョン番号を取得し直すこと。
+ * 画面から送信されたバージョン番号のように、再試行しても結果が変わらないバージョン番号をチェックする処理には使用しないこと。
+ * <p/>
+ * 楽観ロックエラーの場合は、エラーとなったバージョン番号のテーブル名に対応するポリシー({@link #setTableRetryPolicies(List)})を使用し、
+ * 対応するポリシーがない場合とSQLStateによる再試行の場合はデフォルトのポリシー({@link #setRetryPolicy(ExclusiveControlRetryPolicy)})を使用する。
+ * <p/>
+ * {@link #setMetrics(ExclusiveControlMetrics)}を設定した場合は、再試行が発生した処理ごとに
+ * {@link ExclusiveControlOperation#RETRY}として試行回数を記録する。テーブル名には最後に楽観ロックエラーとなったテーブル名
+ * (楽観ロックエラーが発生していない場合は{@link #ANY_TABLE_NAME})を使用する。
+ * <p/>
+ * 本クラスはスレッドセーフであり、複数のスレッドから同時に使用できる。
+ * <p/>
+ * 下記に設定例を示す。
+ * <pre>
+ * &lt;component name="exclusiveControlRetryExecutor" class="nablarch.common.exclusivecontrol.ExclusiveControlRetryExecutor"&gt;
+ *   &lt;property name="transactionManager" ref="defaultTransactionManager" /&gt;
+ *   &lt;property name="retryPolicy"&gt;
+ *     &lt;component class="nablarch.common.exclusivecontrol.ExclusiveControlRetryPolicy"&gt;
+ *       &lt;property name="maxAttempts" value="5" /&gt;
+ *     &lt;/component&gt;
+ *   &lt;/property&gt;
+ *   &lt;property name="tableRetryPolicies"&gt;
+ *     &lt;list&gt;
+ *       &lt;component class="nablarch.common.exclusivecontrol.ExclusiveControlRetryPolicy"&gt;
+ *         &lt;property name="tableName" value="EXCLUSIVE_STOCK" /&gt;
+ *         &lt;property name="maxAttempts" value="10" /&gt;
+ *         &lt;property name="initialBackoffMillis" value="1" /&gt;
+ *       &lt;/component&gt;
+ *     &lt;/list&gt;
+ *   &lt;/property&gt;
+ * &lt;/component&gt;
+ * </pre>
+ */
+public class ExclusiveControlRetryExecutor {
+
+    /** 楽観ロックエラーが発生していない場合にメトリクスに記録するテーブル名 */
+    public static final String ANY_TABLE_NAME = "*";
+
+    /** 再試行するSQLStateのデフォルト値(シリアライズ失敗、PostgreSQLのデッドロック) */
+    private static final List<String> DEFAULT_RETRYABLE_SQL_STATES = Arrays.asList("40001", "40P01");
+
+    /** 試行ごとのトランザクションを制御するトランザクションマネージャ */
+    private SimpleDbTransactionManager transactionManager;
+
+    /** デフォルトのポリシー */
+    private ExclusiveControlRetryPolicy retryPolicy = new ExclusiveControlRetryPolicy();
+
+    /** テーブルごとのポリシー */
+    private Map<String, ExclusiveControlRetryPolicy> tableRetryPolicies = Collections.emptyMap();
+
+    /** 再試行するSQLState */
+    private Set<String> retryableSqlStates = new HashSet<String>(DEFAULT_RETRYABLE_SQL_STATES);
+
+    /** 試行回数を記録するオブジェクト */
+    private ExclusiveControlMetrics metrics = new NopExclusiveControlMetrics();
+
+    /** 待機時間のゆらぎに使用する乱数生成器 */
+    private final Random random = new Random();
+
+    /**
+     * 試行ごとのトランザクションを制御するトランザクションマネージャを設定する。
+     * @param transactionManager トランザクションマネージャ
+     */
+    public void setTransactionManager(SimpleDbTransactionManager transactionManager) {
+        this.transactionManager = transactionManager;
+    }
+
+    /**
+     * デフォルトのポリシーを設定する。
+     * @param retryPolicy デフォルトのポリシー
+     */
+    public void setRetryPolicy(ExclusiveControlRetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * テーブルごとのポリシーを設定する。
+     * @param tableRetryPolicies テーブル名({@link ExclusiveControlRetryPolicy#getTableName()})を設定したポリシー
+     * @throws IllegalArgumentException テーブル名が設定されていない場合、またはテーブル名が重複している場合
+     */
+    public void setTableRetryPolicies(List<ExclusiveControlRetryPolicy> tableRetryPolicies) {
+        Map<String, ExclusiveControlRetryPolicy> map = new HashMap<String, ExclusiveControlRetryPolicy>();
+        for (ExclusiveControlRetryPolicy policy : tableRetryPolicies) {
+            if (policy.getTableName() == null) {
+                throw new IllegalArgumentException("table name of retry policy must be set.");
+            }
+            if (map.put(policy.getTableName(), policy) != null) {
+                throw new IllegalArgumentException(
+                        "duplicate retry policy. table name = [" + policy.getTableName() + "]");
+            }
+        }
+        this.tableRetryPolicies = map;
+    }
+
+    /**
+     * 再試行するSQLStateを設定する。
+     * <p/>
+     * デフォルトは"40001"(シリアライズ失敗。多くのデータベースでデッドロックも含む)と"40P01"(PostgreSQLのデッドロック)。
+     * @param retryableSqlStates 再試行するSQLState
+     */
+    public void setRetryableSqlStates(List<String> retryableSqlStates) {
+        this.retryableSqlStates = new HashSet<String>(retryableSqlStates);
+    }
+
+    /**
+     * 試行回数を記録するオブジェクトを設定する。
+     * @param metrics 試行回数を記録するオブジェクト
+     */
+    public void setMetrics(ExclusiveControlMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * 処理を実行する。
+     * <p/>
+     * 再試行の対象となる例外が発生した場合は、最大試行回数に達するまで処理を再試行する。
+     * 最大試行回数に達した場合と、待機中に割り込まれた場合は、最後に発生した例外を送出する。
+     * @param work 処理
+     * @param <T> 処理の結果の型
+     * @return 処理の結果
+     * @throws IllegalStateException トランザクションマネージャが設定されていない場合
+     */
+    public <T> T execute(final Work<T> work) {
+        if (transactionManager == null) {
+            throw new IllegalStateException("transactionManager must be set.");
+        }
+        long startTime = System.nanoTime();
+        String tableName = ANY_TABLE_NAME;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                T result = new SimpleDbTransactionExecutor<T>(transactionManager) {
+                    @Override
+                    public T execute(AppDbConnection connection) {
+                        return work.execute(connection);
+                    }
+                }.doTransaction();
+                if (attempt > 1) {
+                    metrics.record(tableName, ExclusiveControlOperation.RETRY, System.nanoTime() - startTime, attempt, attempt - 1);
+                }
+                return result;
+            } catch (OptimisticLockException e) {
+                List<Version> errorVersions = e.getErrorVersions();
+                if (errorVersions != null && !errorVersions.isEmpty()) {
+                    tableName = errorVersions.get(0).getTableName();
+                }
+                backOff(e, getRetryPolicy(tableName), attempt, tableName, startTime);
+            } catch (DbAccessException e) {
+                if (!isRetryable(e)) {
+                    throw e;
+                }
+                backOff(e, retryPolicy, attempt, tableName, startTime);
+            }
+        }
+    }
+
+    /**
+     * 再試行の前に待機する。再試行できない場合は、発生した例外を送出する。
+     * @param e 発生した例外
+     * @param policy 使用するポリシー
+     * @param attempt 失敗した試行の回数
+     * @param tableName メトリクスに記録するテーブル名
+     * @param startTime 処理の開始時刻(ナノ秒)
+     */
+    private void backOff(RuntimeException e, ExclusiveControlRetryPolicy policy, int attempt, String tableName, long startTime) {
+        if (attempt < policy.getMaxAttempts()) {
+            try {
+                sleep(policy.getBackoffMillis(attempt, random));
+                return;
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        metrics.record(tableName, ExclusiveControlOperation.RETRY, System.nanoTime() - startTime, attempt, attempt);
+        throw e;
+    }
+
+    /**
+     * テーブル名に対応するポリシーを取得する。
+     * @param tableName 排他制御用テーブルのテーブル名
+     * @return ポリシー。テーブルごとのポリシーがない場合はデフォルトのポリシー
+     */
+    private ExclusiveControlRetryPolicy getRetryPolicy(String tableName) {
+        ExclusiveControlRetryPolicy policy = tableRetryPolicies.get(tableName);
+        return policy != null ? policy : retryPolicy;
+    }
+
+    /**
+     * データベースアクセス時の例外が再試行の対象か否かを判定する。
+     * @param e データベースアクセス時の例外
+     * @return 再試行の対象の場合は{@code true}
+     */
+    private boolean isRetryable(DbAccessException e) {
+        String sqlState = e.getSQLState();
+        if (sqlState == null && e.getCause() instanceof SQLException) {
+            sqlState = ((SQLException) e.getCause()).getSQLState();
+        }
+        return sqlState != null && retryableSqlStates.contains(sqlState);
+    }
+
+    /**
+     * 指定された時間待機する。
+     * @param millis 待機時間(ミリ秒)
+     * @throws InterruptedException 待機中に割り込まれた場合
+     */
+    protected void sleep(long millis) throws InterruptedException {
+        if (millis > 0) {
+            Thread.sleep(millis);
+        }
+    }
+
+    /**
+     * 再試行の対象となる処理。
+     * @param <T> 処理の結果の型
+     */
+    public interface Work<T> {
+
+        /**
+         * 処理を実行する。
+         * @param connection データベース接続
+         * @return 処理の結果
+         */
+        T execute(AppDbConnection connection);
+    }
+}
@@ -0,0 +1,137 @@
+package nablarch.common.exclusivecontrol;
+
+import java.util.Random;
+
+/**
+ * {@link ExclusiveControlRetryExecutor}が再試行する回数と間隔を定義するクラス。
+ * <p/>
+ * n回目の試行が失敗した後の待機時間は、{@link #setInitialBackoffMillis(long)}に
+ * {@link #setMultiplier(double)}のn-1乗を掛けた値({@link #setMaxBackoffMillis(long)}が上限)から、
+ * その値に{@link #setJitter(double)}を掛けた範囲でランダムに差し引いた値となる。
+ * 待機時間をランダムにずらすことで、同じ行で競合した処理が同時に再試行して再び競合することを防ぐ。
+ * <p/>
+ * {@link #setTableName(String)}を指定した場合は、そのテーブルで楽観ロックエラーが発生した場合にのみ使用される。
+ */
+public class ExclusiveControlRetryPolicy {
+
+    /** 排他制御用テーブルのテーブル名 */
+    private String tableName;
+
+    /** 最大試行回数(初回を含む) */
+    private int maxAttempts = 3;
+
+    /** 初回の待機時間(ミリ秒) */
+    private long initialBackoffMillis = 10;
+
+    /** 待機時間の上限(ミリ秒) */
+    private long maxBackoffMillis = 1000;
+
+    /** 待機時間の倍率 */
+    private double multiplier = 2.0;
+
+    /** 待機時間のゆらぎの割合 */
+    private double jitter = 0.5;
+
+    /**
+     * 排他制御用テーブルのテーブル名を設定する。
+     * @param tableName 排他制御用テーブルのテーブル名
+     */
+    public void setTableName(String tableName) {
+        this.tableName = tableName;
+    }
+
+    /**
+     * 排他制御用テーブルのテーブル名を取得する。
+     * @return 排他制御用テーブルのテーブル名。特定のテーブルに限定しない場合はnull
+     */
+    public String getTableName() {
+        return tableName;
+    }
+
+    /**
+     * 最大試行回数(初回を含む)を設定する。
+     * <p/>
+     * デフォルトは3。1を指定した場合は再試行しない。
+     * @param maxAttempts 最大試行回数
+     * @throws IllegalArgumentException 最大試行回数が1未満の場合
+     */
+    public void setMaxAttempts(int maxAttempts) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts must be greater than 0. maxAttempts = [" + maxAttempts + "]");
+        }
+        this.maxAttempts = maxAttempts;
+    }
+
+    /**
+     * 最大試行回数(初回を含む)を取得する。
+     * @return 最大試行回数
+     */
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * 初回の待機時間(ミリ秒)を設定する。デフォルトは10。
+     * @param initialBackoffMillis 初回の待機時間(ミリ秒)
+     * @throws IllegalArgumentException 待機時間が負の場合
+     */
+    public void setInitialBackoffMillis(long initialBackoffMillis) {
+        if (initialBackoffMillis < 0) {
+            throw new IllegalArgumentException(
+                    "initialBackoffMillis must not be negative. initialBackoffMillis = [" + initialBackoffMillis + "]");
+        }
+        this.initialBackoffMillis = initialBackoffMillis;
+    }
+
+    /**
+     * 待機時間の上限(ミリ秒)を設定する。デフォルトは1000。
+     * @param maxBackoffMillis 待機時間の上限(ミリ秒)
+     * @throws IllegalArgumentException 待機時間が負の場合
+     */
+    public void setMaxBackoffMillis(long maxBackoffMillis) {
+        if (maxBackoffMillis < 0) {
+            throw new IllegalArgumentException(
+                    "maxBackoffMillis must not be negative. maxBackoffMillis = [" + maxBackoffMillis + "]");
+        }
+        this.maxBackoffMillis = maxBackoffMillis;
+    }
+
+    /**
+     * 待機時間の倍率を設定する。デフォルトは2.0。
+     * @param multiplier 待機時間の倍率(1.0以上)
+     * @throws IllegalArgumentException 倍率が1.0未満の場合
+     */
+    public void setMultiplier(double multiplier) {
+        if (multiplier < 1.0) {
+            throw new IllegalArgumentException("multiplier must be greater than or equal to 1.0. multiplier = [" + multiplier + "]");
+        }
+        this.multiplier = multiplier;
+    }
+
+    /**
+     * 待機時間のゆらぎの割合を設定する。
+     * <p/>
+     * デフォルトは0.5で、待機時間は計算値の50%から100%の範囲となる。
+     * 0を指定した場合は計算値どおり、1.0を指定した場合は0から計算値の範囲で待機する。
+     * @param jitter 待機時間のゆらぎの割合(0以上1.0以下)
+     * @throws IllegalArgumentException 割合が0以上1.0以下でない場合
+     */
+    public void setJitter(double jitter) {
+        if (jitter < 0 || jitter > 1.0) {
+            throw new IllegalArgumentException("jitter must be between 0 and 1.0. jitter = [" + jitter + "]");
+        }
+        this.jitter = jitter;
+    }
+
+    /**
+     * 試行が失敗した後の待機時間を取得する。
+     * @param attempt 失敗した試行の回数(1から開始)
+     * @param random 乱数生成器
+     * @return 待機時間(ミリ秒)
+     */
+    long getBackoffMillis(int attempt, Random random) {
+        double backoff = initialBackoffMillis * Math.pow(multiplier, attempt - 1);
+        long upper = backoff >= maxBackoffMillis ? maxBackoffMillis : (long) backoff;
+        return upper - (long) (upper * jitter * random.nextDouble());
+    }
+}
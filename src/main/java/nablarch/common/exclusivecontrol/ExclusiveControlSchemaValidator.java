@@ -0,0 +1,164 @@
+package nablarch.common.exclusivecontrol;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import nablarch.core.db.DbAccessException;
+import nablarch.core.db.connection.DbConnectionContext;
+import nablarch.core.util.StringUtil;
+
+/**
+ * 排他制御用テーブルとカラムがデータベースに存在することを、{@link DatabaseMetaData}でチェックするクラス。
+ * @see BasicExclusiveControlManager#initialize()
+ */
+final class ExclusiveControlSchemaValidator {
+
+    /** データベースのメタデータ */
+    private final DatabaseMetaData metaData;
+
+    /**
+     * コンストラクタ。
+     * @param connectionName チェックに使用するデータベース接続名
+     */
+    ExclusiveControlSchemaValidator(String connectionName) {
+        try {
+            metaData = DbConnectionContext.getTransactionManagerConnection(connectionName).getConnection().getMetaData();
+        } catch (SQLException e) {
+            throw new DbAccessException("failed to get DatabaseMetaData.", e);
+        }
+    }
+
+    /**
+     * 排他制御用テーブルとカラムがデータベースに存在することをチェックする。
+     * <p/>
+     * テーブル名と主キーのカラム名を持たない{@link ExclusiveControlTable}はチェックしない。
+     * テーブル名はワイルドカード("_"、"%")をエスケープし、データベース接続のカタログとスキーマに限定して検索する。
+     * @param table 排他制御用テーブルのスキーマ情報とSQL文
+     * @throws IllegalStateException 排他制御用テーブルまたはカラムが存在しない場合
+     */
+    void validate(ExclusiveControlTable table) {
+
+        if (table.getTableName() == null || table.getPrimaryKeyColumnNames() == null) {
+            // スキーマ情報を持たないExclusiveControlTableはチェックできない。
+            return;
+        }
+        Set<String> columnNames = new HashSet<String>();
+        try {
+            Connection connection = metaData.getConnection();
+            ResultSet rs = metaData.getColumns(connection.getCatalog(),
+                                               escapeSearchString(getSchema(connection, table.getTableName())),
+                                               escapeSearchString(toStoredIdentifier(table.getTableName())),
+                                               null);
+            try {
+                while (rs.next()) {
+                    columnNames.add(rs.getString("COLUMN_NAME").toUpperCase());
+                }
+            } finally {
+                rs.close();
+            }
+        } catch (SQLException e) {
+            throw new DbAccessException(
+                    "failed to get columns. table name = [" + table.getTableName() + "]", e);
+        }
+
+        if (columnNames.isEmpty()) {
+            throw new IllegalStateException(
+                    "exclusive control table was not found. table name = [" + table.getTableName() + "]");
+        }
+        List<String> notFound = new ArrayList<String>();
+        for (String columnName : table.getPrimaryKeyColumnNames()) {
+            if (!columnNames.contains(columnName.toUpperCase())) {
+                notFound.add(columnName);
+            }
+        }
+        if (!columnNames.contains(table.getVersionColumnName().toUpperCase())) {
+            notFound.add(table.getVersionColumnName());
+        }
+        if (!notFound.isEmpty()) {
+            throw new IllegalStateException(
+                    String.format("exclusive control column was not found. table name = [%s], column names = %s",
+                                  table.getTableName(), notFound));
+        }
+    }
+
+    /**
+     * 識別子をデータベースに格納されている形式に変換する。
+     * @param identifier 識別子
+     * @return 変換後の識別子
+     * @throws SQLException メタデータの取得に失敗した場合
+     */
+    private String toStoredIdentifier(String identifier) throws SQLException {
+        if (metaData.storesUpperCaseIdentifiers()) {
+            return identifier.toUpperCase();
+        }
+        if (metaData.storesLowerCaseIdentifiers()) {
+            return identifier.toLowerCase();
+        }
+        return identifier;
+    }
+
+    /**
+     * データベース接続のスキーマを取得する。
+     * <p/>
+     * JDBC 4.1に対応していないJDBCドライバでは、排他制御用テーブルを0件検索した結果のメタデータからスキーマを取得する。
+     * @param connection データベース接続
+     * @param tableName 排他制御用テーブルのテーブル名
+     * @return スキーマ。スキーマを取得できない場合はnull
+     * @throws SQLException スキーマの取得に失敗した場合
+     * @throws IllegalStateException 排他制御用テーブルを検索できない場合
+     */
+    private static String getSchema(Connection connection, String tableName) throws SQLException {
+        try {
+            return connection.getSchema();
+        } catch (AbstractMethodError e) {
+            // JDBC 4.1に対応していないJDBCドライバの場合は、接続から見えるテーブルのスキーマに限定する。
+        }
+        Statement statement = connection.createStatement();
+        try {
+            ResultSet rs;
+            try {
+                rs = statement.executeQuery("SELECT * FROM " + tableName + " WHERE 1 = 0");
+            } catch (SQLException e) {
+                throw new IllegalStateException(
+                        "exclusive control table was not found. table name = [" + tableName + "]", e);
+            }
+            try {
+                String schema = rs.getMetaData().getSchemaName(1);
+                return StringUtil.isNullOrEmpty(schema) ? null : schema;
+            } finally {
+                rs.close();
+            }
+        } finally {
+            statement.close();
+        }
+    }
+
+    /**
+     * {@link DatabaseMetaData}の検索パターンとして使用する文字列のワイルドカードをエスケープする。
+     * @param value 文字列
+     * @return エスケープした文字列。文字列がnullの場合はnull
+     * @throws SQLException メタデータの取得に失敗した場合
+     */
+    private String escapeSearchString(String value) throws SQLException {
+        String escape = metaData.getSearchStringEscape();
+        if (value == null || StringUtil.isNullOrEmpty(escape)) {
+            return value;
+        }
+        StringBuilder sb = new StringBuilder(value.length() + 4);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '_' || c == '%' || escape.indexOf(c) >= 0) {
+                sb.append(escape);
+            }
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+}
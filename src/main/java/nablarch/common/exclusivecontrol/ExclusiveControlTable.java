@@ -1,11 +1,25 @@
 package nablarch.common.exclusivecontrol;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import nablarch.core.transaction.TransactionContext;
+
 /**
  * 排他制御用テーブルのスキーマ情報とSQL文を保持するクラス。
  * @author Kiyohito Itoh
  */
 public class ExclusiveControlTable {
-    
+
+    /** 排他制御用テーブルのテーブル名 */
+    private String tableName;
+
+    /** 主キーのカラム名 */
+    private String[] primaryKeyColumnNames;
+
+    /** 排他制御用テーブルにアクセスするデータベース接続名 */
+    private String connectionName = TransactionContext.DEFAULT_TRANSACTION_CONTEXT_KEY;
+
     /** バージョン番号カラム名 */
     private String versionColumnName;
     
@@ -27,8 +41,31 @@ public class ExclusiveControlTable {
     /** バージョン番号を削除するSQL文 */
     private String deleteSql;
 
+    /** バージョン番号を取得するSQL文(バージョン番号の更新チェックなし)を位置指定のバインド変数に変換したもの */
+    private PositionalSql positionalSelectSql;
+
+    /** バージョン番号を取得するSQL文(バージョン番号の更新チェックあり)を位置指定のバインド変数に変換したもの */
+    private PositionalSql positionalSelectAndCheckSql;
+
+    /** バージョン番号を追加するSQL文を位置指定のバインド変数に変換したもの */
+    private PositionalSql positionalInsertSql;
+
+    /** バージョン番号を更新するSQL文(バージョン番号の更新チェックなし)を位置指定のバインド変数に変換したもの */
+    private PositionalSql positionalUpdateSql;
+
+    /** バージョン番号を更新するSQL文(バージョン番号の更新チェックあり)を位置指定のバインド変数に変換したもの */
+    private PositionalSql positionalUpdateAndCheckSql;
+
+    /** バージョン番号を削除するSQL文を位置指定のバインド変数に変換したもの */
+    private PositionalSql positionalDeleteSql;
+
+    /** データベースや処理方式に応じて作成したSQL文のキャッシュ */
+    private final ConcurrentMap<String, PositionalSql> cachedSqls = new ConcurrentHashMap<String, PositionalSql>();
+
     /**
      * コンストラクタ。
+     * <p/>
+     * 各SQL文を位置指定のバインド変数を使用したSQL文に変換し、バインドプランとともに保持する。
      * @param versionColumnName バージョン番号カラム名
      * @param selectSql バージョン番号を取得するSQL文(バージョン番号の更新チェックなし)
      * @param selectAndCheckSql バージョン番号を取得するSQL文(バージョン番号の更新チェックあり)
@@ -51,8 +88,73 @@ public class ExclusiveControlTable {
         this.updateSql = updateSql;
         this.updateAndCheckSql = updateAndCheckSql;
         this.deleteSql = deleteSql;
+        this.positionalSelectSql = new PositionalSql(selectSql, versionColumnName);
+        this.positionalSelectAndCheckSql = new PositionalSql(selectAndCheckSql, versionColumnName);
+        this.positionalInsertSql = new PositionalSql(insertSql, versionColumnName);
+        this.positionalUpdateSql = new PositionalSql(updateSql, versionColumnName);
+        this.positionalUpdateAndCheckSql = new PositionalSql(updateAndCheckSql, versionColumnName);
+        this.positionalDeleteSql = new PositionalSql(deleteSql, versionColumnName);
     }
-    
+
+    /**
+     * コンストラクタ。
+     * @param tableName 排他制御用テーブルのテーブル名
+     * @param primaryKeyColumnNames 主キーのカラム名
+     * @param versionColumnName バージョン番号カラム名
+     * @param selectSql バージョン番号を取得するSQL文(バージョン番号の更新チェックなし)
+     * @param selectAndCheckSql バージョン番号を取得するSQL文(バージョン番号の更新チェックあり)
+     * @param insertSql バージョン番号を追加するSQL文
+     * @param updateSql バージョン番号を更新するSQL文(バージョン番号の更新チェックなし)
+     * @param updateAndCheckSql バージョン番号を更新するSQL文(バージョン番号の更新チェックあり)
+     * @param deleteSql バージョン番号を削除するSQL文
+     */
+    public ExclusiveControlTable(String tableName,
+                                  String[] primaryKeyColumnNames,
+                                  String versionColumnName,
+                                  String selectSql,
+                                  String selectAndCheckSql,
+                                  String insertSql,
+                                  String updateSql,
+                                  String updateAndCheckSql,
+                                  String deleteSql) {
+        this(versionColumnName, selectSql, selectAndCheckSql, insertSql, updateSql, updateAndCheckSql, deleteSql);
+        this.tableName = tableName;
+        this.primaryKeyColumnNames = primaryKeyColumnNames.clone();
+    }
+
+    /**
+     * 排他制御用テーブルのテーブル名を取得する。
+     * @return 排他制御用テーブルのテーブル名。テーブル名を指定せずに生成された場合はnull
+     */
+    public String getTableName() {
+        return tableName;
+    }
+
+    /**
+     * 排他制御用テーブルにアクセスするデータベース接続名を設定する。
+     * @param connectionName データベース接続名
+     */
+    public void setConnectionName(String connectionName) {
+        this.connectionName = connectionName;
+    }
+
+    /**
+     * 排他制御用テーブルにアクセスするデータベース接続名を取得する。
+     * @return データベース接続名。設定されていない場合はデフォルトのデータベース接続名
+     */
+    public String getConnectionName() {
+        return connectionName;
+    }
+
+    /**
+     * 主キーのカラム名を取得する。
+     * @return 主キーのカラム名。主キーのカラム名を指定せずに生成された場合はnull
+     */
+    public String[] getPrimaryKeyColumnNames() {
+        return primaryKeyColumnNames == null ? null : primaryKeyColumnNames.clone();
+    }
+
+
     /**
      * バージョン番号カラム名を取得する。
      * @return バージョン番号カラム名
@@ -108,4 +210,74 @@ public class ExclusiveControlTable {
     public String getDeleteSql() {
         return deleteSql;
     }
+
+    /**
+     * バージョン番号を取得するSQL文(バージョン番号の更新チェックなし)を位置指定のバインド変数に変換したものを取得する。
+     * @return バージョン番号を取得するSQL文(バージョン番号の更新チェックなし)を位置指定のバインド変数に変換したもの
+     */
+    public PositionalSql getPositionalSelectSql() {
+        return positionalSelectSql;
+    }
+
+    /**
+     * バージョン番号を取得するSQL文(バージョン番号の更新チェックあり)を位置指定のバインド変数に変換したものを取得する。
+     * @return バージョン番号を取得するSQL文(バージョン番号の更新チェックあり)を位置指定のバインド変数に変換したもの
+     */
+    public PositionalSql getPositionalSelectAndCheckSql() {
+        return positionalSelectAndCheckSql;
+    }
+
+    /**
+     * バージョン番号を追加するSQL文を位置指定のバインド変数に変換したものを取得する。
+     * @return バージョン番号を追加するSQL文を位置指定のバインド変数に変換したもの
+     */
+    public PositionalSql getPositionalInsertSql() {
+        return positionalInsertSql;
+    }
+
+    /**
+     * バージョン番号を更新するSQL文(バージョン番号の更新チェックなし)を位置指定のバインド変数に変換したものを取得する。
+     * @return バージョン番号を更新するSQL文(バージョン番号の更新チェックなし)を位置指定のバインド変数に変換したもの
+     */
+    public PositionalSql getPositionalUpdateSql() {
+        return positionalUpdateSql;
+    }
+
+    /**
+     * バージョン番号を更新するSQL文(バージョン番号の更新チェックあり)を位置指定のバインド変数に変換したものを取得する。
+     * @return バージョン番号を更新するSQL文(バージョン番号の更新チェックあり)を位置指定のバインド変数に変換したもの
+     */
+    public PositionalSql getPositionalUpdateAndCheckSql() {
+        return positionalUpdateAndCheckSql;
+    }
+
+    /**
+     * バージョン番号を削除するSQL文を位置指定のバインド変数に変換したものを取得する。
+     * @return バージョン番号を削除するSQL文を位置指定のバインド変数に変換したもの
+     */
+    public PositionalSql getPositionalDeleteSql() {
+        return positionalDeleteSql;
+    }
+
+    /**
+     * データベースや処理方式に応じて作成したSQL文をキャッシュから取得する。
+     * @param key キャッシュのキー
+     * @return SQL文。キャッシュに存在しない場合はnull
+     */
+    public PositionalSql getCachedSql(String key) {
+        return cachedSqls.get(key);
+    }
+
+    /**
+     * データベースや処理方式に応じて作成したSQL文をキャッシュに追加する。
+     * <p/>
+     * 既にキャッシュに存在する場合は追加せず、キャッシュに存在するSQL文を返す。
+     * @param key キャッシュのキー
+     * @param sql SQL文
+     * @return キャッシュに存在するSQL文
+     */
+    public PositionalSql cacheSql(String key, PositionalSql sql) {
+        PositionalSql existing = cachedSqls.putIfAbsent(key, sql);
+        return existing != null ? existing : sql;
+    }
 }
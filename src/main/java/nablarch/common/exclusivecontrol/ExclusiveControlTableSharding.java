@@ -0,0 +1,151 @@
+package nablarch.common.exclusivecontrol;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import nablarch.core.transaction.TransactionContext;
+
+/**
+ * 排他制御用テーブルを複数の物理テーブル(シャード)に分割する定義。
+ * <p/>
+ * 排他制御コンテキストのテーブル名({@link #setTableName(String)})に対するバージョン番号を、
+ * 主キーの値のハッシュ値によって{@link #setShardCount(int)}個のシャードのいずれかに振り分ける。
+ * シャードのテーブル名は{@link #setTableNameFormat(String)}の書式に、テーブル名とシャードの番号(0から開始)を
+ * 指定して作成する。デフォルトの書式は"%s_%d"で、例えばEXCLUSIVE_USER_MSTの場合はEXCLUSIVE_USER_MST_0となる。
+ * <p/>
+ * {@link #setConnectionNames(List)}でデータベース接続名を指定した場合は、シャードの番号を
+ * データベース接続名の数で割った余りに対応するデータベース接続を使用する。
+ * 指定しない場合は、全てのシャードでデフォルトのデータベース接続を使用する。
+ * <p/>
+ * ハッシュ値は、主キーの変数名の順に並べた変数名と値(末尾の空白を除去した文字列)から、
+ * 仕様で計算方法が定められている{@link String#hashCode()}を使用して求めるため、
+ * JVMやアプリケーションの再起動によって振り分け先が変わることはない。
+ * ただし、シャードの数を変更すると振り分け先が変わるため、既存の行を移行する必要がある。
+ * <p/>
+ * 下記に設定例を示す。
+ * <pre>
+ * &lt;component class="nablarch.common.exclusivecontrol.ExclusiveControlTableSharding"&gt;
+ *   &lt;property name="tableName" value="EXCLUSIVE_USER_MST" /&gt;
+ *   &lt;property name="shardCount" value="8" /&gt;
+ *   &lt;property name="connectionNames"&gt;
+ *     &lt;list&gt;
+ *       &lt;value&gt;transaction&lt;/value&gt;
+ *       &lt;value&gt;exclusiveShard1&lt;/value&gt;
+ *     &lt;/list&gt;
+ *   &lt;/property&gt;
+ * &lt;/component&gt;
+ * </pre>
+ * @see BasicExclusiveControlManager#setTableShardings(List)
+ */
+public class ExclusiveControlTableSharding {
+
+    /** シャードのテーブル名の書式のデフォルト値 */
+    private static final String DEFAULT_TABLE_NAME_FORMAT = "%s_%d";
+
+    /** 排他制御コンテキストのテーブル名 */
+    private String tableName;
+
+    /** シャードの数 */
+    private int shardCount;
+
+    /** シャードのテーブル名の書式 */
+    private String tableNameFormat = DEFAULT_TABLE_NAME_FORMAT;
+
+    /** シャードが使用するデータベース接続名 */
+    private List<String> connectionNames = new ArrayList<String>();
+
+    /**
+     * 排他制御コンテキストのテーブル名を設定する。
+     * @param tableName 排他制御コンテキストのテーブル名
+     */
+    public void setTableName(String tableName) {
+        this.tableName = tableName;
+    }
+
+    /**
+     * 排他制御コンテキストのテーブル名を取得する。
+     * @return 排他制御コンテキストのテーブル名
+     */
+    public String getTableName() {
+        return tableName;
+    }
+
+    /**
+     * シャードの数を設定する。
+     * @param shardCount シャードの数(1以上)
+     * @throws IllegalArgumentException シャードの数が1未満の場合
+     */
+    public void setShardCount(int shardCount) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("shardCount must be greater than 0. shardCount = [" + shardCount + "]");
+        }
+        this.shardCount = shardCount;
+    }
+
+    /**
+     * シャードの数を取得する。
+     * @return シャードの数
+     */
+    public int getShardCount() {
+        return shardCount;
+    }
+
+    /**
+     * シャードのテーブル名の書式を設定する。
+     * <p/>
+     * {@link String#format(String, Object...)}の書式で、1つ目の引数にテーブル名、2つ目の引数にシャードの番号を指定する。
+     * @param tableNameFormat シャードのテーブル名の書式
+     */
+    public void setTableNameFormat(String tableNameFormat) {
+        this.tableNameFormat = tableNameFormat;
+    }
+
+    /**
+     * シャードが使用するデータベース接続名を設定する。
+     * @param connectionNames シャードが使用するデータベース接続名
+     */
+    public void setConnectionNames(List<String> connectionNames) {
+        this.connectionNames = connectionNames;
+    }
+
+    /**
+     * 主キーの条件に対応するシャードの番号を取得する。
+     * @param condition 主キーの条件
+     * @return シャードの番号(0から開始)
+     */
+    public int getShardIndex(Map<String, ?> condition) {
+        String[] names = condition.keySet().toArray(new String[condition.size()]);
+        Arrays.sort(names);
+        int hash = 0;
+        for (String name : names) {
+            String value = RowKey.normalize(condition.get(name));
+            hash = 31 * hash + name.hashCode();
+            hash = 31 * hash + (value == null ? 0 : value.hashCode());
+        }
+        // 下位ビットの偏りを抑えるため、上位ビットを混ぜてから剰余を求める
+        hash ^= hash >>> 16;
+        return (hash & Integer.MAX_VALUE) % shardCount;
+    }
+
+    /**
+     * シャードのテーブル名を取得する。
+     * @param shardIndex シャードの番号
+     * @return シャードのテーブル名
+     */
+    public String getShardTableName(int shardIndex) {
+        return String.format(tableNameFormat, tableName, shardIndex);
+    }
+
+    /**
+     * シャードが使用するデータベース接続名を取得する。
+     * @param shardIndex シャードの番号
+     * @return データベース接続名
+     */
+    public String getConnectionName(int shardIndex) {
+        return connectionNames.isEmpty()
+                ? TransactionContext.DEFAULT_TRANSACTION_CONTEXT_KEY
+                : connectionNames.get(shardIndex % connectionNames.size());
+    }
+}
@@ -0,0 +1,564 @@
+package nablarch.common.exclusivecontrol;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 楽観ロックエラーが多発している排他制御用テーブルの行を追跡するクラス。
+ * <p/>
+ * {@link BasicExclusiveControlManager#setOptimisticLockErrorListener(OptimisticLockErrorListener)}に設定し、
+ * 楽観ロックエラーとなったバージョン番号から、直近の一定時間(ウィンドウ)に楽観ロックエラーが多い行を求める。
+ * <p/>
+ * 使用するメモリ量を一定に保つため、楽観ロックエラーの件数はCount-Min Sketchで近似的に数える。
+ * ウィンドウは複数の区間に分割し、区間ごとにSketchを持つ。古い区間のSketchは再利用時に新しいSketchに差し替える。
+ * 件数の多い行の候補は上位件数の2倍まで保持し、超えた場合は件数の少ない候補を破棄する。
+ * 近似のため、件数は実際より多く見積もられる場合がある。
+ * <p/>
+ * 集計はロックを使用せずにアトミック変数で行うため、複数のスレッドから同時に通知できる。
+ * 区間の切り替えをまたいで通知された楽観ロックエラーは、数えられない場合がある。
+ * <p/>
+ * 下記に設定例を示す。
+ * <pre>
+ * &lt;component name="hotKeyTracker" class="nablarch.common.exclusivecontrol.HotKeyTracker"&gt;
+ *   &lt;property name="windowSeconds" value="300" /&gt;
+ *   &lt;property name="topKeyCount" value="20" /&gt;
+ * &lt;/component&gt;
+ *
+ * &lt;component name="exclusiveControlManager" class="nablarch.common.exclusivecontrol.BasicExclusiveControlManager"&gt;
+ *   &lt;property name="optimisticLockErrorListener" ref="hotKeyTracker" /&gt;
+ * &lt;/component&gt;
+ * </pre>
+ */
+public class HotKeyTracker implements OptimisticLockErrorListener {
+
+    /** ウィンドウの長さ(秒) */
+    private int windowSeconds = 60;
+
+    /** ウィンドウを分割する区間の数 */
+    private int sliceCount = 6;
+
+    /** 取得する上位の行の件数 */
+    private int topKeyCount = 10;
+
+    /** Sketchの行数(ハッシュ関数の数) */
+    private int sketchDepth = 4;
+
+    /** Sketchの列数 */
+    private int sketchWidth = 1024;
+
+    /** ウィンドウ(初回の通知時に作成する) */
+    private final AtomicReference<Window> window = new AtomicReference<Window>();
+
+    /** 楽観ロックエラーの件数が多い行の候補 */
+    private final ConcurrentMap<RowKey, Candidate> candidates = new ConcurrentHashMap<RowKey, Candidate>();
+
+    /** 候補を破棄している最中か否か */
+    private final AtomicBoolean trimming = new AtomicBoolean();
+
+    /**
+     * ウィンドウの長さ(秒)を設定する。
+     * <p/>
+     * デフォルトは60秒。
+     * @param windowSeconds ウィンドウの長さ(秒)
+     */
+    public void setWindowSeconds(int windowSeconds) {
+        this.windowSeconds = windowSeconds;
+        clear();
+    }
+
+    /**
+     * ウィンドウを分割する区間の数を設定する。
+     * <p/>
+     * 区間の数が多いほど、ウィンドウの移動が滑らかになる。
+     * デフォルトは6。
+     * @param sliceCount ウィンドウを分割する区間の数
+     */
+    public void setSliceCount(int sliceCount) {
+        this.sliceCount = sliceCount;
+        clear();
+    }
+
+    /**
+     * 取得する上位の行の件数を設定する。
+     * <p/>
+     * デフォルトは10。
+     * @param topKeyCount 取得する上位の行の件数
+     */
+    public void setTopKeyCount(int topKeyCount) {
+        this.topKeyCount = topKeyCount;
+        clear();
+    }
+
+    /**
+     * Sketchの行数(ハッシュ関数の数)を設定する。
+     * <p/>
+     * 行数が多いほど、件数を多く見積もる確率が下がる。
+     * デフォルトは4。
+     * @param sketchDepth Sketchの行数
+     */
+    public void setSketchDepth(int sketchDepth) {
+        this.sketchDepth = sketchDepth;
+        clear();
+    }
+
+    /**
+     * Sketchの列数を設定する。
+     * <p/>
+     * 列数が多いほど、件数を多く見積もる量が小さくなる。
+     * 区間ごとに、行数×列数の{@code long}値を保持する。
+     * デフォルトは1024。
+     * @param sketchWidth Sketchの列数
+     */
+    public void setSketchWidth(int sketchWidth) {
+        this.sketchWidth = sketchWidth;
+        clear();
+    }
+
+    /**
+     * 楽観ロックエラーとなったバージョン番号を記録する。
+     * @param errorVersions 楽観ロックエラーとなったバージョン番号
+     */
+    public void onOptimisticLockError(List<Version> errorVersions) {
+        Window currentWindow = getWindow();
+        long epoch = currentWindow.toEpoch(currentTimeMillis());
+        for (Version version : errorVersions) {
+            RowKey key = RowKey.create(version.getTableName(), version.getPrimaryKeyCondition());
+            currentWindow.increment(key.hashCode(), epoch);
+            if (!candidates.containsKey(key)) {
+                candidates.putIfAbsent(key, new Candidate(
+                        version.getTableName(), new HashMap<String, Object>(version.getPrimaryKeyCondition())));
+            }
+        }
+        if (candidates.size() > topKeyCount * 2) {
+            trim(currentWindow, epoch);
+        }
+    }
+
+    /**
+     * ウィンドウ内で楽観ロックエラーの件数が多い行を取得する。
+     * @return 楽観ロックエラーの件数が多い行(件数の降順)。最大で{@link #setTopKeyCount(int)}で指定された件数
+     */
+    public List<HotKey> getHotKeys() {
+        Window currentWindow = getWindow();
+        long epoch = currentWindow.toEpoch(currentTimeMillis());
+        List<HotKey> hotKeys = rank(currentWindow, epoch);
+        return hotKeys.size() > topKeyCount ? new ArrayList<HotKey>(hotKeys.subList(0, topKeyCount)) : hotKeys;
+    }
+
+    /**
+     * ウィンドウ内の楽観ロックエラーの件数を取得する。
+     * @return 楽観ロックエラーの件数
+     */
+    public long getConflictCount() {
+        Window currentWindow = getWindow();
+        return currentWindow.total(currentWindow.toEpoch(currentTimeMillis()));
+    }
+
+    /**
+     * ウィンドウ内の1秒あたりの楽観ロックエラーの件数を取得する。
+     * @return 1秒あたりの楽観ロックエラーの件数
+     */
+    public double getConflictRate() {
+        return (double) getConflictCount() / windowSeconds;
+    }
+
+    /**
+     * 記録を破棄する。
+     */
+    public void clear() {
+        window.set(null);
+        candidates.clear();
+    }
+
+    /**
+     * 現在時刻を取得する。
+     * @return 現在時刻(ミリ秒)
+     */
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * ウィンドウを取得する。存在しない場合は作成する。
+     * @return ウィンドウ
+     */
+    private Window getWindow() {
+        Window currentWindow = window.get();
+        if (currentWindow == null) {
+            long sliceMillis = Math.max(1L, windowSeconds * 1000L / sliceCount);
+            window.compareAndSet(null, new Window(sliceMillis, sliceCount, sketchDepth, sketchWidth));
+            currentWindow = window.get();
+        }
+        return currentWindow;
+    }
+
+    /**
+     * 候補の楽観ロックエラーの件数を見積もり、件数の降順に並べる。
+     * <p/>
+     * ウィンドウ内の件数が0の候補は含めない。
+     * @param currentWindow ウィンドウ
+     * @param epoch 現在の区間の通番
+     * @return 件数の降順に並べた候補
+     */
+    private List<HotKey> rank(Window currentWindow, long epoch) {
+        List<HotKey> hotKeys = new ArrayList<HotKey>(candidates.size());
+        for (Map.Entry<RowKey, Candidate> entry : candidates.entrySet()) {
+            long count = currentWindow.estimate(entry.getKey().hashCode(), epoch);
+            if (count > 0) {
+                Candidate candidate = entry.getValue();
+                hotKeys.add(new HotKey(entry.getKey(), candidate.tableName, candidate.primaryKeyCondition,
+                                       count, (double) count / windowSeconds));
+            }
+        }
+        Collections.sort(hotKeys, new Comparator<HotKey>() {
+            public int compare(HotKey o1, HotKey o2) {
+                return o1.conflictCount < o2.conflictCount ? 1 : o1.conflictCount > o2.conflictCount ? -1 : 0;
+            }
+        });
+        return hotKeys;
+    }
+
+    /**
+     * 上位の件数に含まれない候補を破棄する。
+     * <p/>
+     * 他のスレッドが破棄している最中の場合は何もしない。
+     * @param currentWindow ウィンドウ
+     * @param epoch 現在の区間の通番
+     */
+    private void trim(Window currentWindow, long epoch) {
+        if (!trimming.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            List<HotKey> hotKeys = rank(currentWindow, epoch);
+            Map<RowKey, Boolean> retained = new HashMap<RowKey, Boolean>();
+            for (int i = 0; i < Math.min(topKeyCount, hotKeys.size()); i++) {
+                retained.put(hotKeys.get(i).key, Boolean.TRUE);
+            }
+            for (RowKey key : candidates.keySet()) {
+                if (!retained.containsKey(key)) {
+                    candidates.remove(key);
+                }
+            }
+        } finally {
+            trimming.set(false);
+        }
+    }
+
+    /**
+     * 楽観ロックエラーの件数が多い行。
+     */
+    public static final class HotKey {
+
+        /** 行を識別するキー */
+        private final RowKey key;
+
+        /** 排他制御用テーブルのテーブル名 */
+        private final String tableName;
+
+        /** 主キーの条件 */
+        private final Map<String, Object> primaryKeyCondition;
+
+        /** ウィンドウ内の楽観ロックエラーの件数 */
+        private final long conflictCount;
+
+        /** ウィンドウ内の1秒あたりの楽観ロックエラーの件数 */
+        private final double conflictRate;
+
+        /**
+         * コンストラクタ。
+         * @param key 行を識別するキー
+         * @param tableName 排他制御用テーブルのテーブル名
+         * @param primaryKeyCondition 主キーの条件
+         * @param conflictCount ウィンドウ内の楽観ロックエラーの件数
+         * @param conflictRate ウィンドウ内の1秒あたりの楽観ロックエラーの件数
+         */
+        HotKey(RowKey key, String tableName, Map<String, Object> primaryKeyCondition,
+               long conflictCount, double conflictRate) {
+            this.key = key;
+            this.tableName = tableName;
+            this.primaryKeyCondition = primaryKeyCondition;
+            this.conflictCount = conflictCount;
+            this.conflictRate = conflictRate;
+        }
+
+        /**
+         * 排他制御用テーブルのテーブル名を取得する。
+         * @return 排他制御用テーブルのテーブル名
+         */
+        public String getTableName() {
+            return tableName;
+        }
+
+        /**
+         * 主キーの条件を取得する。
+         * @return 主キーの条件
+         */
+        public Map<String, Object> getPrimaryKeyCondition() {
+            return Collections.unmodifiableMap(primaryKeyCondition);
+        }
+
+        /**
+         * ウィンドウ内の楽観ロックエラーの件数を取得する。
+         * <p/>
+         * 近似値のため、実際の件数より多い場合がある。
+         * @return 楽観ロックエラーの件数
+         */
+        public long getConflictCount() {
+            return conflictCount;
+        }
+
+        /**
+         * ウィンドウ内の1秒あたりの楽観ロックエラーの件数を取得する。
+         * @return 1秒あたりの楽観ロックエラーの件数
+         */
+        public double getConflictRate() {
+            return conflictRate;
+        }
+
+        @Override
+        public String toString() {
+            return "tableName = [" + tableName + "], primaryKeyCondition = " + primaryKeyCondition
+                    + ", conflictCount = [" + conflictCount + "]";
+        }
+    }
+
+    /**
+     * 楽観ロックエラーの件数が多い行の候補。
+     */
+    private static final class Candidate {
+
+        /** 排他制御用テーブルのテーブル名 */
+        private final String tableName;
+
+        /** 主キーの条件 */
+        private final Map<String, Object> primaryKeyCondition;
+
+        /**
+         * コンストラクタ。
+         * @param tableName 排他制御用テーブルのテーブル名
+         * @param primaryKeyCondition 主キーの条件
+         */
+        Candidate(String tableName, Map<String, Object> primaryKeyCondition) {
+            this.tableName = tableName;
+            this.primaryKeyCondition = primaryKeyCondition;
+        }
+    }
+
+    /**
+     * 区間に分割したウィンドウ。
+     * <p/>
+     * 時刻を区間の長さで割った値を区間の通番とし、通番を区間の数で割った余りの位置のSketchを使用する。
+     */
+    private static final class Window {
+
+        /** 区間の長さ(ミリ秒) */
+        private final long sliceMillis;
+
+        /** 区間ごとのSketch */
+        private final Slice[] slices;
+
+        /** Sketchの行数 */
+        private final int depth;
+
+        /** Sketchの列数 */
+        private final int width;
+
+        /**
+         * コンストラクタ。
+         * @param sliceMillis 区間の長さ(ミリ秒)
+         * @param sliceCount 区間の数
+         * @param depth Sketchの行数
+         * @param width Sketchの列数
+         */
+        Window(long sliceMillis, int sliceCount, int depth, int width) {
+            this.sliceMillis = sliceMillis;
+            this.depth = depth;
+            this.width = width;
+            this.slices = new Slice[sliceCount];
+            for (int i = 0; i < sliceCount; i++) {
+                slices[i] = new Slice(depth * width);
+            }
+        }
+
+        /**
+         * 時刻に対応する区間の通番を取得する。
+         * @param timeMillis 時刻(ミリ秒)
+         * @return 区間の通番
+         */
+        long toEpoch(long timeMillis) {
+            return timeMillis / sliceMillis;
+        }
+
+        /**
+         * 現在の区間のSketchで件数を1増やす。
+         * @param hash 行を識別するキーのハッシュ値
+         * @param epoch 現在の区間の通番
+         */
+        void increment(int hash, long epoch) {
+            Counts counts = slices[(int) (epoch % slices.length)].rotate(epoch);
+            for (int i = 0; i < depth; i++) {
+                counts.values.incrementAndGet(i * width + index(hash, i));
+            }
+            counts.total.incrementAndGet();
+        }
+
+        /**
+         * ウィンドウ内の件数を見積もる。
+         * <p/>
+         * Sketchの行ごとに区間の件数を合計し、その最小値を返す。
+         * @param hash 行を識別するキーのハッシュ値
+         * @param epoch 現在の区間の通番
+         * @return ウィンドウ内の件数
+         */
+        long estimate(int hash, long epoch) {
+            long min = Long.MAX_VALUE;
+            for (int i = 0; i < depth; i++) {
+                int position = i * width + index(hash, i);
+                long sum = 0;
+                for (Slice slice : slices) {
+                    Counts counts = slice.current.get();
+                    if (counts.isInWindow(epoch, slices.length)) {
+                        sum += counts.values.get(position);
+                    }
+                }
+                min = Math.min(min, sum);
+            }
+            return min;
+        }
+
+        /**
+         * ウィンドウ内の全ての行の件数を合計する。
+         * @param epoch 現在の区間の通番
+         * @return ウィンドウ内の件数
+         */
+        long total(long epoch) {
+            long sum = 0;
+            for (Slice slice : slices) {
+                Counts counts = slice.current.get();
+                if (counts.isInWindow(epoch, slices.length)) {
+                    sum += counts.total.get();
+                }
+            }
+            return sum;
+        }
+
+        /**
+         * Sketchの行に対応する列の位置を求める。
+         * <p/>
+         * ハッシュ値を攪拌した2つの値から、行ごとに異なるハッシュ関数を構成する。
+         * @param hash 行を識別するキーのハッシュ値
+         * @param row Sketchの行
+         * @return 列の位置
+         */
+        private int index(int hash, int row) {
+            int h1 = mix(hash);
+            int h2 = mix(h1 ^ 0x9e3779b9) | 1;
+            return ((h1 + row * h2) & Integer.MAX_VALUE) % width;
+        }
+
+        /**
+         * ハッシュ値を攪拌する。
+         * @param hash ハッシュ値
+         * @return 攪拌したハッシュ値
+         */
+        private static int mix(int hash) {
+            int h = hash;
+            h ^= h >>> 16;
+            h *= 0x85ebca6b;
+            h ^= h >>> 13;
+            h *= 0xc2b2ae35;
+            h ^= h >>> 16;
+            return h;
+        }
+    }
+
+    /**
+     * ウィンドウを分割した区間。
+     * <p/>
+     * 区間の件数は通番ごとに作成し、再利用時は新しい件数に差し替える。
+     */
+    private static final class Slice {
+
+        /** 現在の件数 */
+        private final AtomicReference<Counts> current;
+
+        /** Sketchの大きさ(行数×列数) */
+        private final int size;
+
+        /**
+         * コンストラクタ。
+         * @param size Sketchの大きさ(行数×列数)
+         */
+        Slice(int size) {
+            this.size = size;
+            this.current = new AtomicReference<Counts>(new Counts(-1, size));
+        }
+
+        /**
+         * 現在の区間の件数を取得する。
+         * <p/>
+         * 区間の通番が古い場合は、件数を破棄して新しい件数に差し替える。
+         * 差し替えは1つのスレッドのみが成功し、他のスレッドは差し替え後の件数を使用する。
+         * @param epoch 現在の区間の通番
+         * @return 現在の区間の件数
+         */
+        Counts rotate(long epoch) {
+            while (true) {
+                Counts counts = current.get();
+                if (counts.epoch >= epoch) {
+                    return counts;
+                }
+                Counts next = new Counts(epoch, size);
+                if (current.compareAndSet(counts, next)) {
+                    return next;
+                }
+            }
+        }
+    }
+
+    /**
+     * 区間の件数。
+     */
+    private static final class Counts {
+
+        /** 区間の通番(未使用の場合は-1) */
+        private final long epoch;
+
+        /** Sketchの件数 */
+        private final AtomicLongArray values;
+
+        /** 区間内の件数の合計 */
+        private final AtomicLong total = new AtomicLong();
+
+        /**
+         * コンストラクタ。
+         * @param epoch 区間の通番
+         * @param size Sketchの大きさ(行数×列数)
+         */
+        Counts(long epoch, int size) {
+            this.epoch = epoch;
+            this.values = new AtomicLongArray(size);
+        }
+
+        /**
+         * 区間がウィンドウに含まれるか否かを判定する。
+         * @param current 現在の区間の通番
+         * @param sliceCount 区間の数
+         * @return ウィンドウに含まれる場合は{@code true}
+         */
+        boolean isInWindow(long current, int sliceCount) {
+            return epoch >= 0 && epoch <= current && epoch > current - sliceCount;
+        }
+    }
+}
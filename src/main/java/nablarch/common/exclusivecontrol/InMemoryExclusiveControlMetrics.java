@@ -0,0 +1,334 @@
+package nablarch.common.exclusivecontrol;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 排他制御の操作をメモリ上に集計する{@link ExclusiveControlMetrics}の実装クラス。
+ * <p/>
+ * 排他制御用テーブルと操作の組み合わせごとに、呼び出し回数、処理件数、楽観ロックエラーの件数と、
+ * 処理時間および1回あたりの処理件数のヒストグラムを保持する。
+ * ヒストグラムは2のべき乗を境界とするバケットで集計する。
+ * 集計はロックを使用せずにアトミック変数で行うため、複数のスレッドから同時に記録できる。
+ * <p/>
+ * 集計結果は{@link #getStatistics(String, ExclusiveControlOperation)}で取得する。
+ * 取得中にも記録は継続されるため、各値は厳密に同一時点のものとは限らない。
+ */
+public class InMemoryExclusiveControlMetrics implements ExclusiveControlMetrics {
+
+    /** ヒストグラムのバケット数(0と、1から{@link Long#MAX_VALUE}までの2のべき乗ごとの範囲) */
+    static final int BUCKET_COUNT = Long.SIZE + 1;
+
+    /** 排他制御用テーブルごとの集計(配列の添字は操作の序数) */
+    private final ConcurrentMap<String, Recorder[]> recorders = new ConcurrentHashMap<String, Recorder[]>();
+
+    /** {@inheritDoc} */
+    public void record(String tableName, ExclusiveControlOperation operation, long elapsedNanos, int rowCount, int conflictCount) {
+        getRecorders(tableName)[operation.ordinal()].record(elapsedNanos, rowCount, conflictCount);
+    }
+
+    /**
+     * 集計結果を取得する。
+     * @param tableName 排他制御用テーブルのテーブル名
+     * @param operation 排他制御の操作
+     * @return 集計結果。記録がない場合は呼び出し回数が0の集計結果
+     */
+    public Statistics getStatistics(String tableName, ExclusiveControlOperation operation) {
+        Recorder[] tableRecorders = recorders.get(tableName);
+        return tableRecorders == null ? new Recorder().toStatistics() : tableRecorders[operation.ordinal()].toStatistics();
+    }
+
+    /**
+     * 記録がある排他制御用テーブルのテーブル名を取得する。
+     * @return 排他制御用テーブルのテーブル名
+     */
+    public Set<String> getTableNames() {
+        return Collections.unmodifiableSet(new HashSet<String>(recorders.keySet()));
+    }
+
+    /**
+     * 集計結果を破棄する。
+     */
+    public void clear() {
+        recorders.clear();
+    }
+
+    /**
+     * 排他制御用テーブルに対応する集計を取得する。存在しない場合は作成する。
+     * @param tableName 排他制御用テーブルのテーブル名
+     * @return 操作ごとの集計
+     */
+    private Recorder[] getRecorders(String tableName) {
+        Recorder[] tableRecorders = recorders.get(tableName);
+        if (tableRecorders != null) {
+            return tableRecorders;
+        }
+        tableRecorders = new Recorder[ExclusiveControlOperation.values().length];
+        for (int i = 0; i < tableRecorders.length; i++) {
+            tableRecorders[i] = new Recorder();
+        }
+        Recorder[] existing = recorders.putIfAbsent(tableName, tableRecorders);
+        return existing != null ? existing : tableRecorders;
+    }
+
+    /**
+     * 値に対応するヒストグラムのバケットの添字を取得する。
+     * <p/>
+     * 0以下の値は0、それ以外は2<sup>(n-1)</sup>以上2<sup>n</sup>未満の値をnとする。
+     * @param value 値
+     * @return バケットの添字
+     */
+    static int bucketIndex(long value) {
+        return value <= 0 ? 0 : Long.SIZE - Long.numberOfLeadingZeros(value);
+    }
+
+    /**
+     * ヒストグラムのバケットに含まれる値の上限を取得する。
+     * @param index バケットの添字
+     * @return バケットに含まれる値の上限
+     */
+    static long bucketUpperBound(int index) {
+        return index == 0 ? 0 : index >= Long.SIZE ? Long.MAX_VALUE : (1L << index) - 1;
+    }
+
+    /**
+     * 排他制御用テーブルと操作の組み合わせごとの集計。
+     */
+    private static final class Recorder {
+
+        /** 呼び出し回数 */
+        private final AtomicLong count = new AtomicLong();
+
+        /** 処理時間の合計(ナノ秒) */
+        private final AtomicLong totalElapsedNanos = new AtomicLong();
+
+        /** 処理時間の最大値(ナノ秒) */
+        private final AtomicLong maxElapsedNanos = new AtomicLong();
+
+        /** 処理件数の合計 */
+        private final AtomicLong rowCount = new AtomicLong();
+
+        /** 楽観ロックエラーの件数の合計 */
+        private final AtomicLong conflictCount = new AtomicLong();
+
+        /** 処理時間のヒストグラム */
+        private final AtomicLongArray elapsedNanosHistogram = new AtomicLongArray(BUCKET_COUNT);
+
+        /** 1回あたりの処理件数のヒストグラム */
+        private final AtomicLongArray rowCountHistogram = new AtomicLongArray(BUCKET_COUNT);
+
+        /**
+         * 操作を記録する。
+         * @param elapsedNanos 処理時間(ナノ秒)
+         * @param rows 処理件数
+         * @param conflicts 楽観ロックエラーの件数
+         */
+        void record(long elapsedNanos, int rows, int conflicts) {
+            count.incrementAndGet();
+            totalElapsedNanos.addAndGet(elapsedNanos);
+            long max = maxElapsedNanos.get();
+            while (elapsedNanos > max && !maxElapsedNanos.compareAndSet(max, elapsedNanos)) {
+                max = maxElapsedNanos.get();
+            }
+            rowCount.addAndGet(rows);
+            if (conflicts > 0) {
+                conflictCount.addAndGet(conflicts);
+            }
+            elapsedNanosHistogram.incrementAndGet(bucketIndex(elapsedNanos));
+            rowCountHistogram.incrementAndGet(bucketIndex(rows));
+        }
+
+        /**
+         * 集計結果を作成する。
+         * @return 集計結果
+         */
+        Statistics toStatistics() {
+            return new Statistics(count.get(), totalElapsedNanos.get(), maxElapsedNanos.get(),
+                                  rowCount.get(), conflictCount.get(),
+                                  toArray(elapsedNanosHistogram), toArray(rowCountHistogram));
+        }
+
+        /**
+         * ヒストグラムを配列に変換する。
+         * @param histogram ヒストグラム
+         * @return 配列
+         */
+        private static long[] toArray(AtomicLongArray histogram) {
+            long[] values = new long[histogram.length()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = histogram.get(i);
+            }
+            return values;
+        }
+    }
+
+    /**
+     * 排他制御用テーブルと操作の組み合わせごとの集計結果。
+     */
+    public static final class Statistics {
+
+        /** 呼び出し回数 */
+        private final long count;
+
+        /** 処理時間の合計(ナノ秒) */
+        private final long totalElapsedNanos;
+
+        /** 処理時間の最大値(ナノ秒) */
+        private final long maxElapsedNanos;
+
+        /** 処理件数の合計 */
+        private final long rowCount;
+
+        /** 楽観ロックエラーの件数の合計 */
+        private final long conflictCount;
+
+        /** 処理時間のヒストグラム */
+        private final long[] elapsedNanosHistogram;
+
+        /** 1回あたりの処理件数のヒストグラム */
+        private final long[] rowCountHistogram;
+
+        /**
+         * コンストラクタ。
+         * @param count 呼び出し回数
+         * @param totalElapsedNanos 処理時間の合計(ナノ秒)
+         * @param maxElapsedNanos 処理時間の最大値(ナノ秒)
+         * @param rowCount 処理件数の合計
+         * @param conflictCount 楽観ロックエラーの件数の合計
+         * @param elapsedNanosHistogram 処理時間のヒストグラム
+         * @param rowCountHistogram 1回あたりの処理件数のヒストグラム
+         */
+        Statistics(long count, long totalElapsedNanos, long maxElapsedNanos, long rowCount, long conflictCount,
+                   long[] elapsedNanosHistogram, long[] rowCountHistogram) {
+            this.count = count;
+            this.totalElapsedNanos = totalElapsedNanos;
+            this.maxElapsedNanos = maxElapsedNanos;
+            this.rowCount = rowCount;
+            this.conflictCount = conflictCount;
+            this.elapsedNanosHistogram = elapsedNanosHistogram;
+            this.rowCountHistogram = rowCountHistogram;
+        }
+
+        /**
+         * 呼び出し回数を取得する。
+         * @return 呼び出し回数
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * 処理時間の合計を取得する。
+         * @return 処理時間の合計(ナノ秒)
+         */
+        public long getTotalElapsedNanos() {
+            return totalElapsedNanos;
+        }
+
+        /**
+         * 処理時間の最大値を取得する。
+         * @return 処理時間の最大値(ナノ秒)
+         */
+        public long getMaxElapsedNanos() {
+            return maxElapsedNanos;
+        }
+
+        /**
+         * 処理件数の合計を取得する。
+         * @return 処理件数の合計
+         */
+        public long getRowCount() {
+            return rowCount;
+        }
+
+        /**
+         * 楽観ロックエラーの件数の合計を取得する。
+         * @return 楽観ロックエラーの件数の合計
+         */
+        public long getConflictCount() {
+            return conflictCount;
+        }
+
+        /**
+         * 処理時間のパーセンタイル値を取得する。
+         * <p/>
+         * ヒストグラムから求めるため、指定されたパーセンタイルを含むバケットの上限値を返す。
+         * @param percentile パーセンタイル(0より大きく100以下)
+         * @return 処理時間のパーセンタイル値(ナノ秒)。記録がない場合は0
+         */
+        public long getElapsedNanosPercentile(double percentile) {
+            return percentile(elapsedNanosHistogram, percentile);
+        }
+
+        /**
+         * 1回あたりの処理件数のパーセンタイル値を取得する。
+         * <p/>
+         * ヒストグラムから求めるため、指定されたパーセンタイルを含むバケットの上限値を返す。
+         * @param percentile パーセンタイル(0より大きく100以下)
+         * @return 1回あたりの処理件数のパーセンタイル値。記録がない場合は0
+         */
+        public long getRowCountPercentile(double percentile) {
+            return percentile(rowCountHistogram, percentile);
+        }
+
+        /**
+         * 処理時間のヒストグラムを取得する。
+         * <p/>
+         * 添字0は0以下、添字nは2<sup>(n-1)</sup>以上2<sup>n</sup>未満の処理時間(ナノ秒)の呼び出し回数を表す。
+         * @return 処理時間のヒストグラム
+         */
+        public long[] getElapsedNanosHistogram() {
+            return elapsedNanosHistogram.clone();
+        }
+
+        /**
+         * 1回あたりの処理件数のヒストグラムを取得する。
+         * <p/>
+         * 添字0は0件、添字nは2<sup>(n-1)</sup>以上2<sup>n</sup>未満の処理件数の呼び出し回数を表す。
+         * @return 1回あたりの処理件数のヒストグラム
+         */
+        public long[] getRowCountHistogram() {
+            return rowCountHistogram.clone();
+        }
+
+        /**
+         * ヒストグラムからパーセンタイル値を求める。
+         * @param histogram ヒストグラム
+         * @param percentile パーセンタイル(0より大きく100以下)
+         * @return パーセンタイル値
+         */
+        private static long percentile(long[] histogram, double percentile) {
+            if (percentile <= 0 || percentile > 100) {
+                throw new IllegalArgumentException("percentile must be greater than 0 and less than or equal to 100. percentile = [" + percentile + "]");
+            }
+            long total = 0;
+            for (long value : histogram) {
+                total += value;
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long threshold = (long) Math.ceil(total * percentile / 100);
+            long cumulative = 0;
+            for (int i = 0; i < histogram.length; i++) {
+                cumulative += histogram[i];
+                if (cumulative >= threshold) {
+                    return bucketUpperBound(i);
+                }
+            }
+            return bucketUpperBound(histogram.length - 1);
+        }
+
+        @Override
+        public String toString() {
+            return "count = [" + count + "], totalElapsedNanos = [" + totalElapsedNanos
+                    + "], maxElapsedNanos = [" + maxElapsedNanos + "], rowCount = [" + rowCount
+                    + "], conflictCount = [" + conflictCount + "]";
+        }
+    }
+}
@@ -0,0 +1,313 @@
+package nablarch.common.exclusivecontrol;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import nablarch.core.db.DbAccessException;
+import nablarch.core.db.connection.AppDbConnection;
+import nablarch.core.db.connection.DbConnectionContext;
+import nablarch.core.db.connection.TransactionManagerConnection;
+import nablarch.core.db.statement.SqlPStatement;
+import nablarch.core.db.statement.SqlResultSet;
+import nablarch.core.util.Builder;
+
+/**
+ * 主キーとバージョン番号の組み合わせを配列または一時テーブルでデータベースに渡し、
+ * 排他制御用テーブルと結合してバージョン番号をチェックするクラス。
+ * <p/>
+ * SQL文のテンプレート、配列の作成方法、一時テーブル名は、{@link BasicExclusiveControlManager}の
+ * protectedメソッドから取得するため、データベースごとの違いはこれらのメソッドのオーバライドで吸収する。
+ * 配列の要素の型名は、排他制御用テーブルごとに保持する。
+ * @see BasicExclusiveControlManager#setMultiRowBindingMode(MultiRowBindingMode)
+ */
+final class KeyTableVersionChecker {
+
+    /** SQL文のテンプレートなどを取得する{@link BasicExclusiveControlManager} */
+    private final BasicExclusiveControlManager manager;
+
+    /** 排他制御用テーブルごとの、配列で渡す主キーとバージョン番号のカラムの型名 */
+    private final ConcurrentMap<ExclusiveControlTable, String[]> arrayTypeNames
+            = new ConcurrentHashMap<ExclusiveControlTable, String[]>();
+
+    /**
+     * コンストラクタ。
+     * @param manager SQL文のテンプレートなどを取得する{@link BasicExclusiveControlManager}
+     */
+    KeyTableVersionChecker(BasicExclusiveControlManager manager) {
+        this.manager = manager;
+    }
+
+    /**
+     * 主キーとバージョン番号の組み合わせに一致する行を、配列または一時テーブルとの結合により1つのSQL文で取得する。
+     * <p/>
+     * 件数によるチェックが有効な場合は、結合して一致する行の件数を先に取得し、
+     * 全ての組み合わせが一致する場合は行を取得しない。
+     * @param exclusiveControlTableHolder 排他制御テーブルの情報
+     * @param columnNames 主キーとバージョン番号のカラム名
+     * @param versions バージョン番号
+     * @param chunk チェック対象とするバージョン番号のインデックス
+     * @param keys チェック対象とするバージョン番号の主キーとバージョン番号の組み合わせを格納する配列(インデックスと同じ順)
+     * @param bindingMode 主キーとバージョン番号の組み合わせをデータベースに渡す方式
+     * @param countCheckEnabled 件数によるチェックを先に行う場合は{@code true}
+     * @param batchSize 一時テーブルに登録する際のバッチサイズ
+     * @return 一致した行。件数によるチェックで全ての組み合わせが一致した場合はnull
+     */
+    SqlResultSet retrieveMatchedRows(ExclusiveControlTable exclusiveControlTableHolder, String[] columnNames,
+                                     List<Version> versions, List<Integer> chunk, RowKey[] keys,
+                                     MultiRowBindingMode bindingMode, boolean countCheckEnabled, int batchSize) {
+
+        String[] primaryKeyColumnNames = exclusiveControlTableHolder.getPrimaryKeyColumnNames();
+        Object[][] columnValues = new Object[columnNames.length][chunk.size()];
+        for (int i = 0; i < chunk.size(); i++) {
+            Version version = versions.get(chunk.get(i));
+            Map<String, Object> condition = version.getPrimaryKeyCondition();
+            String[] keyValues = new String[columnNames.length];
+            for (int j = 0; j < primaryKeyColumnNames.length; j++) {
+                Object value = condition.get(ExclusiveControlUtil.convertToVariableName(primaryKeyColumnNames[j]));
+                columnValues[j][i] = value;
+                keyValues[j] = RowKey.normalize(value);
+            }
+            long versionNo = NumericVersion.toVersionNo(version);
+            columnValues[primaryKeyColumnNames.length][i] = versionNo;
+            keyValues[primaryKeyColumnNames.length] = String.valueOf(versionNo);
+            keys[i] = new RowKey(keyValues);
+        }
+
+        TransactionManagerConnection connection = null;
+        String[] typeNames = null;
+        Object[] arrays = null;
+        String temporaryTableName = null;
+        if (bindingMode == MultiRowBindingMode.ARRAY) {
+            connection = DbConnectionContext.getTransactionManagerConnection(exclusiveControlTableHolder.getConnectionName());
+            typeNames = getArrayTypeNames(exclusiveControlTableHolder, connection, columnNames);
+            arrays = new Object[columnNames.length];
+            for (int j = 0; j < columnNames.length; j++) {
+                arrays[j] = manager.createArray(connection, typeNames[j], columnValues[j]);
+            }
+        } else {
+            temporaryTableName = loadTemporaryTable(exclusiveControlTableHolder, columnNames, columnValues, batchSize);
+        }
+
+        if (countCheckEnabled) {
+            String countSql = arrays != null
+                    ? createArrayJoinSql(exclusiveControlTableHolder, connection, columnNames, typeNames, true)
+                    : createTemporaryTableJoinSql(exclusiveControlTableHolder, temporaryTableName, columnNames, true);
+            SqlResultSet resultSet = retrieve(exclusiveControlTableHolder, countSql, arrays);
+            if (((Number) resultSet.get(0).get(BasicExclusiveControlManager.COUNT_COLUMN_NAME)).intValue() == chunk.size()) {
+                return null;
+            }
+        }
+        String joinSql = arrays != null
+                ? createArrayJoinSql(exclusiveControlTableHolder, connection, columnNames, typeNames, false)
+                : createTemporaryTableJoinSql(exclusiveControlTableHolder, temporaryTableName, columnNames, false);
+        return retrieve(exclusiveControlTableHolder, joinSql, arrays);
+    }
+
+    /**
+     * 主キーとバージョン番号の組み合わせを保持する表と結合するSQL文を実行する。
+     * @param exclusiveControlTableHolder 排他制御テーブルの情報
+     * @param sql 結合するSQL文
+     * @param arrays バインド変数に設定するカラムごとの配列。一時テーブルと結合する場合はnull
+     * @return 取得した行
+     */
+    private static SqlResultSet retrieve(ExclusiveControlTable exclusiveControlTableHolder, String sql, Object[] arrays) {
+        SqlPStatement stmt = DbConnectionContext.getConnection(exclusiveControlTableHolder.getConnectionName())
+                                                .prepareStatement(sql);
+        if (arrays != null) {
+            for (int j = 0; j < arrays.length; j++) {
+                stmt.setObject(j + 1, arrays[j]);
+            }
+        }
+        return stmt.retrieve();
+    }
+
+    /**
+     * 配列で渡す主キーとバージョン番号のカラムごとの型名を取得する。
+     * <p/>
+     * 排他制御用テーブルを0件検索した結果のメタデータからカラムの型を取得し、
+     * {@link BasicExclusiveControlManager#getArrayTypeName(int, String)}で型名に変換する。
+     * 取得した型名は排他制御用テーブルごとに保持する。
+     * @param exclusiveControlTableHolder 排他制御テーブルの情報
+     * @param connection データベース接続
+     * @param columnNames 主キーとバージョン番号のカラム名
+     * @return カラムごとの配列の要素の型名
+     */
+    String[] getArrayTypeNames(ExclusiveControlTable exclusiveControlTableHolder,
+                               TransactionManagerConnection connection, String[] columnNames) {
+        String[] typeNames = arrayTypeNames.get(exclusiveControlTableHolder);
+        if (typeNames != null) {
+            return typeNames;
+        }
+        typeNames = new String[columnNames.length];
+        try {
+            Statement statement = connection.getConnection().createStatement();
+            try {
+                ResultSet rs = statement.executeQuery("SELECT " + Builder.join(columnNames, ", ")
+                        + " FROM " + exclusiveControlTableHolder.getTableName() + " WHERE 1 = 0");
+                try {
+                    ResultSetMetaData metaData = rs.getMetaData();
+                    for (int j = 0; j < columnNames.length; j++) {
+                        typeNames[j] = manager.getArrayTypeName(
+                                metaData.getColumnType(j + 1), metaData.getColumnTypeName(j + 1));
+                    }
+                } finally {
+                    rs.close();
+                }
+            } finally {
+                statement.close();
+            }
+        } catch (SQLException e) {
+            throw new DbAccessException(
+                    "failed to get column types. table name = [" + exclusiveControlTableHolder.getTableName() + "]", e);
+        }
+        String[] existing = arrayTypeNames.putIfAbsent(exclusiveControlTableHolder, typeNames);
+        return existing == null ? typeNames : existing;
+    }
+
+    /**
+     * 主キーとバージョン番号を一時テーブルに登録する。
+     * <p/>
+     * {@link BasicExclusiveControlManager#getTemporaryTableCreateSqlTemplate()}がテンプレートを返す場合は
+     * 一時テーブルを作成した後、残っている行を削除してからバッチ実行で登録する。
+     * @param exclusiveControlTableHolder 排他制御テーブルの情報
+     * @param columnNames 主キーとバージョン番号のカラム名
+     * @param columnValues カラムごとの値
+     * @param batchSize バッチサイズ
+     * @return 一時テーブル名
+     */
+    private String loadTemporaryTable(ExclusiveControlTable exclusiveControlTableHolder,
+                                      String[] columnNames, Object[][] columnValues, int batchSize) {
+
+        String[] primaryKeyColumnNames = exclusiveControlTableHolder.getPrimaryKeyColumnNames();
+        String temporaryTableName = manager.getTemporaryTableName(exclusiveControlTableHolder.getTableName());
+        AppDbConnection conn = DbConnectionContext.getConnection(exclusiveControlTableHolder.getConnectionName());
+
+        String createTemplate = manager.getTemporaryTableCreateSqlTemplate();
+        if (createTemplate != null) {
+            conn.prepareStatement(createTemplate.replace("$TEMPORARY_TABLE_NAME$", temporaryTableName)
+                                                .replace("$PRIMARY_KEYS$", Builder.join(primaryKeyColumnNames, ", "))
+                                                .replace("$VERSION$", exclusiveControlTableHolder.getVersionColumnName())
+                                                .replace("$TABLE_NAME$", exclusiveControlTableHolder.getTableName()))
+                .executeUpdate();
+        }
+        conn.prepareStatement("DELETE FROM " + temporaryTableName).executeUpdate();
+
+        StringBuilder values = new StringBuilder();
+        for (int j = 0; j < columnNames.length; j++) {
+            values.append(j == 0 ? "?" : ", ?");
+        }
+        SqlPStatement stmt = conn.prepareStatement("INSERT INTO " + temporaryTableName
+                + " (" + Builder.join(columnNames, ", ") + ") VALUES (" + values + ")");
+        int rowCount = columnValues[0].length;
+        for (int i = 0; i < rowCount; i++) {
+            for (int j = 0; j < primaryKeyColumnNames.length; j++) {
+                stmt.setObject(j + 1, columnValues[j][i]);
+            }
+            stmt.setLong(columnNames.length, (Long) columnValues[primaryKeyColumnNames.length][i]);
+            stmt.addBatch();
+            if ((i + 1) % batchSize == 0 || i == rowCount - 1) {
+                stmt.executeBatch();
+            }
+        }
+        return temporaryTableName;
+    }
+
+    /**
+     * 配列を行に展開した表と結合してバージョン番号をチェックするSQL文を取得する。
+     * <p/>
+     * 作成したSQL文は、{@link ExclusiveControlTable}にSQL文の種類と配列の要素の型ごとにキャッシュする。
+     * @param exclusiveControlTableHolder 排他制御テーブルの情報
+     * @param connection データベース接続
+     * @param columnNames 主キーとバージョン番号のカラム名
+     * @param typeNames カラムごとの配列の要素の型名
+     * @param count 一致する行の件数を取得する場合は{@code true}
+     * @return 配列を行に展開した表と結合するSQL文
+     */
+    private String createArrayJoinSql(ExclusiveControlTable exclusiveControlTableHolder,
+                                      TransactionManagerConnection connection, String[] columnNames, String[] typeNames,
+                                      boolean count) {
+        String key = (count ? "arrayCount:" : "arrayJoin:") + Builder.join(typeNames, ",");
+        PositionalSql cached = exclusiveControlTableHolder.getCachedSql(key);
+        if (cached != null) {
+            return cached.getSql();
+        }
+        return cacheSql(exclusiveControlTableHolder, key, createKeyTableJoinSql(
+                exclusiveControlTableHolder, getJoinSqlTemplate(count),
+                manager.getArrayKeyTable(connection, columnNames, typeNames), columnNames));
+    }
+
+    /**
+     * 一時テーブルと結合してバージョン番号をチェックするSQL文を取得する。
+     * <p/>
+     * 作成したSQL文は、{@link ExclusiveControlTable}にSQL文の種類ごとにキャッシュする。
+     * @param exclusiveControlTableHolder 排他制御テーブルの情報
+     * @param temporaryTableName 一時テーブル名
+     * @param columnNames 主キーとバージョン番号のカラム名
+     * @param count 一致する行の件数を取得する場合は{@code true}
+     * @return 一時テーブルと結合するSQL文
+     */
+    private String createTemporaryTableJoinSql(ExclusiveControlTable exclusiveControlTableHolder,
+                                               String temporaryTableName, String[] columnNames, boolean count) {
+        String key = count ? "temporaryTableCount" : "temporaryTableJoin";
+        PositionalSql cached = exclusiveControlTableHolder.getCachedSql(key);
+        if (cached != null) {
+            return cached.getSql();
+        }
+        return cacheSql(exclusiveControlTableHolder, key, createKeyTableJoinSql(
+                exclusiveControlTableHolder, getJoinSqlTemplate(count), temporaryTableName + " K", columnNames));
+    }
+
+    /**
+     * 結合するSQL文のテンプレートを取得する。
+     * @param count 一致する行の件数を取得する場合は{@code true}
+     * @return 結合するSQL文のテンプレート
+     */
+    private String getJoinSqlTemplate(boolean count) {
+        return count ? manager.getKeyTableCountSqlTemplate() : manager.getKeyTableJoinSqlTemplate();
+    }
+
+    /**
+     * SQL文を{@link ExclusiveControlTable}にキャッシュする。
+     * @param exclusiveControlTableHolder 排他制御テーブルの情報
+     * @param key キャッシュのキー
+     * @param sql SQL文
+     * @return キャッシュに存在するSQL文
+     */
+    private static String cacheSql(ExclusiveControlTable exclusiveControlTableHolder, String key, String sql) {
+        return exclusiveControlTableHolder.cacheSql(
+                key, new PositionalSql(sql, exclusiveControlTableHolder.getVersionColumnName())).getSql();
+    }
+
+    /**
+     * テンプレートから主キーとバージョン番号の組み合わせを保持する表と結合するSQL文を作成する。
+     * @param exclusiveControlTableHolder 排他制御テーブルの情報
+     * @param template 結合するSQL文のテンプレート
+     * @param keyTable 別名(K)を付けた主キーとバージョン番号の組み合わせを保持する表
+     * @param columnNames 主キーとバージョン番号のカラム名
+     * @return 結合するSQL文
+     */
+    static String createKeyTableJoinSql(ExclusiveControlTable exclusiveControlTableHolder, String template,
+                                        String keyTable, String[] columnNames) {
+        String[] primaryKeyColumnNames = exclusiveControlTableHolder.getPrimaryKeyColumnNames();
+        StringBuilder primaryKeys = new StringBuilder();
+        for (int i = 0; i < primaryKeyColumnNames.length; i++) {
+            primaryKeys.append(i == 0 ? "T." : ", T.").append(primaryKeyColumnNames[i]);
+        }
+        StringBuilder joinCondition = new StringBuilder();
+        for (int i = 0; i < columnNames.length; i++) {
+            joinCondition.append(i == 0 ? "" : " AND ")
+                         .append("T.").append(columnNames[i]).append(" = K.").append(columnNames[i]);
+        }
+        return template.replace("$PRIMARY_KEYS$", primaryKeys.toString())
+                       .replace("$VERSION$", "T." + exclusiveControlTableHolder.getVersionColumnName())
+                       .replace("$TABLE_NAME$", exclusiveControlTableHolder.getTableName())
+                       .replace("$KEY_TABLE$", keyTable)
+                       .replace("$JOIN_CONDITION$", joinCondition.toString());
+    }
+}
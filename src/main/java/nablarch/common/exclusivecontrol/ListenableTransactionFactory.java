@@ -0,0 +1,128 @@
+package nablarch.common.exclusivecontrol;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import nablarch.core.transaction.Transaction;
+import nablarch.core.transaction.TransactionFactory;
+
+/**
+ * トランザクションの終了処理を{@link TransactionListener}に通知する{@link TransactionFactory}。
+ * <p/>
+ * 実際のトランザクションの生成は、{@link #setTransactionFactory(TransactionFactory)}で設定された
+ * {@link TransactionFactory}に委譲する。
+ * 下記に設定例を示す。
+ * <pre>
+ * &lt;component name="transactionFactory" class="nablarch.common.exclusivecontrol.ListenableTransactionFactory"&gt;
+ *   &lt;property name="transactionFactory"&gt;
+ *     &lt;component class="nablarch.core.db.transaction.JdbcTransactionFactory" /&gt;
+ *   &lt;/property&gt;
+ *   &lt;property name="listeners"&gt;
+ *     &lt;list&gt;
+ *       &lt;component-ref name="exclusiveControlManager" /&gt;
+ *     &lt;/list&gt;
+ *   &lt;/property&gt;
+ * &lt;/component&gt;
+ * </pre>
+ */
+public class ListenableTransactionFactory implements TransactionFactory {
+
+    /** 処理を委譲する{@link TransactionFactory} */
+    private TransactionFactory transactionFactory;
+
+    /** 通知先の{@link TransactionListener} */
+    private List<TransactionListener> listeners = new ArrayList<TransactionListener>();
+
+    /**
+     * 処理を委譲する{@link TransactionFactory}を設定する。
+     * @param transactionFactory 処理を委譲する{@link TransactionFactory}
+     */
+    public void setTransactionFactory(TransactionFactory transactionFactory) {
+        this.transactionFactory = transactionFactory;
+    }
+
+    /**
+     * 通知先の{@link TransactionListener}を設定する。
+     * <p/>
+     * 通知は設定順に行う。
+     * @param listeners 通知先の{@link TransactionListener}
+     */
+    public void setListeners(List<TransactionListener> listeners) {
+        this.listeners = listeners;
+    }
+
+    /** {@inheritDoc} */
+    public Transaction getTransaction(String connectionName) {
+        return new ListenableTransaction(connectionName, transactionFactory.getTransaction(connectionName));
+    }
+
+    /**
+     * トランザクションの終了処理を{@link TransactionListener}に通知する{@link Transaction}。
+     */
+    private final class ListenableTransaction implements Transaction {
+
+        /** トランザクション名 */
+        private final String transactionName;
+
+        /** 処理を委譲する{@link Transaction} */
+        private final Transaction transaction;
+
+        /**
+         * コンストラクタ。
+         * @param transactionName トランザクション名
+         * @param transaction 処理を委譲する{@link Transaction}
+         */
+        ListenableTransaction(String transactionName, Transaction transaction) {
+            this.transactionName = transactionName;
+            this.transaction = transaction;
+        }
+
+        /** {@inheritDoc} */
+        public void begin() {
+            transaction.begin();
+        }
+
+        /**
+         * {@inheritDoc}
+         * <p/>
+         * コミット前に{@link TransactionListener#beforeCommit(String)}を、
+         * コミット後に{@link TransactionListener#afterCompletion(String, boolean)}を呼び出す。
+         * コミット前の通知またはコミットで例外が発生した場合は、コミットされていないものとして通知する。
+         */
+        public void commit() {
+            boolean committed = false;
+            try {
+                for (TransactionListener listener : listeners) {
+                    listener.beforeCommit(transactionName);
+                }
+                transaction.commit();
+                committed = true;
+            } finally {
+                afterCompletion(committed);
+            }
+        }
+
+        /**
+         * {@inheritDoc}
+         * <p/>
+         * ロールバック後に{@link TransactionListener#afterCompletion(String, boolean)}を呼び出す。
+         */
+        public void rollback() {
+            try {
+                transaction.rollback();
+            } finally {
+                afterCompletion(false);
+            }
+        }
+
+        /**
+         * トランザクションの終了を通知する。
+         * @param committed コミットされた場合は{@code true}
+         */
+        private void afterCompletion(boolean committed) {
+            for (TransactionListener listener : listeners) {
+                listener.afterCompletion(transactionName, committed);
+            }
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package nablarch.common.exclusivecontrol;
+
+/**
+ * 複数行の一括チェックで、主キーとバージョン番号の組み合わせをデータベースに渡す方式。
+ * @see BasicExclusiveControlManager#setMultiRowBindingMode(MultiRowBindingMode)
+ */
+public enum MultiRowBindingMode {
+
+    /** 行数分のバインド変数を持つ条件(IN句またはORで連結した条件)で渡す */
+    IN_LIST,
+
+    /** カラムごとの配列を1つのバインド変数で渡し、行に展開して結合する */
+    ARRAY,
+
+    /** 一時テーブルにバッチ実行で登録し、結合する */
+    TEMPORARY_TABLE
+}
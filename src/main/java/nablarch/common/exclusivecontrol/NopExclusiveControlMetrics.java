@@ -0,0 +1,22 @@
+package nablarch.common.exclusivecontrol;
+
+/**
+ * 何も記録しない{@link ExclusiveControlMetrics}の実装クラス。
+ * <p/>
+ * {@link BasicExclusiveControlManager}のデフォルト。
+ * このクラスが設定されている場合、{@link BasicExclusiveControlManager}は処理時間の計測自体を行わない。
+ */
+public class NopExclusiveControlMetrics implements ExclusiveControlMetrics {
+
+    /**
+     * 何もしない。
+     * @param tableName 排他制御用テーブルのテーブル名
+     * @param operation 排他制御の操作
+     * @param elapsedNanos 処理時間(ナノ秒)
+     * @param rowCount 処理したバージョン番号の件数
+     * @param conflictCount 楽観ロックエラーとなったバージョン番号の件数
+     */
+    public void record(String tableName, ExclusiveControlOperation operation, long elapsedNanos, int rowCount, int conflictCount) {
+        // nop
+    }
+}
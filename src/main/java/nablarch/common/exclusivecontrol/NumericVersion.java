@@ -0,0 +1,59 @@
+package nablarch.common.exclusivecontrol;
+
+import java.util.Map;
+
+/**
+ * バージョン番号を数値としても保持する{@link Version}。
+ * <p/>
+ * {@link BasicExclusiveControlManager}がデータベースから取得したバージョン番号は本クラスで返す。
+ * 文字列のバージョン番号({@link #getVersion()})は従来どおり使用できる。
+ * 本クラスのバージョン番号をチェックまたは更新する場合は、文字列から数値への変換を行わずに
+ * {@link #getVersionNo()}の値をそのままバインドする。
+ */
+public class NumericVersion extends Version {
+
+    /** バージョン番号 */
+    private final long versionNo;
+
+    /**
+     * コンストラクタ。
+     * @param context 排他制御コンテキスト
+     * @param versionNo バージョン番号
+     */
+    public NumericVersion(ExclusiveControlContext context, long versionNo) {
+        super(context, String.valueOf(versionNo));
+        this.versionNo = versionNo;
+    }
+
+    /**
+     * コンストラクタ。
+     * @param tableName 排他制御用テーブルのテーブル名
+     * @param versionColumnName バージョン番号カラム名
+     * @param versionNo バージョン番号
+     * @param primaryKeyCondition 主キーの条件
+     */
+    public NumericVersion(String tableName, String versionColumnName, long versionNo, Map<String, Object> primaryKeyCondition) {
+        super(tableName, versionColumnName, String.valueOf(versionNo), primaryKeyCondition);
+        this.versionNo = versionNo;
+    }
+
+    /**
+     * 数値のバージョン番号を取得する。
+     * @return バージョン番号
+     */
+    public long getVersionNo() {
+        return versionNo;
+    }
+
+    /**
+     * バージョン番号を数値で取得する。
+     * <p/>
+     * 本クラスの場合は保持している数値を返し、それ以外の場合は文字列のバージョン番号を変換して返す。
+     * @param version バージョン番号
+     * @return 数値のバージョン番号
+     */
+    static long toVersionNo(Version version) {
+        return version instanceof NumericVersion
+                ? ((NumericVersion) version).versionNo : Long.parseLong(version.getVersion());
+    }
+}
@@ -0,0 +1,22 @@
+package nablarch.common.exclusivecontrol;
+
+import java.util.List;
+
+/**
+ * 楽観ロックエラーを通知するインタフェース。
+ * <p/>
+ * {@link BasicExclusiveControlManager#setOptimisticLockErrorListener(OptimisticLockErrorListener)}で設定すると、
+ * {@link OptimisticLockException}を送出する直前に、楽観ロックエラーとなったバージョン番号が通知される。
+ * <p/>
+ * 複数のスレッドから同時に呼び出されるため、実装クラスはスレッドセーフにすること。
+ * また、業務処理のスレッドで呼び出されるため、ロックの取得やI/Oなど処理時間の長い処理を行わないこと。
+ * @see HotKeyTracker
+ */
+public interface OptimisticLockErrorListener {
+
+    /**
+     * 楽観ロックエラーを通知する。
+     * @param errorVersions 楽観ロックエラーとなったバージョン番号
+     */
+    void onOptimisticLockError(List<Version> errorVersions);
+}
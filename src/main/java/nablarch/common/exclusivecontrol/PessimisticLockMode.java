@@ -0,0 +1,17 @@
+package nablarch.common.exclusivecontrol;
+
+/**
+ * 排他制御用テーブルの行を悲観ロックする際のロック待ちの方式。
+ * @see BasicExclusiveControlManager#lockVersions(java.util.List, PessimisticLockMode)
+ */
+public enum PessimisticLockMode {
+
+    /** ロックが解放されるまで待つ(FOR UPDATE) */
+    WAIT,
+
+    /** ロックを待たずにエラーとする(FOR UPDATE NOWAIT) */
+    NOWAIT,
+
+    /** ロックされている行を読み飛ばす(FOR UPDATE SKIP LOCKED) */
+    SKIP_LOCKED
+}
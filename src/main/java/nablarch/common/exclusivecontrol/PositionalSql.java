@@ -0,0 +1,216 @@
+package nablarch.common.exclusivecontrol;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import nablarch.core.db.statement.SqlPStatement;
+
+/**
+ * 名前付きバインド変数(":user_id"など)を使用したSQL文を、
+ * 位置指定のバインド変数("?")を使用したSQL文に変換して保持するクラス。
+ * <p/>
+ * 変換時に、バインド変数の名前を出現順に保持したバインドプランを作成する。
+ * 値の設定時は、バインドプランに従って主キーの条件とバージョン番号から直接値を設定するため、
+ * 名前付きバインド変数の解析やバインド変数用の{@link Map}の作成が不要となる。
+ */
+public final class PositionalSql {
+
+    /** 位置指定のバインド変数を使用したSQL文 */
+    private final String sql;
+
+    /** バインド変数の名前(出現順) */
+    private final String[] parameterNames;
+
+    /** バインド変数がバージョン番号であるか否か(出現順) */
+    private final boolean[] versionParameters;
+
+    /**
+     * 名前付きバインド変数を使用したSQL文を変換する。
+     * @param namedSql 名前付きバインド変数を使用したSQL文
+     * @param versionColumnName バージョン番号カラム名
+     */
+    public PositionalSql(String namedSql, String versionColumnName) {
+
+        String versionName = ExclusiveControlUtil.convertToVariableName(versionColumnName);
+        List<String> names = new ArrayList<String>();
+        StringBuilder sb = new StringBuilder(namedSql.length());
+        boolean inLiteral = false;
+        int i = 0;
+        while (i < namedSql.length()) {
+            char c = namedSql.charAt(i);
+            if (c == '\'') {
+                inLiteral = !inLiteral;
+            } else if (!inLiteral && c == ':' && isParameterStart(namedSql, i)) {
+                int end = i + 1;
+                while (end < namedSql.length() && isParameterPart(namedSql.charAt(end))) {
+                    end++;
+                }
+                names.add(namedSql.substring(i + 1, end));
+                sb.append('?');
+                i = end;
+                continue;
+            }
+            sb.append(c);
+            i++;
+        }
+
+        this.sql = sb.toString();
+        this.parameterNames = names.toArray(new String[names.size()]);
+        this.versionParameters = new boolean[parameterNames.length];
+        for (int j = 0; j < parameterNames.length; j++) {
+            versionParameters[j] = parameterNames[j].equals(versionName);
+        }
+    }
+
+    /**
+     * 名前付きバインド変数の開始位置であるか否かを判定する。
+     * @param sql SQL文
+     * @param index ":"の位置
+     * @return 名前付きバインド変数の開始位置である場合は{@code true}
+     */
+    private static boolean isParameterStart(String sql, int index) {
+        if (index + 1 >= sql.length()) {
+            return false;
+        }
+        if (index > 0 && sql.charAt(index - 1) == ':') {
+            return false;
+        }
+        char next = sql.charAt(index + 1);
+        return Character.isLetter(next) || next == '_';
+    }
+
+    /**
+     * 名前付きバインド変数の名前を構成する文字であるか否かを判定する。
+     * @param c 文字
+     * @return 名前を構成する文字である場合は{@code true}
+     */
+    private static boolean isParameterPart(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+
+    /**
+     * 位置指定のバインド変数を使用したSQL文を取得する。
+     * @return 位置指定のバインド変数を使用したSQL文
+     */
+    public String getSql() {
+        return sql;
+    }
+
+    /**
+     * バインド変数の数を取得する。
+     * @return バインド変数の数
+     */
+    public int getParameterCount() {
+        return parameterNames.length;
+    }
+
+    /**
+     * バインドプランに従って、ステートメントにバインド変数の値を設定する。
+     * @param stmt ステートメント
+     * @param condition 主キーの条件(キーはバインド変数の名前)
+     * @param versionNo バージョン番号。SQL文がバージョン番号を使用しない場合はnull
+     */
+    public void bind(SqlPStatement stmt, Map<String, ?> condition, Object versionNo) {
+        for (int i = 0; i < parameterNames.length; i++) {
+            stmt.setObject(i + 1, versionParameters[i] ? versionNo : condition.get(parameterNames[i]));
+        }
+    }
+
+    /**
+     * バインドプランに従って、ステートメントにバインド変数の値を設定する。
+     * <p/>
+     * バージョン番号はボクシングせずに{@link SqlPStatement#setLong(int, long)}で設定する。
+     * @param stmt ステートメント
+     * @param condition 主キーの条件(キーはバインド変数の名前)
+     * @param versionNo バージョン番号
+     */
+    public void bind(SqlPStatement stmt, Map<String, ?> condition, long versionNo) {
+        for (int i = 0; i < parameterNames.length; i++) {
+            if (versionParameters[i]) {
+                stmt.setLong(i + 1, versionNo);
+            } else {
+                stmt.setObject(i + 1, condition.get(parameterNames[i]));
+            }
+        }
+    }
+
+    /**
+     * バッチ実行する行を保持するオブジェクトを作成する。
+     * @param capacity 行数の初期容量
+     * @return バッチ実行する行を保持するオブジェクト
+     */
+    public BatchRows createBatchRows(int capacity) {
+        return new BatchRows(capacity);
+    }
+
+    @Override
+    public String toString() {
+        return sql;
+    }
+
+    /**
+     * バッチ実行する行ごとの主キーの条件とバージョン番号を保持するクラス。
+     * <p/>
+     * バッチ実行のように、値の設定を後で行う場合に使用する。
+     * 行ごとにバインド変数の値の配列を作成せず、バージョン番号はボクシングせずに{@code long}の配列で保持する。
+     */
+    public final class BatchRows {
+
+        /** 行ごとの主キーの条件 */
+        private final List<Map<String, ?>> conditions;
+
+        /** 行ごとのバージョン番号 */
+        private long[] versionNos;
+
+        /**
+         * コンストラクタ。
+         * @param capacity 行数の初期容量
+         */
+        private BatchRows(int capacity) {
+            conditions = new ArrayList<Map<String, ?>>(capacity);
+            versionNos = new long[Math.max(capacity, 1)];
+        }
+
+        /**
+         * バージョン番号を使用しないSQL文の行を追加する。
+         * @param condition 主キーの条件(キーはバインド変数の名前)
+         */
+        public void add(Map<String, ?> condition) {
+            add(condition, 0L);
+        }
+
+        /**
+         * 行を追加する。
+         * @param condition 主キーの条件(キーはバインド変数の名前)
+         * @param versionNo バージョン番号
+         */
+        public void add(Map<String, ?> condition, long versionNo) {
+            int index = conditions.size();
+            if (index == versionNos.length) {
+                long[] expanded = new long[index * 2];
+                System.arraycopy(versionNos, 0, expanded, 0, index);
+                versionNos = expanded;
+            }
+            conditions.add(condition);
+            versionNos[index] = versionNo;
+        }
+
+        /**
+         * 行数を取得する。
+         * @return 行数
+         */
+        public int size() {
+            return conditions.size();
+        }
+
+        /**
+         * バインドプランに従って、ステートメントに行のバインド変数の値を設定する。
+         * @param stmt ステートメント
+         * @param index 行のインデックス
+         */
+        public void bind(SqlPStatement stmt, int index) {
+            PositionalSql.this.bind(stmt, conditions.get(index), versionNos[index]);
+        }
+    }
+}
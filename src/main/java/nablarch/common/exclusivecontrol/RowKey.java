@@ -0,0 +1,110 @@
+package nablarch.common.exclusivecontrol;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * 排他制御用テーブルの行を識別するキー。
+ * <p/>
+ * 主キーの値などを文字列に変換して保持する。
+ * 値の型(例えば、{@link Integer}と{@link java.math.BigDecimal})や
+ * CHAR型カラムの末尾の空白に依存せずに、条件の値とデータベースから取得した値を比較するために使用する。
+ * <p/>
+ * キーを構成する値の順に比較する。nullは他の値より前とする。
+ */
+final class RowKey implements Comparable<RowKey> {
+
+    /** キーを構成する値 */
+    private final String[] values;
+
+    /** ハッシュコード */
+    private final int hashCode;
+
+    /**
+     * コンストラクタ。
+     * @param values キーを構成する値({@link #normalize(Object)}で変換済みの値)
+     */
+    RowKey(String... values) {
+        this.values = values;
+        this.hashCode = Arrays.hashCode(values);
+    }
+
+    /**
+     * キーを構成する値に変換する。
+     * <p/>
+     * 文字列表現の末尾の空白を除去した値を返す。
+     * @param value 値
+     * @return キーを構成する値。値がnullの場合はnull
+     */
+    static String normalize(Object value) {
+        if (value == null) {
+            return null;
+        }
+        String str = value.toString();
+        int end = str.length();
+        while (end > 0 && str.charAt(end - 1) == ' ') {
+            end--;
+        }
+        return str.substring(0, end);
+    }
+
+    /**
+     * 排他制御用テーブルの行を識別するキーを作成する。
+     * <p/>
+     * テーブル名に続けて、主キーの変数名と値を変数名の順に並べてキーに含める。
+     * @param tableName 排他制御用テーブルのテーブル名
+     * @param condition 主キーの条件
+     * @return 行を識別するキー
+     */
+    static RowKey create(String tableName, Map<String, ?> condition) {
+        String[] names = condition.keySet().toArray(new String[condition.size()]);
+        Arrays.sort(names);
+        String[] values = new String[names.length * 2 + 1];
+        values[0] = tableName;
+        for (int i = 0; i < names.length; i++) {
+            values[i * 2 + 1] = names[i];
+            values[i * 2 + 2] = normalize(condition.get(names[i]));
+        }
+        return new RowKey(values);
+    }
+
+    /** {@inheritDoc} */
+    public int compareTo(RowKey other) {
+        int length = Math.min(values.length, other.values.length);
+        for (int i = 0; i < length; i++) {
+            if (values[i] == null || other.values[i] == null) {
+                if (values[i] != other.values[i]) {
+                    return values[i] == null ? -1 : 1;
+                }
+                continue;
+            }
+            int result = values[i].compareTo(other.values[i]);
+            if (result != 0) {
+                return result;
+            }
+        }
+        return values.length - other.values.length;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof RowKey)) {
+            return false;
+        }
+        RowKey other = (RowKey) obj;
+        return hashCode == other.hashCode && Arrays.equals(values, other.values);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(values);
+    }
+}
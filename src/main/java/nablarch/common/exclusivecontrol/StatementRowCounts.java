@@ -0,0 +1,83 @@
+package nablarch.common.exclusivecontrol;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 複数行をまとめて扱うSQL文1つあたりの行数を決定するクラス。
+ * <p/>
+ * 複数行をまとめて扱うSQL文は、行数ごとに異なるSQL文となる。
+ * SQL文の種類を抑えるため、行数を区切りのうち行数以上で最小の値に切り上げる。
+ * SQL文1つあたりの行数は、最大の区切りと最大行数の小さい方までとする。
+ */
+final class StatementRowCounts {
+
+    /** SQL文1つあたりの最大行数のデフォルト値 */
+    private static final int DEFAULT_MAX_ROWS_PER_STATEMENT = 100;
+
+    /** 行数の区切りのデフォルト値 */
+    private static final int[] DEFAULT_ROW_COUNT_BUCKETS = {1, 4, 16, 64, 256};
+
+    /** SQL文1つあたりの最大行数 */
+    private int maxRowsPerStatement = DEFAULT_MAX_ROWS_PER_STATEMENT;
+
+    /** 行数の区切り(昇順) */
+    private int[] rowCountBuckets = DEFAULT_ROW_COUNT_BUCKETS;
+
+    /**
+     * SQL文1つあたりの最大行数を設定する。
+     * @param maxRowsPerStatement SQL文1つあたりの最大行数
+     * @throws IllegalArgumentException 1未満の場合
+     */
+    void setMaxRowsPerStatement(int maxRowsPerStatement) {
+        if (maxRowsPerStatement < 1) {
+            throw new IllegalArgumentException(
+                    "maxRowsPerStatement must be greater than 0. maxRowsPerStatement = [" + maxRowsPerStatement + "]");
+        }
+        this.maxRowsPerStatement = maxRowsPerStatement;
+    }
+
+    /**
+     * 行数の区切りを設定する。
+     * <p/>
+     * 空のリストを設定した場合は、行数の切り上げを行わない。
+     * @param rowCountBuckets 行数の区切り
+     * @throws IllegalArgumentException 1未満の区切りが含まれる場合
+     */
+    void setRowCountBuckets(List<Integer> rowCountBuckets) {
+        int[] buckets = new int[rowCountBuckets.size()];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = rowCountBuckets.get(i);
+            if (buckets[i] < 1) {
+                throw new IllegalArgumentException(
+                        "rowCountBuckets must be greater than 0. rowCountBuckets = " + rowCountBuckets);
+            }
+        }
+        Arrays.sort(buckets);
+        this.rowCountBuckets = buckets;
+    }
+
+    /**
+     * SQL文1つあたりの行数を取得する。
+     * @return 最大行数と最大の区切りのうち、小さい方
+     */
+    int getRowsPerStatement() {
+        return rowCountBuckets.length == 0
+                ? maxRowsPerStatement : Math.min(maxRowsPerStatement, rowCountBuckets[rowCountBuckets.length - 1]);
+    }
+
+    /**
+     * 処理する行数に対応するSQL文の行数を取得する。
+     * @param rowCount 処理する行数({@link #getRowsPerStatement()}以下)
+     * @return 処理する行数以上で最小の区切り。区切りがSQL文1つあたりの行数を超える場合はSQL文1つあたりの行数
+     */
+    int getStatementRowCount(int rowCount) {
+        int rowsPerStatement = getRowsPerStatement();
+        for (int bucket : rowCountBuckets) {
+            if (bucket >= rowCount) {
+                return Math.min(bucket, rowsPerStatement);
+            }
+        }
+        return rowCountBuckets.length == 0 ? rowCount : rowsPerStatement;
+    }
+}
@@ -0,0 +1,27 @@
+package nablarch.common.exclusivecontrol;
+
+/**
+ * トランザクションの終了処理を通知するインタフェース。
+ * <p/>
+ * {@link ListenableTransactionFactory}が生成したトランザクションから呼び出される。
+ * 通知はトランザクションを制御するスレッドで行われる。
+ * @see ListenableTransactionFactory
+ */
+public interface TransactionListener {
+
+    /**
+     * トランザクションのコミット前に呼び出される。
+     * <p/>
+     * このメソッドで実行したSQL文は、コミットするトランザクションに含まれる。
+     * 例外を送出した場合、トランザクションはコミットされない。
+     * @param transactionName トランザクション名(データベース接続名)
+     */
+    void beforeCommit(String transactionName);
+
+    /**
+     * トランザクションのコミットまたはロールバック後に呼び出される。
+     * @param transactionName トランザクション名(データベース接続名)
+     * @param committed コミットされた場合は{@code true}、ロールバックされた場合は{@code false}
+     */
+    void afterCompletion(String transactionName, boolean committed);
+}
@@ -0,0 +1,146 @@
+package nablarch.common.exclusivecontrol;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import nablarch.core.db.connection.AppDbConnection;
+import nablarch.core.db.connection.DbConnectionContext;
+
+/**
+ * トランザクション内で排他制御用テーブルの行ごとに値を保持するマップ。
+ * <p/>
+ * 値はスレッドごと、データベース接続名ごとに保持する。
+ * トランザクションの終了時に{@link #clear(String)}で破棄すること。
+ * <p/>
+ * 破棄漏れによって別のトランザクションに値が引き継がれないよう、
+ * マップ作成時のデータベース接続と現在のデータベース接続が異なる場合は、マップを破棄して作り直す。
+ * @param <V> 値の型
+ */
+final class TransactionScopedMap<V> {
+
+    /** スレッドごとのマップ(キーはデータベース接続名) */
+    private final ThreadLocal<Map<String, Entries<V>>> maps = new ThreadLocal<Map<String, Entries<V>>>();
+
+    /**
+     * 値を取得する。
+     * @param connectionName データベース接続名
+     * @param key 行を識別するキー
+     * @return 値。存在しない場合はnull
+     */
+    V get(String connectionName, RowKey key) {
+        Entries<V> entries = getEntries(connectionName, false);
+        return entries == null ? null : entries.values.get(key);
+    }
+
+    /**
+     * 値を設定する。
+     * @param connectionName データベース接続名
+     * @param key 行を識別するキー
+     * @param value 値
+     */
+    void put(String connectionName, RowKey key, V value) {
+        getEntries(connectionName, true).values.put(key, value);
+    }
+
+    /**
+     * 値を削除する。
+     * @param connectionName データベース接続名
+     * @param key 行を識別するキー
+     */
+    void remove(String connectionName, RowKey key) {
+        Entries<V> entries = getEntries(connectionName, false);
+        if (entries != null) {
+            entries.values.remove(key);
+        }
+    }
+
+    /**
+     * データベース接続に対応する全ての値を削除し、削除した値を返す。
+     * @param connectionName データベース接続名
+     * @return 削除した値。存在しない場合は空のマップ
+     */
+    Map<RowKey, V> removeAll(String connectionName) {
+        Entries<V> entries = getEntries(connectionName, false);
+        if (entries == null) {
+            return Collections.emptyMap();
+        }
+        clear(connectionName);
+        return entries.values;
+    }
+
+    /**
+     * 値を保持しているデータベース接続名を取得する。
+     * @return データベース接続名
+     */
+    List<String> getConnectionNames() {
+        Map<String, Entries<V>> map = maps.get();
+        return map == null ? Collections.<String>emptyList() : new ArrayList<String>(map.keySet());
+    }
+
+    /**
+     * データベース接続に対応する値を破棄する。
+     * @param connectionName データベース接続名
+     */
+    void clear(String connectionName) {
+        Map<String, Entries<V>> map = maps.get();
+        if (map == null) {
+            return;
+        }
+        map.remove(connectionName);
+        if (map.isEmpty()) {
+            maps.remove();
+        }
+    }
+
+    /**
+     * データベース接続に対応する値を取得する。
+     * @param connectionName データベース接続名
+     * @param create 存在しない場合に作成する場合は{@code true}
+     * @return データベース接続に対応する値。存在せず、作成もしない場合はnull
+     */
+    private Entries<V> getEntries(String connectionName, boolean create) {
+        AppDbConnection connection = DbConnectionContext.getConnection(connectionName);
+        Map<String, Entries<V>> map = maps.get();
+        Entries<V> entries = map == null ? null : map.get(connectionName);
+        if (entries != null && entries.connection == connection) {
+            return entries;
+        }
+        if (!create) {
+            if (entries != null) {
+                map.remove(connectionName);
+            }
+            return null;
+        }
+        if (map == null) {
+            map = new HashMap<String, Entries<V>>();
+            maps.set(map);
+        }
+        entries = new Entries<V>(connection);
+        map.put(connectionName, entries);
+        return entries;
+    }
+
+    /**
+     * データベース接続ごとの値。
+     * @param <V> 値の型
+     */
+    private static final class Entries<V> {
+
+        /** 作成時のデータベース接続 */
+        private final AppDbConnection connection;
+
+        /** 行ごとの値 */
+        private final Map<RowKey, V> values = new HashMap<RowKey, V>();
+
+        /**
+         * コンストラクタ。
+         * @param connection 作成時のデータベース接続
+         */
+        Entries(AppDbConnection connection) {
+            this.connection = connection;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package nablarch.common.exclusivecontrol;
+
+import java.util.Map;
+
+/**
+ * トランザクション内で取得または更新したバージョン番号を保持するキャッシュ。
+ * <p/>
+ * キャッシュはスレッドごと、データベース接続名ごとに保持する。
+ * トランザクションの終了時に{@link #clear(String)}で破棄すること。
+ * <p/>
+ * 破棄漏れによって別のトランザクションにバージョン番号が引き継がれないよう、
+ * キャッシュ作成時のデータベース接続と現在のデータベース接続が異なる場合は、キャッシュを破棄して作り直す。
+ * @see TransactionScopedMap
+ */
+final class TransactionVersionCache {
+
+    /** バージョン番号 */
+    private final TransactionScopedMap<Long> versions = new TransactionScopedMap<Long>();
+
+    /**
+     * キャッシュからバージョン番号を取得する。
+     * @param connectionName データベース接続名
+     * @param tableName 排他制御用テーブルのテーブル名
+     * @param condition 主キーの条件
+     * @return バージョン番号。キャッシュに存在しない場合はnull
+     */
+    Long get(String connectionName, String tableName, Map<String, ?> condition) {
+        return versions.get(connectionName, RowKey.create(tableName, condition));
+    }
+
+    /**
+     * キャッシュにバージョン番号を設定する。
+     * @param connectionName データベース接続名
+     * @param tableName 排他制御用テーブルのテーブル名
+     * @param condition 主キーの条件
+     * @param version バージョン番号
+     */
+    void put(String connectionName, String tableName, Map<String, ?> condition, long version) {
+        versions.put(connectionName, RowKey.create(tableName, condition), version);
+    }
+
+    /**
+     * キャッシュに存在するバージョン番号を1増やす。
+     * <p/>
+     * キャッシュに存在しない場合は何もしない。
+     * @param connectionName データベース接続名
+     * @param tableName 排他制御用テーブルのテーブル名
+     * @param condition 主キーの条件
+     */
+    void increment(String connectionName, String tableName, Map<String, ?> condition) {
+        RowKey key = RowKey.create(tableName, condition);
+        Long version = versions.get(connectionName, key);
+        if (version != null) {
+            versions.put(connectionName, key, version + 1);
+        }
+    }
+
+    /**
+     * キャッシュからバージョン番号を削除する。
+     * @param connectionName データベース接続名
+     * @param tableName 排他制御用テーブルのテーブル名
+     * @param condition 主キーの条件
+     */
+    void remove(String connectionName, String tableName, Map<String, ?> condition) {
+        versions.remove(connectionName, RowKey.create(tableName, condition));
+    }
+
+    /**
+     * データベース接続に対応するキャッシュを破棄する。
+     * @param connectionName データベース接続名
+     */
+    void clear(String connectionName) {
+        versions.clear(connectionName);
+    }
+}
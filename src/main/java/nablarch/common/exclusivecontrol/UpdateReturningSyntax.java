@@ -0,0 +1,20 @@
+package nablarch.common.exclusivecontrol;
+
+/**
+ * バージョン番号の更新と更新後のバージョン番号の取得を1つのSQL文で行うための構文。
+ * @see BasicExclusiveControlManager#updateVersionsWithCheckAndReturn(java.util.List)
+ */
+public enum UpdateReturningSyntax {
+
+    /** UPDATE文のRETURNING句(PostgreSQL) */
+    RETURNING,
+
+    /** FINAL TABLEを使用したSELECT文(DB2、H2) */
+    FINAL_TABLE,
+
+    /** UPDATE文のOUTPUT句(SQL Server) */
+    OUTPUT,
+
+    /** 構文を使用せずに、更新後にバージョン番号を取得する */
+    NONE
+}
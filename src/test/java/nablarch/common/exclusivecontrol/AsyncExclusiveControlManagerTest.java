@@ -0,0 +1,204 @@
+package nablarch.common.exclusivecontrol;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import nablarch.core.db.connection.ConnectionFactory;
+import nablarch.core.db.connection.DbConnectionContext;
+import nablarch.core.db.connection.TransactionManagerConnection;
+import nablarch.core.db.transaction.SimpleDbTransactionManager;
+import nablarch.core.transaction.Transaction;
+import nablarch.core.transaction.TransactionFactory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * {@link AsyncExclusiveControlManager}テスト。
+ */
+public class AsyncExclusiveControlManagerTest {
+
+    /** トランザクションの呼び出し履歴 */
+    private final List<String> calls = Collections.synchronizedList(new ArrayList<String>());
+
+    /** 実行スレッドで参照したデータベース接続 */
+    private final List<Object> connections = Collections.synchronizedList(new ArrayList<Object>());
+
+    private ExecutorService executorService;
+
+    private AsyncExclusiveControlManager sut;
+
+    @Before
+    public void setUp() {
+        SimpleDbTransactionManager transactionManager = new SimpleDbTransactionManager();
+        transactionManager.setConnectionFactory(new ConnectionFactory() {
+            public TransactionManagerConnection getConnection(String connectionName) {
+                return (TransactionManagerConnection) Proxy.newProxyInstance(
+                        getClass().getClassLoader(), new Class<?>[] {TransactionManagerConnection.class},
+                        new InvocationHandler() {
+                            public Object invoke(Object proxy, Method method, Object[] args) {
+                                return method.getName().equals("toString") ? "connection" : null;
+                            }
+                        });
+            }
+        });
+        transactionManager.setTransactionFactory(new TransactionFactory() {
+            public Transaction getTransaction(String connectionName) {
+                return new Transaction() {
+                    public void begin() {
+                        calls.add("begin");
+                    }
+                    public void commit() {
+                        calls.add("commit");
+                    }
+                    public void rollback() {
+                        calls.add("rollback");
+                    }
+                };
+            }
+        });
+        executorService = Executors.newFixedThreadPool(2);
+        sut = new AsyncExclusiveControlManager();
+        sut.setExclusiveControlManager(new StubExclusiveControlManager());
+        sut.setTransactionManager(transactionManager);
+        sut.setExecutorService(executorService);
+    }
+
+    @After
+    public void tearDown() {
+        executorService.shutdownNow();
+    }
+
+    /**
+     * 実行スレッドでデータベース接続が設定され、操作ごとにコミットされること。
+     */
+    @Test
+    public void testGetVersion() throws Exception {
+        Version version = sut.getVersion(null).get();
+        assertThat(version.getVersion(), is("1"));
+        assertThat(connections.size(), is(1));
+        assertThat(connections.get(0), is(notNullValue()));
+        assertThat(calls, is(Arrays.asList("begin", "commit")));
+    }
+
+    /**
+     * {@link BasicExclusiveControlManager}以外の場合は、{@link ExclusiveControlManager#getVersion(ExclusiveControlContext)}
+     * を順に呼び出し、1つのトランザクションで取得すること。
+     */
+    @Test
+    public void testGetVersions() throws Exception {
+        List<Version> versions = sut.getVersions(Arrays.<ExclusiveControlContext>asList(null, null)).get();
+        assertThat(versions.size(), is(2));
+        assertThat(connections.size(), is(2));
+        assertThat(calls, is(Arrays.asList("begin", "commit")));
+    }
+
+    /**
+     * 操作中に発生した例外は{@link ExecutionException}の原因として取得でき、ロールバックされること。
+     */
+    @Test
+    public void testCheckVersionsFailure() throws Exception {
+        try {
+            sut.checkVersions(Arrays.asList(
+                    new Version("EXCLUSIVE_COMP_MST", "VERSION", "1", Collections.<String, Object>emptyMap()))).get();
+            fail();
+        } catch (ExecutionException e) {
+            assertThat(e.getCause().getMessage(), is("check failure"));
+        }
+        assertThat(calls, is(Arrays.asList("begin", "rollback")));
+    }
+
+    /**
+     * {@link BasicExclusiveControlManager}の場合は、トランザクションの終了後にバージョン番号のキャッシュを破棄すること。
+     */
+    @Test
+    public void testAfterCompletion() throws Exception {
+        sut.setExclusiveControlManager(new BasicExclusiveControlManager() {
+            @Override
+            public void checkVersions(List<Version> versions) {
+                calls.add("check");
+            }
+            @Override
+            public void afterCompletion(String transactionName, boolean committed) {
+                calls.add("afterCompletion:" + transactionName + ":" + committed);
+            }
+        });
+        sut.checkVersions(Collections.<Version>emptyList()).get();
+        assertThat(calls, is(Arrays.asList("begin", "check", "commit", "afterCompletion:transaction:true")));
+    }
+
+    /**
+     * {@link ExecutorService}が設定されていない場合は、デフォルトの{@link ExecutorService}を最初の操作で作成し、
+     * {@link AsyncExclusiveControlManager#shutdown()}で終了すること。
+     */
+    @Test
+    public void testDefaultExecutorService() throws Exception {
+        sut.setExecutorService(null);
+        sut.shutdown();
+
+        Version version = sut.getVersion(null).get();
+        assertThat(version.getVersion(), is("1"));
+        assertThat(calls, is(Arrays.asList("begin", "commit")));
+
+        sut.shutdown();
+        sut.shutdown();
+    }
+
+    /**
+     * トランザクション名がデフォルトでない場合は例外が送出されること。
+     */
+    @Test
+    public void testSetTransactionManagerWithNonDefaultName() {
+        SimpleDbTransactionManager transactionManager = new SimpleDbTransactionManager();
+        transactionManager.setDbTransactionName("read");
+        try {
+            sut.setTransactionManager(transactionManager);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), is("dbTransactionName must be [transaction]. dbTransactionName = [read]"));
+        }
+    }
+
+    /**
+     * デフォルトのデータベース接続を記録する{@link ExclusiveControlManager}。
+     */
+    private class StubExclusiveControlManager implements ExclusiveControlManager {
+
+        public Version getVersion(ExclusiveControlContext context) {
+            connections.add(DbConnectionContext.getConnection());
+            return new Version("EXCLUSIVE_COMP_MST", "VERSION", "1", Collections.<String, Object>emptyMap());
+        }
+
+        public void checkVersions(List<Version> versions) {
+            connections.add(DbConnectionContext.getConnection());
+            if (!versions.isEmpty()) {
+                throw new IllegalStateException("check failure");
+            }
+        }
+
+        public void updateVersionsWithCheck(List<Version> versions) {
+        }
+
+        public void updateVersion(ExclusiveControlContext context) {
+        }
+
+        public void addVersion(ExclusiveControlContext context) {
+        }
+
+        public void removeVersion(ExclusiveControlContext context) {
+        }
+    }
+}
@@ -5,17 +5,34 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import nablarch.core.ThreadContext;
+import nablarch.core.db.DbAccessException;
+import nablarch.core.db.connection.ConnectionFactory;
+import nablarch.core.db.connection.DbConnectionContext;
+import nablarch.core.db.connection.TransactionManagerConnection;
+import nablarch.core.db.statement.SqlPStatement;
+import nablarch.core.db.statement.SqlRow;
 import nablarch.core.db.statement.exception.DuplicateStatementException;
 import nablarch.core.db.support.DbAccessSupport;
 import nablarch.core.db.transaction.SimpleDbTransactionManager;
+import nablarch.core.transaction.TransactionFactory;
 import nablarch.test.support.SystemRepositoryResource;
 import nablarch.test.support.db.helper.DatabaseTestRunner;
 import nablarch.test.support.db.helper.VariousDbTestHelper;
@@ -41,6 +58,9 @@ public class BasicExclusiveControlManagerTest extends ExclusiveControlTestSuppor
 
     private static SimpleDbTransactionManager transactionManager;
 
+    /** 記録するSQL文に含まれるEXCLUSIVE_COMP_MSTまたはそのシャードのテーブル名 */
+    private static final Pattern COMP_MST_TABLE_NAME = Pattern.compile("EXCLUSIVE_COMP_MST(_[0-9]+)?");
+
     @BeforeClass
     public static void setUpClass() {
         VariousDbTestHelper.createTable(ExclusiveUserMst.class);
@@ -119,6 +139,7 @@ public class BasicExclusiveControlManagerTest extends ExclusiveControlTestSuppor
         assertThat(version.getPrimaryKeyCondition().get("pk2").toString(), is("pk2001"));
         assertThat(version.getPrimaryKeyCondition().get("pk3").toString(), is("pk3001"));
         assertThat(version.getVersion(), is("1"));
+        assertThat(((NumericVersion) version).getVersionNo(), is(1L));
         assertThat(version.toString(), containsString("tableName = [EXCLUSIVE_USER_MST], version = [1], primaryKeyCondition = ["));
         assertThat(version.toString(), containsString("user_id=uid001"));
         assertThat(version.toString(), containsString("pk2=pk2001"));
@@ -875,4 +896,2003 @@ public class BasicExclusiveControlManagerTest extends ExclusiveControlTestSuppor
         assertThat(userMstList.get(0).name, is("test_user_001_changed"));
         assertThat(userMstList.get(0).version, is(13L));
     }
+
+    /**
+     * バッチ実行によるバージョン番号の更新チェックを伴う更新をテストする。
+     */
+    @Test
+    public void testVersionUpdatingCheckAndUpdateByBatch() {
+
+        BasicExclusiveControlManager manager = new BasicExclusiveControlManager();
+        manager.setBatchSize(2);
+
+        VariousDbTestHelper.setUpTable(new ExclusiveUserMst("uid001", "pk2001", "pk3001", 1L),
+                                       new ExclusiveUserMst("uid002", "pk2002", "pk3002", 2L),
+                                       new ExclusiveUserMst("uid003", "pk2003", "pk3003", 1L));
+        VariousDbTestHelper.setUpTable(new ExclusiveCompMst("com001", 2L),
+                                       new ExclusiveCompMst("com002", 1L));
+
+        /****************************************************************
+        バージョン番号が更新されていない場合(複数テーブル、バッチサイズ超過)
+        ****************************************************************/
+
+        manager.updateVersionsWithCheck(Arrays.asList(new Version(new ExUserMstPk("uid001", "pk2001", "pk3001"), "1"),
+                                                      new Version(new ExCompMstPk("com001"), "2"),
+                                                      new Version(new ExUserMstPk("uid002", "pk2002", "pk3002"), "2"),
+                                                      new Version(new ExCompMstPk("com002"), "1"),
+                                                      new Version(new ExUserMstPk("uid003", "pk2003", "pk3003"), "1")));
+        transactionManager.commitTransaction();
+
+        List<ExclusiveUserMst> exclusiveUserMstList = VariousDbTestHelper.findAll(ExclusiveUserMst.class, "userId");
+        assertThat(exclusiveUserMstList.size(), is(3));
+        assertThat(exclusiveUserMstList.get(0).version, is(2L));
+        assertThat(exclusiveUserMstList.get(1).version, is(3L));
+        assertThat(exclusiveUserMstList.get(2).version, is(2L));
+
+        List<ExclusiveCompMst> exclusiveCompMstList = VariousDbTestHelper.findAll(ExclusiveCompMst.class, "compId");
+        assertThat(exclusiveCompMstList.size(), is(2));
+        assertThat(exclusiveCompMstList.get(0).version, is(3L));
+        assertThat(exclusiveCompMstList.get(1).version, is(2L));
+
+        /****************************************************************
+        バージョン番号が更新されている場合(複数テーブル、バッチサイズ超過)
+        エラーとなったバージョン番号は指定した順に設定されること。
+        ****************************************************************/
+
+        try {
+            manager.updateVersionsWithCheck(Arrays.asList(new Version(new ExUserMstPk("uid001", "pk2001", "pk3001"), "1"),
+                                                          new Version(new ExCompMstPk("com001"), "3"),
+                                                          new Version(new ExUserMstPk("uid002", "pk2002", "pk3002"), "3"),
+                                                          new Version(new ExCompMstPk("com002"), "1"),
+                                                          new Version(new ExUserMstPk("uid003", "pk2003", "pk3003"), "1")));
+            fail();
+        } catch (OptimisticLockException e) {
+            assertThat(e.getMessages().size(), is(0));
+            assertThat(e.getErrorVersions().size(), is(3));
+            assertThat(e.getErrorVersions().get(0).getTableName(), is("EXCLUSIVE_USER_MST"));
+            assertThat(e.getErrorVersions().get(0).getPrimaryKeyCondition().get("user_id").toString(), is("uid001"));
+            assertThat(e.getErrorVersions().get(1).getTableName(), is("EXCLUSIVE_COMP_MST"));
+            assertThat(e.getErrorVersions().get(1).getPrimaryKeyCondition().get("comp_id").toString(), is("com002"));
+            assertThat(e.getErrorVersions().get(2).getTableName(), is("EXCLUSIVE_USER_MST"));
+            assertThat(e.getErrorVersions().get(2).getPrimaryKeyCondition().get("user_id").toString(), is("uid003"));
+        } finally {
+            transactionManager.rollbackTransaction();
+        }
+
+        exclusiveUserMstList = VariousDbTestHelper.findAll(ExclusiveUserMst.class, "userId");
+        assertThat(exclusiveUserMstList.get(0).version, is(2L));
+        assertThat(exclusiveUserMstList.get(1).version, is(3L));
+        assertThat(exclusiveUserMstList.get(2).version, is(2L));
+    }
+
+    /**
+     * JDBCドライバがバッチ実行の処理件数を返さない場合に、1件ずつの更新にフォールバックすることをテストする。
+     */
+    @Test
+    public void testVersionUpdatingCheckAndUpdateByBatchWithoutUpdateCount() {
+
+        BasicExclusiveControlManager manager = new BasicExclusiveControlManager();
+        manager.setBatchSize(2);
+
+        VariousDbTestHelper.setUpTable(new ExclusiveUserMst("uid001", "pk2001", "pk3001", 1L),
+                                       new ExclusiveUserMst("uid002", "pk2002", "pk3002", 2L));
+
+        final TransactionManagerConnection original = DbConnectionContext.getTransactionManagerConnection();
+        final List<String> savepointCalls = new ArrayList<String>();
+        final Connection jdbcConnection = createProxy(Connection.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getName().equals("setSavepoint") || method.getName().equals("releaseSavepoint")
+                        || (method.getName().equals("rollback") && args != null)) {
+                    savepointCalls.add(method.getName());
+                }
+                return invokeDelegate(original.getConnection(), method, args);
+            }
+        });
+        TransactionManagerConnection stub = createProxy(TransactionManagerConnection.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getName().equals("getConnection")) {
+                    return jdbcConnection;
+                }
+                Object result = invokeDelegate(original, method, args);
+                if (method.getName().equals("prepareStatement")) {
+                    return createSuccessNoInfoStatement((SqlPStatement) result);
+                }
+                return result;
+            }
+        });
+
+        DbConnectionContext.removeConnection();
+        DbConnectionContext.setConnection(stub);
+        try {
+
+            /****************************************************************
+            初回のバッチ実行で処理件数が返されない場合
+            バッチ実行をロールバックし、1件ずつ更新されること。
+            判定に使用したセーブポイントが解放されること。
+            ****************************************************************/
+
+            manager.updateVersionsWithCheck(Arrays.asList(new Version(new ExUserMstPk("uid001", "pk2001", "pk3001"), "1"),
+                                                          new Version(new ExUserMstPk("uid002", "pk2002", "pk3002"), "2")));
+            transactionManager.commitTransaction();
+
+            assertThat(savepointCalls, is(Arrays.asList("setSavepoint", "rollback", "releaseSavepoint")));
+            List<ExclusiveUserMst> exclusiveUserMstList = VariousDbTestHelper.findAll(ExclusiveUserMst.class, "userId");
+            assertThat(exclusiveUserMstList.get(0).version, is(2L));
+            assertThat(exclusiveUserMstList.get(1).version, is(3L));
+
+            /****************************************************************
+            2回目以降の呼び出し
+            バッチ実行を行わずに1件ずつ更新し、楽観ロックエラーを判定できること。
+            ****************************************************************/
+
+            savepointCalls.clear();
+            try {
+                manager.updateVersionsWithCheck(Arrays.asList(new Version(new ExUserMstPk("uid001", "pk2001", "pk3001"), "1"),
+                                                              new Version(new ExUserMstPk("uid002", "pk2002", "pk3002"), "3")));
+                fail();
+            } catch (OptimisticLockException e) {
+                assertThat(e.getErrorVersions().size(), is(1));
+                assertThat(e.getErrorVersions().get(0).getPrimaryKeyCondition().get("user_id").toString(), is("uid001"));
+            } finally {
+                transactionManager.rollbackTransaction();
+            }
+            assertThat(savepointCalls.size(), is(0));
+
+        } finally {
+            DbConnectionContext.removeConnection();
+            DbConnectionContext.setConnection(original);
+        }
+    }
+
+    /**
+     * 処理件数を返すと判定した後に、JDBCドライバがバッチ実行の処理件数を返さなくなった場合をテストする。
+     */
+    @Test
+    public void testVersionUpdatingCheckAndUpdateByBatchWithoutUpdateCountAfterSupported() {
+
+        BasicExclusiveControlManager manager = new BasicExclusiveControlManager();
+        manager.setBatchSize(2);
+
+        VariousDbTestHelper.setUpTable(new ExclusiveUserMst("uid001", "pk2001", "pk3001", 1L),
+                                       new ExclusiveUserMst("uid002", "pk2002", "pk3002", 2L));
+
+        final TransactionManagerConnection original = DbConnectionContext.getTransactionManagerConnection();
+        final List<String> savepointCalls = new ArrayList<String>();
+        final AtomicBoolean successNoInfo = new AtomicBoolean(false);
+        final Connection jdbcConnection = createProxy(Connection.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getName().equals("setSavepoint") || method.getName().equals("releaseSavepoint")
+                        || (method.getName().equals("rollback") && args != null)) {
+                    savepointCalls.add(method.getName());
+                }
+                return invokeDelegate(original.getConnection(), method, args);
+            }
+        });
+        TransactionManagerConnection stub = createProxy(TransactionManagerConnection.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getName().equals("getConnection")) {
+                    return jdbcConnection;
+                }
+                Object result = invokeDelegate(original, method, args);
+                if (method.getName().equals("prepareStatement") && successNoInfo.get()) {
+                    return createSuccessNoInfoStatement((SqlPStatement) result);
+                }
+                return result;
+            }
+        });
+
+        DbConnectionContext.removeConnection();
+        DbConnectionContext.setConnection(stub);
+        try {
+
+            /****************************************************************
+            初回のバッチ実行で処理件数が返された場合
+            処理件数を返すと判定し、セーブポイントが解放されること。
+            ****************************************************************/
+
+            manager.updateVersionsWithCheck(Arrays.asList(new Version(new ExUserMstPk("uid001", "pk2001", "pk3001"), "1"),
+                                                          new Version(new ExUserMstPk("uid002", "pk2002", "pk3002"), "2")));
+            transactionManager.commitTransaction();
+            assertThat(savepointCalls, is(Arrays.asList("setSavepoint", "releaseSavepoint")));
+
+            /****************************************************************
+            判定後のバッチ実行で処理件数が返されない場合
+            セーブポイントを使用せずに例外が送出され、トランザクションのロールバックで更新が取り消せること。
+            ****************************************************************/
+
+            savepointCalls.clear();
+            successNoInfo.set(true);
+            try {
+                manager.updateVersionsWithCheck(Arrays.asList(new Version(new ExUserMstPk("uid001", "pk2001", "pk3001"), "2"),
+                                                              new Version(new ExUserMstPk("uid002", "pk2002", "pk3002"), "3")));
+                fail();
+            } catch (DbAccessException e) {
+                assertThat(e.getMessage(), containsString("SUCCESS_NO_INFO"));
+                assertThat(e.getMessage(), containsString("connection name = [transaction]"));
+            } finally {
+                transactionManager.rollbackTransaction();
+            }
+            assertThat(savepointCalls.size(), is(0));
+            List<ExclusiveUserMst> exclusiveUserMstList = VariousDbTestHelper.findAll(ExclusiveUserMst.class, "userId");
+            assertThat(exclusiveUserMstList.get(0).version, is(2L));
+            assertThat(exclusiveUserMstList.get(1).version, is(3L));
+
+            /****************************************************************
+            以降の呼び出し
+            バッチ実行を行わずに1件ずつ更新されること。
+            ****************************************************************/
+
+            manager.updateVersionsWithCheck(Arrays.asList(new Version(new ExUserMstPk("uid001", "pk2001", "pk3001"), "2"),
+                                                          new Version(new ExUserMstPk("uid002", "pk2002", "pk3002"), "3")));
+            transactionManager.commitTransaction();
+            assertThat(savepointCalls.size(), is(0));
+            exclusiveUserMstList = VariousDbTestHelper.findAll(ExclusiveUserMst.class, "userId");
+            assertThat(exclusiveUserMstList.get(0).version, is(3L));
+            assertThat(exclusiveUserMstList.get(1).version, is(4L));
+
+            /****************************************************************
+            処理件数を使用しない一括追加の場合
+            処理件数が返されなくても、セーブポイントを使用せずにバッチ実行で追加されること。
+            ****************************************************************/
+
+            BasicExclusiveControlManager addManager = new BasicExclusiveControlManager();
+            addManager.addVersions(Arrays.asList(new ExUserMstPk("uid003", "pk2003", "pk3003"),
+                                                 new ExUserMstPk("uid004", "pk2004", "pk3004")));
+            transactionManager.commitTransaction();
+            assertThat(savepointCalls.size(), is(0));
+            assertThat(VariousDbTestHelper.findAll(ExclusiveUserMst.class, "userId").size(), is(4));
+
+        } finally {
+            DbConnectionContext.removeConnection();
+            DbConnectionContext.setConnection(original);
+        }
+    }
+
+    /**
+     * バッチ実行の処理件数として{@link java.sql.Statement#SUCCESS_NO_INFO}を返すステートメントを作成する。
+     * @param statement 委譲先のステートメント
+     * @return ステートメント
+     */
+    private static SqlPStatement createSuccessNoInfoStatement(final SqlPStatement statement) {
+        return createProxy(SqlPStatement.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                Object result = invokeDelegate(statement, method, args);
+                if (method.getName().equals("executeBatch")) {
+                    int[] counts = (int[]) result;
+                    Arrays.fill(counts, java.sql.Statement.SUCCESS_NO_INFO);
+                }
+                return result;
+            }
+        });
+    }
+
+    /**
+     * インタフェースのプロキシを作成する。
+     * @param type インタフェース
+     * @param handler ハンドラ
+     * @return プロキシ
+     */
+    private static <T> T createProxy(Class<T> type, InvocationHandler handler) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, handler));
+    }
+
+    /**
+     * 委譲先のメソッドを呼び出す。
+     * @param delegate 委譲先
+     * @param method メソッド
+     * @param args 引数
+     * @return 戻り値
+     * @throws Throwable 委譲先で発生した例外
+     */
+    private static Object invokeDelegate(Object delegate, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(delegate, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * 複数行の一括チェックによるバージョン番号の更新チェックをテストする。
+     */
+    @Test
+    public void testVersionUpdatingCheckByMultiRow() {
+
+        BasicExclusiveControlManager manager = new BasicExclusiveControlManager();
+        manager.setMultiRowCheckEnabled(true);
+        manager.setMaxRowsPerStatement(2);
+
+        VariousDbTestHelper.setUpTable(new ExclusiveUserMst("uid001", "pk2001", "pk3001", 1L),
+                                       new ExclusiveUserMst("uid002", "pk2002", "pk3002", 2L),
+                                       new ExclusiveUserMst("uid003", "pk2003", "pk3003", 1L));
+        VariousDbTestHelper.setUpTable(new ExclusiveCompMst("com001", 2L),
+                                       new ExclusiveCompMst("com002", 1L));
+
+        /****************************************************************
+        バージョン番号が更新されていない場合(複数テーブル、最大行数超過)
+        ****************************************************************/
+
+        manager.checkVersions(Arrays.asList(new Version(new ExUserMstPk("uid001", "pk2001", "pk3001"), "1"),
+                                            new Version(new ExCompMstPk("com001"), "2"),
+                                            new Version(new ExUserMstPk("uid002", "pk2002", "pk3002"), "2"),
+                                            new Version(new ExCompMstPk("com002"), "1"),
+                                            new Version(new ExUserMstPk("uid003", "pk2003", "pk3003"), "1")));
+
+        /****************************************************************
+        バージョン番号が更新されている場合(複数テーブル、最大行数超過)
+        エラーとなったバージョン番号は指定した順に設定されること。
+        ****************************************************************/
+
+        try {
+            manager.checkVersions(Arrays.asList(new Version(new ExUserMstPk("uid001", "pk2001", "pk3001"), "1"),
+                                                new Version(new ExCompMstPk("com001"), "1"),
+                                                new Version(new ExUserMstPk("uid002", "pk2002", "pk3002"), "1"),
+                                                new Version(new ExCompMstPk("com002"), "1"),
+                                                new Version(new ExUserMstPk("uid003", "pk2003", "pk3003"), "2"),
+                                                new Version(new ExUserMstPk("uid999", "pk2999", "pk3999"), "1")));
+            fail();
+        } catch (OptimisticLockException e) {
+            assertThat(e.getMessages().size(), is(0));
+            assertThat(e.getErrorVersions().size(), is(4));
+            assertThat(e.getErrorVersions().get(0).getTableName(), is("EXCLUSIVE_COMP_MST"));
+            assertThat(e.getErrorVersions().get(0).getVersion(), is("1"));
+            assertThat(e.getErrorVersions().get(0).getPrimaryKeyCondition().get("comp_id").toString(), is("com001"));
+            assertThat(e.getErrorVersions().get(1).getTableName(), is("EXCLUSIVE_USER_MST"));
+            assertThat(e.getErrorVersions().get(1).getVersion(), is("1"));
+            assertThat(e.getErrorVersions().get(1).getPrimaryKeyCondition().get("user_id").toString(), is("uid002"));
+            assertThat(e.getErrorVersions().get(1).getPrimaryKeyCondition().get("pk2").toString(), is("pk2002"));
+            assertThat(e.getErrorVersions().get(1).getPrimaryKeyCondition().get("pk3").toString(), is("pk3002"));
+            assertThat(e.getErrorVersions().get(2).getTableName(), is("EXCLUSIVE_USER_MST"));
+            assertThat(e.getErrorVersions().get(2).getVersion(), is("2"));
+            assertThat(e.getErrorVersions().get(2).getPrimaryKeyCondition().get("user_id").toString(), is("uid003"));
+            assertThat(e.getErrorVersions().get(3).getTableName(), is("EXCLUSIVE_USER_MST"));
+            assertThat(e.getErrorVersions().get(3).getPrimaryKeyCondition().get("user_id").toString(), is("uid999"));
+        }
+
+        /****************************************************************
+        同じ主キーを重複して指定した場合は、それぞれチェックされること。
+        ****************************************************************/
+
+        try {
+            manager.checkVersions(Arrays.asList(new Version(new ExCompMstPk("com002"), "1"),
+                                                new Version(new ExCompMstPk("com002"), "2"),
+                                                new Version(new ExCompMstPk("com002"), "1")));
+            fail();
+        } catch (OptimisticLockException e) {
+            assertThat(e.getErrorVersions().size(), is(1));
+            assertThat(e.getErrorVersions().get(0).getVersion(), is("2"));
+        }
+    }
+
+    /**
+     * 件数によるチェックを先に行う複数行の一括チェックをテストする。
+     */
+    @Test
+    public void testVersionUpdatingCheckByCount() {
+
+        BasicExclusiveControlManager manager = new BasicExclusiveControlManager();
+        manager.setMultiRowCheckEnabled(true);
+        manager.setCountCheckEnabled(true);
+        manager.setMaxRowsPerStatement(2);
+
+        VariousDbTestHelper.setUpTable(new ExclusiveUserMst("uid001", "pk2001", "pk3001", 1L),
+                                       new ExclusiveUserMst("uid002", "pk2002", "pk3002", 2L),
+                                       new ExclusiveUserMst("uid003", "pk2003", "pk3003", 1L));
+        VariousDbTestHelper.setUpTable(new ExclusiveCompMst("com001", 2L),
+                                       new ExclusiveCompMst("com002", 1L));
+
+        /****************************************************************
+        バージョン番号が更新されていない場合は、件数のみでチェックが完了すること。
+        ****************************************************************/
+
+        manager.checkVersions(Arrays.asList(new Version(new ExUserMstPk("uid001", "pk2001", "pk3001"), "1"),
+                                            new Version(new ExCompMstPk("com001"), "2"),
+                                            new Version(new ExUserMstPk("uid002", "pk2002", "pk3002"), "2"),
+                                            new Version(new ExCompMstPk("com002"), "1"),
+                                            new Version(new ExUserMstPk("uid003", "pk2003", "pk3003"), "1")));
+
+        /****************************************************************
+        件数が不足した場合は、行を取得して楽観ロックエラーとなったバージョン番号が特定されること。
+        ****************************************************************/
+
+        try {
+            manager.checkVersions(Arrays.asList(new Version(new ExUserMstPk("uid001", "pk2001", "pk3001"), "1"),
+                                                new Version(new ExCompMstPk("com001"), "2"),
+                                                new Version(new ExUserMstPk("uid002", "pk2002", "pk3002"), "1"),
+                                                new Version(new ExUserMstPk("uid003", "pk2003", "pk3003"), "1")));
+            fail();
+        } catch (OptimisticLockException e) {
+            assertThat(e.getErrorVersions().size(), is(1));
+            assertThat(e.getErrorVersions().get(0).getTableName(), is("EXCLUSIVE_USER_MST"));
+            assertThat(e.getErrorVersions().get(0).getPrimaryKeyCondition().get("user_id").toString(), is("uid002"));
+        }
+
+        /****************************************************************
+        同じ主キーを重複して指定した場合も、それぞれチェックされること。
+        ****************************************************************/
+
+        manager.checkVersions(Arrays.asList(new Version(new ExCompMstPk("com002"), "1"),
+                                            new Version(new ExCompMstPk("com002"), "1")));
+    }
+
+    /**
+     * 配列と一時テーブルを使用した複数行の一括チェックをテストする。
+     */
+    @Test
+    public void testVersionUpdatingCheckByKeyTable() {
+
+        VariousDbTestHelper.setUpTable(new ExclusiveUserMst("uid001", "pk2001", "pk3001", 1L),
+                                       new ExclusiveUserMst("uid002", "pk2002", "pk3002", 2L),
+                                       new ExclusiveUserMst("uid003", "pk2003", "pk3003", 1L));
+        VariousDbTestHelper.setUpTable(new ExclusiveCompMst("com001", 2L));
+
+        // 配列、事前に作成した一時テーブル、チェック時に作成する一時テーブルの順にチェックする。
+        BasicExclusiveControlManager temporaryTableCreatingManager = new LocalTemporaryTableManager();
+        List<BasicExclusiveControlManager> managers = Arrays.asList(
+                new BasicExclusiveControlManager(), new BasicExclusiveControlManager(), temporaryTableCreatingManager);
+        List<MultiRowBindingMode> modes = Arrays.asList(
+                MultiRowBindingMode.ARRAY, MultiRowBindingMode.TEMPORARY_TABLE, MultiRowBindingMode.TEMPORARY_TABLE);
+        DbConnectionContext.getConnection().prepareStatement(
+                "CREATE LOCAL TEMPORARY TABLE EXCLUSIVE_USER_MST_KEYS ON COMMIT DELETE ROWS TRANSACTIONAL"
+                        + " AS SELECT USER_ID, PK2, PK3, VERSION FROM EXCLUSIVE_USER_MST WHERE 1 = 0").executeUpdate();
+
+        for (int i = 0; i < managers.size(); i++) {
+
+            BasicExclusiveControlManager manager = managers.get(i);
+            manager.setMultiRowCheckEnabled(true);
+            manager.setMultiRowBindingMode(modes.get(i));
+            manager.setMaxRowsPerStatement(2);
+            if (manager == temporaryTableCreatingManager) {
+                DbConnectionContext.getConnection().prepareStatement("DROP TABLE EXCLUSIVE_USER_MST_KEYS").executeUpdate();
+            }
+
+            /****************************************************************
+            バージョン番号が更新されていない場合(最大行数超過のテーブルのみ結合でチェック)
+            ****************************************************************/
+
+            manager.checkVersions(Arrays.asList(new Version(new ExUserMstPk("uid001", "pk2001", "pk3001"), "1"),
+                                                new Version(new ExCompMstPk("com001"), "2"),
+                                                new Version(new ExUserMstPk("uid002", "pk2002", "pk3002"), "2"),
+                                                new Version(new ExUserMstPk("uid003", "pk2003", "pk3003"), "1")));
+
+            /****************************************************************
+            バージョン番号が更新されている場合
+            ****************************************************************/
+
+            try {
+                manager.checkVersions(Arrays.asList(new Version(new ExUserMstPk("uid001", "pk2001", "pk3001"), "1"),
+                                                    new Version(new ExUserMstPk("uid002", "pk2002", "pk3002"), "1"),
+                                                    new Version(new ExUserMstPk("uid999", "pk2999", "pk3999"), "1"),
+                                                    new Version(new ExUserMstPk("uid003", "pk2003", "pk3003"), "1")));
+                fail();
+            } catch (OptimisticLockException e) {
+                assertThat(e.getErrorVersions().size(), is(2));
+                assertThat(e.getErrorVersions().get(0).getPrimaryKeyCondition().get("user_id").toString(), is("uid002"));
+                assertThat(e.getErrorVersions().get(1).getPrimaryKeyCondition().get("user_id").toString(), is("uid999"));
+            }
+
+            /****************************************************************
+            SQL文ごとに楽観ロックエラーの最大件数を判定すること。
+            ****************************************************************/
+
+            manager.setBulkChunkSize(2);
+            manager.setMaxErrorCount(1);
+            try {
+                manager.checkVersions(Arrays.asList(new Version(new ExUserMstPk("uid001", "pk2001", "pk3001"), "1"),
+                                                    new Version(new ExUserMstPk("uid002", "pk2002", "pk3002"), "1"),
+                                                    new Version(new ExUserMstPk("uid999", "pk2999", "pk3999"), "1"),
+                                                    new Version(new ExUserMstPk("uid003", "pk2003", "pk3003"), "1")));
+                fail();
+            } catch (OptimisticLockException e) {
+                assertThat(e.getErrorVersions().size(), is(1));
+                assertThat(e.getErrorVersions().get(0).getPrimaryKeyCondition().get("user_id").toString(), is("uid002"));
+            }
+        }
+
+        /****************************************************************
+        件数によるチェックで一致した場合は、行を取得しないこと。
+        ****************************************************************/
+
+        for (MultiRowBindingMode mode : Arrays.asList(MultiRowBindingMode.ARRAY, MultiRowBindingMode.TEMPORARY_TABLE)) {
+            BasicExclusiveControlManager manager = mode == MultiRowBindingMode.ARRAY
+                    ? new BasicExclusiveControlManager() : new LocalTemporaryTableManager();
+            manager.setMultiRowCheckEnabled(true);
+            manager.setMultiRowBindingMode(mode);
+            manager.setMaxRowsPerStatement(2);
+            manager.setCountCheckEnabled(true);
+
+            List<Version> matched = Arrays.asList(new Version(new ExUserMstPk("uid001", "pk2001", "pk3001"), "1"),
+                                                  new Version(new ExUserMstPk("uid002", "pk2002", "pk3002"), "2"),
+                                                  new Version(new ExUserMstPk("uid003", "pk2003", "pk3003"), "1"));
+            manager.checkVersions(matched);
+            ExclusiveControlTable table = manager.getExclusiveControlTableHolder(matched.get(0));
+            String joinKey = mode == MultiRowBindingMode.ARRAY ? "arrayJoin:VARCHAR,VARCHAR,VARCHAR,BIGINT" : "temporaryTableJoin";
+            String countKey = mode == MultiRowBindingMode.ARRAY ? "arrayCount:VARCHAR,VARCHAR,VARCHAR,BIGINT" : "temporaryTableCount";
+            assertThat(table.getCachedSql(countKey), is(notNullValue()));
+            assertNull(table.getCachedSql(joinKey));
+
+            // 件数が一致しない場合は行を取得して楽観ロックエラーとなったバージョン番号を特定すること。
+            try {
+                manager.checkVersions(Arrays.asList(new Version(new ExUserMstPk("uid001", "pk2001", "pk3001"), "1"),
+                                                    new Version(new ExUserMstPk("uid002", "pk2002", "pk3002"), "1"),
+                                                    new Version(new ExUserMstPk("uid003", "pk2003", "pk3003"), "1")));
+                fail();
+            } catch (OptimisticLockException e) {
+                assertThat(e.getErrorVersions().size(), is(1));
+                assertThat(e.getErrorVersions().get(0).getPrimaryKeyCondition().get("user_id").toString(), is("uid002"));
+            }
+            assertThat(table.getCachedSql(joinKey), is(notNullValue()));
+        }
+
+        /****************************************************************
+        一時テーブルの作成で呼び出し元のトランザクションがコミットされないこと。
+        ****************************************************************/
+
+        temporaryTableCreatingManager.addVersion(new ExCompMstPk("com900"));
+        temporaryTableCreatingManager.checkVersions(
+                Arrays.asList(new Version(new ExUserMstPk("uid001", "pk2001", "pk3001"), "1"),
+                              new Version(new ExUserMstPk("uid002", "pk2002", "pk3002"), "2"),
+                              new Version(new ExUserMstPk("uid003", "pk2003", "pk3003"), "1")));
+        transactionManager.rollbackTransaction();
+        assertNull(temporaryTableCreatingManager.getVersion(new ExCompMstPk("com900")));
+        DbConnectionContext.getConnection().prepareStatement("DROP TABLE EXCLUSIVE_USER_MST_KEYS").executeUpdate();
+
+        // デフォルトでは一時テーブルを作成しないこと。
+        assertNull(new BasicExclusiveControlManager().getTemporaryTableCreateSqlTemplate());
+
+        /****************************************************************
+        結合するSQL文
+        ****************************************************************/
+
+        BasicExclusiveControlManager manager = new BasicExclusiveControlManager();
+        ExclusiveControlTable table = manager.getExclusiveControlTableHolder(new ExCompMstPk("com001"));
+        String[] columnNames = {"COMP_ID", "VERSION"};
+        String keyTable = manager.getArrayKeyTable(
+                DbConnectionContext.getTransactionManagerConnection(), columnNames, new String[] {"VARCHAR", "BIGINT"});
+        assertThat(keyTable, is("TABLE(COMP_ID VARCHAR = ?, VERSION BIGINT = ?) K"));
+        assertThat(KeyTableVersionChecker.createKeyTableJoinSql(table, manager.getKeyTableJoinSqlTemplate(), keyTable, columnNames),
+                   is("SELECT T.COMP_ID, T.VERSION FROM EXCLUSIVE_COMP_MST T INNER JOIN " + keyTable
+                      + " ON T.COMP_ID = K.COMP_ID AND T.VERSION = K.VERSION"));
+        assertThat(KeyTableVersionChecker.createKeyTableJoinSql(table, manager.getKeyTableCountSqlTemplate(), keyTable, columnNames),
+                   is("SELECT COUNT(*) AS ROW_COUNT FROM EXCLUSIVE_COMP_MST T INNER JOIN " + keyTable
+                      + " ON T.COMP_ID = K.COMP_ID AND T.VERSION = K.VERSION"));
+
+        /****************************************************************
+        配列の要素の型はカラムの型から決定されること。
+        ****************************************************************/
+
+        KeyTableVersionChecker checker = new KeyTableVersionChecker(manager);
+        String[] typeNames = checker.getArrayTypeNames(table, DbConnectionContext.getTransactionManagerConnection(), columnNames);
+        assertThat(Arrays.asList(typeNames), is(Arrays.asList("VARCHAR", "BIGINT")));
+        assertThat(checker.getArrayTypeNames(table, DbConnectionContext.getTransactionManagerConnection(), columnNames),
+                   is(sameInstance(typeNames)));
+    }
+
+    /**
+     * 行数の区切りに満たない分を最後の行の条件で補って、複数行のバージョン番号を取得できることをテストする。
+     */
+    @Test
+    public void testGetVersionsWithRowCountBuckets() {
+
+        BasicExclusiveControlManager manager = new BasicExclusiveControlManager();
+        manager.setMultiRowCheckEnabled(true);
+        manager.setRowCountBuckets(Arrays.asList(4));
+
+        VariousDbTestHelper.setUpTable(new ExclusiveUserMst("uid001", "pk2001", "pk3001", 1L),
+                                       new ExclusiveUserMst("uid002", "pk2002", "pk3002", 2L));
+
+        List<Version> versions = manager.getVersions(Arrays.asList(new ExUserMstPk("uid002", "pk2002", "pk3002"),
+                                                                   new ExUserMstPk("uid001", "pk2001", "pk3001")));
+        assertThat(versions.get(0).getVersion(), is("2"));
+        assertThat(versions.get(1).getVersion(), is("1"));
+
+        manager.checkVersions(versions);
+        try {
+            manager.checkVersions(Arrays.asList(new Version(new ExUserMstPk("uid001", "pk2001", "pk3001"), "1"),
+                                                new Version(new ExUserMstPk("uid002", "pk2002", "pk3002"), "1")));
+            fail();
+        } catch (OptimisticLockException e) {
+            assertThat(e.getErrorVersions().size(), is(1));
+            assertThat(e.getErrorVersions().get(0).getPrimaryKeyCondition().get("user_id").toString(), is("uid002"));
+        }
+    }
+
+    /**
+     * 複数のバージョン番号の一括取得をテストする。
+     */
+    @Test
+    public void testGetVersions() {
+
+        BasicExclusiveControlManager manager = new BasicExclusiveControlManager();
+        manager.setMaxRowsPerStatement(2);
+
+        VariousDbTestHelper.setUpTable(new ExclusiveUserMst("uid001", "pk2001", "pk3001", 1L),
+                                       new ExclusiveUserMst("uid002", "pk2002", "pk3002", 2L),
+                                       new ExclusiveUserMst("uid003", "pk2003", "pk3003", 3L));
+        VariousDbTestHelper.setUpTable(new ExclusiveCompMst("com001", 4L));
+
+        List<Version> versions = manager.getVersions(Arrays.asList(new ExUserMstPk("uid003", "pk2003", "pk3003"),
+                                                                   new ExCompMstPk("com001"),
+                                                                   new ExUserMstPk("uid999", "pk2999", "pk3999"),
+                                                                   new ExUserMstPk("uid001", "pk2001", "pk3001"),
+                                                                   new ExCompMstPk("com999"),
+                                                                   new ExUserMstPk("uid002", "pk2002", "pk3002")));
+
+        assertThat(versions.size(), is(6));
+        assertThat(versions.get(0).getTableName(), is("EXCLUSIVE_USER_MST"));
+        assertThat(versions.get(0).getVersion(), is("3"));
+        assertThat(versions.get(0).getPrimaryKeyCondition().get("user_id").toString(), is("uid003"));
+        assertThat(versions.get(0).getPrimaryKeyCondition().get("pk2").toString(), is("pk2003"));
+        assertThat(versions.get(0).getPrimaryKeyCondition().get("pk3").toString(), is("pk3003"));
+        assertThat(versions.get(1).getTableName(), is("EXCLUSIVE_COMP_MST"));
+        assertThat(versions.get(1).getVersion(), is("4"));
+        assertThat(versions.get(1).getPrimaryKeyCondition().get("comp_id").toString(), is("com001"));
+        assertNull(versions.get(2));
+        assertThat(versions.get(3).getVersion(), is("1"));
+        assertThat(versions.get(3).getPrimaryKeyCondition().get("user_id").toString(), is("uid001"));
+        assertNull(versions.get(4));
+        assertThat(versions.get(5).getVersion(), is("2"));
+        assertThat(versions.get(5).getPrimaryKeyCondition().get("user_id").toString(), is("uid002"));
+
+        // 取得したバージョン番号でチェックできること。
+        manager.checkVersions(Arrays.asList(versions.get(0), versions.get(1), versions.get(3), versions.get(5)));
+    }
+
+    /**
+     * バージョン番号の一括追加および一括削除をテストする。
+     */
+    @Test
+    public void testBulkAddAndRemoveVersions() {
+
+        BasicExclusiveControlManager manager = new BasicExclusiveControlManager();
+        manager.setBulkChunkSize(2);
+
+        /****************************************************************
+        バージョン番号を一括追加した場合(複数テーブル、チャンクサイズ超過)
+        ****************************************************************/
+
+        List<ExclusiveControlContext> contexts = Arrays.<ExclusiveControlContext>asList(
+                new ExUserMstPk("uid001", "pk2001", "pk3001"),
+                new ExCompMstPk("com001"),
+                new ExUserMstPk("uid002", "pk2002", "pk3002"),
+                new ExUserMstPk("uid003", "pk2003", "pk3003"),
+                new ExCompMstPk("com002"));
+        manager.addVersions(contexts.iterator());
+        transactionManager.commitTransaction();
+
+        List<ExclusiveUserMst> exclusiveUserMstList = VariousDbTestHelper.findAll(ExclusiveUserMst.class, "userId");
+        assertThat(exclusiveUserMstList.size(), is(3));
+        assertThat(exclusiveUserMstList.get(0).userId, is("uid001"));
+        assertThat(exclusiveUserMstList.get(0).version, is(1L));
+        assertThat(exclusiveUserMstList.get(1).userId, is("uid002"));
+        assertThat(exclusiveUserMstList.get(1).version, is(1L));
+        assertThat(exclusiveUserMstList.get(2).userId, is("uid003"));
+        assertThat(exclusiveUserMstList.get(2).version, is(1L));
+
+        List<ExclusiveCompMst> exclusiveCompMstList = VariousDbTestHelper.findAll(ExclusiveCompMst.class, "compId");
+        assertThat(exclusiveCompMstList.size(), is(2));
+        assertThat(exclusiveCompMstList.get(0).compId, is("com001"));
+        assertThat(exclusiveCompMstList.get(0).version, is(1L));
+        assertThat(exclusiveCompMstList.get(1).compId, is("com002"));
+        assertThat(exclusiveCompMstList.get(1).version, is(1L));
+
+        // 追加後に条件が変更されていないことをテスト。
+        assertThat(contexts.get(1).getCondition().size(), is(1));
+
+        /****************************************************************
+        存在しない主キーを含めて一括削除した場合
+        ****************************************************************/
+
+        try {
+            manager.removeVersions(Arrays.asList(new ExUserMstPk("uid001", "pk2001", "pk3001"),
+                                                 new ExUserMstPk("xxxxxx", "yyyyyy", "zzzzzz")));
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), containsString("version was not found."));
+            assertThat(e.getMessage(), containsString("sql = [DELETE FROM EXCLUSIVE_USER_MST WHERE USER_ID = :user_id AND PK2 = :pk2 AND PK3 = :pk3]"));
+            assertThat(e.getMessage(), containsString("user_id=xxxxxx"));
+        } finally {
+            transactionManager.rollbackTransaction();
+        }
+
+        assertThat(VariousDbTestHelper.findAll(ExclusiveUserMst.class).size(), is(3));
+
+        /****************************************************************
+        バージョン番号を一括削除した場合(複数テーブル、チャンクサイズ超過)
+        ****************************************************************/
+
+        manager.removeVersions(contexts);
+        transactionManager.commitTransaction();
+
+        assertThat(VariousDbTestHelper.findAll(ExclusiveUserMst.class).size(), is(0));
+        assertThat(VariousDbTestHelper.findAll(ExclusiveCompMst.class).size(), is(0));
+    }
+
+    /**
+     * {@link ExclusiveControlTable}のキャッシュをテストする。
+     */
+    @Test
+    public void testExclusiveControlTableCache() {
+
+        BasicExclusiveControlManager manager = new BasicExclusiveControlManager();
+
+        /****************************************************************
+        同じテーブル、バージョン番号カラム、主キーの場合
+        ****************************************************************/
+
+        ExclusiveControlTable table = manager.getExclusiveControlTableHolder(new ExCompMstPk("com001"));
+        assertThat(manager.getExclusiveControlTableHolder(new ExCompMstPk("com002")), sameInstance(table));
+        assertThat(manager.getExclusiveControlTableCacheSize(), is(1));
+        assertThat(manager.getExclusiveControlTableCacheMissCount(), is(1L));
+        assertThat(manager.getExclusiveControlTableCacheHitCount(), is(1L));
+
+        /****************************************************************
+        同じテーブルで、バージョン番号カラムまたは主キーが異なる場合
+        ****************************************************************/
+
+        ExclusiveControlTable otherVersion = manager.getExclusiveControlTableHolder("EXCLUSIVE_COMP_MST", "VERSION2", "COMP_ID");
+        assertThat(otherVersion, not(sameInstance(table)));
+        assertThat(otherVersion.getSelectSql(), is("SELECT VERSION2 FROM EXCLUSIVE_COMP_MST WHERE COMP_ID = :comp_id"));
+
+        ExclusiveControlTable otherPk = manager.getExclusiveControlTableHolder("EXCLUSIVE_COMP_MST", "VERSION", "COMP_ID", "PK2");
+        assertThat(otherPk, not(sameInstance(table)));
+        assertThat(otherPk.getSelectSql(), is("SELECT VERSION FROM EXCLUSIVE_COMP_MST WHERE COMP_ID = :comp_id AND PK2 = :pk2"));
+
+        assertThat(manager.getExclusiveControlTableCacheSize(), is(3));
+        assertThat(manager.getExclusiveControlTableCacheMissCount(), is(3L));
+
+        /****************************************************************
+        SQL文のテンプレートが異なるインスタンスの場合
+        ****************************************************************/
+
+        BasicExclusiveControlManager customManager = new BasicExclusiveControlManager() {
+            @Override
+            protected String getSelectSqlTemplate() {
+                return "SELECT $VERSION$ FROM $TABLE_NAME$ WHERE $PRIMARY_KEYS_CONDITION$ FOR UPDATE";
+            }
+        };
+        ExclusiveControlTable customTable = customManager.getExclusiveControlTableHolder(new ExCompMstPk("com001"));
+        assertThat(customTable.getSelectSql(), is("SELECT VERSION FROM EXCLUSIVE_COMP_MST WHERE COMP_ID = :comp_id FOR UPDATE"));
+        assertThat(manager.getExclusiveControlTableHolder(new ExCompMstPk("com001")).getSelectSql(),
+                   is("SELECT VERSION FROM EXCLUSIVE_COMP_MST WHERE COMP_ID = :comp_id"));
+        assertThat(customManager.getExclusiveControlTableCacheSize(), is(1));
+
+        /****************************************************************
+        排他制御コンテキストとバージョン番号から取得する場合
+        主キーのカラム名の大文字と小文字、順序が異なっても同じものを取得すること。
+        ****************************************************************/
+
+        BasicExclusiveControlManager versionManager = new BasicExclusiveControlManager();
+        ExclusiveControlTable userTable = versionManager.getExclusiveControlTableHolder(new ExUserMstPk("uid001", "pk2001", "pk3001"));
+        assertThat(versionManager.getExclusiveControlTableHolder(new Version(new ExUserMstPk("uid001", "pk2001", "pk3001"), "1")),
+                   sameInstance(userTable));
+        assertThat(versionManager.getExclusiveControlTableHolder("EXCLUSIVE_USER_MST", "VERSION", "pk3", "user_id", "pk2"),
+                   sameInstance(userTable));
+        assertThat(versionManager.getExclusiveControlTableCacheSize(), is(1));
+        assertThat(versionManager.getExclusiveControlTableCacheMissCount(), is(1L));
+    }
+
+    /**
+     * 初期化処理をテストする。
+     */
+    @Test
+    public void testInitialize() {
+
+        SimpleDbTransactionManager warmUpTransactionManager = repositoryResource.getComponent("dbManager-warmUp");
+
+        /****************************************************************
+        SQL文の作成、スキーマ情報の検証、SQL文の準備を行う場合
+        ****************************************************************/
+
+        BasicExclusiveControlManager manager = new BasicExclusiveControlManager();
+        manager.setWarmUpContexts(Arrays.asList(new ExUserMstPk("uid001", "pk2001", "pk3001"), new ExCompMstPk("com001")));
+        manager.setWarmUpContextClassNames(Arrays.asList(UnknownTablePk.class.getName()));
+        manager.setWarmUpTransactionManager(warmUpTransactionManager);
+        manager.setWarmUpStatementPreparation(true);
+        try {
+            manager.initialize();
+            fail();
+        } catch (IllegalStateException e) {
+            // インスタンスとクラス名の両方の排他制御コンテキストが対象となること。
+            assertThat(e.getMessage(), is("exclusive control table was not found. table name = [UNKNOWN_TABLE]"));
+        }
+
+        manager = new BasicExclusiveControlManager();
+        manager.setWarmUpContexts(Arrays.asList(new ExUserMstPk("uid001", "pk2001", "pk3001"), new ExCompMstPk("com001")));
+        manager.setWarmUpTransactionManager(warmUpTransactionManager);
+        manager.setWarmUpStatementPreparation(true);
+        manager.initialize();
+
+        assertThat(manager.getExclusiveControlTableCacheSize(), is(2));
+        assertThat(manager.getExclusiveControlTableCacheMissCount(), is(2L));
+
+        // 初期化で作成したSQL文が使用されること。
+        manager.addVersion(new ExCompMstPk("com001"));
+        assertThat(manager.getVersion(new ExCompMstPk("com001")).getVersion(), is("1"));
+        assertThat(manager.getExclusiveControlTableCacheSize(), is(2));
+        assertThat(manager.getExclusiveControlTableCacheMissCount(), is(2L));
+
+        /****************************************************************
+        トランザクションマネージャを設定しない場合(SQL文の作成のみ)
+        ****************************************************************/
+
+        manager = new BasicExclusiveControlManager();
+        manager.setWarmUpContextClassNames(Arrays.asList(UnknownColumnPk.class.getName()));
+        manager.initialize();
+        assertThat(manager.getExclusiveControlTableCacheSize(), is(1));
+
+        /****************************************************************
+        カラムが存在しない場合
+        ****************************************************************/
+
+        manager.setWarmUpTransactionManager(warmUpTransactionManager);
+        try {
+            manager.initialize();
+            fail();
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), containsString("exclusive control column was not found."));
+            assertThat(e.getMessage(), containsString("table name = [EXCLUSIVE_COMP_MST]"));
+            assertThat(e.getMessage(), containsString("column names = [UNKNOWN_ID, UNKNOWN_VERSION]"));
+        }
+
+        /****************************************************************
+        テーブルが存在しない場合
+        ****************************************************************/
+
+        manager.setWarmUpContextClassNames(Arrays.asList(UnknownTablePk.class.getName()));
+        try {
+            manager.initialize();
+            fail();
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), is("exclusive control table was not found. table name = [UNKNOWN_TABLE]"));
+        }
+
+        /****************************************************************
+        テーブル名に検索パターンのワイルドカードを含む場合
+        "_"が任意の1文字として扱われないこと。
+        ****************************************************************/
+
+        manager.setWarmUpContextClassNames(Arrays.asList(WildcardTablePk.class.getName()));
+        try {
+            manager.initialize();
+            fail();
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), is("exclusive control table was not found. table name = [EXCLUSIVE_COMP_MS_]"));
+        }
+
+        /****************************************************************
+        別のスキーマにのみテーブルが存在する場合
+        ****************************************************************/
+
+        manager.setWarmUpContextClassNames(Arrays.asList(UnknownTablePk.class.getName()));
+        DbConnectionContext.getConnection().prepareStatement("CREATE SCHEMA OTHER_SCHEMA").executeUpdate();
+        DbConnectionContext.getConnection().prepareStatement(
+                "CREATE TABLE OTHER_SCHEMA.UNKNOWN_TABLE (PK1 VARCHAR(10), VERSION BIGINT)").executeUpdate();
+        try {
+            manager.initialize();
+            fail();
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), is("exclusive control table was not found. table name = [UNKNOWN_TABLE]"));
+        } finally {
+            DbConnectionContext.getConnection().prepareStatement("DROP TABLE OTHER_SCHEMA.UNKNOWN_TABLE").executeUpdate();
+            DbConnectionContext.getConnection().prepareStatement("DROP SCHEMA OTHER_SCHEMA").executeUpdate();
+        }
+
+        /****************************************************************
+        排他制御コンテキストでないクラスを指定した場合
+        ****************************************************************/
+
+        manager.setWarmUpContextClassNames(Arrays.asList(String.class.getName()));
+        try {
+            manager.initialize();
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), is("class is not ExclusiveControlContext. class name = [java.lang.String]"));
+        }
+
+        /****************************************************************
+        引数なしのコンストラクタが存在しないクラスを指定した場合
+        ****************************************************************/
+
+        manager.setWarmUpContextClassNames(Arrays.asList(ExCompMstPk.class.getName()));
+        try {
+            manager.initialize();
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), is("ExclusiveControlContext must have a no-arg constructor."
+                                          + " use setWarmUpContexts to specify an instance."
+                                          + " class name = [nablarch.common.exclusivecontrol.ExCompMstPk]"));
+        }
+
+        /****************************************************************
+        存在しないクラスを指定した場合
+        ****************************************************************/
+
+        manager.setWarmUpContextClassNames(Arrays.asList("nablarch.common.exclusivecontrol.NotFoundPk"));
+        try {
+            manager.initialize();
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(),
+                       is("failed to instantiate ExclusiveControlContext. class name = [nablarch.common.exclusivecontrol.NotFoundPk]"));
+        }
+    }
+
+    /**
+     * バージョン番号の更新チェックを伴う更新と更新後のバージョン番号の取得をテストする。
+     */
+    @Test
+    public void testUpdateVersionsWithCheckAndReturn() {
+
+        BasicExclusiveControlManager manager = new BasicExclusiveControlManager();
+
+        VariousDbTestHelper.setUpTable(new ExclusiveUserMst("uid001", "pk2001", "pk3001", 1L),
+                                       new ExclusiveUserMst("uid002", "pk2002", "pk3002", 5L));
+        VariousDbTestHelper.setUpTable(new ExclusiveCompMst("com001", 2L));
+
+        /****************************************************************
+        バージョン番号が更新されていない場合
+        更新後のバージョン番号が指定した順に返されること。
+        ****************************************************************/
+
+        List<Version> updated = manager.updateVersionsWithCheckAndReturn(
+                Arrays.asList(new Version(new ExUserMstPk("uid002", "pk2002", "pk3002"), "5"),
+                              new Version(new ExCompMstPk("com001"), "2"),
+                              new Version(new ExUserMstPk("uid001", "pk2001", "pk3001"), "1")));
+        transactionManager.commitTransaction();
+
+        assertThat(updated.size(), is(3));
+        assertThat(updated.get(0).getTableName(), is("EXCLUSIVE_USER_MST"));
+        assertThat(updated.get(0).getVersionColumnName(), is("VERSION"));
+        assertThat(updated.get(0).getPrimaryKeyCondition().get("user_id").toString(), is("uid002"));
+        assertThat(updated.get(0).getVersion(), is("6"));
+        assertThat(updated.get(1).getTableName(), is("EXCLUSIVE_COMP_MST"));
+        assertThat(updated.get(1).getVersion(), is("3"));
+        assertThat(updated.get(2).getPrimaryKeyCondition().get("user_id").toString(), is("uid001"));
+        assertThat(updated.get(2).getVersion(), is("2"));
+
+        List<ExclusiveUserMst> exclusiveUserMstList = VariousDbTestHelper.findAll(ExclusiveUserMst.class, "userId");
+        assertThat(exclusiveUserMstList.get(0).version, is(2L));
+        assertThat(exclusiveUserMstList.get(1).version, is(6L));
+
+        /****************************************************************
+        バージョン番号が更新されている場合
+        ****************************************************************/
+
+        try {
+            manager.updateVersionsWithCheckAndReturn(
+                    Arrays.asList(new Version(new ExUserMstPk("uid001", "pk2001", "pk3001"), "1"),
+                                  new Version(new ExCompMstPk("com001"), "3")));
+            fail();
+        } catch (OptimisticLockException e) {
+            assertThat(e.getErrorVersions().size(), is(1));
+            assertThat(e.getErrorVersions().get(0).getPrimaryKeyCondition().get("user_id").toString(), is("uid001"));
+        } finally {
+            transactionManager.rollbackTransaction();
+        }
+        assertThat(VariousDbTestHelper.findAll(ExclusiveCompMst.class).get(0).version, is(3L));
+
+        /****************************************************************
+        構文ごとのSQL文
+        ****************************************************************/
+
+        ExclusiveControlTable table = manager.getExclusiveControlTableHolder(new ExCompMstPk("com001"));
+        assertThat(manager.createUpdateAndReturnSql(table, manager.getUpdateAndReturnSqlTemplate(UpdateReturningSyntax.RETURNING)),
+                   is("UPDATE EXCLUSIVE_COMP_MST SET VERSION = (VERSION + 1) WHERE COMP_ID = :comp_id AND VERSION = :version"
+                      + " RETURNING VERSION"));
+        assertThat(manager.createUpdateAndReturnSql(table, manager.getUpdateAndReturnSqlTemplate(UpdateReturningSyntax.FINAL_TABLE)),
+                   is("SELECT VERSION FROM FINAL TABLE"
+                      + " (UPDATE EXCLUSIVE_COMP_MST SET VERSION = (VERSION + 1) WHERE COMP_ID = :comp_id AND VERSION = :version)"));
+        assertThat(manager.createUpdateAndReturnSql(table, manager.getUpdateAndReturnSqlTemplate(UpdateReturningSyntax.OUTPUT)),
+                   is("UPDATE EXCLUSIVE_COMP_MST SET VERSION = (VERSION + 1) OUTPUT INSERTED.VERSION"
+                      + " WHERE COMP_ID = :comp_id AND VERSION = :version"));
+        assertNull(manager.getUpdateAndReturnSqlTemplate(UpdateReturningSyntax.NONE));
+    }
+
+    /**
+     * バージョン番号を並べ替えてから更新する場合をテストする。
+     */
+    @Test
+    public void testSortedUpdate() {
+
+        final List<String> updated = new ArrayList<String>();
+        BasicExclusiveControlManager manager = new BasicExclusiveControlManager() {
+            @Override
+            protected ExclusiveControlTable getExclusiveControlTableHolder(Version version) {
+                updated.add(version.getTableName() + ":" + version.getPrimaryKeyCondition().values().iterator().next());
+                return super.getExclusiveControlTableHolder(version);
+            }
+        };
+        manager.setSortedUpdateEnabled(true);
+
+        VariousDbTestHelper.setUpTable(new ExclusiveCompMst("com001", 1L),
+                                       new ExclusiveCompMst("com002", 1L),
+                                       new ExclusiveCompMst("com003", 1L));
+        VariousDbTestHelper.setUpTable(new ExclusiveDummyMst("dmy001", 1L));
+
+        List<Version> versions = Arrays.asList(new Version(new ExDummyMstPk("dmy001"), "1"),
+                                               new Version(new ExCompMstPk("com003"), "2"),
+                                               new Version(new ExCompMstPk("com001"), "1"),
+                                               new Version(new ExCompMstPk("com002"), "2"));
+
+        /****************************************************************
+        1件ずつ更新する場合
+        テーブル名、主キーの値の順に更新され、エラーとなったバージョン番号は指定した順に設定されること。
+        ****************************************************************/
+
+        try {
+            manager.updateVersionsWithCheck(versions);
+            fail();
+        } catch (OptimisticLockException e) {
+            assertThat(updated, is(Arrays.asList("EXCLUSIVE_COMP_MST:com001", "EXCLUSIVE_COMP_MST:com002",
+                                                 "EXCLUSIVE_COMP_MST:com003", "EXCLUSIVE_DUMMY_MST:dmy001")));
+            assertThat(e.getErrorVersions().size(), is(2));
+            assertThat(e.getErrorVersions().get(0).getPrimaryKeyCondition().get("comp_id").toString(), is("com003"));
+            assertThat(e.getErrorVersions().get(1).getPrimaryKeyCondition().get("comp_id").toString(), is("com002"));
+        } finally {
+            transactionManager.rollbackTransaction();
+        }
+
+        /****************************************************************
+        バッチ実行で更新する場合
+        ****************************************************************/
+
+        updated.clear();
+        manager.setBatchSize(2);
+        try {
+            manager.updateVersionsWithCheck(versions);
+            fail();
+        } catch (OptimisticLockException e) {
+            assertThat(updated, is(Arrays.asList("EXCLUSIVE_COMP_MST:com001", "EXCLUSIVE_COMP_MST:com002",
+                                                 "EXCLUSIVE_COMP_MST:com003", "EXCLUSIVE_DUMMY_MST:dmy001")));
+            assertThat(e.getErrorVersions().size(), is(2));
+            assertThat(e.getErrorVersions().get(0).getPrimaryKeyCondition().get("comp_id").toString(), is("com003"));
+            assertThat(e.getErrorVersions().get(1).getPrimaryKeyCondition().get("comp_id").toString(), is("com002"));
+        } finally {
+            transactionManager.rollbackTransaction();
+        }
+
+        /****************************************************************
+        更新後のバージョン番号を取得する場合
+        更新後のバージョン番号は指定した順に返されること。
+        ****************************************************************/
+
+        updated.clear();
+        List<Version> result = manager.updateVersionsWithCheckAndReturn(
+                Arrays.asList(new Version(new ExCompMstPk("com003"), "1"),
+                              new Version(new ExCompMstPk("com001"), "1")));
+        transactionManager.commitTransaction();
+
+        assertThat(updated, is(Arrays.asList("EXCLUSIVE_COMP_MST:com001", "EXCLUSIVE_COMP_MST:com003")));
+        assertThat(result.get(0).getPrimaryKeyCondition().get("comp_id").toString(), is("com003"));
+        assertThat(result.get(0).getVersion(), is("2"));
+        assertThat(result.get(1).getPrimaryKeyCondition().get("comp_id").toString(), is("com001"));
+        assertThat(result.get(1).getVersion(), is("2"));
+    }
+
+    /**
+     * 悲観ロックをテストする。
+     */
+    @Test
+    public void testLockVersions() {
+
+        BasicExclusiveControlManager manager = new BasicExclusiveControlManager();
+        manager.setMaxRowsPerStatement(2);
+        manager.setLockQueryTimeout(5);
+
+        VariousDbTestHelper.setUpTable(new ExclusiveUserMst("uid001", "pk2001", "pk3001", 1L),
+                                       new ExclusiveUserMst("uid002", "pk2002", "pk3002", 2L),
+                                       new ExclusiveUserMst("uid003", "pk2003", "pk3003", 3L));
+        VariousDbTestHelper.setUpTable(new ExclusiveCompMst("com001", 4L));
+
+        /****************************************************************
+        複数テーブル、最大行数超過、存在しない行を含む場合
+        ****************************************************************/
+
+        List<Version> versions = manager.lockVersions(
+                Arrays.<ExclusiveControlContext>asList(new ExUserMstPk("uid003", "pk2003", "pk3003"),
+                                                       new ExCompMstPk("com001"),
+                                                       new ExUserMstPk("xxxxxx", "yyyyyy", "zzzzzz"),
+                                                       new ExUserMstPk("uid001", "pk2001", "pk3001"),
+                                                       new ExCompMstPk("com999")),
+                PessimisticLockMode.WAIT);
+        transactionManager.commitTransaction();
+
+        assertThat(versions.size(), is(5));
+        assertThat(versions.get(0).getPrimaryKeyCondition().get("user_id").toString(), is("uid003"));
+        assertThat(versions.get(0).getVersion(), is("3"));
+        assertThat(versions.get(1).getTableName(), is("EXCLUSIVE_COMP_MST"));
+        assertThat(versions.get(1).getVersion(), is("4"));
+        assertNull(versions.get(2));
+        assertThat(versions.get(3).getPrimaryKeyCondition().get("user_id").toString(), is("uid001"));
+        assertThat(versions.get(3).getVersion(), is("1"));
+        assertNull(versions.get(4));
+
+        /****************************************************************
+        ロック待ちの方式ごとのテンプレート
+        ****************************************************************/
+
+        assertThat(manager.getLockSqlTemplate(PessimisticLockMode.WAIT),
+                   is("SELECT $PRIMARY_KEYS$, $VERSION$ FROM $TABLE_NAME$ WHERE $MULTI_ROW_CONDITION$ FOR UPDATE"));
+        assertThat(manager.getLockSqlTemplate(PessimisticLockMode.NOWAIT),
+                   is("SELECT $PRIMARY_KEYS$, $VERSION$ FROM $TABLE_NAME$ WHERE $MULTI_ROW_CONDITION$ FOR UPDATE NOWAIT"));
+        assertThat(manager.getLockSqlTemplate(PessimisticLockMode.SKIP_LOCKED),
+                   is("SELECT $PRIMARY_KEYS$, $VERSION$ FROM $TABLE_NAME$ WHERE $MULTI_ROW_CONDITION$ FOR UPDATE SKIP LOCKED"));
+    }
+
+    /**
+     * 悲観ロックで一部の行のみ取得された場合と、クエリタイムアウトをテストする。
+     */
+    @Test
+    public void testLockVersionsWithSkippedRowsAndQueryTimeout() {
+
+        // H2はSKIP LOCKEDに対応していないため、ロックされている行の代わりにバージョン番号が2の行を読み飛ばす
+        BasicExclusiveControlManager manager = new BasicExclusiveControlManager() {
+            @Override
+            protected String getLockSqlTemplate(PessimisticLockMode mode) {
+                if (mode == PessimisticLockMode.SKIP_LOCKED) {
+                    return "SELECT $PRIMARY_KEYS$, $VERSION$ FROM $TABLE_NAME$"
+                            + " WHERE ($MULTI_ROW_CONDITION$) AND $VERSION$ <> 2 FOR UPDATE";
+                }
+                return super.getLockSqlTemplate(mode);
+            }
+        };
+        manager.setVersionCacheEnabled(true);
+
+        VariousDbTestHelper.setUpTable(new ExclusiveUserMst("uid001", "pk2001", "pk3001", 1L),
+                                       new ExclusiveUserMst("uid002", "pk2002", "pk3002", 2L),
+                                       new ExclusiveUserMst("uid003", "pk2003", "pk3003", 3L));
+
+        /****************************************************************
+        一部の行が読み飛ばされた場合
+        読み飛ばされた行の要素のみnullとなり、他の行は引数で指定された順に取得されること。
+        ****************************************************************/
+
+        List<Version> versions = manager.lockVersions(
+                Arrays.<ExclusiveControlContext>asList(new ExUserMstPk("uid003", "pk2003", "pk3003"),
+                                                       new ExUserMstPk("uid002", "pk2002", "pk3002"),
+                                                       new ExUserMstPk("uid001", "pk2001", "pk3001")),
+                PessimisticLockMode.SKIP_LOCKED);
+        transactionManager.commitTransaction();
+
+        assertThat(versions.size(), is(3));
+        assertThat(versions.get(0).getPrimaryKeyCondition().get("user_id").toString(), is("uid003"));
+        assertThat(versions.get(0).getVersion(), is("3"));
+        assertNull(versions.get(1));
+        assertThat(versions.get(2).getPrimaryKeyCondition().get("user_id").toString(), is("uid001"));
+        assertThat(versions.get(2).getVersion(), is("1"));
+
+        /****************************************************************
+        全ての行が読み飛ばされた場合
+        ****************************************************************/
+
+        versions = manager.lockVersions(
+                Arrays.<ExclusiveControlContext>asList(new ExUserMstPk("uid002", "pk2002", "pk3002")),
+                PessimisticLockMode.SKIP_LOCKED);
+        transactionManager.commitTransaction();
+        assertThat(versions.size(), is(1));
+        assertNull(versions.get(0));
+
+        /****************************************************************
+        クエリタイムアウトを指定した場合
+        悲観ロックのSQL文のみにクエリタイムアウトが設定されること。
+        ****************************************************************/
+
+        final TransactionManagerConnection original = DbConnectionContext.getTransactionManagerConnection();
+        final List<Integer> queryTimeouts = new ArrayList<Integer>();
+        TransactionManagerConnection stub = createProxy(TransactionManagerConnection.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                final Object result = invokeDelegate(original, method, args);
+                if (!method.getName().equals("prepareStatement")) {
+                    return result;
+                }
+                return createProxy(SqlPStatement.class, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if (method.getName().equals("setQueryTimeout")) {
+                            queryTimeouts.add((Integer) args[0]);
+                        }
+                        return invokeDelegate(result, method, args);
+                    }
+                });
+            }
+        });
+
+        DbConnectionContext.removeConnection();
+        DbConnectionContext.setConnection(stub);
+        try {
+            manager.lockVersions(Arrays.asList(new ExUserMstPk("uid001", "pk2001", "pk3001")), PessimisticLockMode.WAIT);
+            transactionManager.commitTransaction();
+            assertThat(queryTimeouts.size(), is(0));
+
+            manager.setLockQueryTimeout(5);
+            manager.lockVersions(Arrays.asList(new ExUserMstPk("uid001", "pk2001", "pk3001")), PessimisticLockMode.WAIT);
+            manager.getVersions(Arrays.asList(new ExUserMstPk("uid003", "pk2003", "pk3003"),
+                                              new ExUserMstPk("uid001", "pk2001", "pk3001")));
+            transactionManager.commitTransaction();
+            assertThat(queryTimeouts, is(Arrays.asList(5)));
+        } finally {
+            DbConnectionContext.removeConnection();
+            DbConnectionContext.setConnection(original);
+        }
+
+        /****************************************************************
+        他のトランザクションがロックしている行をロックしようとしてタイムアウトした場合
+        データベースアクセス時の例外が送出されること。
+        ****************************************************************/
+
+        manager.setLockQueryTimeout(1);
+        SimpleDbTransactionManager otherTransactionManager = new SimpleDbTransactionManager();
+        otherTransactionManager.setDbTransactionName("other");
+        otherTransactionManager.setConnectionFactory(
+                repositoryResource.<ConnectionFactory>getComponent("connectionFactory"));
+        otherTransactionManager.setTransactionFactory(
+                repositoryResource.<TransactionFactory>getComponent("jdbcTransactionFactory"));
+        otherTransactionManager.beginTransaction();
+        try {
+            DbConnectionContext.getConnection("other").prepareStatement(
+                    "SELECT USER_ID FROM EXCLUSIVE_USER_MST WHERE USER_ID = 'uid001' FOR UPDATE").retrieve();
+            try {
+                manager.lockVersions(Arrays.asList(new ExUserMstPk("uid001", "pk2001", "pk3001")), PessimisticLockMode.WAIT);
+                fail();
+            } catch (DbAccessException e) {
+                // ロック待ちのタイムアウト
+            } finally {
+                transactionManager.rollbackTransaction();
+            }
+        } finally {
+            otherTransactionManager.endTransaction();
+        }
+    }
+
+    /**
+     * 楽観ロックエラーの最大件数を指定した場合をテストする。
+     */
+    @Test
+    public void testMaxErrorCount() {
+
+        final List<String> processed = new ArrayList<String>();
+        BasicExclusiveControlManager manager = new BasicExclusiveControlManager() {
+            @Override
+            protected ExclusiveControlTable getExclusiveControlTableHolder(Version version) {
+                processed.add(version.getPrimaryKeyCondition().get("comp_id").toString());
+                return super.getExclusiveControlTableHolder(version);
+            }
+        };
+
+        VariousDbTestHelper.setUpTable(new ExclusiveCompMst("com001", 1L),
+                                       new ExclusiveCompMst("com002", 1L),
+                                       new ExclusiveCompMst("com003", 1L),
+                                       new ExclusiveCompMst("com004", 1L),
+                                       new ExclusiveCompMst("com005", 1L));
+
+        List<Version> versions = Arrays.asList(new Version(new ExCompMstPk("com001"), "1"),
+                                               new Version(new ExCompMstPk("com002"), "9"),
+                                               new Version(new ExCompMstPk("com003"), "1"),
+                                               new Version(new ExCompMstPk("com004"), "9"),
+                                               new Version(new ExCompMstPk("com005"), "9"));
+
+        /****************************************************************
+        最初の楽観ロックエラーで処理を止める場合(チェック)
+        ****************************************************************/
+
+        manager.setMaxErrorCount(1);
+        try {
+            manager.checkVersions(versions);
+            fail();
+        } catch (OptimisticLockException e) {
+            assertThat(processed, is(Arrays.asList("com001", "com002")));
+            assertThat(e.getErrorVersions().size(), is(1));
+            assertThat(e.getErrorVersions().get(0).getPrimaryKeyCondition().get("comp_id").toString(), is("com002"));
+        }
+
+        /****************************************************************
+        最初の楽観ロックエラーで処理を止める場合(更新)
+        ****************************************************************/
+
+        processed.clear();
+        try {
+            manager.updateVersionsWithCheck(versions);
+            fail();
+        } catch (OptimisticLockException e) {
+            assertThat(processed, is(Arrays.asList("com001", "com002")));
+            assertThat(e.getErrorVersions().size(), is(1));
+            assertThat(e.getErrorVersions().get(0).getPrimaryKeyCondition().get("comp_id").toString(), is("com002"));
+        } finally {
+            transactionManager.rollbackTransaction();
+        }
+
+        /****************************************************************
+        指定件数の楽観ロックエラーで処理を止める場合(更新)
+        ****************************************************************/
+
+        processed.clear();
+        manager.setMaxErrorCount(2);
+        try {
+            manager.updateVersionsWithCheck(versions);
+            fail();
+        } catch (OptimisticLockException e) {
+            assertThat(processed, is(Arrays.asList("com001", "com002", "com003", "com004")));
+            assertThat(e.getErrorVersions().size(), is(2));
+            assertThat(e.getErrorVersions().get(0).getPrimaryKeyCondition().get("comp_id").toString(), is("com002"));
+            assertThat(e.getErrorVersions().get(1).getPrimaryKeyCondition().get("comp_id").toString(), is("com004"));
+        } finally {
+            transactionManager.rollbackTransaction();
+        }
+
+        /****************************************************************
+        指定件数の楽観ロックエラーで処理を止める場合(複数行の一括チェック)
+        SQL文の単位で判定されること。
+        ****************************************************************/
+
+        manager.setMultiRowCheckEnabled(true);
+        manager.setMaxRowsPerStatement(2);
+        manager.setMaxErrorCount(1);
+        try {
+            manager.checkVersions(versions);
+            fail();
+        } catch (OptimisticLockException e) {
+            assertThat(e.getErrorVersions().size(), is(1));
+            assertThat(e.getErrorVersions().get(0).getPrimaryKeyCondition().get("comp_id").toString(), is("com002"));
+        }
+
+        /****************************************************************
+        指定件数の楽観ロックエラーで処理を止める場合(バッチ実行)
+        バッチ実行の単位で判定されること。
+        ****************************************************************/
+
+        manager.setBatchSize(2);
+        manager.setMaxErrorCount(2);
+        try {
+            manager.updateVersionsWithCheck(versions);
+            fail();
+        } catch (OptimisticLockException e) {
+            assertThat(e.getErrorVersions().size(), is(2));
+            assertThat(e.getErrorVersions().get(0).getPrimaryKeyCondition().get("comp_id").toString(), is("com002"));
+            assertThat(e.getErrorVersions().get(1).getPrimaryKeyCondition().get("comp_id").toString(), is("com004"));
+        } finally {
+            transactionManager.rollbackTransaction();
+        }
+
+        /****************************************************************
+        最大件数を指定しない場合は、全件収集すること。
+        ****************************************************************/
+
+        manager.setMaxErrorCount(0);
+        try {
+            manager.updateVersionsWithCheck(versions);
+            fail();
+        } catch (OptimisticLockException e) {
+            assertThat(e.getErrorVersions().size(), is(3));
+        } finally {
+            transactionManager.rollbackTransaction();
+        }
+    }
+
+    /**
+     * トランザクション内のバージョン番号のキャッシュをテストする。
+     */
+    @Test
+    public void testVersionCache() {
+
+        BasicExclusiveControlManager manager = new BasicExclusiveControlManager();
+        manager.setVersionCacheEnabled(true);
+
+        VariousDbTestHelper.setUpTable(new ExclusiveCompMst("com001", 1L),
+                                       new ExclusiveCompMst("com002", 5L));
+
+        /****************************************************************
+        取得したバージョン番号がキャッシュから返されること。
+        ****************************************************************/
+
+        assertThat(manager.getVersion(new ExCompMstPk("com001")).getVersion(), is("1"));
+        transactionManager.commitTransaction();
+
+        // 別のトランザクションでバージョン番号を更新する。
+        VariousDbTestHelper.setUpTable(new ExclusiveCompMst("com001", 3L),
+                                       new ExclusiveCompMst("com002", 5L));
+
+        Version cached = manager.getVersion(new ExCompMstPk("com001"));
+        assertThat(cached.getVersion(), is("1"));
+        assertThat(((NumericVersion) cached).getVersionNo(), is(1L));
+        List<Version> versions = manager.getVersions(Arrays.asList(new ExCompMstPk("com002"), new ExCompMstPk("com001")));
+        assertThat(versions.get(0).getVersion(), is("5"));
+        assertThat(versions.get(1).getVersion(), is("1"));
+        assertThat(((NumericVersion) versions.get(1)).getVersionNo(), is(1L));
+
+        /****************************************************************
+        トランザクションの終了でキャッシュが破棄されること。
+        ****************************************************************/
+
+        manager.afterCompletion("transaction", true);
+        assertThat(manager.getVersion(new ExCompMstPk("com001")).getVersion(), is("3"));
+
+        /****************************************************************
+        更新、追加、削除がキャッシュに反映されること。
+        ****************************************************************/
+
+        manager.updateVersion(new ExCompMstPk("com001"));
+        assertThat(manager.getVersion(new ExCompMstPk("com001")).getVersion(), is("4"));
+
+        manager.updateVersionsWithCheck(Arrays.asList(new Version(new ExCompMstPk("com001"), "4")));
+        assertThat(manager.getVersion(new ExCompMstPk("com001")).getVersion(), is("5"));
+
+        manager.addVersion(new ExCompMstPk("com003"));
+        assertThat(manager.getVersion(new ExCompMstPk("com003")).getVersion(), is("1"));
+
+        manager.removeVersion(new ExCompMstPk("com003"));
+        assertNull(manager.getVersion(new ExCompMstPk("com003")));
+
+        try {
+            manager.updateVersionsWithCheck(Arrays.asList(new Version(new ExCompMstPk("com001"), "1")));
+            fail();
+        } catch (OptimisticLockException e) {
+            // 楽観ロックエラーとなった場合は、データベースから取得し直すこと。
+            assertThat(manager.getVersion(new ExCompMstPk("com001")).getVersion(), is("5"));
+        } finally {
+            transactionManager.rollbackTransaction();
+            manager.afterCompletion("transaction", false);
+        }
+        assertThat(manager.getVersion(new ExCompMstPk("com001")).getVersion(), is("3"));
+    }
+
+    /**
+     * バージョン番号の更新をコミット直前まで遅延できること。
+     */
+    @Test
+    public void testDeferredUpdate() {
+
+        BasicExclusiveControlManager manager = new BasicExclusiveControlManager();
+        manager.setDeferredUpdateEnabled(true);
+        manager.setBatchSize(10);
+        BasicExclusiveControlManager directManager = new BasicExclusiveControlManager();
+
+        VariousDbTestHelper.setUpTable(new ExclusiveCompMst("com001", 1L),
+                                       new ExclusiveCompMst("com002", 5L));
+
+        /****************************************************************
+        同一の行に対する更新が1回にまとめられ、コミット直前に実行されること。
+        ****************************************************************/
+
+        manager.updateVersion(new ExCompMstPk("com001"));
+        manager.updateVersion(new ExCompMstPk("com001"));
+        manager.updateVersionsWithCheck(Arrays.asList(new Version(new ExCompMstPk("com002"), "5")));
+        manager.updateVersionsWithCheck(Arrays.asList(new Version(new ExCompMstPk("com002"), "6")));
+
+        assertThat(directManager.getVersion(new ExCompMstPk("com001")).getVersion(), is("1"));
+        assertThat(directManager.getVersion(new ExCompMstPk("com002")).getVersion(), is("5"));
+
+        // 取得したバージョン番号には、遅延している更新が反映されること。
+        assertThat(manager.getVersion(new ExCompMstPk("com001")).getVersion(), is("2"));
+        List<Version> versions = manager.getVersions(Arrays.asList(new ExCompMstPk("com002"), new ExCompMstPk("com001")));
+        assertThat(versions.get(0).getVersion(), is("6"));
+        assertThat(versions.get(1).getVersion(), is("2"));
+
+        manager.beforeCommit("transaction");
+        assertThat(directManager.getVersion(new ExCompMstPk("com001")).getVersion(), is("2"));
+        assertThat(directManager.getVersion(new ExCompMstPk("com002")).getVersion(), is("6"));
+        transactionManager.commitTransaction();
+        manager.afterCompletion("transaction", true);
+
+        /****************************************************************
+        データベースにアクセスする操作の前に、遅延している更新が実行されること。
+        ****************************************************************/
+
+        manager.updateVersion(new ExCompMstPk("com001"));
+        manager.checkVersions(Arrays.asList(new Version(new ExCompMstPk("com001"), "3")));
+        assertThat(directManager.getVersion(new ExCompMstPk("com001")).getVersion(), is("3"));
+
+        // 遅延している更新と異なるバージョン番号でチェックした場合も、遅延している更新を実行してから記録すること。
+        // 実行するのは同一の行に対する遅延している更新のみで、他の行の更新は遅延したままとなること。
+        manager.updateVersion(new ExCompMstPk("com001"));
+        manager.updateVersion(new ExCompMstPk("com002"));
+        manager.updateVersionsWithCheck(Arrays.asList(new Version(new ExCompMstPk("com002"), "7")));
+        assertThat(directManager.getVersion(new ExCompMstPk("com002")).getVersion(), is("7"));
+        assertThat(directManager.getVersion(new ExCompMstPk("com001")).getVersion(), is("3"));
+        manager.flushDeferredUpdates();
+        assertThat(directManager.getVersion(new ExCompMstPk("com002")).getVersion(), is("8"));
+        assertThat(directManager.getVersion(new ExCompMstPk("com001")).getVersion(), is("4"));
+        transactionManager.commitTransaction();
+        manager.afterCompletion("transaction", true);
+
+        /****************************************************************
+        楽観ロックエラーがコミット直前に送出されること。
+        ****************************************************************/
+
+        manager.updateVersion(new ExCompMstPk("com001"));
+        manager.updateVersionsWithCheck(Arrays.asList(new Version(new ExCompMstPk("com002"), "1")));
+        try {
+            manager.beforeCommit("transaction");
+            fail();
+        } catch (OptimisticLockException e) {
+            assertThat(e.getErrorVersions().size(), is(1));
+            assertThat(e.getErrorVersions().get(0).getPrimaryKeyCondition().get("comp_id").toString(), is("com002"));
+            assertThat(e.getErrorVersions().get(0).getVersion(), is("1"));
+        } finally {
+            transactionManager.rollbackTransaction();
+            manager.afterCompletion("transaction", false);
+        }
+        assertThat(directManager.getVersion(new ExCompMstPk("com001")).getVersion(), is("4"));
+
+        /****************************************************************
+        バージョン番号が存在しない場合は、コミット直前に例外が送出されること。
+        ****************************************************************/
+
+        manager.updateVersion(new ExCompMstPk("com999"));
+        try {
+            manager.beforeCommit("transaction");
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), containsString("version was not found."));
+        } finally {
+            transactionManager.rollbackTransaction();
+            manager.afterCompletion("transaction", false);
+        }
+
+        /****************************************************************
+        ロールバックした場合は、遅延している更新が破棄されること。
+        ****************************************************************/
+
+        manager.updateVersion(new ExCompMstPk("com001"));
+        transactionManager.rollbackTransaction();
+        manager.afterCompletion("transaction", false);
+        manager.flushDeferredUpdates();
+        assertThat(directManager.getVersion(new ExCompMstPk("com001")).getVersion(), is("4"));
+    }
+
+    /**
+     * 排他制御の操作が排他制御用テーブルごとに記録されること。
+     */
+    @Test
+    public void testMetrics() {
+
+        InMemoryExclusiveControlMetrics metrics = new InMemoryExclusiveControlMetrics();
+        BasicExclusiveControlManager manager = new BasicExclusiveControlManager();
+        manager.setMetrics(metrics);
+
+        VariousDbTestHelper.setUpTable(new ExclusiveCompMst("com001", 1L),
+                                       new ExclusiveCompMst("com002", 5L));
+        VariousDbTestHelper.setUpTable(new ExclusiveUserMst("uid001", "pk2001", "pk3001", 1L));
+
+        manager.getVersion(new ExCompMstPk("com001"));
+        manager.getVersions(Arrays.asList(new ExCompMstPk("com001"), new ExCompMstPk("com002"),
+                                          new ExUserMstPk("uid001", "pk2001", "pk3001")));
+        manager.updateVersion(new ExCompMstPk("com001"));
+        manager.addVersion(new ExCompMstPk("com003"));
+        manager.addVersions(Arrays.asList(new ExCompMstPk("com004"), new ExCompMstPk("com005")));
+        manager.removeVersion(new ExCompMstPk("com003"));
+        try {
+            manager.updateVersionsWithCheck(Arrays.asList(new Version(new ExCompMstPk("com001"), "2"),
+                                                          new Version(new ExCompMstPk("com002"), "1"),
+                                                          new Version(new ExUserMstPk("uid001", "pk2001", "pk3001"), "1")));
+            fail();
+        } catch (OptimisticLockException e) {
+            assertThat(e.getErrorVersions().size(), is(1));
+        }
+
+        InMemoryExclusiveControlMetrics.Statistics statistics
+                = metrics.getStatistics("EXCLUSIVE_COMP_MST", ExclusiveControlOperation.GET_VERSION);
+        assertThat(statistics.getCount(), is(2L));
+        assertThat(statistics.getRowCount(), is(3L));
+        assertThat(statistics.getElapsedNanosPercentile(100) >= statistics.getMaxElapsedNanos(), is(true));
+
+        statistics = metrics.getStatistics("EXCLUSIVE_USER_MST", ExclusiveControlOperation.GET_VERSION);
+        assertThat(statistics.getCount(), is(1L));
+        assertThat(statistics.getRowCount(), is(1L));
+
+        assertThat(metrics.getStatistics("EXCLUSIVE_COMP_MST", ExclusiveControlOperation.UPDATE_VERSION).getCount(), is(1L));
+
+        statistics = metrics.getStatistics("EXCLUSIVE_COMP_MST", ExclusiveControlOperation.ADD_VERSION);
+        assertThat(statistics.getCount(), is(2L));
+        assertThat(statistics.getRowCount(), is(3L));
+        assertThat(statistics.getRowCountPercentile(100), is(3L));
+
+        assertThat(metrics.getStatistics("EXCLUSIVE_COMP_MST", ExclusiveControlOperation.REMOVE_VERSION).getCount(), is(1L));
+
+        // 楽観ロックエラーとなった場合も記録されること。
+        statistics = metrics.getStatistics("EXCLUSIVE_COMP_MST", ExclusiveControlOperation.UPDATE_VERSIONS_WITH_CHECK);
+        assertThat(statistics.getCount(), is(1L));
+        assertThat(statistics.getRowCount(), is(2L));
+        assertThat(statistics.getConflictCount(), is(1L));
+
+        statistics = metrics.getStatistics("EXCLUSIVE_USER_MST", ExclusiveControlOperation.UPDATE_VERSIONS_WITH_CHECK);
+        assertThat(statistics.getCount(), is(1L));
+        assertThat(statistics.getRowCount(), is(1L));
+        assertThat(statistics.getConflictCount(), is(0L));
+
+        /****************************************************************
+        シャードに分割したテーブルの一括追加と一括削除は、
+        排他制御コンテキストのテーブル名で記録されること。
+        ****************************************************************/
+
+        ExclusiveControlTableSharding sharding = new ExclusiveControlTableSharding();
+        sharding.setTableName("EXCLUSIVE_COMP_MST");
+        sharding.setShardCount(1);
+        manager.setTableShardings(Arrays.asList(sharding));
+        DbConnectionContext.getConnection().prepareStatement(
+                "CREATE TABLE EXCLUSIVE_COMP_MST_0 (COMP_ID VARCHAR(6) PRIMARY KEY, VERSION BIGINT)").executeUpdate();
+        try {
+            manager.addVersions(Arrays.asList(new ExCompMstPk("com006"), new ExCompMstPk("com007")).iterator());
+            manager.removeVersions(Arrays.asList(new ExCompMstPk("com006")).iterator());
+        } finally {
+            DbConnectionContext.getConnection().prepareStatement("DROP TABLE EXCLUSIVE_COMP_MST_0").executeUpdate();
+            manager.setTableShardings(Collections.<ExclusiveControlTableSharding>emptyList());
+        }
+
+        statistics = metrics.getStatistics("EXCLUSIVE_COMP_MST", ExclusiveControlOperation.ADD_VERSION);
+        assertThat(statistics.getCount(), is(3L));
+        assertThat(statistics.getRowCount(), is(5L));
+        statistics = metrics.getStatistics("EXCLUSIVE_COMP_MST", ExclusiveControlOperation.REMOVE_VERSION);
+        assertThat(statistics.getCount(), is(2L));
+        assertThat(statistics.getRowCount(), is(2L));
+        assertThat(metrics.getStatistics("EXCLUSIVE_COMP_MST_0", ExclusiveControlOperation.ADD_VERSION).getCount(), is(0L));
+
+        /****************************************************************
+        デフォルトでは記録されないこと。
+        ****************************************************************/
+
+        final List<ExclusiveControlOperation> operations = new ArrayList<ExclusiveControlOperation>();
+        manager.setMetrics(new NopExclusiveControlMetrics() {
+            @Override
+            public void record(String tableName, ExclusiveControlOperation operation, long elapsedNanos, int rowCount, int conflictCount) {
+                operations.add(operation);
+            }
+        });
+        manager.getVersion(new ExCompMstPk("com001"));
+        assertThat(operations.isEmpty(), is(true));
+    }
+
+    /**
+     * 楽観ロックエラーとなったバージョン番号が通知されること。
+     */
+    @Test
+    public void testOptimisticLockErrorListener() {
+
+        HotKeyTracker tracker = new HotKeyTracker();
+        BasicExclusiveControlManager manager = new BasicExclusiveControlManager();
+        manager.setOptimisticLockErrorListener(tracker);
+
+        VariousDbTestHelper.setUpTable(new ExclusiveCompMst("com001", 1L),
+                                       new ExclusiveCompMst("com002", 5L));
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                manager.checkVersions(Arrays.asList(new Version(new ExCompMstPk("com001"), "1"),
+                                                    new Version(new ExCompMstPk("com002"), "1")));
+                fail();
+            } catch (OptimisticLockException e) {
+                assertThat(e.getErrorVersions().size(), is(1));
+            }
+        }
+        try {
+            manager.updateVersionsWithCheck(Arrays.asList(new Version(new ExCompMstPk("com001"), "0")));
+            fail();
+        } catch (OptimisticLockException e) {
+            assertThat(e.getErrorVersions().size(), is(1));
+        }
+
+        List<HotKeyTracker.HotKey> hotKeys = tracker.getHotKeys();
+        assertThat(hotKeys.size(), is(2));
+        assertThat(hotKeys.get(0).getTableName(), is("EXCLUSIVE_COMP_MST"));
+        assertThat(hotKeys.get(0).getPrimaryKeyCondition().get("comp_id").toString(), is("com002"));
+        assertThat(hotKeys.get(0).getConflictCount(), is(2L));
+        assertThat(hotKeys.get(1).getPrimaryKeyCondition().get("comp_id").toString(), is("com001"));
+        assertThat(hotKeys.get(1).getConflictCount(), is(1L));
+        assertThat(tracker.getConflictCount(), is(3L));
+    }
+
+    /**
+     * シャードに分割したテーブルのバージョン番号が、主キーの値に応じた物理テーブルで処理されることをテストする。
+     */
+    @Test
+    public void testSharding() {
+
+        BasicExclusiveControlManager manager = new BasicExclusiveControlManager();
+        ExclusiveControlTableSharding sharding = new ExclusiveControlTableSharding();
+        sharding.setTableName("EXCLUSIVE_COMP_MST");
+        sharding.setShardCount(2);
+        manager.setTableShardings(Arrays.asList(sharding));
+        manager.setMultiRowCheckEnabled(true);
+        manager.setBatchSize(10);
+
+        List<String> shard0 = findCompIds(sharding, 0, 2);
+        List<String> shard1 = findCompIds(sharding, 1, 2);
+        List<ExCompMstPk> contexts = Arrays.asList(new ExCompMstPk(shard0.get(0)), new ExCompMstPk(shard1.get(0)),
+                                                   new ExCompMstPk(shard0.get(1)), new ExCompMstPk(shard1.get(1)));
+
+        final TransactionManagerConnection original = DbConnectionContext.getTransactionManagerConnection();
+        final List<String> sqls = new ArrayList<String>();
+        createShardTable(original, 0);
+        createShardTable(original, 1);
+        DbConnectionContext.removeConnection();
+        DbConnectionContext.setConnection(createRecordingConnection(original, sqls));
+        try {
+
+            /****************************************************************
+            一括追加した場合
+            主キーの値に応じたシャードのテーブルに追加されること。
+            ****************************************************************/
+
+            manager.addVersions(contexts);
+            transactionManager.commitTransaction();
+
+            assertThat(findShardVersions(original, 0), is(Arrays.asList(shard0.get(0) + "=1", shard0.get(1) + "=1")));
+            assertThat(findShardVersions(original, 1), is(Arrays.asList(shard1.get(0) + "=1", shard1.get(1) + "=1")));
+            assertThat(sqls, is(Arrays.asList("executeBatch:EXCLUSIVE_COMP_MST_0", "executeBatch:EXCLUSIVE_COMP_MST_1")));
+
+            /****************************************************************
+            複数のバージョン番号を取得した場合
+            シャードごとに1つのSQL文で取得し、指定した順に返されること。
+            ****************************************************************/
+
+            sqls.clear();
+            List<Version> versions = manager.getVersions(contexts);
+            assertThat(versions.size(), is(4));
+            for (int i = 0; i < versions.size(); i++) {
+                assertThat(versions.get(i).getTableName(), is("EXCLUSIVE_COMP_MST"));
+                assertThat(versions.get(i).getPrimaryKeyCondition().get("comp_id").toString(),
+                           is(contexts.get(i).getCondition().get("comp_id").toString()));
+                assertThat(versions.get(i).getVersion(), is("1"));
+            }
+            assertThat(sqls, is(Arrays.asList("retrieve:EXCLUSIVE_COMP_MST_0", "retrieve:EXCLUSIVE_COMP_MST_1")));
+
+            /****************************************************************
+            複数のバージョン番号をチェックした場合
+            シャードごとに1つのSQL文でチェックされること。
+            ****************************************************************/
+
+            sqls.clear();
+            manager.checkVersions(versions);
+            assertThat(sqls, is(Arrays.asList("retrieve:EXCLUSIVE_COMP_MST_0", "retrieve:EXCLUSIVE_COMP_MST_1")));
+
+            /****************************************************************
+            複数のバージョン番号を更新チェック付きで更新した場合
+            シャードごとにバッチ実行されること。
+            ****************************************************************/
+
+            sqls.clear();
+            manager.updateVersionsWithCheck(versions);
+            transactionManager.commitTransaction();
+            assertThat(sqls, is(Arrays.asList("executeBatch:EXCLUSIVE_COMP_MST_0", "executeBatch:EXCLUSIVE_COMP_MST_1")));
+            assertThat(findShardVersions(original, 0), is(Arrays.asList(shard0.get(0) + "=2", shard0.get(1) + "=2")));
+            assertThat(findShardVersions(original, 1), is(Arrays.asList(shard1.get(0) + "=2", shard1.get(1) + "=2")));
+
+            /****************************************************************
+            シャードのテーブルで楽観ロックエラーとなった場合
+            排他制御コンテキストのテーブル名のバージョン番号が設定されること。
+            ****************************************************************/
+
+            try {
+                manager.checkVersions(Arrays.asList(new Version(new ExCompMstPk(shard0.get(0)), "2"),
+                                                    new Version(new ExCompMstPk(shard1.get(1)), "1")));
+                fail();
+            } catch (OptimisticLockException e) {
+                assertThat(e.getErrorVersions().size(), is(1));
+                assertThat(e.getErrorVersions().get(0).getTableName(), is("EXCLUSIVE_COMP_MST"));
+                assertThat(e.getErrorVersions().get(0).getPrimaryKeyCondition().get("comp_id").toString(),
+                           is(shard1.get(1)));
+            }
+
+        } finally {
+            DbConnectionContext.removeConnection();
+            DbConnectionContext.setConnection(original);
+            dropShardTable(original, 0);
+            dropShardTable(original, 1);
+        }
+    }
+
+    /**
+     * シャードがデフォルト以外のデータベース接続を使用する場合に、
+     * 遅延した更新とキャッシュがシャードのデータベース接続のトランザクションで処理されることをテストする。
+     */
+    @Test
+    public void testShardingWithNamedConnection() {
+
+        BasicExclusiveControlManager manager = new BasicExclusiveControlManager();
+        ExclusiveControlTableSharding sharding = new ExclusiveControlTableSharding();
+        sharding.setTableName("EXCLUSIVE_COMP_MST");
+        sharding.setShardCount(2);
+        sharding.setConnectionNames(Arrays.asList("transaction", "shard"));
+        manager.setTableShardings(Arrays.asList(sharding));
+        manager.setDeferredUpdateEnabled(true);
+        manager.setVersionCacheEnabled(true);
+
+        ListenableTransactionFactory transactionFactory = new ListenableTransactionFactory();
+        transactionFactory.setTransactionFactory(
+                repositoryResource.<TransactionFactory>getComponent("jdbcTransactionFactory"));
+        transactionFactory.setListeners(Arrays.<TransactionListener>asList(manager));
+        SimpleDbTransactionManager shardTransactionManager = new SimpleDbTransactionManager();
+        shardTransactionManager.setDbTransactionName("shard");
+        shardTransactionManager.setConnectionFactory(
+                repositoryResource.<ConnectionFactory>getComponent("connectionFactory"));
+        shardTransactionManager.setTransactionFactory(transactionFactory);
+
+        String compId0 = findCompIds(sharding, 0, 1).get(0);
+        String compId1 = findCompIds(sharding, 1, 1).get(0);
+
+        TransactionManagerConnection connection = DbConnectionContext.getTransactionManagerConnection();
+        createShardTable(connection, 0);
+        createShardTable(connection, 1);
+        connection.prepareStatement("INSERT INTO EXCLUSIVE_COMP_MST_0 VALUES ('" + compId0 + "', 1)").executeUpdate();
+        connection.prepareStatement("INSERT INTO EXCLUSIVE_COMP_MST_1 VALUES ('" + compId1 + "', 1)").executeUpdate();
+        transactionManager.commitTransaction();
+
+        shardTransactionManager.beginTransaction();
+        try {
+
+            /****************************************************************
+            デフォルトのデータベース接続のトランザクションをコミットした場合
+            デフォルトのデータベース接続を使用するシャードの更新のみ実行されること。
+            ****************************************************************/
+
+            manager.updateVersionsWithCheck(Arrays.asList(new Version(new ExCompMstPk(compId0), "1"),
+                                                          new Version(new ExCompMstPk(compId1), "1")));
+            assertThat(manager.getVersion(new ExCompMstPk(compId1)).getVersion(), is("2"));
+
+            manager.beforeCommit("transaction");
+            transactionManager.commitTransaction();
+            manager.afterCompletion("transaction", true);
+
+            assertThat(findShardVersions(connection, 0), is(Arrays.asList(compId0 + "=2")));
+            assertThat(findShardVersions(connection, 1), is(Arrays.asList(compId1 + "=1")));
+            assertThat(manager.getVersion(new ExCompMstPk(compId1)).getVersion(), is("2"));
+
+            /****************************************************************
+            シャードのデータベース接続のトランザクションをコミットした場合
+            シャードのデータベース接続を使用するシャードの更新が実行されること。
+            ****************************************************************/
+
+            shardTransactionManager.commitTransaction();
+
+            assertThat(findShardVersions(connection, 1), is(Arrays.asList(compId1 + "=2")));
+
+            /****************************************************************
+            シャードのデータベース接続のトランザクションをロールバックした場合
+            シャードの遅延した更新とキャッシュが破棄されること。
+            ****************************************************************/
+
+            manager.updateVersion(new ExCompMstPk(compId1));
+            assertThat(manager.getVersion(new ExCompMstPk(compId1)).getVersion(), is("3"));
+
+            shardTransactionManager.rollbackTransaction();
+
+            assertThat(findShardVersions(connection, 1), is(Arrays.asList(compId1 + "=2")));
+            assertThat(manager.getVersion(new ExCompMstPk(compId1)).getVersion(), is("2"));
+
+        } finally {
+            shardTransactionManager.endTransaction();
+            dropShardTable(connection, 0);
+            dropShardTable(connection, 1);
+        }
+    }
+
+    /**
+     * 指定したシャードに振り分けられる会社IDを取得する。
+     * @param sharding シャーディングの定義
+     * @param shardIndex シャードの番号
+     * @param count 取得する件数
+     * @return 会社ID
+     */
+    private static List<String> findCompIds(ExclusiveControlTableSharding sharding, int shardIndex, int count) {
+        List<String> compIds = new ArrayList<String>();
+        for (int i = 0; compIds.size() < count; i++) {
+            String compId = String.format("sh%04d", i);
+            if (sharding.getShardIndex(new ExCompMstPk(compId).getCondition()) == shardIndex) {
+                compIds.add(compId);
+            }
+        }
+        return compIds;
+    }
+
+    /**
+     * シャードのテーブルを作成する。
+     * @param connection データベース接続
+     * @param shardIndex シャードの番号
+     */
+    private static void createShardTable(TransactionManagerConnection connection, int shardIndex) {
+        connection.prepareStatement("CREATE TABLE EXCLUSIVE_COMP_MST_" + shardIndex
+                                            + " (COMP_ID VARCHAR(6) PRIMARY KEY, VERSION BIGINT)").executeUpdate();
+    }
+
+    /**
+     * シャードのテーブルを削除する。
+     * @param connection データベース接続
+     * @param shardIndex シャードの番号
+     */
+    private static void dropShardTable(TransactionManagerConnection connection, int shardIndex) {
+        connection.prepareStatement("DROP TABLE EXCLUSIVE_COMP_MST_" + shardIndex).executeUpdate();
+    }
+
+    /**
+     * シャードのテーブルのバージョン番号を、会社IDの順に"会社ID=バージョン番号"の形式で取得する。
+     * @param connection データベース接続
+     * @param shardIndex シャードの番号
+     * @return バージョン番号
+     */
+    private static List<String> findShardVersions(TransactionManagerConnection connection, int shardIndex) {
+        List<String> versions = new ArrayList<String>();
+        for (SqlRow row : connection.prepareStatement(
+                "SELECT COMP_ID, VERSION FROM EXCLUSIVE_COMP_MST_" + shardIndex + " ORDER BY COMP_ID").retrieve()) {
+            versions.add(row.getString("COMP_ID") + "=" + row.getString("VERSION"));
+        }
+        return versions;
+    }
+
+    /**
+     * 排他制御用テーブルにアクセスしたSQL文を記録するデータベース接続を作成する。
+     * <p/>
+     * SQL文は"実行したメソッド名:テーブル名"の形式で記録する。
+     * @param original 委譲先のデータベース接続
+     * @param sqls SQL文を記録するリスト
+     * @return データベース接続
+     */
+    private static TransactionManagerConnection createRecordingConnection(
+            final TransactionManagerConnection original, final List<String> sqls) {
+        return createProxy(TransactionManagerConnection.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                Object result = invokeDelegate(original, method, args);
+                if (!method.getName().equals("prepareStatement")) {
+                    return result;
+                }
+                final SqlPStatement statement = (SqlPStatement) result;
+                final String sql = (String) args[0];
+                return createProxy(SqlPStatement.class, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if (method.getName().equals("executeBatch") || method.getName().equals("retrieve")) {
+                            Matcher matcher = COMP_MST_TABLE_NAME.matcher(sql);
+                            sqls.add(method.getName() + ":" + (matcher.find() ? matcher.group() : sql));
+                        }
+                        return invokeDelegate(statement, method, args);
+                    }
+                });
+            }
+        });
+    }
+
+    /** 存在しないカラムを指定した排他制御コンテキスト */
+    public static class UnknownColumnPk extends ExclusiveControlContext {
+        public enum PK { UNKNOWN_ID };
+        public UnknownColumnPk() {
+            setTableName("EXCLUSIVE_COMP_MST");
+            setVersionColumnName("UNKNOWN_VERSION");
+            setPrimaryKeyColumnNames(PK.values());
+        }
+    }
+
+    /** チェック時にH2のセッションごとの一時テーブルを作成する{@link BasicExclusiveControlManager} */
+    private static class LocalTemporaryTableManager extends BasicExclusiveControlManager {
+        @Override
+        protected String getTemporaryTableCreateSqlTemplate() {
+            return "CREATE LOCAL TEMPORARY TABLE IF NOT EXISTS $TEMPORARY_TABLE_NAME$ ON COMMIT DELETE ROWS TRANSACTIONAL"
+                    + " AS SELECT $PRIMARY_KEYS$, $VERSION$ FROM $TABLE_NAME$ WHERE 1 = 0";
+        }
+    }
+
+    /** 検索パターンのワイルドカードを含む存在しないテーブルを指定した排他制御コンテキスト */
+    public static class WildcardTablePk extends ExclusiveControlContext {
+        public enum PK { COMP_ID };
+        public WildcardTablePk() {
+            setTableName("EXCLUSIVE_COMP_MS_");
+            setVersionColumnName("VERSION");
+            setPrimaryKeyColumnNames(PK.values());
+        }
+    }
+
+    /** 存在しないテーブルを指定した排他制御コンテキスト */
+    public static class UnknownTablePk extends ExclusiveControlContext {
+        public enum PK { PK1 };
+        public UnknownTablePk() {
+            setTableName("UNKNOWN_TABLE");
+            setVersionColumnName("VERSION");
+            setPrimaryKeyColumnNames(PK.values());
+        }
+    }
 }
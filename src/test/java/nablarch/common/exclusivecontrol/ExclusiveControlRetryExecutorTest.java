@@ -0,0 +1,215 @@
+package nablarch.common.exclusivecontrol;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import nablarch.core.db.DbAccessException;
+import nablarch.core.db.connection.AppDbConnection;
+import nablarch.core.db.connection.ConnectionFactory;
+import nablarch.core.db.connection.TransactionManagerConnection;
+import nablarch.core.db.transaction.SimpleDbTransactionManager;
+import nablarch.core.transaction.Transaction;
+import nablarch.core.transaction.TransactionFactory;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * {@link ExclusiveControlRetryExecutor}テスト。
+ */
+public class ExclusiveControlRetryExecutorTest {
+
+    /** トランザクションの呼び出し履歴 */
+    private final List<String> calls = new ArrayList<String>();
+
+    /** 待機時間の履歴 */
+    private final List<Long> sleeps = new ArrayList<Long>();
+
+    private final InMemoryExclusiveControlMetrics metrics = new InMemoryExclusiveControlMetrics();
+
+    private ExclusiveControlRetryExecutor sut;
+
+    @Before
+    public void setUp() {
+        SimpleDbTransactionManager transactionManager = new SimpleDbTransactionManager();
+        transactionManager.setConnectionFactory(new ConnectionFactory() {
+            public TransactionManagerConnection getConnection(String connectionName) {
+                return (TransactionManagerConnection) Proxy.newProxyInstance(
+                        getClass().getClassLoader(), new Class<?>[] {TransactionManagerConnection.class},
+                        new InvocationHandler() {
+                            public Object invoke(Object proxy, Method method, Object[] args) {
+                                return method.getName().equals("toString") ? "connection" : null;
+                            }
+                        });
+            }
+        });
+        transactionManager.setTransactionFactory(new TransactionFactory() {
+            public Transaction getTransaction(String connectionName) {
+                return new Transaction() {
+                    public void begin() {
+                        calls.add("begin");
+                    }
+                    public void commit() {
+                        calls.add("commit");
+                    }
+                    public void rollback() {
+                        calls.add("rollback");
+                    }
+                };
+            }
+        });
+
+        ExclusiveControlRetryPolicy policy = new ExclusiveControlRetryPolicy();
+        policy.setJitter(0);
+        ExclusiveControlRetryPolicy stockPolicy = new ExclusiveControlRetryPolicy();
+        stockPolicy.setTableName("EXCLUSIVE_STOCK");
+        stockPolicy.setMaxAttempts(4);
+        stockPolicy.setInitialBackoffMillis(1);
+        stockPolicy.setJitter(0);
+
+        sut = new ExclusiveControlRetryExecutor() {
+            @Override
+            protected void sleep(long millis) {
+                sleeps.add(millis);
+            }
+        };
+        sut.setTransactionManager(transactionManager);
+        sut.setRetryPolicy(policy);
+        sut.setTableRetryPolicies(Arrays.asList(stockPolicy));
+        sut.setMetrics(metrics);
+    }
+
+    /**
+     * 楽観ロックエラーが発生した場合は、待機時間を延ばしながら新しいトランザクションで再試行されること。
+     */
+    @Test
+    public void testRetryOnOptimisticLockException() {
+        final int[] count = new int[1];
+        String result = sut.execute(new ExclusiveControlRetryExecutor.Work<String>() {
+            public String execute(AppDbConnection connection) {
+                if (++count[0] < 3) {
+                    throw createOptimisticLockException("EXCLUSIVE_USER_MST");
+                }
+                return "success";
+            }
+        });
+        assertThat(result, is("success"));
+        assertThat(sleeps, is(Arrays.asList(10L, 20L)));
+        assertThat(calls, is(Arrays.asList("begin", "rollback", "begin", "rollback", "begin", "commit")));
+
+        InMemoryExclusiveControlMetrics.Statistics statistics
+                = metrics.getStatistics("EXCLUSIVE_USER_MST", ExclusiveControlOperation.RETRY);
+        assertThat(statistics.getCount(), is(1L));
+        assertThat(statistics.getRowCount(), is(3L));
+        assertThat(statistics.getConflictCount(), is(2L));
+    }
+
+    /**
+     * テーブルごとのポリシーの最大試行回数に達した場合は、最後に発生した例外が送出されること。
+     */
+    @Test
+    public void testTablePolicyExhausted() {
+        final OptimisticLockException[] last = new OptimisticLockException[1];
+        try {
+            sut.execute(new ExclusiveControlRetryExecutor.Work<Void>() {
+                public Void execute(AppDbConnection connection) {
+                    last[0] = createOptimisticLockException("EXCLUSIVE_STOCK");
+                    throw last[0];
+                }
+            });
+            fail();
+        } catch (OptimisticLockException e) {
+            assertThat(e, is(sameInstance(last[0])));
+        }
+        assertThat(sleeps, is(Arrays.asList(1L, 2L, 4L)));
+        InMemoryExclusiveControlMetrics.Statistics statistics
+                = metrics.getStatistics("EXCLUSIVE_STOCK", ExclusiveControlOperation.RETRY);
+        assertThat(statistics.getRowCount(), is(4L));
+        assertThat(statistics.getConflictCount(), is(4L));
+    }
+
+    /**
+     * 再試行対象のSQLStateの場合は再試行され、それ以外の場合は再試行されないこと。
+     */
+    @Test
+    public void testRetryOnSqlState() {
+        final int[] count = new int[1];
+        sut.execute(new ExclusiveControlRetryExecutor.Work<Void>() {
+            public Void execute(AppDbConnection connection) {
+                if (++count[0] == 1) {
+                    throw new DbAccessException("deadlock", new SQLException("deadlock", "40P01"));
+                }
+                return null;
+            }
+        });
+        assertThat(count[0], is(2));
+        assertThat(metrics.getStatistics(ExclusiveControlRetryExecutor.ANY_TABLE_NAME, ExclusiveControlOperation.RETRY)
+                          .getRowCount(), is(2L));
+
+        count[0] = 0;
+        try {
+            sut.execute(new ExclusiveControlRetryExecutor.Work<Void>() {
+                public Void execute(AppDbConnection connection) {
+                    count[0]++;
+                    throw new DbAccessException("duplicate", new SQLException("duplicate", "23505"));
+                }
+            });
+            fail();
+        } catch (DbAccessException e) {
+            assertThat(e.getSQLState(), is("23505"));
+        }
+        assertThat(count[0], is(1));
+    }
+
+    /**
+     * 待機時間は上限を超えず、ゆらぎの割合の範囲に収まること。
+     */
+    @Test
+    public void testBackoffMillis() {
+        ExclusiveControlRetryPolicy policy = new ExclusiveControlRetryPolicy();
+        policy.setInitialBackoffMillis(100);
+        policy.setMaxBackoffMillis(300);
+        policy.setJitter(0.5);
+        Random random = new Random(1);
+        for (int i = 0; i < 100; i++) {
+            long first = policy.getBackoffMillis(1, random);
+            assertThat(first >= 50 && first <= 100, is(true));
+            long capped = policy.getBackoffMillis(10, random);
+            assertThat(capped >= 150 && capped <= 300, is(true));
+        }
+    }
+
+    /**
+     * テーブル名のないポリシーをテーブルごとのポリシーに設定した場合は例外が送出されること。
+     */
+    @Test
+    public void testTableRetryPolicyWithoutTableName() {
+        try {
+            sut.setTableRetryPolicies(Arrays.asList(new ExclusiveControlRetryPolicy()));
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), is("table name of retry policy must be set."));
+        }
+    }
+
+    /**
+     * 楽観ロックエラーを作成する。
+     * @param tableName 排他制御用テーブルのテーブル名
+     * @return 楽観ロックエラー
+     */
+    private static OptimisticLockException createOptimisticLockException(String tableName) {
+        Version version = new Version(tableName, "VERSION", "1", Collections.<String, Object>emptyMap());
+        return new OptimisticLockException(Arrays.asList(version), null);
+    }
+}
@@ -0,0 +1,100 @@
+package nablarch.common.exclusivecontrol;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * {@link ExclusiveControlTableSharding}テスト。
+ */
+public class ExclusiveControlTableShardingTest {
+
+    /**
+     * シャードの番号は主キーの変数名の順序や値の型によらず同じとなり、全てのシャードに振り分けられること。
+     */
+    @Test
+    public void testGetShardIndex() {
+
+        ExclusiveControlTableSharding sut = new ExclusiveControlTableSharding();
+        sut.setTableName("EXCLUSIVE_USER_MST");
+        sut.setShardCount(4);
+
+        Map<String, Object> condition1 = new LinkedHashMap<String, Object>();
+        condition1.put("USER_ID", "user001");
+        condition1.put("PK2", 10);
+        Map<String, Object> condition2 = new LinkedHashMap<String, Object>();
+        condition2.put("PK2", new BigDecimal("10"));
+        condition2.put("USER_ID", "user001   ");
+        assertThat(sut.getShardIndex(condition2), is(sut.getShardIndex(condition1)));
+
+        Set<Integer> indexes = new HashSet<Integer>();
+        for (int i = 0; i < 100; i++) {
+            Map<String, Object> condition = new HashMap<String, Object>();
+            condition.put("USER_ID", "user" + i);
+            int index = sut.getShardIndex(condition);
+            assertTrue(0 <= index && index < 4);
+            indexes.add(index);
+        }
+        assertThat(indexes.size(), is(4));
+    }
+
+    /**
+     * シャードのテーブル名とデータベース接続名が取得できること。
+     */
+    @Test
+    public void testGetShardTableNameAndConnectionName() {
+
+        ExclusiveControlTableSharding sut = new ExclusiveControlTableSharding();
+        sut.setTableName("EXCLUSIVE_USER_MST");
+        sut.setShardCount(3);
+        assertThat(sut.getShardTableName(0), is("EXCLUSIVE_USER_MST_0"));
+        assertThat(sut.getConnectionName(2), is("transaction"));
+
+        sut.setTableNameFormat("%s_SHARD%02d");
+        sut.setConnectionNames(Arrays.asList("transaction", "shard1"));
+        assertThat(sut.getShardTableName(2), is("EXCLUSIVE_USER_MST_SHARD02"));
+        assertThat(sut.getConnectionName(0), is("transaction"));
+        assertThat(sut.getConnectionName(1), is("shard1"));
+        assertThat(sut.getConnectionName(2), is("transaction"));
+    }
+
+    /**
+     * シャードの数が1未満の場合は例外が送出されること。
+     */
+    @Test
+    public void testInvalidShardCount() {
+        try {
+            new ExclusiveControlTableSharding().setShardCount(0);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), is("shardCount must be greater than 0. shardCount = [0]"));
+        }
+    }
+
+    /**
+     * 同じテーブル名のシャーディング定義を重複して設定した場合は例外が送出されること。
+     */
+    @Test
+    public void testDuplicateTableSharding() {
+        ExclusiveControlTableSharding sharding = new ExclusiveControlTableSharding();
+        sharding.setTableName("EXCLUSIVE_USER_MST");
+        sharding.setShardCount(2);
+        try {
+            new BasicExclusiveControlManager().setTableShardings(Arrays.asList(sharding, sharding));
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), is("duplicate table sharding. table name = [EXCLUSIVE_USER_MST]"));
+        }
+    }
+}
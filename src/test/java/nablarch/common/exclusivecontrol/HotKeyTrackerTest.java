@@ -0,0 +1,171 @@
+package nablarch.common.exclusivecontrol;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import nablarch.common.exclusivecontrol.HotKeyTracker.HotKey;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * {@link HotKeyTracker}テスト。
+ */
+public class HotKeyTrackerTest {
+
+    /** 現在時刻 */
+    private long now;
+
+    private HotKeyTracker tracker;
+
+    @Before
+    public void setUp() {
+        now = 1000000L;
+        tracker = new HotKeyTracker() {
+            @Override
+            protected long currentTimeMillis() {
+                return now;
+            }
+        };
+        tracker.setWindowSeconds(60);
+        tracker.setSliceCount(6);
+        tracker.setTopKeyCount(3);
+    }
+
+    /**
+     * 楽観ロックエラーの件数が多い順に取得できること。
+     */
+    @Test
+    public void testHotKeys() {
+
+        assertThat(tracker.getHotKeys().isEmpty(), is(true));
+        assertThat(tracker.getConflictCount(), is(0L));
+
+        record("com001", 10);
+        record("com002", 30);
+        record("com003", 20);
+        record("com004", 1);
+        tracker.onOptimisticLockError(Arrays.asList(version("OTHER_MST", "com001")));
+
+        List<HotKey> hotKeys = tracker.getHotKeys();
+        assertThat(hotKeys.size(), is(3));
+        assertThat(hotKeys.get(0).getTableName(), is("EXCLUSIVE_COMP_MST"));
+        assertThat(hotKeys.get(0).getPrimaryKeyCondition().get("comp_id").toString(), is("com002"));
+        assertThat(hotKeys.get(0).getConflictCount(), is(30L));
+        assertThat(hotKeys.get(0).getConflictRate(), is(0.5));
+        assertThat(hotKeys.get(1).getPrimaryKeyCondition().get("comp_id").toString(), is("com003"));
+        assertThat(hotKeys.get(1).getConflictCount(), is(20L));
+        assertThat(hotKeys.get(2).getPrimaryKeyCondition().get("comp_id").toString(), is("com001"));
+        assertThat(hotKeys.get(2).getConflictCount(), is(10L));
+        assertThat(hotKeys.get(0).toString(), is("tableName = [EXCLUSIVE_COMP_MST], primaryKeyCondition = {comp_id=com002}, conflictCount = [30]"));
+
+        assertThat(tracker.getConflictCount(), is(62L));
+        assertThat(tracker.getConflictRate(), is(62.0 / 60));
+
+        tracker.clear();
+        assertThat(tracker.getHotKeys().isEmpty(), is(true));
+        assertThat(tracker.getConflictCount(), is(0L));
+    }
+
+    /**
+     * ウィンドウから外れた楽観ロックエラーが数えられないこと。
+     */
+    @Test
+    public void testSlidingWindow() {
+
+        record("com001", 10);
+        now += 30000L;
+        record("com002", 5);
+        record("com001", 1);
+
+        List<HotKey> hotKeys = tracker.getHotKeys();
+        assertThat(hotKeys.get(0).getPrimaryKeyCondition().get("comp_id").toString(), is("com001"));
+        assertThat(hotKeys.get(0).getConflictCount(), is(11L));
+        assertThat(tracker.getConflictCount(), is(16L));
+
+        // 最初の区間がウィンドウから外れる。
+        now += 30000L;
+        hotKeys = tracker.getHotKeys();
+        assertThat(hotKeys.get(0).getPrimaryKeyCondition().get("comp_id").toString(), is("com002"));
+        assertThat(hotKeys.get(0).getConflictCount(), is(5L));
+        assertThat(hotKeys.get(1).getConflictCount(), is(1L));
+        assertThat(tracker.getConflictCount(), is(6L));
+
+        // 区間が再利用された場合は、古い件数が破棄されること。
+        now += 60000L;
+        record("com003", 2);
+        hotKeys = tracker.getHotKeys();
+        assertThat(hotKeys.size(), is(1));
+        assertThat(hotKeys.get(0).getPrimaryKeyCondition().get("comp_id").toString(), is("com003"));
+        assertThat(hotKeys.get(0).getConflictCount(), is(2L));
+        assertThat(tracker.getConflictCount(), is(2L));
+    }
+
+    /**
+     * 多数の行で楽観ロックエラーが発生しても、件数の多い行が残ること。
+     */
+    @Test
+    public void testManyKeys() {
+
+        record("hot001", 50);
+        for (int i = 0; i < 1000; i++) {
+            record("cold" + i, 1);
+        }
+        record("hot002", 40);
+
+        List<HotKey> hotKeys = tracker.getHotKeys();
+        assertThat(hotKeys.size(), is(3));
+        assertThat(hotKeys.get(0).getPrimaryKeyCondition().get("comp_id").toString(), is("hot001"));
+        assertThat(hotKeys.get(0).getConflictCount() >= 50L, is(true));
+        assertThat(hotKeys.get(1).getPrimaryKeyCondition().get("comp_id").toString(), is("hot002"));
+        assertThat(hotKeys.get(1).getConflictCount() >= 40L, is(true));
+    }
+
+    /**
+     * 複数のスレッドから同時に通知しても、件数が失われないこと。
+     */
+    @Test
+    public void testConcurrentRecord() throws Exception {
+
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 8; i++) {
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 1000; j++) {
+                        tracker.onOptimisticLockError(Arrays.asList(version("EXCLUSIVE_COMP_MST", "com00" + (j % 5))));
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertThat(tracker.getConflictCount(), is(8000L));
+        for (HotKey hotKey : tracker.getHotKeys()) {
+            assertThat(hotKey.getConflictCount() >= 1600L, is(true));
+        }
+    }
+
+    private void record(String compId, int count) {
+        for (int i = 0; i < count; i++) {
+            tracker.onOptimisticLockError(Arrays.asList(version("EXCLUSIVE_COMP_MST", compId)));
+        }
+    }
+
+    private static Version version(String tableName, String compId) {
+        Map<String, Object> condition = new HashMap<String, Object>();
+        condition.put("comp_id", compId);
+        return new Version(tableName, "VERSION", "1", condition);
+    }
+}
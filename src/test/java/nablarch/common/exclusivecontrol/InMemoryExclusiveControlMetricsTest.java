@@ -0,0 +1,163 @@
+package nablarch.common.exclusivecontrol;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import nablarch.common.exclusivecontrol.InMemoryExclusiveControlMetrics.Statistics;
+
+import org.junit.Test;
+
+/**
+ * {@link InMemoryExclusiveControlMetrics}テスト。
+ */
+public class InMemoryExclusiveControlMetricsTest {
+
+    /**
+     * テーブルと操作の組み合わせごとに集計されること。
+     */
+    @Test
+    public void testRecord() {
+
+        InMemoryExclusiveControlMetrics metrics = new InMemoryExclusiveControlMetrics();
+        metrics.record("TABLE_A", ExclusiveControlOperation.CHECK_VERSIONS, 100L, 1, 0);
+        metrics.record("TABLE_A", ExclusiveControlOperation.CHECK_VERSIONS, 3000L, 10, 2);
+        metrics.record("TABLE_A", ExclusiveControlOperation.GET_VERSION, 50L, 1, 0);
+        metrics.record("TABLE_B", ExclusiveControlOperation.CHECK_VERSIONS, 70L, 3, 1);
+
+        Statistics statistics = metrics.getStatistics("TABLE_A", ExclusiveControlOperation.CHECK_VERSIONS);
+        assertThat(statistics.getCount(), is(2L));
+        assertThat(statistics.getTotalElapsedNanos(), is(3100L));
+        assertThat(statistics.getMaxElapsedNanos(), is(3000L));
+        assertThat(statistics.getRowCount(), is(11L));
+        assertThat(statistics.getConflictCount(), is(2L));
+        assertThat(statistics.toString(), is("count = [2], totalElapsedNanos = [3100], maxElapsedNanos = [3000], rowCount = [11], conflictCount = [2]"));
+
+        statistics = metrics.getStatistics("TABLE_A", ExclusiveControlOperation.GET_VERSION);
+        assertThat(statistics.getCount(), is(1L));
+        assertThat(statistics.getRowCount(), is(1L));
+
+        statistics = metrics.getStatistics("TABLE_B", ExclusiveControlOperation.CHECK_VERSIONS);
+        assertThat(statistics.getCount(), is(1L));
+        assertThat(statistics.getConflictCount(), is(1L));
+
+        // 記録がない場合
+        assertThat(metrics.getStatistics("TABLE_B", ExclusiveControlOperation.ADD_VERSION).getCount(), is(0L));
+        assertThat(metrics.getStatistics("TABLE_C", ExclusiveControlOperation.ADD_VERSION).getCount(), is(0L));
+        assertThat(metrics.getStatistics("TABLE_C", ExclusiveControlOperation.ADD_VERSION).getElapsedNanosPercentile(99), is(0L));
+
+        assertThat(metrics.getTableNames().size(), is(2));
+        assertThat(metrics.getTableNames().contains("TABLE_A"), is(true));
+        assertThat(metrics.getTableNames().contains("TABLE_B"), is(true));
+
+        metrics.clear();
+        assertThat(metrics.getTableNames().isEmpty(), is(true));
+        assertThat(metrics.getStatistics("TABLE_A", ExclusiveControlOperation.CHECK_VERSIONS).getCount(), is(0L));
+    }
+
+    /**
+     * 2のべき乗ごとのヒストグラムで集計され、パーセンタイル値がバケットの上限値となること。
+     */
+    @Test
+    public void testHistogram() {
+
+        InMemoryExclusiveControlMetrics metrics = new InMemoryExclusiveControlMetrics();
+        for (int i = 0; i < 90; i++) {
+            metrics.record("TABLE_A", ExclusiveControlOperation.UPDATE_VERSIONS_WITH_CHECK, 100L, 1, 0);
+        }
+        for (int i = 0; i < 10; i++) {
+            metrics.record("TABLE_A", ExclusiveControlOperation.UPDATE_VERSIONS_WITH_CHECK, 5000L, 100, 0);
+        }
+
+        Statistics statistics = metrics.getStatistics("TABLE_A", ExclusiveControlOperation.UPDATE_VERSIONS_WITH_CHECK);
+        long[] histogram = statistics.getElapsedNanosHistogram();
+        assertThat(histogram.length, is(65));
+        assertThat(histogram[7], is(90L));  // 64 - 127
+        assertThat(histogram[13], is(10L)); // 4096 - 8191
+        assertThat(statistics.getElapsedNanosPercentile(50), is(127L));
+        assertThat(statistics.getElapsedNanosPercentile(90), is(127L));
+        assertThat(statistics.getElapsedNanosPercentile(91), is(8191L));
+        assertThat(statistics.getElapsedNanosPercentile(100), is(8191L));
+
+        long[] rowCountHistogram = statistics.getRowCountHistogram();
+        assertThat(rowCountHistogram[1], is(90L));  // 1
+        assertThat(rowCountHistogram[7], is(10L));  // 64 - 127
+        assertThat(statistics.getRowCountPercentile(50), is(1L));
+        assertThat(statistics.getRowCountPercentile(99), is(127L));
+
+        // 取得したヒストグラムを変更しても集計結果は変わらないこと。
+        histogram[7] = 0;
+        assertThat(statistics.getElapsedNanosHistogram()[7], is(90L));
+
+        try {
+            statistics.getElapsedNanosPercentile(0);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), containsString("percentile = [0.0]"));
+        }
+        try {
+            statistics.getRowCountPercentile(100.1);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), containsString("percentile = [100.1]"));
+        }
+    }
+
+    /**
+     * バケットの添字と上限値が算出できること。
+     */
+    @Test
+    public void testBucket() {
+        assertThat(InMemoryExclusiveControlMetrics.bucketIndex(-1L), is(0));
+        assertThat(InMemoryExclusiveControlMetrics.bucketIndex(0L), is(0));
+        assertThat(InMemoryExclusiveControlMetrics.bucketIndex(1L), is(1));
+        assertThat(InMemoryExclusiveControlMetrics.bucketIndex(2L), is(2));
+        assertThat(InMemoryExclusiveControlMetrics.bucketIndex(3L), is(2));
+        assertThat(InMemoryExclusiveControlMetrics.bucketIndex(4L), is(3));
+        assertThat(InMemoryExclusiveControlMetrics.bucketIndex(Long.MAX_VALUE), is(63));
+
+        assertThat(InMemoryExclusiveControlMetrics.bucketUpperBound(0), is(0L));
+        assertThat(InMemoryExclusiveControlMetrics.bucketUpperBound(1), is(1L));
+        assertThat(InMemoryExclusiveControlMetrics.bucketUpperBound(2), is(3L));
+        assertThat(InMemoryExclusiveControlMetrics.bucketUpperBound(63), is(Long.MAX_VALUE));
+        assertThat(InMemoryExclusiveControlMetrics.bucketUpperBound(64), is(Long.MAX_VALUE));
+    }
+
+    /**
+     * 複数のスレッドから同時に記録しても、記録が失われないこと。
+     */
+    @Test
+    public void testConcurrentRecord() throws Exception {
+
+        final InMemoryExclusiveControlMetrics metrics = new InMemoryExclusiveControlMetrics();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 8; i++) {
+            final long elapsedNanos = i + 1;
+            threads.add(new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 10000; j++) {
+                        metrics.record("TABLE_" + (j % 4), ExclusiveControlOperation.GET_VERSION, elapsedNanos, 1, 0);
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        long count = 0;
+        for (String tableName : metrics.getTableNames()) {
+            Statistics statistics = metrics.getStatistics(tableName, ExclusiveControlOperation.GET_VERSION);
+            count += statistics.getCount();
+            assertThat(statistics.getMaxElapsedNanos(), is(8L));
+        }
+        assertThat(count, is(80000L));
+    }
+}
@@ -0,0 +1,117 @@
+package nablarch.common.exclusivecontrol;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import nablarch.core.transaction.Transaction;
+import nablarch.core.transaction.TransactionFactory;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * {@link ListenableTransactionFactory}テスト。
+ */
+public class ListenableTransactionFactoryTest {
+
+    /** 呼び出し履歴 */
+    private final List<String> calls = new ArrayList<String>();
+
+    /** コミット時に例外を送出するか否か */
+    private boolean commitFailure;
+
+    private Transaction transaction;
+
+    @Before
+    public void setUp() {
+        ListenableTransactionFactory factory = new ListenableTransactionFactory();
+        factory.setTransactionFactory(new TransactionFactory() {
+            public Transaction getTransaction(String connectionName) {
+                return new Transaction() {
+                    public void begin() {
+                        calls.add("begin");
+                    }
+                    public void commit() {
+                        if (commitFailure) {
+                            throw new IllegalStateException("commit failure");
+                        }
+                        calls.add("commit");
+                    }
+                    public void rollback() {
+                        calls.add("rollback");
+                    }
+                };
+            }
+        });
+        factory.setListeners(Arrays.<TransactionListener>asList(new RecordingListener("l1"), new RecordingListener("l2")));
+        transaction = factory.getTransaction("tran");
+    }
+
+    /**
+     * コミットの前後に通知されること。
+     */
+    @Test
+    public void testCommit() {
+        transaction.begin();
+        transaction.commit();
+        assertThat(calls, is(Arrays.asList("begin",
+                                           "l1.beforeCommit(tran)", "l2.beforeCommit(tran)",
+                                           "commit",
+                                           "l1.afterCompletion(tran, true)", "l2.afterCompletion(tran, true)")));
+    }
+
+    /**
+     * ロールバック後に通知されること。
+     */
+    @Test
+    public void testRollback() {
+        transaction.begin();
+        transaction.rollback();
+        assertThat(calls, is(Arrays.asList("begin",
+                                           "rollback",
+                                           "l1.afterCompletion(tran, false)", "l2.afterCompletion(tran, false)")));
+    }
+
+    /**
+     * コミットに失敗した場合は、コミットされていないものとして通知されること。
+     */
+    @Test
+    public void testCommitFailure() {
+        commitFailure = true;
+        transaction.begin();
+        try {
+            transaction.commit();
+            fail();
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), is("commit failure"));
+        }
+        assertThat(calls, is(Arrays.asList("begin",
+                                           "l1.beforeCommit(tran)", "l2.beforeCommit(tran)",
+                                           "l1.afterCompletion(tran, false)", "l2.afterCompletion(tran, false)")));
+    }
+
+    /**
+     * 呼び出しを記録する{@link TransactionListener}。
+     */
+    private class RecordingListener implements TransactionListener {
+
+        private final String name;
+
+        RecordingListener(String name) {
+            this.name = name;
+        }
+
+        public void beforeCommit(String transactionName) {
+            calls.add(name + ".beforeCommit(" + transactionName + ")");
+        }
+
+        public void afterCompletion(String transactionName, boolean committed) {
+            calls.add(name + ".afterCompletion(" + transactionName + ", " + committed + ")");
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package nablarch.common.exclusivecontrol;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import nablarch.core.db.statement.SqlPStatement;
+
+import org.junit.Test;
+
+/**
+ * {@link PositionalSql}テスト。
+ */
+public class PositionalSqlTest {
+
+    /**
+     * 名前付きバインド変数が位置指定のバインド変数に変換され、
+     * バインドプランに従って値が並べられること。
+     */
+    @Test
+    public void testConvert() {
+
+        PositionalSql sql = new PositionalSql(
+                "UPDATE EXCLUSIVE_USER_MST SET VERSION = VERSION + 1 WHERE USER_ID = :user_id AND PK2 = :pk2 AND VERSION = :version",
+                "VERSION");
+
+        assertThat(sql.getSql(),
+                   is("UPDATE EXCLUSIVE_USER_MST SET VERSION = VERSION + 1 WHERE USER_ID = ? AND PK2 = ? AND VERSION = ?"));
+        assertThat(sql.getParameterCount(), is(3));
+        assertThat(sql.toString(), is(sql.getSql()));
+
+        Map<String, Object> condition = new HashMap<String, Object>();
+        condition.put("pk2", "pk2-value");
+        condition.put("user_id", "user-value");
+
+        List<String> calls = new ArrayList<String>();
+        sql.bind(createStatement(calls), condition, 5L);
+        assertThat(calls, is(Arrays.asList("setObject[1, user-value]", "setObject[2, pk2-value]", "setLong[3, 5]")));
+
+        // バージョン番号を使用しないSQL文
+        PositionalSql deleteSql = new PositionalSql("DELETE FROM EXCLUSIVE_USER_MST WHERE USER_ID = :user_id", "VERSION");
+        assertThat(deleteSql.getSql(), is("DELETE FROM EXCLUSIVE_USER_MST WHERE USER_ID = ?"));
+        calls.clear();
+        deleteSql.bind(createStatement(calls), condition, null);
+        assertThat(calls, is(Arrays.asList("setObject[1, user-value]")));
+    }
+
+    /**
+     * 文字列リテラル内とキャスト演算子("::")はバインド変数として扱われないこと。
+     */
+    @Test
+    public void testLiteralAndCast() {
+
+        PositionalSql sql = new PositionalSql(
+                "SELECT VERSION FROM T WHERE NAME = ':not_param' AND ID = :id::VARCHAR AND CODE=:code", "VERSION");
+
+        assertThat(sql.getSql(), is("SELECT VERSION FROM T WHERE NAME = ':not_param' AND ID = ?::VARCHAR AND CODE=?"));
+        assertThat(sql.getParameterCount(), is(2));
+
+        Map<String, Object> condition = new HashMap<String, Object>();
+        condition.put("id", 1);
+        condition.put("code", "A");
+        List<String> calls = new ArrayList<String>();
+        sql.bind(createStatement(calls), condition, null);
+        assertThat(calls, is(Arrays.asList("setObject[1, 1]", "setObject[2, A]")));
+    }
+
+    /**
+     * バッチ実行する行のバージョン番号が{@link SqlPStatement#setLong(int, long)}で設定されること。
+     */
+    @Test
+    public void testBatchRows() {
+
+        PositionalSql sql = new PositionalSql(
+                "UPDATE EXCLUSIVE_COMP_MST SET VERSION = VERSION + 1 WHERE COMP_ID = :comp_id AND VERSION = :version",
+                "VERSION");
+        PositionalSql.BatchRows rows = sql.createBatchRows(1);
+        for (int i = 0; i < 3; i++) {
+            Map<String, Object> condition = new HashMap<String, Object>();
+            condition.put("comp_id", "comp" + i);
+            rows.add(condition, i + 10L);
+        }
+        assertThat(rows.size(), is(3));
+
+        List<String> calls = new ArrayList<String>();
+        rows.bind(createStatement(calls), 2);
+        assertThat(calls, is(Arrays.asList("setObject[1, comp2]", "setLong[2, 12]")));
+    }
+
+    /**
+     * 呼び出されたメソッドと引数を記録するステートメントを作成する。
+     * @param calls メソッドと引数を記録するリスト
+     * @return ステートメント
+     */
+    private SqlPStatement createStatement(final List<String> calls) {
+        return (SqlPStatement) Proxy.newProxyInstance(
+                getClass().getClassLoader(), new Class<?>[] {SqlPStatement.class}, new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        calls.add(method.getName() + Arrays.asList(args));
+                        return null;
+                    }
+                });
+    }
+}
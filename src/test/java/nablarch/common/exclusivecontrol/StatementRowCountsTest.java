@@ -0,0 +1,68 @@
+package nablarch.common.exclusivecontrol;
+
+import static org.hamcrest.CoreMatchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+/**
+ * {@link StatementRowCounts}テスト。
+ */
+public class StatementRowCountsTest {
+
+    /**
+     * 複数行をまとめて扱うSQL文の行数が区切りに切り上げられること。
+     */
+    @Test
+    public void testStatementRowCount() {
+
+        StatementRowCounts sut = new StatementRowCounts();
+
+        // デフォルトの区切り(1, 4, 16, 64, 256)と最大行数(100)
+        assertThat(sut.getRowsPerStatement(), is(100));
+        assertThat(sut.getStatementRowCount(1), is(1));
+        assertThat(sut.getStatementRowCount(2), is(4));
+        assertThat(sut.getStatementRowCount(5), is(16));
+        assertThat(sut.getStatementRowCount(64), is(64));
+        assertThat(sut.getStatementRowCount(65), is(100));
+
+        sut.setMaxRowsPerStatement(1000);
+        assertThat(sut.getRowsPerStatement(), is(256));
+        assertThat(sut.getStatementRowCount(200), is(256));
+
+        sut.setRowCountBuckets(Arrays.asList(10, 2));
+        assertThat(sut.getRowsPerStatement(), is(10));
+        assertThat(sut.getStatementRowCount(1), is(2));
+        assertThat(sut.getStatementRowCount(3), is(10));
+
+        // 区切りを指定しない場合は切り上げない
+        sut.setRowCountBuckets(Collections.<Integer>emptyList());
+        assertThat(sut.getRowsPerStatement(), is(1000));
+        assertThat(sut.getStatementRowCount(3), is(3));
+    }
+
+    /**
+     * 1未満の値を設定した場合は例外が送出されること。
+     */
+    @Test
+    public void testInvalidSettings() {
+
+        StatementRowCounts sut = new StatementRowCounts();
+        try {
+            sut.setRowCountBuckets(Arrays.asList(0, 4));
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), is("rowCountBuckets must be greater than 0. rowCountBuckets = [0, 4]"));
+        }
+        try {
+            sut.setMaxRowsPerStatement(0);
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertThat(e.getMessage(), is("maxRowsPerStatement must be greater than 0. maxRowsPerStatement = [0]"));
+        }
+    }
+}